@@ -0,0 +1,272 @@
+package rafalk42.api;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.LoggerFactory;
+import rafalk42.api.accesslog.AccessLog;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+
+/**
+ * The same HTTP REST API as BankHttpRestApi (same routes, same responses), served by a plain Jetty server using
+ * asynchronous request handling. A worker thread only parses the request and hands it over to the JSON API,
+ * it does not wait for the bank. When the response is ready, it is written by whichever worker thread is free
+ * at the moment. This way a handful of threads can keep thousands of requests in flight, as long as the bank
+ * underneath is asynchronous (or queues the work for its own threads, see AsyncBankAdapter).
+ * Spark, which is used by BankHttpRestApi, can't do that, a route always has to return the response.
+ */
+public class BankHttpAsyncRestApi
+{
+	private final org.slf4j.Logger log = LoggerFactory.getLogger(BankHttpAsyncRestApi.class);
+	private final BankJsonApi bankJsonApi;
+	private final BankHttpRouter router;
+	private final int maximumThreadCount;
+	private final AccessLog accessLog;
+	private QueuedThreadPool threadPool;
+	
+	/**
+	 * @param bankJsonApi        JSON API to serve
+	 * @param maximumThreadCount maximum number of Jetty threads, these are needed only for the network
+	 *                           and the JSON work, never for waiting on the bank
+	 */
+	public BankHttpAsyncRestApi(BankJsonApi bankJsonApi, int maximumThreadCount)
+	{
+		this(bankJsonApi, maximumThreadCount, null);
+	}
+	
+	/**
+	 * @param bankJsonApi        JSON API to serve
+	 * @param maximumThreadCount maximum number of Jetty threads, these are needed only for the network
+	 *                           and the JSON work, never for waiting on the bank
+	 * @param accessLog          log to record the requests in, null for none
+	 */
+	public BankHttpAsyncRestApi(BankJsonApi bankJsonApi, int maximumThreadCount, AccessLog accessLog)
+	{
+		this.bankJsonApi = bankJsonApi;
+		this.router = new BankHttpRouter(bankJsonApi);
+		this.maximumThreadCount = maximumThreadCount;
+		this.accessLog = accessLog;
+	}
+	
+	public void start(String listenAddress, int listenPort)
+			throws Exception
+	{
+		log.info("Starting asynchronous HTTP server");
+		
+		threadPool = new QueuedThreadPool(maximumThreadCount);
+		threadPool.setName("bank-http");
+		
+		Server server = new Server(threadPool);
+		
+		ServerConnector connector = new ServerConnector(server);
+		connector.setHost(listenAddress);
+		connector.setPort(listenPort);
+		server.addConnector(connector);
+		
+		server.setHandler(new BankHandler());
+		
+		if (accessLog != null)
+		{
+			server.setRequestLog(new JettyAccessLog(accessLog));
+		}
+		
+		server.start();
+		
+		log.info("Asynchronous HTTP server ready");
+	}
+	
+	private class BankHandler
+			extends AbstractHandler
+	{
+		@Override
+		public void handle(String target, Request baseRequest, HttpServletRequest request,
+						   HttpServletResponse response)
+				throws IOException
+		{
+			baseRequest.setHandled(true);
+			
+			ServletRequest routedRequest = new ServletRequest(request);
+			
+			if (router.isAccountsListStream(routedRequest))
+			{
+				writeAccountsListStream(response);
+				return;
+			}
+			
+			String historyAccountId = router.getAccountHistoryStreamId(routedRequest);
+			if (historyAccountId != null)
+			{
+				writeAccountHistoryStream(request, response, historyAccountId);
+				return;
+			}
+			
+			CompletableFuture<?> result = router.route(routedRequest);
+			
+			// Blocking banks answer right away, no need to go asynchronous then.
+			if (result.isDone())
+			{
+				writeResponse(response, result);
+				return;
+			}
+			
+			AsyncContext asyncContext = request.startAsync();
+			asyncContext.setTimeout(0);
+			
+			result.whenComplete((ignored, ex) -> threadPool.execute(() ->
+																	{
+																		try
+																		{
+																			writeResponse((HttpServletResponse) asyncContext.getResponse(),
+																						  result);
+																		}
+																		catch (IOException writeError)
+																		{
+																			log.warn("Writing HTTP response failed", writeError);
+																		}
+																		finally
+																		{
+																			asyncContext.complete();
+																		}
+																	}));
+		}
+	}
+	
+	/**
+	 * Blocking like the account list, see BankJsonApi.accountHistoryStream.
+	 */
+	private void writeAccountHistoryStream(HttpServletRequest request, HttpServletResponse response, String id)
+			throws IOException
+	{
+		response.setStatus(HttpStatus.SUCCESS_OK.get());
+		response.setContentType("application/json");
+		
+		Exception error;
+		try
+		{
+			bankJsonApi.accountHistoryStream(id,
+											 request.getParameter("from"),
+											 request.getParameter("to"),
+											 request.getParameter("limit"),
+											 new OutputStreamWriter(response.getOutputStream(),
+																	StandardCharsets.UTF_8));
+			return;
+		}
+		catch (BankJsonApiEntityNotFound | BankJsonApiInvalidParameter | BankJsonApiInternalError ex)
+		{
+			error = ex;
+		}
+		
+		// Errors other than the bank failing in the middle of the history come before anything is written.
+		if (response.isCommitted())
+		{
+			throw new IOException("Streaming account history failed", error);
+		}
+		
+		response.resetBuffer();
+		response.setStatus(BankHttpRouter.getErrorStatus(error).get());
+		response.getOutputStream().write(BankHttpRouter.getErrorJson(error.getMessage()).getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * One of the two blocking responses, this thread waits for the bank and for the client until the whole list is
+	 * written, see BankJsonApi.accountsListStream.
+	 */
+	private void writeAccountsListStream(HttpServletResponse response)
+			throws IOException
+	{
+		response.setStatus(HttpStatus.SUCCESS_OK.get());
+		response.setContentType("application/json");
+		
+		try
+		{
+			bankJsonApi.accountsListStream(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+		}
+		catch (BankJsonApiInternalError ex)
+		{
+			// Nothing is written before the first page is there, so the error can still be reported properly.
+			if (response.isCommitted())
+			{
+				throw new IOException("Streaming account list failed", ex);
+			}
+			
+			response.resetBuffer();
+			response.setStatus(HttpStatus.SERVER_ERROR_INTERNAL.get());
+			response.getOutputStream().write(BankHttpRouter.getErrorJson(ex.getMessage()).getBytes(StandardCharsets.UTF_8));
+		}
+	}
+	
+	private void writeResponse(HttpServletResponse response, CompletableFuture<?> result)
+			throws IOException
+	{
+		BankHttpRouter.Response routedResponse = BankHttpRouter.getResponse(result);
+		
+		response.setStatus(routedResponse.getStatus());
+		response.setContentType("application/json");
+		
+		if (routedResponse.getEntityTag() != null)
+		{
+			response.setHeader(BankJsonApi.ENTITY_TAG_HEADER, routedResponse.getEntityTag());
+		}
+		
+		if (routedResponse.getBody() != null)
+		{
+			response.getOutputStream().write(routedResponse.getBody().getBytes(StandardCharsets.UTF_8));
+		}
+	}
+	
+	/**
+	 * The servlet request, as seen by the router.
+	 */
+	private static class ServletRequest
+			implements BankHttpRouter.Request
+	{
+		private final HttpServletRequest request;
+		
+		ServletRequest(HttpServletRequest request)
+		{
+			this.request = request;
+		}
+		
+		@Override
+		public String getMethod()
+		{
+			return request.getMethod();
+		}
+		
+		@Override
+		public String getPath()
+		{
+			return request.getPathInfo();
+		}
+		
+		@Override
+		public String getParameter(String name)
+		{
+			return request.getParameter(name);
+		}
+		
+		@Override
+		public String getHeader(String name)
+		{
+			return request.getHeader(name);
+		}
+		
+		@Override
+		public String getBody()
+				throws IOException
+		{
+			return IO.toString(request.getInputStream(), StandardCharsets.UTF_8.name());
+		}
+	}
+}
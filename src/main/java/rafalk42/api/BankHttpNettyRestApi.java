@@ -0,0 +1,678 @@
+package rafalk42.api;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.LoggerFactory;
+import rafalk42.api.accesslog.AccessLog;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The same HTTP REST API as BankHttpRestApi (same routes, same responses, see BankHttpRouter), served by Netty.
+ * A handful of event loop threads, one per CPU core by default, own all the connections; a request is decoded,
+ * handed over to the JSON API and the thread moves on to the next ready connection, the response is written
+ * by the event loop of its connection once the bank completes the future.
+ * Important:
+ * 1. the event loops never wait for anything, so the bank has to be asynchronous (or queue the work for its own
+ * threads, see AsyncBankAdapter), a blocking bank would stall every connection of the event loop,
+ * 2. connections are kept alive (HTTP/1.1 unless the client asks for Connection: close, HTTP/1.0 only if it asks
+ * for keep-alive) and requests can be pipelined; the requests of a connection are handled one after another,
+ * in order, so the responses go out in the order of the requests, as pipelining requires,
+ * 3. while a request of a connection is in flight, nothing more is read from it, so a client pipelining faster
+ * than the bank answers is slowed down by TCP instead of filling the memory,
+ * 4. the unpaged account list and the history of an account block while they are written, so they run on threads
+ * of their own ("bank-http-stream"), written as chunks and waiting for the client whenever the connection
+ * can't take more,
+ * 5. request bodies are limited to MAXIMUM_CONTENT_LENGTH bytes, larger ones are answered with 413.
+ */
+public class BankHttpNettyRestApi
+{
+	private static final int MAXIMUM_CONTENT_LENGTH = 1024 * 1024;
+	private static final int STREAM_CHUNK_SIZE = 8192;
+	private static final int SHUTDOWN_TIMEOUT = 5;
+	
+	private final org.slf4j.Logger log = LoggerFactory.getLogger(BankHttpNettyRestApi.class);
+	private final BankJsonApi bankJsonApi;
+	private final BankHttpRouter router;
+	private final int eventLoopThreadCount;
+	private final AccessLog accessLog;
+	private EventLoopGroup acceptorGroup;
+	private EventLoopGroup eventLoopGroup;
+	private ExecutorService streamExecutor;
+	
+	/**
+	 * @param bankJsonApi          JSON API to serve
+	 * @param eventLoopThreadCount number of event loop threads, these are needed only for the network and the JSON
+	 *                             work, never for waiting on the bank
+	 */
+	public BankHttpNettyRestApi(BankJsonApi bankJsonApi, int eventLoopThreadCount)
+	{
+		this(bankJsonApi, eventLoopThreadCount, null);
+	}
+	
+	/**
+	 * @param bankJsonApi          JSON API to serve
+	 * @param eventLoopThreadCount number of event loop threads, these are needed only for the network and the JSON
+	 *                             work, never for waiting on the bank
+	 * @param accessLog            log to record the requests in, null for none
+	 */
+	public BankHttpNettyRestApi(BankJsonApi bankJsonApi, int eventLoopThreadCount, AccessLog accessLog)
+	{
+		if (eventLoopThreadCount < 1)
+		{
+			throw new IllegalArgumentException("Event loop thread count must be positive");
+		}
+		
+		this.bankJsonApi = bankJsonApi;
+		this.router = new BankHttpRouter(bankJsonApi);
+		this.eventLoopThreadCount = eventLoopThreadCount;
+		this.accessLog = accessLog;
+	}
+	
+	public void start(String listenAddress, int listenPort)
+			throws Exception
+	{
+		log.info("Starting Netty HTTP server");
+		
+		acceptorGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("bank-http-acceptor"));
+		eventLoopGroup = new NioEventLoopGroup(eventLoopThreadCount, new DefaultThreadFactory("bank-http"));
+		streamExecutor = Executors.newCachedThreadPool(new DefaultThreadFactory("bank-http-stream", true));
+		
+		ServerBootstrap bootstrap = new ServerBootstrap()
+				.group(acceptorGroup, eventLoopGroup)
+				.channel(NioServerSocketChannel.class)
+				.childOption(ChannelOption.TCP_NODELAY, true)
+				// Reading is driven by BankChannelHandler, one batch of requests at a time.
+				.childOption(ChannelOption.AUTO_READ, false)
+				.childHandler(new ChannelInitializer<SocketChannel>()
+				{
+					@Override
+					protected void initChannel(SocketChannel channel)
+					{
+						channel.pipeline()
+							   .addLast(new HttpServerCodec())
+							   .addLast(new HttpObjectAggregator(MAXIMUM_CONTENT_LENGTH))
+							   .addLast(new BankChannelHandler());
+					}
+				});
+		
+		bootstrap.bind(listenAddress, listenPort).sync();
+		
+		log.info("Netty HTTP server ready");
+	}
+	
+	/**
+	 * Close the listening socket and every connection, waiting for the event loops to finish.
+	 */
+	public void stop()
+	{
+		log.info("Stopping Netty HTTP server");
+		
+		// No quiet period, nothing new is coming once the listening socket is closed.
+		acceptorGroup.shutdownGracefully(0, SHUTDOWN_TIMEOUT, TimeUnit.SECONDS).syncUninterruptibly();
+		eventLoopGroup.shutdownGracefully(0, SHUTDOWN_TIMEOUT, TimeUnit.SECONDS).syncUninterruptibly();
+		streamExecutor.shutdownNow();
+	}
+	
+	/**
+	 * One per connection, every method is called by the event loop of the connection, so no synchronization is
+	 * needed for the queue of its requests.
+	 */
+	private class BankChannelHandler
+			extends ChannelInboundHandlerAdapter
+	{
+		private final Queue<FullHttpRequest> pendingRequests = new ArrayDeque<>();
+		private boolean responding = false;
+		// The request being responded to, as the access log sees it.
+		private String remoteAddress;
+		private String requestMethod;
+		private String requestPath;
+		private long requestTimestamp;
+		private long requestStartNanos;
+		
+		@Override
+		public void channelActive(ChannelHandlerContext ctx)
+		{
+			if (accessLog != null)
+			{
+				SocketAddress address = ctx.channel().remoteAddress();
+				remoteAddress = address instanceof InetSocketAddress
+						? ((InetSocketAddress) address).getAddress().getHostAddress()
+						: String.valueOf(address);
+			}
+			
+			ctx.read();
+		}
+		
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg)
+		{
+			if (!(msg instanceof FullHttpRequest))
+			{
+				ReferenceCountUtil.release(msg);
+				return;
+			}
+			
+			pendingRequests.add((FullHttpRequest) msg);
+			
+			if (!responding)
+			{
+				respondNext(ctx);
+			}
+		}
+		
+		@Override
+		public void channelReadComplete(ChannelHandlerContext ctx)
+		{
+			// Still waiting for the rest of a request, or there was nothing complete yet.
+			if (!responding
+				&& pendingRequests.isEmpty())
+			{
+				ctx.read();
+			}
+		}
+		
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx)
+		{
+			FullHttpRequest request;
+			while ((request = pendingRequests.poll()) != null)
+			{
+				request.release();
+			}
+		}
+		
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+		{
+			log.debug("HTTP connection failed", cause);
+			ctx.close();
+		}
+		
+		private void respondNext(ChannelHandlerContext ctx)
+		{
+			if (!ctx.channel().isActive())
+			{
+				return;
+			}
+			
+			FullHttpRequest request = pendingRequests.poll();
+			if (request == null)
+			{
+				responding = false;
+				ctx.read();
+				return;
+			}
+			
+			responding = true;
+			try
+			{
+				respond(ctx, request);
+			}
+			finally
+			{
+				request.release();
+			}
+		}
+		
+		private void respond(ChannelHandlerContext ctx, FullHttpRequest request)
+		{
+			beginAccessLogRecord(request);
+			
+			if (request.decoderResult().isFailure())
+			{
+				FullHttpResponse response = getFullResponse(ctx, HttpStatus.CLIENT_ERROR_BAD_REQUEST.get(), null,
+															BankHttpRouter.getErrorJson("Malformed HTTP request"),
+															false);
+				finishResponse(ctx, ctx.writeAndFlush(response), false, HttpStatus.CLIENT_ERROR_BAD_REQUEST.get());
+				return;
+			}
+			
+			boolean keepAlive = HttpUtil.isKeepAlive(request);
+			NettyRequest routedRequest = new NettyRequest(request);
+			
+			CompletableFuture<?> result;
+			try
+			{
+				if (router.isAccountsListStream(routedRequest))
+				{
+					streamExecutor.execute(() -> writeStream(ctx, keepAlive, bankJsonApi::accountsListStream));
+					return;
+				}
+				
+				String historyAccountId = router.getAccountHistoryStreamId(routedRequest);
+				if (historyAccountId != null)
+				{
+					String from = routedRequest.getParameter("from");
+					String to = routedRequest.getParameter("to");
+					String limit = routedRequest.getParameter("limit");
+					
+					streamExecutor.execute(() -> writeStream(ctx, keepAlive,
+															 writer -> bankJsonApi.accountHistoryStream(historyAccountId,
+																										from,
+																										to,
+																										limit,
+																										writer)));
+					return;
+				}
+				
+				result = router.route(routedRequest);
+			}
+			catch (IOException | IllegalArgumentException ex)
+			{
+				// The path could not be decoded.
+				FullHttpResponse response = getFullResponse(ctx, HttpStatus.CLIENT_ERROR_BAD_REQUEST.get(), null,
+															BankHttpRouter.getErrorJson(ex.getMessage()),
+															keepAlive);
+				finishResponse(ctx, ctx.writeAndFlush(response), keepAlive, HttpStatus.CLIENT_ERROR_BAD_REQUEST.get());
+				return;
+			}
+			
+			// Blocking banks answer right away, no need to come back later then.
+			if (result.isDone())
+			{
+				writeResponse(ctx, keepAlive, result);
+				return;
+			}
+			
+			result.whenComplete((ignored, ex) -> ctx.executor().execute(() -> writeResponse(ctx, keepAlive, result)));
+		}
+		
+		private void writeResponse(ChannelHandlerContext ctx, boolean keepAlive, CompletableFuture<?> result)
+		{
+			BankHttpRouter.Response routedResponse = BankHttpRouter.getResponse(result);
+			FullHttpResponse response = getFullResponse(ctx,
+														routedResponse.getStatus(),
+														routedResponse.getEntityTag(),
+														routedResponse.getBody(),
+														keepAlive);
+			
+			finishResponse(ctx, ctx.writeAndFlush(response), keepAlive, routedResponse.getStatus());
+		}
+		
+		/**
+		 * Move on to the next request of the connection, once the response to the current one is on its way.
+		 * Called by the event loop.
+		 *
+		 * @param written future of the last write of the response
+		 * @param status  status of the response
+		 */
+		private void finishResponse(ChannelHandlerContext ctx, ChannelFuture written, boolean keepAlive, int status)
+		{
+			endAccessLogRecord(status);
+			
+			if (!keepAlive)
+			{
+				written.addListener(ChannelFutureListener.CLOSE);
+				return;
+			}
+			
+			// A client that doesn't read its responses gets no more of them until it does.
+			if (ctx.channel().isWritable())
+			{
+				respondNext(ctx);
+			}
+			else
+			{
+				written.addListener(ignored -> respondNext(ctx));
+			}
+		}
+		
+		/**
+		 * Called by a stream thread, it blocks until the whole response is written.
+		 */
+		private void writeStream(ChannelHandlerContext ctx, boolean keepAlive, JsonStream stream)
+		{
+			ChunkedOutput output = new ChunkedOutput(ctx, keepAlive);
+			
+			int status = HttpStatus.SUCCESS_OK.get();
+			ChannelFuture written;
+			try
+			{
+				stream.write(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+				written = output.finish();
+			}
+			catch (BankJsonApiEntityNotFound | BankJsonApiInvalidParameter | BankJsonApiInternalError ex)
+			{
+				output.discard();
+				
+				// Errors other than the bank failing in the middle of the stream come before anything is written.
+				if (output.isStarted())
+				{
+					log.warn("Streaming HTTP response failed", ex);
+					endAccessLogRecord(HttpStatus.SERVER_ERROR_INTERNAL.get());
+					ctx.close();
+					return;
+				}
+				
+				status = BankHttpRouter.getErrorStatus(ex).get();
+				FullHttpResponse response = getFullResponse(ctx,
+															status,
+															null,
+															BankHttpRouter.getErrorJson(ex.getMessage()),
+															keepAlive);
+				written = ctx.writeAndFlush(response);
+			}
+			catch (IOException ex)
+			{
+				output.discard();
+				
+				log.debug("Streaming HTTP response failed", ex);
+				ctx.close();
+				return;
+			}
+			
+			ChannelFuture lastWritten = written;
+			int lastStatus = status;
+			ctx.executor().execute(() -> finishResponse(ctx, lastWritten, keepAlive, lastStatus));
+		}
+		
+		/**
+		 * Remember what the access log needs of a request, before responding to it. A connection responds to one
+		 * request at a time, so the time waiting behind the earlier pipelined requests doesn't count.
+		 */
+		private void beginAccessLogRecord(FullHttpRequest request)
+		{
+			if (accessLog == null)
+			{
+				return;
+			}
+			
+			requestTimestamp = System.currentTimeMillis();
+			requestStartNanos = System.nanoTime();
+			requestMethod = request.method().name();
+			
+			// Without the query, as Jetty logs it.
+			String uri = request.uri();
+			int queryStart = uri.indexOf('?');
+			requestPath = queryStart < 0
+					? uri
+					: uri.substring(0, queryStart);
+		}
+		
+		private void endAccessLogRecord(int status)
+		{
+			if (accessLog == null)
+			{
+				return;
+			}
+			
+			accessLog.record(requestTimestamp, remoteAddress, requestMethod, requestPath, status,
+							 System.nanoTime() - requestStartNanos);
+		}
+	}
+	
+	private static FullHttpResponse getFullResponse(ChannelHandlerContext ctx, int status, String entityTag,
+													String body, boolean keepAlive)
+	{
+		ByteBuf content = body != null
+				? ByteBufUtil.writeUtf8(ctx.alloc(), body)
+				: Unpooled.EMPTY_BUFFER;
+		
+		FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+																HttpResponseStatus.valueOf(status),
+																content);
+		response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/json");
+		
+		if (entityTag != null)
+		{
+			response.headers().set(HttpHeaderNames.ETAG, entityTag);
+		}
+		
+		// A 304 has no body, whatever its headers say.
+		if (status != HttpStatus.REDIRECTION_NOT_MODIFIED.get())
+		{
+			HttpUtil.setContentLength(response, content.readableBytes());
+		}
+		
+		HttpUtil.setKeepAlive(response, keepAlive);
+		
+		return response;
+	}
+	
+	/**
+	 * One of the blocking JSON streams of BankJsonApi.
+	 */
+	private interface JsonStream
+	{
+		void write(Writer writer)
+				throws BankJsonApiInternalError, BankJsonApiEntityNotFound, BankJsonApiInvalidParameter, IOException;
+	}
+	
+	/**
+	 * The body of a streamed response, sent as HTTP chunks of STREAM_CHUNK_SIZE bytes. The status and the headers
+	 * go out together with the first chunk, so until then the response can still be replaced by an error.
+	 * Used by a single stream thread.
+	 */
+	private static class ChunkedOutput
+			extends OutputStream
+	{
+		private final ChannelHandlerContext ctx;
+		private final boolean keepAlive;
+		private ByteBuf buffer;
+		private boolean started;
+		
+		ChunkedOutput(ChannelHandlerContext ctx, boolean keepAlive)
+		{
+			this.ctx = ctx;
+			this.keepAlive = keepAlive;
+			this.buffer = null;
+			this.started = false;
+		}
+		
+		@Override
+		public void write(int b)
+				throws IOException
+		{
+			getBuffer().writeByte(b);
+			sendIfFull();
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len)
+				throws IOException
+		{
+			getBuffer().writeBytes(b, off, len);
+			sendIfFull();
+		}
+		
+		@Override
+		public void flush()
+				throws IOException
+		{
+			if (buffer != null)
+			{
+				send();
+			}
+		}
+		
+		/**
+		 * @return true if the status and the headers are already written
+		 */
+		boolean isStarted()
+		{
+			return started;
+		}
+		
+		/**
+		 * @return future of the last write of the response
+		 */
+		ChannelFuture finish()
+				throws IOException
+		{
+			flush();
+			
+			if (!started)
+			{
+				startResponse();
+			}
+			
+			return ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+		}
+		
+		/**
+		 * Drop whatever was not sent yet.
+		 */
+		void discard()
+		{
+			if (buffer != null)
+			{
+				buffer.release();
+				buffer = null;
+			}
+		}
+		
+		private ByteBuf getBuffer()
+		{
+			if (buffer == null)
+			{
+				buffer = ctx.alloc().buffer(STREAM_CHUNK_SIZE);
+			}
+			
+			return buffer;
+		}
+		
+		private void sendIfFull()
+				throws IOException
+		{
+			if (buffer.readableBytes() >= STREAM_CHUNK_SIZE)
+			{
+				send();
+			}
+		}
+		
+		private void send()
+				throws IOException
+		{
+			Channel channel = ctx.channel();
+			if (!channel.isActive())
+			{
+				throw new IOException("Connection closed");
+			}
+			
+			if (!started)
+			{
+				startResponse();
+			}
+			
+			ChannelFuture written = ctx.writeAndFlush(new DefaultHttpContent(buffer));
+			buffer = null;
+			
+			// Wait for the client to catch up, instead of piling up the whole stream in the outbound buffer.
+			if (!channel.isWritable())
+			{
+				written.awaitUninterruptibly();
+			}
+			
+			if (written.isDone()
+				&& !written.isSuccess())
+			{
+				throw new IOException("Writing response failed", written.cause());
+			}
+		}
+		
+		private void startResponse()
+		{
+			HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+			response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/json");
+			HttpUtil.setTransferEncodingChunked(response, true);
+			HttpUtil.setKeepAlive(response, keepAlive);
+			
+			ctx.write(response);
+			started = true;
+		}
+	}
+	
+	/**
+	 * The Netty request, as seen by the router.
+	 */
+	private static class NettyRequest
+			implements BankHttpRouter.Request
+	{
+		private final FullHttpRequest request;
+		private final QueryStringDecoder uri;
+		
+		NettyRequest(FullHttpRequest request)
+		{
+			this.request = request;
+			this.uri = new QueryStringDecoder(request.uri());
+		}
+		
+		@Override
+		public String getMethod()
+		{
+			return request.method().name();
+		}
+		
+		@Override
+		public String getPath()
+		{
+			return uri.path();
+		}
+		
+		@Override
+		public String getParameter(String name)
+		{
+			List<String> values = uri.parameters().get(name);
+			
+			return values != null
+					? values.get(0)
+					: null;
+		}
+		
+		@Override
+		public String getHeader(String name)
+		{
+			return request.headers().get(name);
+		}
+		
+		@Override
+		public String getBody()
+		{
+			return request.content().toString(StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -1,30 +1,90 @@
 package rafalk42.api;
 
-import com.google.gson.Gson;
 import org.slf4j.LoggerFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import rafalk42.api.accesslog.AccessLog;
 import rafalk42.api.dto.ApiErrorDto;
 import spark.Request;
 import spark.Response;
 import spark.Route;
 import spark.Spark;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
+import spark.embeddedserver.jetty.JettyServerFactory;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 
 public class BankHttpRestApi
 {
+	/**
+	 * Kind of threads on which the requests are handled.
+	 */
+	public enum ThreadingMode
+	{
+		/**
+		 * Spark's own pool of platform threads, a request waiting on the bank keeps its thread busy.
+		 */
+		PLATFORM,
+		/**
+		 * A new virtual thread for each request, waiting on the bank only parks it. Requires Java 21 or newer.
+		 */
+		VIRTUAL
+	}
+	
 	final org.slf4j.Logger log = LoggerFactory.getLogger(BankHttpRestApi.class);
 	private final BankJsonApi bankJsonApi;
-	private final Gson gson;
+	private final ThreadingMode threadingMode;
+	private final AccessLog accessLog;
 	
 	public BankHttpRestApi(BankJsonApi bankJsonApi)
+	{
+		this(bankJsonApi, ThreadingMode.PLATFORM);
+	}
+	
+	public BankHttpRestApi(BankJsonApi bankJsonApi, ThreadingMode threadingMode)
+	{
+		this(bankJsonApi, threadingMode, null);
+	}
+	
+	/**
+	 * @param bankJsonApi   JSON API to serve
+	 * @param threadingMode kind of threads on which the requests are handled
+	 * @param accessLog     log to record the requests in, null for none
+	 */
+	public BankHttpRestApi(BankJsonApi bankJsonApi, ThreadingMode threadingMode, AccessLog accessLog)
 	{
 		this.bankJsonApi = bankJsonApi;
-		
-		gson = new Gson();
+		this.threadingMode = threadingMode;
+		this.accessLog = accessLog;
 	}
 	
+	/**
+	 * @throws UnsupportedOperationException thrown in VIRTUAL threading mode, when the JVM has no virtual threads
+	 */
 	public void start(String listenAddress, int listenPort)
 	{
-		log.info("Starting HTTP server");
+		log.info(String.format("Starting HTTP server, %s threads", threadingMode));
+		
+		if (threadingMode == ThreadingMode.VIRTUAL
+			|| accessLog != null)
+		{
+			EmbeddedJettyFactory jettyFactory = new EmbeddedJettyFactory(new BankJettyServerFactory());
+			if (threadingMode == ThreadingMode.VIRTUAL)
+			{
+				jettyFactory = jettyFactory.withThreadPool(new VirtualThreadPool("bank-http"));
+			}
+			
+			// Spark creates its Jetty server lazily, on the first route, so this has to come before the routes.
+			EmbeddedServers.add(EmbeddedServers.Identifiers.JETTY, jettyFactory);
+		}
 		
 		Spark.ipAddress(listenAddress);
 		Spark.port(listenPort);
@@ -53,7 +113,6 @@ public class BankHttpRestApi
 		// Set default returned content type to JSON.
 		Spark.before((request, response) -> response.type(defaultContentType));
 		
-		Spark.before(this::logRequest);
 		Spark.path("/bank", () ->
 		{
 			Spark.path("/accounts", () ->
@@ -61,7 +120,9 @@ public class BankHttpRestApi
 				Spark.get("", defaultContentType, this::accountsList);
 				Spark.get("/:id", defaultContentType, this::accountGetInfo);
 				Spark.get("/:id/balance", defaultContentType, this::accountGetBalance);
+				Spark.get("/:id/history", defaultContentType, this::accountGetHistory);
 				Spark.post("", defaultContentType, this::accountOpen);
+				Spark.post("/batch", defaultContentType, this::accountOpenBatch);
 				Spark.post("/:id/deposit", defaultContentType, this::accountDeposit);
 				Spark.post("/:id/withdraw", defaultContentType, this::accountWithdraw);
 				Spark.delete("/:id", defaultContentType, this::accountClose);
@@ -81,6 +142,12 @@ public class BankHttpRestApi
 				Spark.put("", defaultContentType, halterMethodNotAllowed);
 				Spark.patch("", defaultContentType, halterMethodNotAllowed);
 				Spark.delete("", defaultContentType, halterMethodNotAllowed);
+				
+				Spark.post("/batch", defaultContentType, this::transferBatchExecute);
+				
+				Spark.put("/batch", defaultContentType, halterMethodNotAllowed);
+				Spark.patch("/batch", defaultContentType, halterMethodNotAllowed);
+				Spark.delete("/batch", defaultContentType, halterMethodNotAllowed);
 			});
 		});
 		
@@ -91,50 +158,106 @@ public class BankHttpRestApi
 		Spark.exception(BankJsonApiInvalidParameter.class, this::handleInvalidParameter);
 	}
 	
-	private void logRequest(Request request, Response response)
-	{
-		log.info(String.format("HTTP request from %s: %s %s",
-							   request.ip(),
-							   request.requestMethod(),
-							   request.pathInfo()));
-	}
-	
+	/**
+	 * With limit or after parameter it's a single page of accounts, without them the whole list, streamed straight
+	 * to the response.
+	 */
 	private String accountsList(Request request, Response response)
-			throws BankJsonApiInternalError
+			throws BankJsonApiInternalError, BankJsonApiInvalidParameter, BankJsonApiEntityNotFound, IOException
 	{
-		return bankJsonApi.accountsList();
+		String limit = request.queryParams("limit");
+		String after = request.queryParams("after");
+		
+		if (limit != null
+			|| after != null)
+		{
+			return await(bankJsonApi.accountsListPage(limit, after));
+		}
+		
+		// Not the writer of the response, Spark still goes for the output stream after the route returns.
+		Writer writer = new OutputStreamWriter(response.raw().getOutputStream(), StandardCharsets.UTF_8);
+		bankJsonApi.accountsListStream(writer);
+		
+		return "";
 	}
 	
 	private String accountOpen(Request request, Response response)
-			throws BankJsonApiInvalidParameter, BankJsonApiInternalError
+			throws BankJsonApiInternalError, BankJsonApiInvalidParameter, BankJsonApiEntityNotFound
 	{
 		String accountDescription = request.body();
 		
-		return bankJsonApi.accountOpen(accountDescription);
+		return await(bankJsonApi.accountOpen(accountDescription));
+	}
+	
+	private String accountOpenBatch(Request request, Response response)
+			throws BankJsonApiInternalError, BankJsonApiInvalidParameter, BankJsonApiEntityNotFound
+	{
+		String accountOpenBatchDescription = request.body();
+		
+		return await(bankJsonApi.accountOpenBatch(accountOpenBatchDescription));
 	}
 	
 	private String accountGetInfo(Request request, Response response)
-			throws BankJsonApiInternalError, BankJsonApiEntityNotFound
+			throws BankJsonApiInternalError, BankJsonApiInvalidParameter, BankJsonApiEntityNotFound
 	{
 		String id = request.params("id");
+		String ifNoneMatch = request.headers(BankJsonApi.IF_NONE_MATCH_HEADER);
 		
-		return bankJsonApi.accountGetInfo(id);
+		return getVersionedBody(response, await(bankJsonApi.accountGetInfo(id, ifNoneMatch)));
 	}
 	
 	private String accountGetBalance(Request request, Response response)
-			throws BankJsonApiInternalError, BankJsonApiEntityNotFound
+			throws BankJsonApiInternalError, BankJsonApiInvalidParameter, BankJsonApiEntityNotFound
 	{
 		String id = request.params("id");
+		String ifNoneMatch = request.headers(BankJsonApi.IF_NONE_MATCH_HEADER);
 		
-		return bankJsonApi.accountGetBalance(id);
+		return getVersionedBody(response, await(bankJsonApi.accountGetBalance(id, ifNoneMatch)));
+	}
+	
+	/**
+	 * Set the entity tag of the response and its status, 304 Not Modified when the client has the version already.
+	 */
+	private String getVersionedBody(Response response, VersionedJson result)
+	{
+		if (result.getEntityTag() != null)
+		{
+			response.header(BankJsonApi.ENTITY_TAG_HEADER, result.getEntityTag());
+		}
+		
+		if (result.isNotModified())
+		{
+			response.status(HttpStatus.REDIRECTION_NOT_MODIFIED.get());
+			return "";
+		}
+		
+		return result.getJson();
+	}
+	
+	/**
+	 * Always streamed straight to the response, the same way as the whole account list.
+	 */
+	private String accountGetHistory(Request request, Response response)
+			throws BankJsonApiInternalError, BankJsonApiInvalidParameter, BankJsonApiEntityNotFound, IOException
+	{
+		String id = request.params("id");
+		
+		Writer writer = new OutputStreamWriter(response.raw().getOutputStream(), StandardCharsets.UTF_8);
+		bankJsonApi.accountHistoryStream(id,
+										 request.queryParams("from"),
+										 request.queryParams("to"),
+										 request.queryParams("limit"),
+										 writer);
+		
+		return "";
 	}
 	
 	private String accountClose(Request request, Response response)
-			throws BankJsonApiInternalError, BankJsonApiEntityNotFound
+			throws BankJsonApiInternalError, BankJsonApiInvalidParameter, BankJsonApiEntityNotFound
 	{
 		String id = request.params("id");
 		
-		return bankJsonApi.accountClose(id);
+		return await(bankJsonApi.accountClose(id));
 	}
 	
 	private String accountDeposit(Request request, Response response)
@@ -142,8 +265,9 @@ public class BankHttpRestApi
 	{
 		String id = request.params("id");
 		String depositDescription = request.body();
+		String idempotencyKey = request.headers(BankJsonApi.IDEMPOTENCY_KEY_HEADER);
 		
-		return bankJsonApi.accountDeposit(id, depositDescription);
+		return await(bankJsonApi.accountDeposit(id, depositDescription, idempotencyKey));
 	}
 	
 	private String accountWithdraw(Request request, Response response)
@@ -151,16 +275,65 @@ public class BankHttpRestApi
 	{
 		String id = request.params("id");
 		String withdrawDescription = request.body();
+		String idempotencyKey = request.headers(BankJsonApi.IDEMPOTENCY_KEY_HEADER);
 		
-		return bankJsonApi.accountWithdraw(id, withdrawDescription);
+		return await(bankJsonApi.accountWithdraw(id, withdrawDescription, idempotencyKey));
 	}
 	
 	private String transferExecute(Request request, Response response)
 			throws BankJsonApiInternalError, BankJsonApiInvalidParameter, BankJsonApiEntityNotFound
 	{
 		String transferDescription = request.body();
+		String idempotencyKey = request.headers(BankJsonApi.IDEMPOTENCY_KEY_HEADER);
+		
+		return await(bankJsonApi.transferExecute(transferDescription, idempotencyKey));
+	}
+	
+	private String transferBatchExecute(Request request, Response response)
+			throws BankJsonApiInternalError, BankJsonApiInvalidParameter, BankJsonApiEntityNotFound
+	{
+		String transferBatchDescription = request.body();
+		String idempotencyKey = request.headers(BankJsonApi.IDEMPOTENCY_KEY_HEADER);
 		
-		return bankJsonApi.transferExecute(transferDescription);
+		return await(bankJsonApi.transferBatchExecute(transferBatchDescription, idempotencyKey));
+	}
+	
+	/**
+	 * Spark handles a request on a single thread from start to end, so simply wait for the JSON API here.
+	 */
+	private <T> T await(CompletableFuture<T> response)
+			throws BankJsonApiInternalError, BankJsonApiInvalidParameter, BankJsonApiEntityNotFound
+	{
+		try
+		{
+			return response.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new BankJsonApiInternalError(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			
+			if (cause instanceof BankJsonApiInvalidParameter)
+			{
+				throw (BankJsonApiInvalidParameter) cause;
+			}
+			
+			if (cause instanceof BankJsonApiEntityNotFound)
+			{
+				throw (BankJsonApiEntityNotFound) cause;
+			}
+			
+			if (cause instanceof BankJsonApiInternalError)
+			{
+				throw (BankJsonApiInternalError) cause;
+			}
+			
+			throw new BankJsonApiInternalError(cause);
+		}
 	}
 	
 	private void handleInternalError(BankJsonApiInternalError ex, Request request, Response response)
@@ -183,6 +356,45 @@ public class BankHttpRestApi
 	
 	private String getErrorJson(String message)
 	{
-		return gson.toJson(new ApiErrorDto(message));
+		return BankJsonCodecs.toJson(new ApiErrorDto(message), BankJsonCodecs.API_ERROR);
+	}
+	
+	/**
+	 * Creates the Jetty server of Spark the way Spark itself does, only with the access log hooked in.
+	 */
+	private class BankJettyServerFactory
+			implements JettyServerFactory
+	{
+		@Override
+		public Server create(int maxThreads, int minThreads, int threadTimeoutMillis)
+		{
+			Server server = maxThreads > 0
+					? new Server(new QueuedThreadPool(maxThreads,
+													  minThreads > 0 ? minThreads : 8,
+													  threadTimeoutMillis > 0 ? threadTimeoutMillis : 60000))
+					: new Server();
+			
+			return withAccessLog(server);
+		}
+		
+		@Override
+		public Server create(ThreadPool threadPool)
+		{
+			Server server = threadPool != null
+					? new Server(threadPool)
+					: new Server();
+			
+			return withAccessLog(server);
+		}
+		
+		private Server withAccessLog(Server server)
+		{
+			if (accessLog != null)
+			{
+				server.setRequestLog(new JettyAccessLog(accessLog));
+			}
+			
+			return server;
+		}
 	}
 }
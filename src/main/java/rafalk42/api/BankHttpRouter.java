@@ -0,0 +1,342 @@
+package rafalk42.api;
+
+import rafalk42.api.dto.ApiErrorDto;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+
+/**
+ * The routes of BankHttpRestApi for the HTTP servers that do their own routing (BankHttpAsyncRestApi
+ * and BankHttpNettyRestApi), so that they match the same requests to the same operations of the JSON API
+ * and answer with the same status codes, whatever the server underneath.
+ * Important:
+ * 1. it is thread-safe, it keeps no state of its own,
+ * 2. the unpaged account list and the history of an account are not routed, they are streamed by the server
+ * (isAccountsListStream and getAccountHistoryStreamId tell them apart), as writing them blocks.
+ */
+final class BankHttpRouter
+{
+	private final BankJsonApi bankJsonApi;
+	
+	BankHttpRouter(BankJsonApi bankJsonApi)
+	{
+		this.bankJsonApi = bankJsonApi;
+	}
+	
+	/**
+	 * A request, the way the router needs to see it, whichever server it came from.
+	 */
+	interface Request
+	{
+		String getMethod();
+		
+		/**
+		 * @return path of the request, without the query, null if there is none
+		 */
+		String getPath();
+		
+		/**
+		 * @return value of a query parameter, null if not given
+		 */
+		String getParameter(String name);
+		
+		/**
+		 * @return value of a header, null if not given
+		 */
+		String getHeader(String name);
+		
+		String getBody()
+				throws IOException;
+	}
+	
+	/**
+	 * A response of a routed request, ready to be written by the server.
+	 */
+	static final class Response
+	{
+		private final int status;
+		private final String entityTag;
+		private final String body;
+		
+		private Response(int status, String entityTag, String body)
+		{
+			this.status = status;
+			this.entityTag = entityTag;
+			this.body = body;
+		}
+		
+		int getStatus()
+		{
+			return status;
+		}
+		
+		/**
+		 * @return value of the ETag header, null for none
+		 */
+		String getEntityTag()
+		{
+			return entityTag;
+		}
+		
+		/**
+		 * @return JSON body, null for none (304 Not Modified)
+		 */
+		String getBody()
+		{
+			return body;
+		}
+	}
+	
+	/**
+	 * Match the request against the routes of BankHttpRestApi and start the matching operation of the JSON API.
+	 *
+	 * @return future completed with the JSON response (VersionedJson for the reads of a single account) or with
+	 * an error, turned into the response by getResponse
+	 */
+	CompletableFuture<?> route(Request request)
+			throws IOException
+	{
+		String method = request.getMethod();
+		String path = request.getPath();
+		
+		if (path == null
+			|| !path.startsWith("/bank/"))
+		{
+			return getNotFound();
+		}
+		
+		String[] segments = path.substring("/bank/".length()).split("/", -1);
+		
+		if (segments[0].equals("accounts"))
+		{
+			if (segments.length == 1)
+			{
+				switch (method)
+				{
+					case "GET":
+						return bankJsonApi.accountsListPage(request.getParameter("limit"),
+															request.getParameter("after"));
+					case "POST":
+						return bankJsonApi.accountOpen(request.getBody());
+					case "PUT":
+					case "PATCH":
+					case "DELETE":
+						return getMethodNotAllowed();
+					default:
+						return getNotFound();
+				}
+			}
+			
+			if (segments.length == 2
+				&& segments[1].equals("batch")
+				&& method.equals("POST"))
+			{
+				return bankJsonApi.accountOpenBatch(request.getBody());
+			}
+			
+			String id = URLDecoder.decode(segments[1], "UTF-8");
+			
+			if (segments.length == 2)
+			{
+				switch (method)
+				{
+					case "GET":
+						return bankJsonApi.accountGetInfo(id,
+														  request.getHeader(BankJsonApi.IF_NONE_MATCH_HEADER));
+					case "DELETE":
+						return bankJsonApi.accountClose(id);
+					case "POST":
+					case "PUT":
+					case "PATCH":
+						return getMethodNotAllowed();
+					default:
+						return getNotFound();
+				}
+			}
+			
+			if (segments.length == 3)
+			{
+				if (segments[2].equals("balance")
+					&& method.equals("GET"))
+				{
+					return bankJsonApi.accountGetBalance(id,
+														 request.getHeader(BankJsonApi.IF_NONE_MATCH_HEADER));
+				}
+				
+				if (segments[2].equals("deposit")
+					&& method.equals("POST"))
+				{
+					return bankJsonApi.accountDeposit(id,
+													  request.getBody(),
+													  request.getHeader(BankJsonApi.IDEMPOTENCY_KEY_HEADER));
+				}
+				
+				if (segments[2].equals("withdraw")
+					&& method.equals("POST"))
+				{
+					return bankJsonApi.accountWithdraw(id,
+													   request.getBody(),
+													   request.getHeader(BankJsonApi.IDEMPOTENCY_KEY_HEADER));
+				}
+			}
+		}
+		else if (segments[0].equals("transfers"))
+		{
+			boolean batch = segments.length == 2
+							&& segments[1].equals("batch");
+			
+			if (segments.length == 1
+				|| batch)
+			{
+				switch (method)
+				{
+					case "POST":
+						return batch
+								? bankJsonApi.transferBatchExecute(request.getBody(),
+																   request.getHeader(BankJsonApi.IDEMPOTENCY_KEY_HEADER))
+								: bankJsonApi.transferExecute(request.getBody(),
+																 request.getHeader(BankJsonApi.IDEMPOTENCY_KEY_HEADER));
+					case "PUT":
+					case "PATCH":
+					case "DELETE":
+						return getMethodNotAllowed();
+					default:
+						return getNotFound();
+				}
+			}
+		}
+		
+		return getNotFound();
+	}
+	
+	/**
+	 * @return true for the unpaged account list, which is streamed instead of routed
+	 */
+	boolean isAccountsListStream(Request request)
+	{
+		return request.getMethod().equals("GET")
+			   && "/bank/accounts".equals(request.getPath())
+			   && request.getParameter("limit") == null
+			   && request.getParameter("after") == null;
+	}
+	
+	/**
+	 * @return ID of the account for the history of an account, which is streamed instead of routed, null for
+	 * other requests
+	 */
+	String getAccountHistoryStreamId(Request request)
+			throws IOException
+	{
+		String path = request.getPath();
+		
+		if (!request.getMethod().equals("GET")
+			|| path == null
+			|| !path.startsWith("/bank/accounts/"))
+		{
+			return null;
+		}
+		
+		String[] segments = path.substring("/bank/accounts/".length()).split("/", -1);
+		
+		return segments.length == 2
+			   && segments[1].equals("history")
+				? URLDecoder.decode(segments[0], "UTF-8")
+				: null;
+	}
+	
+	/**
+	 * @param result completed future returned by route
+	 * @return the response to write
+	 */
+	static Response getResponse(CompletableFuture<?> result)
+	{
+		Object json;
+		try
+		{
+			json = result.join();
+		}
+		catch (CompletionException ex)
+		{
+			Throwable cause = ex.getCause();
+			
+			return new Response(getErrorStatus(cause).get(), null, getErrorJson(cause.getMessage()));
+		}
+		
+		if (json instanceof VersionedJson)
+		{
+			VersionedJson versionedJson = (VersionedJson) json;
+			
+			return versionedJson.isNotModified()
+					? new Response(HttpStatus.REDIRECTION_NOT_MODIFIED.get(), versionedJson.getEntityTag(), null)
+					: new Response(HttpStatus.SUCCESS_OK.get(), versionedJson.getEntityTag(), versionedJson.getJson());
+		}
+		
+		return new Response(HttpStatus.SUCCESS_OK.get(), null, (String) json);
+	}
+	
+	/**
+	 * @param error error a request failed with, one of the JSON API or of the routing
+	 * @return status to answer with
+	 */
+	static HttpStatus getErrorStatus(Throwable error)
+	{
+		if (error instanceof HttpError)
+		{
+			return ((HttpError) error).status;
+		}
+		
+		if (error instanceof BankJsonApiEntityNotFound)
+		{
+			return HttpStatus.CLIENT_ERROR_NOT_FOUND;
+		}
+		
+		if (error instanceof BankJsonApiInvalidParameter)
+		{
+			return HttpStatus.CLIENT_ERROR_BAD_REQUEST;
+		}
+		
+		return HttpStatus.SERVER_ERROR_INTERNAL;
+	}
+	
+	static String getErrorJson(String message)
+	{
+		return BankJsonCodecs.toJson(new ApiErrorDto(message), BankJsonCodecs.API_ERROR);
+	}
+	
+	private static CompletableFuture<?> getNotFound()
+	{
+		return getHttpError(HttpStatus.CLIENT_ERROR_NOT_FOUND, "Not found");
+	}
+	
+	private static CompletableFuture<?> getMethodNotAllowed()
+	{
+		return getHttpError(HttpStatus.CLIENT_ERROR_METHOD_NOT_ALLOWED, "Method not allowed");
+	}
+	
+	private static CompletableFuture<?> getHttpError(HttpStatus status, String message)
+	{
+		CompletableFuture<String> result = new CompletableFuture<>();
+		result.completeExceptionally(new HttpError(status, message));
+		
+		return result;
+	}
+	
+	/**
+	 * A response decided by the routing itself, without asking the JSON API.
+	 */
+	private static class HttpError
+			extends Exception
+	{
+		private final HttpStatus status;
+		
+		HttpError(HttpStatus status, String message)
+		{
+			super(message);
+			
+			this.status = status;
+		}
+	}
+}
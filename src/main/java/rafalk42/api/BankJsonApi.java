@@ -1,20 +1,24 @@
 package rafalk42.api;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
-import com.google.gson.TypeAdapter;
-import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 import rafalk42.api.dto.*;
 import rafalk42.bank.domain.*;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 
@@ -28,343 +32,928 @@ import java.util.stream.Collectors;
  * would be a great way to test the HTTP REST API without actually using HTTP server. From here up
  * to the REST API we are only adding the HTTP layer, not touching the JSON strings at all.
  *
- * Tests were not created due to a lack of time.
+ * The bank is used through the AsyncBank interface, so none of the methods waits for the bank. Every method
+ * returns a future completed with the JSON response, or completed exceptionally with BankJsonApiInternalError,
+ * BankJsonApiEntityNotFound or BankJsonApiInvalidParameter. It's up to the HTTP layer whether it waits for it
+ * or not. The work done after the bank answers (building the response) runs on whatever thread completed
+ * the future of the bank.
+ *
+ * Deposits, withdrawals and transfers (single and batch) can be made with an idempotency key, sent by the client
+ * in the Idempotency-Key header. The response to the first request with a key is kept in the IdempotencyCache
+ * and a retry with the same key gets it back without calling the bank, so a client that did not get the response
+ * (e.g. the connection dropped) can safely send the request again.
+ *
+ * Information and balance of an account come with the version of the account as the entity tag (the ETag header),
+ * if the bank keeps versions. A client that sends the tag back in the If-None-Match header gets 304 Not Modified
+ * for as long as the account stays unchanged, which costs a lookup of the version instead of a read
+ * of the account and its JSON. The tag includes a random epoch of this instance, so that tags handed out before
+ * a restart (when versions start over) never match.
  */
 public class BankJsonApi
 {
-	private final Bank bank;
-	private final Gson gson;
+	static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+	static final String ENTITY_TAG_HEADER = "ETag";
+	static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+	
+	private static final int DEFAULT_PAGE_SIZE = 100;
+	private static final int MAXIMUM_PAGE_SIZE = 10000;
+	private static final int STREAM_PAGE_SIZE = 1000;
+	private static final int MAXIMUM_IDEMPOTENCY_KEY_LENGTH = 255;
+	
+	private final AsyncBank bank;
+	private final IdempotencyCache idempotencyCache;
+	private final String entityTagPrefix;
+	private volatile boolean versionsSupported;
 	
+	/**
+	 * Use a blocking bank, every call to the bank is made right away, on the calling thread, so all the returned
+	 * futures are already completed.
+	 *
+	 * @param bank bank to use
+	 */
 	public BankJsonApi(Bank bank)
+	{
+		this(new AsyncBankAdapter(bank, Runnable::run));
+	}
+	
+	public BankJsonApi(AsyncBank bank)
+	{
+		this(bank, new IdempotencyCache());
+	}
+	
+	/**
+	 * @param bank             bank to use
+	 * @param idempotencyCache results of the deposits, withdrawals and transfers made with an idempotency key
+	 */
+	public BankJsonApi(AsyncBank bank, IdempotencyCache idempotencyCache)
 	{
 		this.bank = bank;
-		
-		gson = new GsonBuilder().registerTypeAdapter(BigDecimal.class,
-													 new BigDecimalTypeAdapter())
-								.create();
+		this.idempotencyCache = idempotencyCache;
+		this.entityTagPrefix = "\"" + Long.toHexString(ThreadLocalRandom.current().nextLong()) + "-";
+		this.versionsSupported = true;
 	}
 	
-	String accountOpen(String accountDescriptionJson)
-			throws BankJsonApiInternalError, BankJsonApiInvalidParameter
+	CompletableFuture<String> accountOpen(String accountDescriptionJson)
 	{
-		try
+		return execute(() ->
+					   {
+						   AccountDescriptionDto accountDescription = BankJsonCodecs.fromJson(accountDescriptionJson, BankJsonCodecs.ACCOUNT_DESCRIPTION);
+						
+						   if (accountDescription.getInitialBalance() == null)
+						   {
+							   throw new BankJsonApiInvalidParameter("Missing parameter: initialBalance");
+						   }
+						
+						   BankAccountDescription bankAccountDescription = new BankAccountDescription.Builder()
+								   .description(accountDescription.getDescription())
+								   .initialBalance(accountDescription.getInitialBalance())
+								   .build();
+						
+						   return bank.accountOpen(bankAccountDescription)
+									  .thenApply(bankAccount -> BankJsonCodecs.toJson(new AccountOpenResultDto(bankAccount.getId()), BankJsonCodecs.ACCOUNT_OPEN_RESULT));
+					   });
+	}
+	
+	/**
+	 * Open a whole batch of accounts with a single call of the bank, see Bank.accountOpenBatch. The request
+	 * is {"accounts": [...]}, each account described the same way as for accountOpen, the response lists the IDs
+	 * of the new accounts in the same order.
+	 */
+	CompletableFuture<String> accountOpenBatch(String accountOpenBatchDescriptionJson)
+	{
+		return execute(() ->
+					   {
+						   AccountOpenBatchDescriptionDto batchDescription = BankJsonCodecs.fromJson(accountOpenBatchDescriptionJson,
+																									 BankJsonCodecs.ACCOUNT_OPEN_BATCH_DESCRIPTION);
+						
+						   if (batchDescription == null
+							   || batchDescription.getAccounts() == null)
+						   {
+							   throw new BankJsonApiInvalidParameter("Missing parameter: accounts");
+						   }
+						
+						   List<AccountDescriptionDto> accountDescriptions = batchDescription.getAccounts();
+						   List<BankAccountDescription> bankAccountDescriptions = new ArrayList<>(accountDescriptions.size());
+						   for (int i = 0; i < accountDescriptions.size(); i++)
+						   {
+							   AccountDescriptionDto accountDescription = accountDescriptions.get(i);
+							
+							   if (accountDescription == null)
+							   {
+								   throw new BankJsonApiInvalidParameter(String.format("Missing parameter: accounts[%d]",
+																					   i));
+							   }
+							
+							   if (accountDescription.getDescription() == null)
+							   {
+								   throw new BankJsonApiInvalidParameter(String.format("Missing parameter: accounts[%d].description",
+																					   i));
+							   }
+							
+							   if (accountDescription.getInitialBalance() == null)
+							   {
+								   throw new BankJsonApiInvalidParameter(String.format("Missing parameter: accounts[%d].initialBalance",
+																					   i));
+							   }
+							
+							   bankAccountDescriptions.add(new BankAccountDescription.Builder()
+																   .description(accountDescription.getDescription())
+																   .initialBalance(accountDescription.getInitialBalance())
+																   .build());
+						   }
+						
+						   return bank.accountOpenBatch(bankAccountDescriptions)
+									  .thenApply(bankAccounts ->
+												 {
+													 List<AccountOpenResultDto> accounts = new ArrayList<>(bankAccounts.size());
+													 bankAccounts.forEach(bankAccount -> accounts.add(new AccountOpenResultDto(bankAccount.getId())));
+													
+													 return BankJsonCodecs.toJson(new AccountOpenBatchResultDto(accounts), BankJsonCodecs.ACCOUNT_OPEN_BATCH_RESULT);
+												 });
+					   });
+	}
+	
+	/**
+	 * One page of the account list, see Bank.accountsGetInfoPage for the order of the accounts. The response
+	 * carries the value of the after parameter for the next page, as long as this page is full.
+	 *
+	 * @param limitValue maximum number of accounts on the page, DEFAULT_PAGE_SIZE when null
+	 * @param afterValue ID after which the page starts, null to start from the very first account
+	 */
+	CompletableFuture<String> accountsListPage(String limitValue, String afterValue)
+	{
+		return execute(() ->
+					   {
+						   int limit = parsePageLimit(limitValue);
+						
+						   return bank.accountsGetInfoPage(afterValue, limit)
+									  .thenApply(bankAccounts ->
+												 {
+													 List<AccountInfoDto> accounts = getAccountInfoDtos(bankAccounts);
+													 String nextAfter = accounts.size() == limit
+															 ? getLastId(bankAccounts)
+															 : null;
+													
+													 return BankJsonCodecs.toJson(new AccountsPageDto(accounts, nextAfter), BankJsonCodecs.ACCOUNTS_PAGE);
+												 });
+					   });
+	}
+	
+	/**
+	 * The whole account list, a JSON array of every account, written straight to the writer. The accounts are
+	 * taken from the bank STREAM_PAGE_SIZE at a time and written out before the next page is requested, so
+	 * neither the list nor its JSON ever exist in memory as a whole. Just like with paging by hand, every page
+	 * is consistent on its own, but accounts can change in between the pages.
+	 * <p>
+	 * Unlike all the other methods this one blocks the calling thread, waiting for the bank and for the writer.
+	 * Nothing is written until the first page is retrieved, so when that fails, the caller can still respond with
+	 * an error. A failure after that leaves the output truncated.
+	 *
+	 * @param writer where to write the JSON to, flushed but not closed at the end
+	 * @throws BankJsonApiInternalError thrown when the bank failed
+	 * @throws IOException              thrown when writing failed
+	 */
+	void accountsListStream(Writer writer)
+			throws BankJsonApiInternalError, IOException
+	{
+		Map<BankAccount, BankAccountInfo> bankAccounts = awaitStreamPage(null);
+		
+		JsonWriter jsonWriter = BankJsonCodecs.newJsonWriter(writer);
+		jsonWriter.beginArray();
+		while (true)
 		{
-			AccountDescriptionDto accountDescription = gson.fromJson(accountDescriptionJson, AccountDescriptionDto.class);
-			
-			if (accountDescription.getInitialBalance() == null)
+			for (AccountInfoDto account : getAccountInfoDtos(bankAccounts))
 			{
-				throw new BankJsonApiInvalidParameter("Missing parameter: initialBalance");
+				BankJsonCodecs.ACCOUNT_INFO.write(jsonWriter, account);
 			}
 			
-			BankAccountDescription bankAccountDescription = new BankAccountDescription.Builder()
-					.description(accountDescription.getDescription())
-					.initialBalance(accountDescription.getInitialBalance())
-					.build();
-			
-			BankAccount bankAccount = bank.accountOpen(bankAccountDescription);
-			
-			AccountOpenResultDto result = new AccountOpenResultDto(bankAccount.getId());
+			if (bankAccounts.size() < STREAM_PAGE_SIZE)
+			{
+				break;
+			}
 			
-			return gson.toJson(result);
+			bankAccounts = awaitStreamPage(getLastId(bankAccounts));
 		}
-		catch (JsonSyntaxException ex)
+		jsonWriter.endArray();
+		jsonWriter.flush();
+	}
+	
+	private Map<BankAccount, BankAccountInfo> awaitStreamPage(String afterAccountId)
+			throws BankJsonApiInternalError
+	{
+		try
 		{
-			throw new BankJsonApiInvalidParameter("Request body is not a valid JSON format");
+			return bank.accountsGetInfoPage(afterAccountId, STREAM_PAGE_SIZE).join();
 		}
-		catch (BankJsonApiInvalidParameter ex)
+		catch (CompletionException ex)
 		{
-			throw ex;
+			throw new BankJsonApiInternalError(ex.getCause());
 		}
-		catch (Throwable ex)
+		catch (RuntimeException ex)
 		{
 			throw new BankJsonApiInternalError(ex);
 		}
 	}
 	
-	String accountsList()
-			throws BankJsonApiInternalError
+	/**
+	 * History of an account, a JSON array of its operations from the time range, oldest first, written straight
+	 * to the writer. Like the account list, the entries are taken from the bank STREAM_PAGE_SIZE at a time and
+	 * written out before the next page is requested, so a long history never has to fit in memory.
+	 * <p>
+	 * This method blocks the calling thread, the same way accountsListStream does. The account is looked up
+	 * and the first page retrieved before anything is written, so an unknown account or a bank without history can
+	 * still be answered with an error.
+	 *
+	 * @param id         ID of the account
+	 * @param fromValue  start of the time range (inclusive), in milliseconds since the epoch, null for no start
+	 * @param toValue    end of the time range (exclusive), in milliseconds since the epoch, null for no end
+	 * @param limitValue maximum number of entries, null for all of them
+	 * @param writer     where to write the JSON to, flushed but not closed at the end
+	 * @throws BankJsonApiInternalError    thrown when the bank failed
+	 * @throws BankJsonApiEntityNotFound   thrown when the account does not exist
+	 * @throws BankJsonApiInvalidParameter thrown when one of the parameters is invalid or the bank keeps no history
+	 * @throws IOException                 thrown when writing failed
+	 */
+	void accountHistoryStream(String id, String fromValue, String toValue, String limitValue, Writer writer)
+			throws BankJsonApiInternalError, BankJsonApiEntityNotFound, BankJsonApiInvalidParameter, IOException
 	{
-		try
+		long from = parseTimestamp(fromValue, "from", Long.MIN_VALUE);
+		long to = parseTimestamp(toValue, "to", Long.MAX_VALUE);
+		long limit = parseHistoryLimit(limitValue);
+		
+		BankAccount account = await(bank.accountFindById(id))
+				.orElseThrow(() -> new BankJsonApiEntityNotFound(String.format("Account ID %s not found", id)));
+		
+		int pageLimit = (int) Math.min(limit, STREAM_PAGE_SIZE);
+		List<BankAccountHistoryEntry> entries = await(bank.accountGetHistory(account, from, to, 0, pageLimit));
+		long entryCount = 0;
+		
+		JsonWriter jsonWriter = BankJsonCodecs.newJsonWriter(writer);
+		jsonWriter.beginArray();
+		while (true)
 		{
-			Map<BankAccount, BankAccountInfo> bankAccounts = bank.accountsGetInfoAll();
+			for (BankAccountHistoryEntry entry : entries)
+			{
+				BankJsonCodecs.ACCOUNT_HISTORY_ENTRY.write(jsonWriter,
+														   new AccountHistoryEntryDto(entry.getSequence(),
+																					  entry.getTimestamp(),
+																					  entry.getOperation().name(),
+																					  entry.getSourceAccountId(),
+																					  entry.getDestinationAccountId(),
+																					  entry.getAmount(),
+																					  entry.getTitle(),
+																					  entry.getStatus().name()));
+			}
 			
-			List<AccountInfoDto> result = bankAccounts.entrySet()
-													  .stream()
-													  .map(entry -> new AccountInfoDto(entry.getKey().getId(),
-																					   entry.getValue()
-																							.getDescription(),
-																					   entry.getValue()
-																							.getBalance()))
-													  .collect(Collectors.toList());
+			entryCount += entries.size();
+			if (entries.size() < pageLimit
+				|| entryCount == limit)
+			{
+				break;
+			}
 			
-			return gson.toJson(result);
+			long lastSequence = entries.get(entries.size() - 1).getSequence();
+			pageLimit = (int) Math.min(limit - entryCount, STREAM_PAGE_SIZE);
+			entries = await(bank.accountGetHistory(account, from, to, lastSequence, pageLimit));
 		}
-		catch (Throwable ex)
+		jsonWriter.endArray();
+		jsonWriter.flush();
+	}
+	
+	private long parseTimestamp(String timestampValue, String name, long defaultTimestamp)
+			throws BankJsonApiInvalidParameter
+	{
+		if (timestampValue == null)
 		{
-			throw new BankJsonApiInternalError(ex);
+			return defaultTimestamp;
+		}
+		
+		try
+		{
+			return Long.parseLong(timestampValue);
+		}
+		catch (NumberFormatException ex)
+		{
+			throw new BankJsonApiInvalidParameter("Invalid parameter: " + name);
 		}
 	}
 	
-	String accountGetInfo(String id)
-			throws BankJsonApiInternalError, BankJsonApiEntityNotFound
+	private long parseHistoryLimit(String limitValue)
+			throws BankJsonApiInvalidParameter
 	{
-		try
+		if (limitValue == null)
 		{
-			Optional<BankAccount> bankAccount = bank.accountFindById(id);
-			
-			if (!bankAccount.isPresent())
-			{
-				throw new BankJsonApiEntityNotFound(String.format("Account ID %s not found",
-																  id));
-			}
-			
-			BankAccountInfo bankAccountInfo = bank.accountGetInfo(bankAccount.get());
-			AccountInfoDto accountInfo = new AccountInfoDto(id,
-															bankAccountInfo.getDescription(),
-															bankAccountInfo.getBalance());
-			
-			return gson.toJson(accountInfo);
+			return Long.MAX_VALUE;
 		}
-		catch (BankAccountNotFound ex)
+		
+		long limit;
+		try
 		{
-			throw new BankJsonApiEntityNotFound(String.format("Account ID %s not found",
-															  ex.getAccountId()));
+			limit = Long.parseLong(limitValue);
 		}
-		catch (BankJsonApiEntityNotFound ex)
+		catch (NumberFormatException ex)
 		{
-			throw ex;
+			throw new BankJsonApiInvalidParameter("Invalid parameter: limit");
 		}
-		catch (Throwable ex)
+		
+		if (limit <= 0)
 		{
-			throw new BankJsonApiInternalError(ex);
+			throw new BankJsonApiInvalidParameter("Invalid parameter: limit, must be positive");
 		}
+		
+		return limit;
 	}
 	
-	String accountGetBalance(String id)
-			throws BankJsonApiInternalError, BankJsonApiEntityNotFound
+	/**
+	 * Wait for a call of the bank made by one of the blocking methods, translating its failure into the errors
+	 * of this API.
+	 */
+	private <T> T await(CompletableFuture<T> result)
+			throws BankJsonApiInternalError, BankJsonApiEntityNotFound, BankJsonApiInvalidParameter
 	{
 		try
 		{
-			Optional<BankAccount> bankAccount = bank.accountFindById(id);
+			return result.join();
+		}
+		catch (RuntimeException ex)
+		{
+			Exception error = getApiError(ex);
 			
-			if (!bankAccount.isPresent())
+			if (error instanceof BankJsonApiEntityNotFound)
 			{
-				throw new BankJsonApiEntityNotFound(String.format("Account ID %s not found",
-																  id));
+				throw (BankJsonApiEntityNotFound) error;
 			}
 			
-			BankAccountInfo bankAccountInfo = bank.accountGetInfo(bankAccount.get());
-			AccountBalanceDto accountBalance = new AccountBalanceDto(bankAccountInfo.getBalance());
+			if (error instanceof BankJsonApiInvalidParameter)
+			{
+				throw (BankJsonApiInvalidParameter) error;
+			}
 			
-			return gson.toJson(accountBalance);
+			throw (BankJsonApiInternalError) error;
 		}
-		catch (BankAccountNotFound ex)
+	}
+	
+	private int parsePageLimit(String limitValue)
+			throws BankJsonApiInvalidParameter
+	{
+		if (limitValue == null)
 		{
-			throw new BankJsonApiEntityNotFound(String.format("Account ID %s not found",
-															  ex.getAccountId()));
+			return DEFAULT_PAGE_SIZE;
 		}
-		catch (BankJsonApiEntityNotFound ex)
+		
+		int limit;
+		try
 		{
-			throw ex;
+			limit = Integer.parseInt(limitValue);
 		}
-		catch (Throwable ex)
+		catch (NumberFormatException ex)
 		{
-			throw new BankJsonApiInternalError(ex);
+			throw new BankJsonApiInvalidParameter("Invalid parameter: limit");
 		}
+		
+		if (limit <= 0
+			|| limit > MAXIMUM_PAGE_SIZE)
+		{
+			throw new BankJsonApiInvalidParameter(String.format("Invalid parameter: limit, must be between 1 and %d",
+																MAXIMUM_PAGE_SIZE));
+		}
+		
+		return limit;
 	}
 	
-	String accountClose(String id)
-			throws BankJsonApiInternalError, BankJsonApiEntityNotFound
+	private List<AccountInfoDto> getAccountInfoDtos(Map<BankAccount, BankAccountInfo> bankAccounts)
 	{
-		try
+		return bankAccounts.entrySet()
+						   .stream()
+						   .map(entry -> new AccountInfoDto(entry.getKey().getId(),
+															entry.getValue().getDescription(),
+															entry.getValue().getBalance()))
+						   .collect(Collectors.toList());
+	}
+	
+	/**
+	 * @return ID of the last account of a page, or null if the page is empty
+	 */
+	private String getLastId(Map<BankAccount, BankAccountInfo> bankAccounts)
+	{
+		String lastId = null;
+		for (BankAccount bankAccount : bankAccounts.keySet())
 		{
-			Optional<BankAccount> bankAccount = bank.accountFindById(id);
-			
-			if (!bankAccount.isPresent())
-			{
-				throw new BankJsonApiEntityNotFound(String.format("Account ID %s not found",
-																  id));
-			}
-			
-			bank.accountClose(bankAccount.get());
-			
-			return gson.toJson(new Object());
+			lastId = bankAccount.getId();
 		}
-		catch (BankAccountNotFound ex)
+		
+		return lastId;
+	}
+	
+	/**
+	 * @param ifNoneMatch value of the If-None-Match header, null if none
+	 */
+	CompletableFuture<VersionedJson> accountGetInfo(String id, String ifNoneMatch)
+	{
+		return executeVersioned(id,
+								ifNoneMatch,
+								bankAccount -> bank.accountGetInfo(bankAccount)
+												   .thenApply(bankAccountInfo -> BankJsonCodecs.toJson(new AccountInfoDto(id,
+																														  bankAccountInfo.getDescription(),
+																														  bankAccountInfo.getBalance()),
+																									   BankJsonCodecs.ACCOUNT_INFO)));
+	}
+	
+	/**
+	 * @param ifNoneMatch value of the If-None-Match header, null if none
+	 */
+	CompletableFuture<VersionedJson> accountGetBalance(String id, String ifNoneMatch)
+	{
+		return executeVersioned(id,
+								ifNoneMatch,
+								bankAccount -> bank.accountGetBalance(bankAccount)
+												   .thenApply(balance -> BankJsonCodecs.toJson(new AccountBalanceDto(balance), BankJsonCodecs.ACCOUNT_BALANCE)));
+	}
+	
+	/**
+	 * Read an account, unless the client has its current version already. The version is taken before the account
+	 * is read, so the tag sent with the JSON is never newer than the JSON itself; at worst it's older, and the client
+	 * reads the account once more than necessary.
+	 *
+	 * @param id          ID of the account
+	 * @param ifNoneMatch value of the If-None-Match header, null if none
+	 * @param read        reads the account and makes its JSON
+	 * @return future completed with the JSON response and the tag, or with one of the errors of this API
+	 */
+	private CompletableFuture<VersionedJson> executeVersioned(String id, String ifNoneMatch,
+															  Function<BankAccount, CompletableFuture<String>> read)
+	{
+		return execute(() -> bank.accountFindById(id)
+								 .thenCompose(bankAccount ->
+											  {
+												  BankAccount foundBankAccount = getFound(bankAccount,
+																						  () -> new BankJsonApiEntityNotFound(String.format("Account ID %s not found",
+																																			id)));
+												
+												  return getEntityTag(foundBankAccount)
+														  .thenCompose(entityTag ->
+																	   {
+																		   if (entityTag != null
+																			   && matchesEntityTag(ifNoneMatch, entityTag))
+																		   {
+																			   return CompletableFuture.completedFuture(VersionedJson.notModified(entityTag));
+																		   }
+																		
+																		   return read.apply(foundBankAccount)
+																					  .thenApply(json -> VersionedJson.of(entityTag, json));
+																	   });
+											  }));
+	}
+	
+	/**
+	 * @return future completed with the entity tag of the current version of the account, or with null when
+	 * the bank keeps no versions
+	 */
+	private CompletableFuture<String> getEntityTag(BankAccount bankAccount)
+	{
+		if (!versionsSupported)
 		{
-			throw new BankJsonApiEntityNotFound(String.format("Account ID %s not found",
-															  ex.getAccountId()));
+			return CompletableFuture.completedFuture(null);
 		}
-		catch (BankJsonApiEntityNotFound ex)
+		
+		return bank.accountGetVersion(bankAccount)
+				   .handle((version, ex) ->
+						   {
+							   if (ex == null)
+							   {
+								   return entityTagPrefix + version + "\"";
+							   }
+							
+							   Throwable cause = ex instanceof CompletionException && ex.getCause() != null
+									   ? ex.getCause()
+									   : ex;
+							   if (cause instanceof UnsupportedOperationException)
+							   {
+								   // Won't change, no point asking again.
+								   versionsSupported = false;
+								   return null;
+							   }
+							
+							   throw new CompletionException(cause);
+						   });
+	}
+	
+	/**
+	 * Weak comparison, as RFC 7232 asks for If-None-Match, so a W/ prefix is ignored.
+	 *
+	 * @param ifNoneMatch value of the If-None-Match header: *, or a comma separated list of entity tags
+	 * @param entityTag   entity tag of the current version
+	 * @return true if the header matches the current version
+	 */
+	static boolean matchesEntityTag(String ifNoneMatch, String entityTag)
+	{
+		if (ifNoneMatch == null)
 		{
-			throw ex;
+			return false;
 		}
-		catch (Throwable ex)
+		
+		for (String candidate : ifNoneMatch.split(","))
 		{
-			throw new BankJsonApiInternalError(ex);
+			String trimmed = candidate.trim();
+			if (trimmed.startsWith("W/"))
+			{
+				trimmed = trimmed.substring(2);
+			}
+			
+			if (trimmed.equals("*")
+				|| trimmed.equals(entityTag))
+			{
+				return true;
+			}
 		}
+		
+		return false;
 	}
 	
-	String accountDeposit(String id, String depositDescriptionJson)
-			throws BankJsonApiInternalError, BankJsonApiEntityNotFound, BankJsonApiInvalidParameter
+	CompletableFuture<String> accountClose(String id)
 	{
-		return executeDepositOrWithdraw(id, depositDescriptionJson, bank::accountDeposit);
+		return execute(() -> bank.accountFindById(id)
+								 .thenCompose(bankAccount -> bank.accountClose(getFound(bankAccount,
+																					   () -> new BankJsonApiEntityNotFound(String.format("Account ID %s not found",
+																																		 id)))))
+								 .thenApply(ignored -> BankJsonCodecs.EMPTY_OBJECT));
 	}
 	
-	String accountWithdraw(String id, String withdrawDescriptionJson)
-			throws BankJsonApiInternalError, BankJsonApiEntityNotFound, BankJsonApiInvalidParameter
+	/**
+	 * @param idempotencyKey key of the request given by the client, null if none
+	 */
+	CompletableFuture<String> accountDeposit(String id, String depositDescriptionJson, String idempotencyKey)
+	{
+		return executeIdempotent(idempotencyKey,
+								 "deposit " + id + "\n" + depositDescriptionJson,
+								 () -> executeDepositOrWithdraw(id, depositDescriptionJson, bank::accountDeposit));
+	}
+	
+	/**
+	 * @param idempotencyKey key of the request given by the client, null if none
+	 */
+	CompletableFuture<String> accountWithdraw(String id, String withdrawDescriptionJson, String idempotencyKey)
 	{
-		return executeDepositOrWithdraw(id, withdrawDescriptionJson, bank::accountWithdraw);
+		return executeIdempotent(idempotencyKey,
+								 "withdraw " + id + "\n" + withdrawDescriptionJson,
+								 () -> executeDepositOrWithdraw(id, withdrawDescriptionJson, bank::accountWithdraw));
 	}
 	
 	@FunctionalInterface
 	private interface DepositOrWithdrawOperation
 	{
-		OperationResult execute(BankAccount account, BigDecimal amount, String title)
-				throws BankInternalError, BankAccountNotFound;
+		CompletableFuture<OperationResult> execute(BankAccount account, BigDecimal amount, String title);
 	}
 	
-	private String executeDepositOrWithdraw(String accountId, String depositWithdrawDescriptionJson, DepositOrWithdrawOperation operation)
-			throws BankJsonApiInternalError, BankJsonApiEntityNotFound, BankJsonApiInvalidParameter
+	private CompletableFuture<String> executeDepositOrWithdraw(String accountId, String depositWithdrawDescriptionJson, DepositOrWithdrawOperation operation)
 	{
-		try
+		return execute(() ->
+					   {
+						   DepositWithdrawDescriptionDto withdrawDescription = BankJsonCodecs.fromJson(depositWithdrawDescriptionJson, BankJsonCodecs.DEPOSIT_WITHDRAW_DESCRIPTION);
+						
+						   if (accountId == null)
+						   {
+							   throw new BankJsonApiInvalidParameter("Missing parameter: accountId");
+						   }
+						
+						   if (withdrawDescription.getAmount() == null)
+						   {
+							   throw new BankJsonApiInvalidParameter("Missing parameter: amount");
+						   }
+						
+						   return bank.accountFindById(accountId)
+									  .thenCompose(bankAccount -> operation.execute(getFound(bankAccount,
+																							 () -> new BankJsonApiInvalidParameter("Account not found")),
+																					withdrawDescription.getAmount(),
+																					withdrawDescription.getTitle()))
+									  .thenApply(operationResult -> BankJsonCodecs.toJson(new DepositWithdrawResultDto(withdrawDescription,
+																													   operationResult.getActualAmount(),
+																													   operationResult.getStatus().name()),
+																						  BankJsonCodecs.DEPOSIT_WITHDRAW_RESULT));
+					   });
+	}
+	
+	/**
+	 * @param idempotencyKey key of the request given by the client, null if none
+	 */
+	CompletableFuture<String> transferExecute(String transferDescriptionJson, String idempotencyKey)
+	{
+		return executeIdempotent(idempotencyKey,
+								 "transfer\n" + transferDescriptionJson,
+								 () -> transferExecute(transferDescriptionJson));
+	}
+	
+	private CompletableFuture<String> transferExecute(String transferDescriptionJson)
+	{
+		return execute(() ->
+					   {
+						   TransferDescriptionDto transferDescription = BankJsonCodecs.fromJson(transferDescriptionJson, BankJsonCodecs.TRANSFER_DESCRIPTION);
+						
+						   if (transferDescription.getSourceAccountId() == null)
+						   {
+							   throw new BankJsonApiInvalidParameter("Missing parameter: sourceAccountId");
+						   }
+						
+						   if (transferDescription.getDestinationAccountId() == null)
+						   {
+							   throw new BankJsonApiInvalidParameter("Missing parameter: destinationAccountId");
+						   }
+						
+						   if (transferDescription.getAmount() == null)
+						   {
+							   throw new BankJsonApiInvalidParameter("Missing parameter: amount");
+						   }
+						
+						   // Look both accounts up at once.
+						   CompletableFuture<Optional<BankAccount>> sourceBankAccount = bank.accountFindById(transferDescription.getSourceAccountId());
+						   CompletableFuture<Optional<BankAccount>> destinationBankAccount = bank.accountFindById(transferDescription.getDestinationAccountId());
+						
+						   return sourceBankAccount.thenCombine(destinationBankAccount,
+																(source, destination) -> new BankTransfer(getFound(source,
+																												   () -> new BankJsonApiInvalidParameter("Source account not found")),
+																										  getFound(destination,
+																												   () -> new BankJsonApiInvalidParameter("Destination account not found")),
+																										  transferDescription.getAmount()))
+												   .thenCompose(transfer -> bank.transferAmount(transfer.getSourceAccount(),
+																								transfer.getDestinationAccount(),
+																								transfer.getAmount()))
+												   .thenApply(operationResult -> BankJsonCodecs.toJson(new TransferResultDto(transferDescription,
+																															 operationResult.getActualAmount(),
+																															 operationResult.getStatus().name()),
+																									   BankJsonCodecs.TRANSFER_RESULT));
+					   });
+	}
+	
+	/**
+	 * Every account is looked up only once, no matter how many transfers of the batch refer to it, and all
+	 * the lookups are made at once.
+	 * Transfers referring to an account that does not exist are not passed to the bank at all, they are reported
+	 * as FAILED_ACCOUNT_NOT_FOUND right here. In the atomic and netted modes that means the bank is not called
+	 * either, every other transfer of the batch is reported as FAILED_BATCH_ABORTED.
+	 *
+	 * @param idempotencyKey key of the request given by the client, null if none
+	 */
+	CompletableFuture<String> transferBatchExecute(String transferBatchDescriptionJson, String idempotencyKey)
+	{
+		return executeIdempotent(idempotencyKey,
+								 "transfer batch\n" + transferBatchDescriptionJson,
+								 () -> transferBatchExecute(transferBatchDescriptionJson));
+	}
+	
+	private CompletableFuture<String> transferBatchExecute(String transferBatchDescriptionJson)
+	{
+		return execute(() ->
+					   {
+						   TransferBatchDescriptionDto batchDescription = BankJsonCodecs.fromJson(transferBatchDescriptionJson,
+																								  BankJsonCodecs.TRANSFER_BATCH_DESCRIPTION);
+						
+						   if (batchDescription == null
+							   || batchDescription.getMode() == null)
+						   {
+							   throw new BankJsonApiInvalidParameter("Missing parameter: mode");
+						   }
+						
+						   TransferBatchMode mode = parseTransferBatchMode(batchDescription.getMode());
+						   List<TransferDescriptionDto> transferDescriptions = batchDescription.getTransfers();
+						
+						   if (transferDescriptions == null)
+						   {
+							   throw new BankJsonApiInvalidParameter("Missing parameter: transfers");
+						   }
+						
+						   for (int i = 0; i < transferDescriptions.size(); i++)
+						   {
+							   verifyBatchTransferDescription(transferDescriptions.get(i), i);
+						   }
+						
+						   Map<String, CompletableFuture<Optional<BankAccount>>> bankAccounts = new HashMap<>();
+						   for (TransferDescriptionDto transferDescription : transferDescriptions)
+						   {
+							   bankAccounts.computeIfAbsent(transferDescription.getSourceAccountId(), bank::accountFindById);
+							   bankAccounts.computeIfAbsent(transferDescription.getDestinationAccountId(), bank::accountFindById);
+						   }
+						
+						   return CompletableFuture.allOf(bankAccounts.values().toArray(new CompletableFuture<?>[0]))
+												   .thenCompose(ignored -> executeTransferBatch(transferDescriptions, bankAccounts, mode))
+												   .thenApply(results -> BankJsonCodecs.toJson(new TransferBatchResultDto(mode.name(), results), BankJsonCodecs.TRANSFER_BATCH_RESULT));
+					   });
+	}
+	
+	/**
+	 * The second half of transferBatchExecute, once all the accounts are looked up.
+	 */
+	private CompletableFuture<List<TransferResultDto>> executeTransferBatch(List<TransferDescriptionDto> transferDescriptions,
+																			Map<String, CompletableFuture<Optional<BankAccount>>> bankAccounts,
+																			TransferBatchMode mode)
+	{
+		List<BankTransfer> bankTransfers = new ArrayList<>();
+		boolean accountMissing = false;
+		for (TransferDescriptionDto transferDescription : transferDescriptions)
 		{
-			DepositWithdrawDescriptionDto withdrawDescription = gson.fromJson(depositWithdrawDescriptionJson, DepositWithdrawDescriptionDto.class);
-			
-			if (accountId == null)
-			{
-				throw new BankJsonApiInvalidParameter("Missing parameter: accountId");
-			}
+			Optional<BankAccount> sourceBankAccount = bankAccounts.get(transferDescription.getSourceAccountId()).join();
+			Optional<BankAccount> destinationBankAccount = bankAccounts.get(transferDescription.getDestinationAccountId()).join();
 			
-			if (withdrawDescription.getAmount() == null)
+			if (sourceBankAccount.isPresent()
+				&& destinationBankAccount.isPresent())
 			{
-				throw new BankJsonApiInvalidParameter("Missing parameter: amount");
+				bankTransfers.add(new BankTransfer(sourceBankAccount.get(),
+												   destinationBankAccount.get(),
+												   transferDescription.getAmount()));
 			}
-			
-			Optional<BankAccount> bankAccount = bank.accountFindById(accountId);
-			
-			if (!bankAccount.isPresent())
+			else
 			{
-				throw new BankJsonApiInvalidParameter("Account not found");
+				accountMissing = true;
 			}
-			
-			OperationResult operationResult = operation.execute(bankAccount.get(),
-																withdrawDescription.getAmount(),
-																withdrawDescription.getTitle());
-			
-			DepositWithdrawResultDto result = new DepositWithdrawResultDto(withdrawDescription,
-																		   operationResult.getActualAmount(),
-																		   operationResult.getStatus().name());
-			
-			return gson.toJson(result);
-			
 		}
-		catch (JsonSyntaxException ex)
-		{
-			throw new BankJsonApiInvalidParameter("Request body is not a valid JSON format");
-		}
-		catch (BankAccountNotFound ex)
+		
+		CompletableFuture<List<OperationResult>> operationResults = CompletableFuture.completedFuture(new ArrayList<>());
+		if (!(accountMissing && mode != TransferBatchMode.BEST_EFFORT))
 		{
-			throw new BankJsonApiEntityNotFound(String.format("Account ID %s not found",
-															  ex.getAccountId()));
+			operationResults = bank.transferBatch(bankTransfers, mode);
 		}
-		catch (BankJsonApiInvalidParameter ex)
+		
+		return operationResults.thenApply(resultList ->
+										  {
+											  Iterator<OperationResult> operationResultIterator = resultList.iterator();
+											  List<TransferResultDto> results = new ArrayList<>(transferDescriptions.size());
+											  for (TransferDescriptionDto transferDescription : transferDescriptions)
+											  {
+												  OperationResult operationResult;
+												  if (!bankAccounts.get(transferDescription.getSourceAccountId()).join().isPresent()
+													  || !bankAccounts.get(transferDescription.getDestinationAccountId()).join().isPresent())
+												  {
+													  operationResult = OperationResult.getAccountNotFound(transferDescription.getAmount());
+												  }
+												  else if (operationResultIterator.hasNext())
+												  {
+													  operationResult = operationResultIterator.next();
+												  }
+												  else
+												  {
+													  operationResult = OperationResult.getBatchAborted(transferDescription.getAmount());
+												  }
+												
+												  results.add(new TransferResultDto(transferDescription,
+																					operationResult.getActualAmount(),
+																					operationResult.getStatus().name()));
+											  }
+											
+											  return results;
+										  });
+	}
+	
+	private TransferBatchMode parseTransferBatchMode(String mode)
+			throws BankJsonApiInvalidParameter
+	{
+		try
 		{
-			throw ex;
+			return TransferBatchMode.valueOf(mode);
 		}
-		catch (Throwable ex)
+		catch (IllegalArgumentException ex)
 		{
-			throw new BankJsonApiInternalError(ex);
+			throw new BankJsonApiInvalidParameter("Invalid parameter: mode");
 		}
 	}
 	
-	String transferExecute(String transferDescriptionJson)
-			throws BankJsonApiInternalError, BankJsonApiEntityNotFound, BankJsonApiInvalidParameter
+	private void verifyBatchTransferDescription(TransferDescriptionDto transferDescription, int index)
+			throws BankJsonApiInvalidParameter
 	{
-		try
+		if (transferDescription == null)
 		{
-			TransferDescriptionDto transferDescription = gson.fromJson(transferDescriptionJson, TransferDescriptionDto.class);
-			
-			if (transferDescription.getSourceAccountId() == null)
-			{
-				throw new BankJsonApiInvalidParameter("Missing parameter: sourceAccountId");
-			}
-			
-			if (transferDescription.getDestinationAccountId() == null)
-			{
-				throw new BankJsonApiInvalidParameter("Missing parameter: destinationAccountId");
-			}
-			
-			if (transferDescription.getAmount() == null)
-			{
-				throw new BankJsonApiInvalidParameter("Missing parameter: amount");
-			}
-			
-			Optional<BankAccount> sourceBankAccount = bank.accountFindById(transferDescription.getSourceAccountId());
-			Optional<BankAccount> destinationBankAccount = bank.accountFindById(transferDescription.getDestinationAccountId());
-			BigDecimal amount = transferDescription.getAmount();
-			
-			if (!sourceBankAccount.isPresent())
-			{
-				throw new BankJsonApiInvalidParameter("Source account not found");
-			}
-			
-			if (!destinationBankAccount.isPresent())
-			{
-				throw new BankJsonApiInvalidParameter("Destination account not found");
-			}
-			
-			OperationResult operationResult = bank.transferAmount(sourceBankAccount.get(),
-																  destinationBankAccount.get(),
-																  amount);
-			
-			TransferResultDto result = new TransferResultDto(transferDescription,
-															 operationResult.getActualAmount(),
-															 operationResult.getStatus().name());
-			
-			return gson.toJson(result);
+			throw new BankJsonApiInvalidParameter(String.format("Missing parameter: transfers[%d]",
+																index));
 		}
-		catch (JsonSyntaxException ex)
+		
+		if (transferDescription.getSourceAccountId() == null)
 		{
-			throw new BankJsonApiInvalidParameter("Request body is not a valid JSON format");
+			throw new BankJsonApiInvalidParameter(String.format("Missing parameter: transfers[%d].sourceAccountId",
+																index));
 		}
-		catch (BankAccountNotFound ex)
+		
+		if (transferDescription.getDestinationAccountId() == null)
 		{
-			throw new BankJsonApiEntityNotFound(String.format("Account ID %s not found",
-															  ex.getAccountId()));
+			throw new BankJsonApiInvalidParameter(String.format("Missing parameter: transfers[%d].destinationAccountId",
+																index));
 		}
-		catch (BankJsonApiInvalidParameter ex)
+		
+		if (transferDescription.getAmount() == null)
 		{
-			throw ex;
+			throw new BankJsonApiInvalidParameter(String.format("Missing parameter: transfers[%d].amount",
+																index));
 		}
-		catch (Throwable ex)
+	}
+	
+	/**
+	 * Unwrap an account that was looked up, to be used inside of a future chain.
+	 *
+	 * @param bankAccount  result of the lookup
+	 * @param missingError error to fail the chain with when the account was not found
+	 * @return the account
+	 */
+	private BankAccount getFound(Optional<BankAccount> bankAccount, Supplier<Exception> missingError)
+	{
+		return bankAccount.orElseThrow(() -> new CompletionException(missingError.get()));
+	}
+	
+	@FunctionalInterface
+	private interface JsonCall<T>
+	{
+		CompletableFuture<T> execute()
+				throws Throwable;
+	}
+	
+	/**
+	 * Run the operation once per idempotency key, a retry with the same key gets the response of the first request
+	 * and the bank is not called again. Without a key the operation is simply run.
+	 *
+	 * @param idempotencyKey key of the request given by the client, null if none
+	 * @param request        operation, parameters and body of the request, a key can only be used for one request
+	 * @param operation      runs the request
+	 * @return future completed with the JSON response or with one of the errors of this API
+	 */
+	private CompletableFuture<String> executeIdempotent(String idempotencyKey, String request,
+														Supplier<CompletableFuture<String>> operation)
+	{
+		if (idempotencyKey == null)
 		{
-			throw new BankJsonApiInternalError(ex);
+			return operation.get();
+		}
+		
+		if (idempotencyKey.isEmpty()
+			|| idempotencyKey.length() > MAXIMUM_IDEMPOTENCY_KEY_LENGTH)
+		{
+			return execute(() ->
+						   {
+							   throw new BankJsonApiInvalidParameter("Invalid header: Idempotency-Key");
+						   });
 		}
+		
+		return idempotencyCache.execute(idempotencyKey, request, operation);
 	}
-}
-
-/**
- * Gson serialization and deserialization adapter for BigDecimal type. Uses half up rounding
- * and 2 decimal places of precision.
- */
-class BigDecimalTypeAdapter
-		extends TypeAdapter<BigDecimal>
-{
-	@Override
-	public void write(JsonWriter jsonWriter, BigDecimal value)
-			throws IOException
+	
+	/**
+	 * Run the call, translating whatever it fails with, thrown right away or completing the future later on,
+	 * into the errors of this API.
+	 *
+	 * @param call call to run
+	 * @return future completed with the JSON response or with one of the errors of this API
+	 */
+	private <T> CompletableFuture<T> execute(JsonCall<T> call)
 	{
-		jsonWriter.value(value.setScale(2,
-										RoundingMode.HALF_UP).toPlainString());
+		CompletableFuture<T> result = new CompletableFuture<>();
+		
+		try
+		{
+			call.execute()
+				.whenComplete((json, ex) ->
+							  {
+								  if (ex == null)
+								  {
+									  result.complete(json);
+								  }
+								  else
+								  {
+									  result.completeExceptionally(getApiError(ex));
+								  }
+							  });
+		}
+		catch (Throwable ex)
+		{
+			result.completeExceptionally(getApiError(ex));
+		}
+		
+		return result;
 	}
 	
-	@Override
-	public BigDecimal read(JsonReader jsonReader)
-			throws IOException
+	private Exception getApiError(Throwable error)
 	{
-		String value = jsonReader.nextString();
+		Throwable cause = error instanceof CompletionException && error.getCause() != null
+				? error.getCause()
+				: error;
+		
+		if (cause instanceof BankJsonApiInvalidParameter
+			|| cause instanceof BankJsonApiEntityNotFound
+			|| cause instanceof BankJsonApiInternalError)
+		{
+			return (Exception) cause;
+		}
+		
+		if (cause instanceof JsonSyntaxException)
+		{
+			return new BankJsonApiInvalidParameter("Request body is not a valid JSON format");
+		}
 		
-		return new BigDecimal(value);
+		if (cause instanceof BankAccountNotFound)
+		{
+			return new BankJsonApiEntityNotFound(String.format("Account ID %s not found",
+															   ((BankAccountNotFound) cause).getAccountId()));
+		}
+		
+		if (cause instanceof UnsupportedOperationException)
+		{
+			return new BankJsonApiInvalidParameter(cause.getMessage());
+		}
+		
+		return new BankJsonApiInternalError(cause);
 	}
-}
\ No newline at end of file
+}
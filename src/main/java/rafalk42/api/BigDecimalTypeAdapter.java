@@ -0,0 +1,53 @@
+package rafalk42.api;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import rafalk42.money.MinorUnits;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+
+/**
+ * Gson serialization and deserialization adapter for BigDecimal type. Uses half up rounding
+ * and 2 decimal places of precision. The text is parsed to and formatted from minor units (MinorUnits) directly,
+ * only an amount that does not fit in them is left to BigDecimal, as is one with more decimal places, so that
+ * the bank sees the amount exactly as it was given.
+ */
+class BigDecimalTypeAdapter
+		extends TypeAdapter<BigDecimal>
+{
+	@Override
+	public void write(JsonWriter jsonWriter, BigDecimal value)
+			throws IOException
+	{
+		if (MinorUnits.fits(value))
+		{
+			jsonWriter.value(MinorUnits.toString(MinorUnits.fromAmount(value)));
+		}
+		else
+		{
+			jsonWriter.value(value.setScale(2,
+											RoundingMode.HALF_UP).toPlainString());
+		}
+	}
+	
+	@Override
+	public BigDecimal read(JsonReader jsonReader)
+			throws IOException
+	{
+		String value = jsonReader.nextString();
+		
+		try
+		{
+			return MinorUnits.toAmount(MinorUnits.parseExact(value));
+		}
+		catch (NumberFormatException | ArithmeticException ex)
+		{
+			// Rejected by new BigDecimal too, unless it's one of the cases above.
+			return new BigDecimal(value);
+		}
+	}
+}
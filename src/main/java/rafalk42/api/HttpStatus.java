@@ -4,6 +4,7 @@ public enum HttpStatus
 {
 	SUCCESS_OK(200),
 	SUCCESS_CREATED(201),
+	REDIRECTION_NOT_MODIFIED(304),
 	CLIENT_ERROR_BAD_REQUEST(400),
 	CLIENT_ERROR_NOT_FOUND(404),
 	CLIENT_ERROR_METHOD_NOT_ALLOWED(405),
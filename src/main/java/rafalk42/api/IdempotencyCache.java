@@ -0,0 +1,304 @@
+package rafalk42.api;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+
+/**
+ * Results of requests made with an idempotency key, so that a client retrying a request (e.g. after a timeout) gets
+ * the result of the first execution back instead of executing it again. A retry that comes while the first execution
+ * is still running waits for it and gets the same result.
+ * <p>
+ * The cache is split into segments by the hash of the key, each one a LinkedHashMap guarded by a lock of its own,
+ * so requests with different keys hardly ever wait for each other and the cache is no global lock in front
+ * of the bank. Every entry lives for the same time, so the order of insertion is also the order of expiry: expired
+ * entries are always at the head of a segment and are removed from there, one step each, whenever the segment
+ * is used. The same goes for the memory cap, each segment gets an equal share of it and drops its oldest entries
+ * once the estimated size of its entries goes over it.
+ * Important:
+ * 1. it is thread-safe,
+ * 2. only successful results are kept, a failed execution is forgotten, so that it can be retried,
+ * 3. a key can only be used for one request, a key reused with another request fails it with
+ * BankJsonApiInvalidParameter,
+ * 4. when the cap is hit, an entry can be dropped before it expires, even while its request is still running;
+ * a retry after that is executed again.
+ */
+public class IdempotencyCache
+{
+	public static final long DEFAULT_TIME_TO_LIVE = TimeUnit.HOURS.toMillis(24);
+	public static final long DEFAULT_MAXIMUM_SIZE = 64L << 20;
+	
+	private static final int SEGMENT_COUNT = 64;
+	// Rough size of an entry without its strings: the map node, the entry and the future.
+	private static final int ENTRY_OVERHEAD = 160;
+	
+	private final long timeToLive;
+	private final long maximumSegmentSize;
+	private final LongSupplier clock;
+	private final Segment[] segments;
+	
+	public IdempotencyCache()
+	{
+		this(DEFAULT_TIME_TO_LIVE, DEFAULT_MAXIMUM_SIZE);
+	}
+	
+	/**
+	 * @param timeToLive  how long a result is kept, in milliseconds
+	 * @param maximumSize estimated size in bytes of all the entries, past which the oldest ones are dropped
+	 */
+	public IdempotencyCache(long timeToLive, long maximumSize)
+	{
+		this(timeToLive, maximumSize, System::currentTimeMillis);
+	}
+	
+	/**
+	 * @param clock source of the current time, in milliseconds
+	 */
+	IdempotencyCache(long timeToLive, long maximumSize, LongSupplier clock)
+	{
+		if (timeToLive <= 0)
+		{
+			throw new IllegalArgumentException("Time to live must be positive");
+		}
+		
+		if (maximumSize < SEGMENT_COUNT)
+		{
+			throw new IllegalArgumentException("Maximum size is too small");
+		}
+		
+		this.timeToLive = timeToLive;
+		this.maximumSegmentSize = maximumSize / SEGMENT_COUNT;
+		this.clock = clock;
+		
+		segments = new Segment[SEGMENT_COUNT];
+		for (int i = 0; i < SEGMENT_COUNT; i++)
+		{
+			segments[i] = new Segment();
+		}
+	}
+	
+	/**
+	 * Execute the operation, unless a request with the same key has been executed already; then it's the result
+	 * of that request, or of its execution still running.
+	 *
+	 * @param key       idempotency key given by the client
+	 * @param request   everything that makes the request what it is (operation, parameters and body), compared
+	 *                  with the request the key was used for first
+	 * @param operation executes the request
+	 * @return future completed with the JSON response, or with an error
+	 */
+	CompletableFuture<String> execute(String key, String request, Supplier<CompletableFuture<String>> operation)
+	{
+		Segment segment = getSegment(key);
+		Entry entry;
+		Entry existingEntry;
+		segment.lock();
+		try
+		{
+			long now = clock.getAsLong();
+			segment.evictExpired(now);
+			
+			existingEntry = segment.entries.get(key);
+			entry = existingEntry == null
+					? segment.add(key, new Entry(request, now + timeToLive, getSize(key) + getSize(request)))
+					: existingEntry;
+		}
+		finally
+		{
+			segment.unlock();
+		}
+		
+		if (existingEntry != null)
+		{
+			if (!existingEntry.request.equals(request))
+			{
+				CompletableFuture<String> result = new CompletableFuture<>();
+				result.completeExceptionally(new BankJsonApiInvalidParameter("Idempotency key was already used "
+																			 + "for a different request"));
+				return result;
+			}
+			
+			return existingEntry.result;
+		}
+		
+		CompletableFuture<String> result;
+		try
+		{
+			result = operation.get();
+		}
+		catch (RuntimeException ex)
+		{
+			result = new CompletableFuture<>();
+			result.completeExceptionally(ex);
+		}
+		
+		result.whenComplete((response, ex) ->
+							{
+								segment.lock();
+								try
+								{
+									if (ex != null)
+									{
+										segment.remove(key, entry);
+									}
+									else
+									{
+										segment.grow(key, entry, getSize(response));
+									}
+								}
+								finally
+								{
+									segment.unlock();
+								}
+								
+								if (ex != null)
+								{
+									entry.result.completeExceptionally(ex);
+								}
+								else
+								{
+									entry.result.complete(response);
+								}
+							});
+		
+		return entry.result;
+	}
+	
+	/**
+	 * @return number of entries, including the expired ones not removed yet
+	 */
+	int size()
+	{
+		int size = 0;
+		for (Segment segment : segments)
+		{
+			segment.lock();
+			try
+			{
+				size += segment.entries.size();
+			}
+			finally
+			{
+				segment.unlock();
+			}
+		}
+		
+		return size;
+	}
+	
+	private Segment getSegment(String key)
+	{
+		int hash = key.hashCode();
+		
+		return segments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+	}
+	
+	private static long getSize(String value)
+	{
+		return value == null
+				? 0
+				: 40 + 2L * value.length();
+	}
+	
+	private static class Entry
+	{
+		private final String request;
+		private final long expiryTime;
+		private final CompletableFuture<String> result;
+		private long size;
+		
+		private Entry(String request, long expiryTime, long size)
+		{
+			this.request = request;
+			this.expiryTime = expiryTime;
+			this.size = ENTRY_OVERHEAD + size;
+			
+			result = new CompletableFuture<>();
+		}
+	}
+	
+	/**
+	 * Entries in order of insertion, guarded by the lock of the segment.
+	 */
+	private class Segment
+	{
+		private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+		private final ReentrantLock lock = new ReentrantLock();
+		private long size;
+		
+		private void lock()
+		{
+			lock.lock();
+		}
+		
+		private void unlock()
+		{
+			lock.unlock();
+		}
+		
+		private Entry add(String key, Entry entry)
+		{
+			entries.put(key, entry);
+			size += entry.size;
+			evictOverflow();
+			
+			return entry;
+		}
+		
+		/**
+		 * Account for the response, once it's there, if the entry is still in the segment.
+		 */
+		private void grow(String key, Entry entry, long responseSize)
+		{
+			if (entries.get(key) == entry)
+			{
+				entry.size += responseSize;
+				size += responseSize;
+				evictOverflow();
+			}
+		}
+		
+		private void remove(String key, Entry entry)
+		{
+			if (entries.get(key) == entry)
+			{
+				entries.remove(key);
+				size -= entry.size;
+			}
+		}
+		
+		private void evictExpired(long now)
+		{
+			Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+			while (iterator.hasNext())
+			{
+				Entry entry = iterator.next().getValue();
+				if (entry.expiryTime > now)
+				{
+					return;
+				}
+				
+				iterator.remove();
+				size -= entry.size;
+			}
+		}
+		
+		private void evictOverflow()
+		{
+			Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+			while (size > maximumSegmentSize
+				   && iterator.hasNext())
+			{
+				Entry entry = iterator.next().getValue();
+				iterator.remove();
+				size -= entry.size;
+			}
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package rafalk42.api;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.RequestLog;
+import org.eclipse.jetty.server.Response;
+import rafalk42.api.accesslog.AccessLog;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Jetty's request log hook feeding an AccessLog. Jetty calls it once a response is complete, whichever way it was
+ * produced (a route, a halt, an error, an asynchronous completion), with the status that actually went out.
+ * Jetty has the time a request came in only in milliseconds, so that's the precision of the durations.
+ */
+class JettyAccessLog
+		implements RequestLog
+{
+	private final AccessLog accessLog;
+	
+	JettyAccessLog(AccessLog accessLog)
+	{
+		this.accessLog = accessLog;
+	}
+	
+	@Override
+	public void log(Request request, Response response)
+	{
+		long timestamp = request.getTimeStamp();
+		
+		accessLog.record(timestamp,
+						 request.getRemoteAddr(),
+						 request.getMethod(),
+						 request.getRequestURI(),
+						 response.getCommittedMetaData().getStatus(),
+						 TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - timestamp));
+	}
+}
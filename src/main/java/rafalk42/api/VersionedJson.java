@@ -0,0 +1,56 @@
+package rafalk42.api;
+
+/**
+ * JSON response of a resource that has versions, together with the entity tag of the version (the ETag header).
+ * When the client already has the current version (the If-None-Match header), there is no JSON at all, the response
+ * is 304 Not Modified.
+ */
+final class VersionedJson
+{
+	private final String entityTag;
+	private final String json;
+	
+	private VersionedJson(String entityTag, String json)
+	{
+		this.entityTag = entityTag;
+		this.json = json;
+	}
+	
+	/**
+	 * @param entityTag entity tag of the version, null if the bank keeps no versions
+	 * @param json      JSON of the version
+	 */
+	static VersionedJson of(String entityTag, String json)
+	{
+		return new VersionedJson(entityTag, json);
+	}
+	
+	/**
+	 * @param entityTag entity tag of the version the client has already
+	 */
+	static VersionedJson notModified(String entityTag)
+	{
+		return new VersionedJson(entityTag, null);
+	}
+	
+	/**
+	 * @return entity tag of the version, quoted, null if the bank keeps no versions
+	 */
+	String getEntityTag()
+	{
+		return entityTag;
+	}
+	
+	/**
+	 * @return JSON of the version, null if not modified
+	 */
+	String getJson()
+	{
+		return json;
+	}
+	
+	boolean isNotModified()
+	{
+		return json == null;
+	}
+}
@@ -0,0 +1,128 @@
+package rafalk42.api;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Jetty thread pool that does not pool anything, every job Jetty hands over (accepting connections, selecting,
+ * handling a request) gets a new virtual thread of its own. A request blocked on the bank then only parks its
+ * virtual thread, the carrier thread underneath moves on to another request.
+ * <p>
+ * Virtual threads exist since Java 21, while the build still has to work with older releases, so the thread
+ * factory is looked up through reflection. On an older JVM the constructor throws UnsupportedOperationException.
+ */
+class VirtualThreadPool
+		extends AbstractLifeCycle
+		implements ThreadPool
+{
+	private final ThreadFactory threadFactory;
+	private final AtomicInteger threadCount;
+	private final CountDownLatch stopped;
+	
+	/**
+	 * @param name prefix of the names of the threads, followed by a sequence number
+	 */
+	VirtualThreadPool(String name)
+	{
+		threadFactory = createVirtualThreadFactory(name + "-");
+		threadCount = new AtomicInteger(0);
+		stopped = new CountDownLatch(1);
+	}
+	
+	@Override
+	public void execute(Runnable job)
+	{
+		if (!isRunning())
+		{
+			throw new RejectedExecutionException("Thread pool is not running");
+		}
+		
+		threadCount.incrementAndGet();
+		threadFactory.newThread(() ->
+								{
+									try
+									{
+										job.run();
+									}
+									finally
+									{
+										threadCount.decrementAndGet();
+									}
+								})
+					 .start();
+	}
+	
+	@Override
+	public void join()
+			throws InterruptedException
+	{
+		stopped.await();
+	}
+	
+	@Override
+	public int getThreads()
+	{
+		return threadCount.get();
+	}
+	
+	/**
+	 * @return always 0, there is no such thing as an idle virtual thread, it's gone as soon as its job is done
+	 */
+	@Override
+	public int getIdleThreads()
+	{
+		return 0;
+	}
+	
+	/**
+	 * @return always false, a new virtual thread can always be started
+	 */
+	@Override
+	public boolean isLowOnThreads()
+	{
+		return false;
+	}
+	
+	@Override
+	protected void doStop()
+			throws Exception
+	{
+		stopped.countDown();
+		super.doStop();
+	}
+	
+	/**
+	 * Equivalent of Thread.ofVirtual().name(prefix, 0).factory(), without referring to any Java 21 API directly.
+	 *
+	 * @param prefix prefix of the names of the threads
+	 * @return factory of virtual threads
+	 */
+	private static ThreadFactory createVirtualThreadFactory(String prefix)
+	{
+		try
+		{
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			Method name = builderClass.getMethod("name", String.class, long.class);
+			Method factory = builderClass.getMethod("factory");
+			
+			Object builder = ofVirtual.invoke(null);
+			builder = name.invoke(builder, prefix, 0L);
+			
+			return (ThreadFactory) factory.invoke(builder);
+		}
+		catch (ReflectiveOperationException ex)
+		{
+			throw new UnsupportedOperationException(String.format("Virtual threads are not available in Java %s, "
+																   + "Java 21 or newer is required",
+																   System.getProperty("java.version")), ex);
+		}
+	}
+}
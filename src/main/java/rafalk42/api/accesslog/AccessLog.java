@@ -0,0 +1,525 @@
+package rafalk42.api.accesslog;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Access log of the HTTP servers, one line per request, written to a file by a thread of its own. The threads
+ * handling the requests neither format anything nor touch the file: a request is recorded into a slot of
+ * a pre-allocated ring (the strings the server already has and a few numbers), claimed with a single atomic
+ * operation. The writer takes every published slot, formats it straight into a buffer and writes the buffer with
+ * one call when it is full or the ring is drained, so under load a single write carries hundreds of lines.
+ * <p>
+ * A line is the time the request came in, the remote address, the method, the path (bytes outside of printable
+ * ASCII percent-encoded), the status and the time it took in microseconds:
+ * <pre>
+ * 2026-10-18T14:03:27.512+0200 127.0.0.1 POST /bank/accounts/42/deposit 200 384us
+ * </pre>
+ * Important:
+ * 1. only one in sampleRate successful requests is recorded, picked at random, while every request answered with
+ * 4xx or 5xx is; a sample rate of 0 records the errors only,
+ * 2. when the ring is full (the writer can't keep up with the file) the overflow mode decides: BLOCK waits for
+ * a free slot, DROP throws the record away and counts it, the count is written to the log as well,
+ * 3. lines get to the file a millisecond or so after their requests, close writes out everything recorded
+ * before it,
+ * 4. fields longer than MAXIMUM_FIELD_LENGTH characters are cut.
+ */
+public class AccessLog
+		implements AutoCloseable
+{
+	/**
+	 * What happens to a request when its record doesn't fit in the ring.
+	 */
+	public enum OverflowMode
+	{
+		/**
+		 * The request thread waits until the writer frees a slot, nothing is lost.
+		 */
+		BLOCK,
+		/**
+		 * The record is dropped and counted, the request thread never waits.
+		 */
+		DROP
+	}
+	
+	public static final int DEFAULT_CAPACITY = 65536;
+	public static final int MAXIMUM_FIELD_LENGTH = 1024;
+	
+	private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+	// Three fields, a character can take up to 9 bytes percent-encoded, plus the numbers and the separators.
+	private static final int MAXIMUM_LINE_LENGTH = 3 * 9 * MAXIMUM_FIELD_LENGTH + 128;
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final DateTimeFormatter SECOND_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+	private static final DateTimeFormatter OFFSET_FORMAT = DateTimeFormatter.ofPattern("xx");
+	private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+	
+	private final org.slf4j.Logger log = LoggerFactory.getLogger(AccessLog.class);
+	private final int sampleRate;
+	private final OverflowMode overflowMode;
+	private final Record[] records;
+	private final AtomicLongArray publishedSequences;
+	private final int mask;
+	private final AtomicLong nextClaimSequence;
+	private final LongAdder droppedRecords;
+	private final FileChannel file;
+	private final Thread writerThread;
+	/**
+	 * Every record with a sequence lower than this one has been formatted. Written only by the writer.
+	 */
+	private volatile long consumedSequence;
+	private volatile boolean stopping;
+	
+	// Used only by the writer thread.
+	private final ByteBuffer writeBuffer;
+	private long cachedSecond;
+	private byte[] cachedSecondText;
+	private byte[] cachedOffsetText;
+	private long reportedDroppedRecords;
+	
+	public AccessLog(Path path, int sampleRate, OverflowMode overflowMode)
+			throws IOException
+	{
+		this(path, DEFAULT_CAPACITY, sampleRate, overflowMode);
+	}
+	
+	/**
+	 * Open the file (appending to what is already there) and start the writer.
+	 *
+	 * @param path         file to write the log to
+	 * @param capacity     number of slots of the ring, must be a power of two
+	 * @param sampleRate   record one in that many successful requests, 1 for all of them, 0 for none
+	 * @param overflowMode what to do with a request when the ring is full
+	 * @throws IOException thrown when the file could not be opened
+	 */
+	public AccessLog(Path path, int capacity, int sampleRate, OverflowMode overflowMode)
+			throws IOException
+	{
+		if (capacity <= 0
+			|| Integer.bitCount(capacity) != 1)
+		{
+			throw new IllegalArgumentException("Capacity must be a positive power of two");
+		}
+		
+		if (sampleRate < 0)
+		{
+			throw new IllegalArgumentException("Sample rate can't be negative");
+		}
+		
+		this.sampleRate = sampleRate;
+		this.overflowMode = overflowMode;
+		
+		records = new Record[capacity];
+		publishedSequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++)
+		{
+			records[i] = new Record();
+			publishedSequences.set(i, -1);
+		}
+		
+		mask = capacity - 1;
+		nextClaimSequence = new AtomicLong(0);
+		droppedRecords = new LongAdder();
+		consumedSequence = 0;
+		
+		writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+		cachedSecond = Long.MIN_VALUE;
+		
+		file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		
+		writerThread = new Thread(this::runWriter, "access-log-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+	
+	/**
+	 * Record a request, if it gets sampled. Called by the request threads, it never blocks in DROP mode.
+	 *
+	 * @param timestamp     time the request came in, milliseconds since the epoch
+	 * @param remoteAddress address of the client
+	 * @param method        HTTP method of the request
+	 * @param path          path of the request
+	 * @param status        HTTP status of the response
+	 * @param durationNanos time from the request coming in to the response being written
+	 */
+	public void record(long timestamp, String remoteAddress, String method, String path, int status,
+					   long durationNanos)
+	{
+		if (status < 400
+			&& !isSampled())
+		{
+			return;
+		}
+		
+		if (stopping)
+		{
+			droppedRecords.increment();
+			return;
+		}
+		
+		long sequence = claim();
+		if (sequence < 0)
+		{
+			droppedRecords.increment();
+			return;
+		}
+		
+		Record record = records[(int) sequence & mask];
+		record.timestamp = timestamp;
+		record.remoteAddress = remoteAddress;
+		record.method = method;
+		record.path = path;
+		record.status = status;
+		record.durationNanos = durationNanos;
+		
+		// The writer polls, nobody needs to see this right away, an ordered write is enough.
+		publishedSequences.lazySet((int) sequence & mask, sequence);
+	}
+	
+	/**
+	 * @return number of records dropped because the ring was full, or because the log was closed
+	 */
+	public long getDroppedCount()
+	{
+		return droppedRecords.sum();
+	}
+	
+	/**
+	 * Write out everything recorded so far and close the file. Whatever is recorded later is ignored.
+	 */
+	@Override
+	public void close()
+	{
+		stopping = true;
+		
+		try
+		{
+			writerThread.join();
+			file.close();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (IOException ex)
+		{
+			log.warn("Closing access log failed", ex);
+		}
+		
+		long dropped = droppedRecords.sum();
+		if (dropped > 0)
+		{
+			log.warn(String.format("Access log dropped %d records", dropped));
+		}
+	}
+	
+	private boolean isSampled()
+	{
+		if (sampleRate == 1)
+		{
+			return true;
+		}
+		
+		return sampleRate != 0
+			   && ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+	}
+	
+	/**
+	 * Claim the next sequence. In BLOCK mode wait for the writer to free its slot if the ring is full,
+	 * in DROP mode give up right away.
+	 *
+	 * @return claimed sequence, or -1 if there is no slot for the record
+	 */
+	private long claim()
+	{
+		if (overflowMode == OverflowMode.DROP)
+		{
+			long sequence;
+			do
+			{
+				sequence = nextClaimSequence.get();
+				if (sequence - records.length >= consumedSequence)
+				{
+					return -1;
+				}
+			}
+			while (!nextClaimSequence.compareAndSet(sequence, sequence + 1));
+			
+			return sequence;
+		}
+		
+		long sequence = nextClaimSequence.getAndIncrement();
+		
+		while (sequence - records.length >= consumedSequence)
+		{
+			// The writer is gone, nobody is going to free the slot.
+			if (stopping)
+			{
+				return -1;
+			}
+			
+			// Ring is full, the writer is behind. Back off instead of burning the core it might need.
+			LockSupport.parkNanos(1000);
+		}
+		
+		return sequence;
+	}
+	
+	private void runWriter()
+	{
+		long sequence = 0;
+		
+		try
+		{
+			while (true)
+			{
+				// Read before draining, so that everything recorded before close gets written.
+				boolean stop = stopping;
+				
+				while (publishedSequences.get((int) sequence & mask) == sequence)
+				{
+					if (writeBuffer.remaining() < MAXIMUM_LINE_LENGTH)
+					{
+						flush();
+					}
+					
+					Record record = records[(int) sequence & mask];
+					putRecord(record);
+					record.clear();
+					
+					sequence++;
+					consumedSequence = sequence;
+				}
+				
+				putDroppedRecords();
+				
+				if (writeBuffer.position() > 0)
+				{
+					flush();
+				}
+				
+				if (stop)
+				{
+					return;
+				}
+				
+				LockSupport.parkNanos(IDLE_PARK_NANOS);
+			}
+		}
+		catch (IOException ex)
+		{
+			log.error("Writing access log failed, no more requests will be logged", ex);
+			
+			// Nothing is going to free the slots any more, the request threads must not wait for them.
+			stopping = true;
+		}
+	}
+	
+	private void flush()
+			throws IOException
+	{
+		// Through Buffer, the ByteBuffer overrides only exist since Java 9.
+		((Buffer) writeBuffer).flip();
+		while (writeBuffer.hasRemaining())
+		{
+			file.write(writeBuffer);
+		}
+		((Buffer) writeBuffer).clear();
+	}
+	
+	private void putRecord(Record record)
+	{
+		putTimestamp(record.timestamp);
+		writeBuffer.put((byte) ' ');
+		putField(record.remoteAddress);
+		writeBuffer.put((byte) ' ');
+		putField(record.method);
+		writeBuffer.put((byte) ' ');
+		putField(record.path);
+		writeBuffer.put((byte) ' ');
+		putNumber(record.status);
+		writeBuffer.put((byte) ' ');
+		putNumber(TimeUnit.NANOSECONDS.toMicros(record.durationNanos));
+		writeBuffer.put((byte) 'u');
+		writeBuffer.put((byte) 's');
+		writeBuffer.put((byte) '\n');
+	}
+	
+	/**
+	 * Note the records dropped since the last note, if there were any.
+	 */
+	private void putDroppedRecords()
+	{
+		long dropped = droppedRecords.sum();
+		if (dropped == reportedDroppedRecords)
+		{
+			return;
+		}
+		
+		if (writeBuffer.remaining() < MAXIMUM_LINE_LENGTH)
+		{
+			return;
+		}
+		
+		putTimestamp(System.currentTimeMillis());
+		writeBuffer.put(" - access log overflow, records dropped: ".getBytes(StandardCharsets.US_ASCII));
+		putNumber(dropped - reportedDroppedRecords);
+		writeBuffer.put((byte) '\n');
+		
+		reportedDroppedRecords = dropped;
+	}
+	
+	/**
+	 * The date and the time down to the second are formatted once a second, only the milliseconds every time.
+	 */
+	private void putTimestamp(long timestamp)
+	{
+		long second = Math.floorDiv(timestamp, 1000L);
+		if (second != cachedSecond)
+		{
+			ZonedDateTime time = Instant.ofEpochSecond(second).atZone(ZoneId.systemDefault());
+			cachedSecondText = SECOND_FORMAT.format(time).getBytes(StandardCharsets.US_ASCII);
+			cachedOffsetText = OFFSET_FORMAT.format(time).getBytes(StandardCharsets.US_ASCII);
+			cachedSecond = second;
+		}
+		
+		int millisecond = (int) Math.floorMod(timestamp, 1000L);
+		
+		writeBuffer.put(cachedSecondText);
+		writeBuffer.put((byte) '.');
+		writeBuffer.put((byte) ('0' + millisecond / 100));
+		writeBuffer.put((byte) ('0' + millisecond / 10 % 10));
+		writeBuffer.put((byte) ('0' + millisecond % 10));
+		writeBuffer.put(cachedOffsetText);
+	}
+	
+	private void putNumber(long number)
+	{
+		if (number < 0)
+		{
+			writeBuffer.put((byte) '-');
+			number = -number;
+		}
+		
+		long divisor = 1;
+		while (number / divisor >= 10)
+		{
+			divisor *= 10;
+		}
+		
+		for (; divisor > 0; divisor /= 10)
+		{
+			writeBuffer.put((byte) ('0' + number / divisor % 10));
+		}
+	}
+	
+	/**
+	 * Printable ASCII goes as it is, everything else (spaces and line breaks included, so that a line can always
+	 * be split on spaces) as percent-encoded UTF-8. A missing field is a dash.
+	 */
+	private void putField(String field)
+	{
+		if (field == null
+			|| field.isEmpty())
+		{
+			writeBuffer.put((byte) '-');
+			return;
+		}
+		
+		int length = Math.min(field.length(), MAXIMUM_FIELD_LENGTH);
+		for (int i = 0; i < length; i++)
+		{
+			char character = field.charAt(i);
+			if (character > ' '
+				&& character < 0x7f
+				&& character != '%')
+			{
+				writeBuffer.put((byte) character);
+				continue;
+			}
+			
+			int codePoint = character;
+			if (Character.isHighSurrogate(character)
+				&& i + 1 < length
+				&& Character.isLowSurrogate(field.charAt(i + 1)))
+			{
+				codePoint = Character.toCodePoint(character, field.charAt(++i));
+			}
+			
+			putEncodedCodePoint(codePoint);
+		}
+	}
+	
+	private void putEncodedCodePoint(int codePoint)
+	{
+		if (codePoint < 0x80)
+		{
+			putEncodedByte(codePoint);
+		}
+		else if (codePoint < 0x800)
+		{
+			putEncodedByte(0xc0 | codePoint >> 6);
+			putEncodedByte(0x80 | codePoint & 0x3f);
+		}
+		else if (codePoint < 0x10000)
+		{
+			putEncodedByte(0xe0 | codePoint >> 12);
+			putEncodedByte(0x80 | codePoint >> 6 & 0x3f);
+			putEncodedByte(0x80 | codePoint & 0x3f);
+		}
+		else
+		{
+			putEncodedByte(0xf0 | codePoint >> 18);
+			putEncodedByte(0x80 | codePoint >> 12 & 0x3f);
+			putEncodedByte(0x80 | codePoint >> 6 & 0x3f);
+			putEncodedByte(0x80 | codePoint & 0x3f);
+		}
+	}
+	
+	private void putEncodedByte(int value)
+	{
+		writeBuffer.put((byte) '%');
+		writeBuffer.put(HEX_DIGITS[value >> 4 & 0xf]);
+		writeBuffer.put(HEX_DIGITS[value & 0xf]);
+	}
+	
+	/**
+	 * A slot of the ring, filled in by a request thread, read by the writer once published.
+	 */
+	private static class Record
+	{
+		private long timestamp;
+		private String remoteAddress;
+		private String method;
+		private String path;
+		private int status;
+		private long durationNanos;
+		
+		/**
+		 * Let go of the strings, so that a quiet ring doesn't keep them alive.
+		 */
+		private void clear()
+		{
+			remoteAddress = null;
+			method = null;
+			path = null;
+		}
+	}
+}
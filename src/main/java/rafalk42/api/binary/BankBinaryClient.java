@@ -0,0 +1,452 @@
+package rafalk42.api.binary;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import rafalk42.bank.domain.OperationResult;
+import rafalk42.bank.domain.TransferBatchMode;
+import rafalk42.money.MinorUnits;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Client of BankBinaryServer, a single connection shared by any number of threads. Every call sends its request
+ * right away and returns a future, completed when the response comes, so callers can have as many requests
+ * in flight as they like, from as many threads as they like.
+ * Important:
+ * 1. it is thread-safe,
+ * 2. requests sent at about the same time are written to the socket together, so pipelining costs one system call
+ * per batch of requests rather than per request,
+ * 3. the futures are completed by the I/O thread of the client, callbacks that block should be run by an executor
+ * of their own (thenApplyAsync and the like), otherwise they hold up every other response,
+ * 4. a request answered with an error completes its future with BankBinaryError, a request that could not be sent
+ * or was still waiting when the connection was lost completes it with IOException.
+ */
+public class BankBinaryClient
+		implements AutoCloseable
+{
+	private static final int SHUTDOWN_TIMEOUT = 5;
+	private static final OperationResult.Status[] OPERATION_RESULT_STATUSES = OperationResult.Status.values();
+	
+	private final EventLoopGroup eventLoopGroup;
+	private final Channel channel;
+	private final AtomicLong nextRequestId;
+	private final Map<Long, PendingRequest<?>> pendingRequests;
+	private final Queue<ByteBuf> outgoingFrames;
+	private final AtomicBoolean writeScheduled;
+	
+	private BankBinaryClient(EventLoopGroup eventLoopGroup, Channel channel, Map<Long, PendingRequest<?>> pendingRequests)
+	{
+		this.eventLoopGroup = eventLoopGroup;
+		this.channel = channel;
+		this.nextRequestId = new AtomicLong(1);
+		this.pendingRequests = pendingRequests;
+		this.outgoingFrames = new ConcurrentLinkedQueue<>();
+		this.writeScheduled = new AtomicBoolean(false);
+	}
+	
+	/**
+	 * @param host host of the server
+	 * @param port port of the server
+	 * @return client connected to the server
+	 * @throws IOException thrown when connecting failed
+	 */
+	public static BankBinaryClient connect(String host, int port)
+			throws IOException
+	{
+		EventLoopGroup eventLoopGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("bank-binary-client", true));
+		Map<Long, PendingRequest<?>> pendingRequests = new ConcurrentHashMap<>();
+		
+		ChannelFuture connected = new Bootstrap()
+				.group(eventLoopGroup)
+				.channel(NioSocketChannel.class)
+				.option(ChannelOption.TCP_NODELAY, true)
+				.handler(new ChannelInitializer<SocketChannel>()
+				{
+					@Override
+					protected void initChannel(SocketChannel channel)
+					{
+						channel.pipeline()
+							   .addLast(new LengthFieldBasedFrameDecoder(BankBinaryProtocol.MAXIMUM_FRAME_LENGTH,
+																		 0,
+																		 BankBinaryProtocol.LENGTH_FIELD_LENGTH,
+																		 0,
+																		 BankBinaryProtocol.LENGTH_FIELD_LENGTH))
+							   .addLast(new ResponseHandler(pendingRequests));
+					}
+				})
+				.connect(host, port)
+				.awaitUninterruptibly();
+		
+		if (!connected.isSuccess())
+		{
+			eventLoopGroup.shutdownGracefully(0, SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+			throw new IOException(String.format("Connecting to %s:%d failed", host, port), connected.cause());
+		}
+		
+		return new BankBinaryClient(eventLoopGroup, connected.channel(), pendingRequests);
+	}
+	
+	/**
+	 * @return future completed with the ID of the new account
+	 */
+	public CompletableFuture<String> accountOpen(String description, BigDecimal initialBalance)
+	{
+		long initialBalanceMinorUnits = MinorUnits.fromAmount(initialBalance);
+		
+		return send(BankBinaryProtocol.OPERATION_OPEN,
+					frame ->
+					{
+						frame.writeLong(initialBalanceMinorUnits);
+						BankBinaryProtocol.writeString(frame, description);
+					},
+					BankBinaryProtocol::readString);
+	}
+	
+	public CompletableFuture<BigDecimal> accountGetBalance(String accountId)
+	{
+		return send(BankBinaryProtocol.OPERATION_GET_BALANCE,
+					frame -> BankBinaryProtocol.writeString(frame, accountId),
+					response -> MinorUnits.toAmount(response.readLong()));
+	}
+	
+	public CompletableFuture<OperationResult> accountDeposit(String accountId, BigDecimal amount, String title)
+	{
+		return sendDepositOrWithdraw(BankBinaryProtocol.OPERATION_DEPOSIT, accountId, amount, title);
+	}
+	
+	public CompletableFuture<OperationResult> accountWithdraw(String accountId, BigDecimal amount, String title)
+	{
+		return sendDepositOrWithdraw(BankBinaryProtocol.OPERATION_WITHDRAW, accountId, amount, title);
+	}
+	
+	public CompletableFuture<OperationResult> transferAmount(String sourceAccountId, String destinationAccountId,
+															 BigDecimal amount)
+	{
+		long amountMinorUnits = MinorUnits.fromAmount(amount);
+		
+		return send(BankBinaryProtocol.OPERATION_TRANSFER,
+					frame ->
+					{
+						BankBinaryProtocol.writeString(frame, sourceAccountId);
+						BankBinaryProtocol.writeString(frame, destinationAccountId);
+						frame.writeLong(amountMinorUnits);
+					},
+					BankBinaryClient::readOperationResult);
+	}
+	
+	/**
+	 * @return future completed with the results of the transfers, in the same order as the transfers
+	 */
+	public CompletableFuture<List<OperationResult>> transferBatch(List<Transfer> transfers, TransferBatchMode mode)
+	{
+		if (transfers == null
+			|| mode == null)
+		{
+			throw new IllegalArgumentException("Transfers and mode cannot be null");
+		}
+		
+		long[] amountsMinorUnits = new long[transfers.size()];
+		for (int i = 0; i < transfers.size(); i++)
+		{
+			amountsMinorUnits[i] = MinorUnits.fromAmount(transfers.get(i).getAmount());
+		}
+		
+		return send(BankBinaryProtocol.OPERATION_TRANSFER_BATCH,
+					frame ->
+					{
+						frame.writeByte(mode.ordinal());
+						frame.writeInt(transfers.size());
+						for (int i = 0; i < transfers.size(); i++)
+						{
+							BankBinaryProtocol.writeString(frame, transfers.get(i).getSourceAccountId());
+							BankBinaryProtocol.writeString(frame, transfers.get(i).getDestinationAccountId());
+							frame.writeLong(amountsMinorUnits[i]);
+						}
+					},
+					response ->
+					{
+						int resultCount = response.readInt();
+						List<OperationResult> results = new ArrayList<>(resultCount);
+						for (int i = 0; i < resultCount; i++)
+						{
+							results.add(readOperationResult(response));
+						}
+						
+						return results;
+					});
+	}
+	
+	/**
+	 * Close the connection, the requests still waiting for a response fail with IOException.
+	 */
+	@Override
+	public void close()
+	{
+		channel.close().awaitUninterruptibly();
+		eventLoopGroup.shutdownGracefully(0, SHUTDOWN_TIMEOUT, TimeUnit.SECONDS).syncUninterruptibly();
+	}
+	
+	private CompletableFuture<OperationResult> sendDepositOrWithdraw(byte operation, String accountId,
+																	 BigDecimal amount, String title)
+	{
+		long amountMinorUnits = MinorUnits.fromAmount(amount);
+		
+		return send(operation,
+					frame ->
+					{
+						BankBinaryProtocol.writeString(frame, accountId);
+						frame.writeLong(amountMinorUnits);
+						BankBinaryProtocol.writeString(frame, title);
+					},
+					BankBinaryClient::readOperationResult);
+	}
+	
+	private <T> CompletableFuture<T> send(byte operation, RequestWriter requestWriter, ResponseReader<T> responseReader)
+	{
+		long requestId = nextRequestId.getAndIncrement();
+		
+		ByteBuf frame = channel.alloc().buffer();
+		try
+		{
+			int frameIndex = BankBinaryProtocol.beginFrame(frame, requestId);
+			frame.writeByte(operation);
+			requestWriter.write(frame);
+			BankBinaryProtocol.endFrame(frame, frameIndex);
+		}
+		catch (RuntimeException ex)
+		{
+			frame.release();
+			throw ex;
+		}
+		
+		PendingRequest<T> request = new PendingRequest<>(responseReader);
+		pendingRequests.put(requestId, request);
+		
+		// The connection could have been lost before the request was put among the pending ones.
+		if (!channel.isActive())
+		{
+			frame.release();
+			failPendingRequest(pendingRequests, requestId);
+			return request.future;
+		}
+		
+		outgoingFrames.add(frame);
+		if (writeScheduled.compareAndSet(false, true))
+		{
+			channel.eventLoop().execute(this::writeOutgoingFrames);
+		}
+		
+		return request.future;
+	}
+	
+	/**
+	 * Called by the I/O thread, writes every frame queued so far and flushes them at once.
+	 */
+	private void writeOutgoingFrames()
+	{
+		// Cleared before taking the frames, so a frame queued after the last one taken always schedules another run.
+		writeScheduled.set(false);
+		
+		ByteBuf frame;
+		while ((frame = outgoingFrames.poll()) != null)
+		{
+			channel.write(frame, channel.voidPromise());
+		}
+		
+		channel.flush();
+	}
+	
+	private static void failPendingRequest(Map<Long, PendingRequest<?>> pendingRequests, long requestId)
+	{
+		PendingRequest<?> request = pendingRequests.remove(requestId);
+		if (request != null)
+		{
+			request.future.completeExceptionally(new IOException("Connection closed"));
+		}
+	}
+	
+	private static OperationResult readOperationResult(ByteBuf response)
+	{
+		int statusIndex = response.readUnsignedByte();
+		BigDecimal actualAmount = MinorUnits.toAmount(response.readLong());
+		
+		if (statusIndex >= OPERATION_RESULT_STATUSES.length)
+		{
+			throw new IllegalArgumentException("Unknown operation result status: " + statusIndex);
+		}
+		
+		switch (OPERATION_RESULT_STATUSES[statusIndex])
+		{
+			case SUCCESSFUL:
+				return OperationResult.getSuccessful(actualAmount);
+			case FAILED_INVALID_AMOUNT:
+				return OperationResult.getInvalidAmount(actualAmount);
+			case FAILED_NOT_ENOUGH_FUNDS:
+				return OperationResult.getNotEnoughFunds(actualAmount);
+			case FAILED_NOT_ALLOWED:
+				return OperationResult.getNotAllowed(actualAmount);
+			case FAILED_ACCOUNT_NOT_FOUND:
+				return OperationResult.getAccountNotFound(actualAmount);
+			case FAILED_BATCH_ABORTED:
+				return OperationResult.getBatchAborted(actualAmount);
+			default:
+				throw new IllegalArgumentException("Unknown operation result status: " + statusIndex);
+		}
+	}
+	
+	/**
+	 * A single transfer of a batch, see transferBatch.
+	 */
+	public static class Transfer
+	{
+		private final String sourceAccountId;
+		private final String destinationAccountId;
+		private final BigDecimal amount;
+		
+		public Transfer(String sourceAccountId, String destinationAccountId, BigDecimal amount)
+		{
+			this.sourceAccountId = sourceAccountId;
+			this.destinationAccountId = destinationAccountId;
+			this.amount = amount;
+		}
+		
+		public String getSourceAccountId()
+		{
+			return sourceAccountId;
+		}
+		
+		public String getDestinationAccountId()
+		{
+			return destinationAccountId;
+		}
+		
+		public BigDecimal getAmount()
+		{
+			return amount;
+		}
+	}
+	
+	@FunctionalInterface
+	private interface RequestWriter
+	{
+		void write(ByteBuf frame);
+	}
+	
+	@FunctionalInterface
+	private interface ResponseReader<T>
+	{
+		T read(ByteBuf response);
+	}
+	
+	private static class PendingRequest<T>
+	{
+		private final ResponseReader<T> responseReader;
+		private final CompletableFuture<T> future;
+		
+		PendingRequest(ResponseReader<T> responseReader)
+		{
+			this.responseReader = responseReader;
+			this.future = new CompletableFuture<>();
+		}
+		
+		void complete(ByteBuf response)
+		{
+			T value;
+			try
+			{
+				value = responseReader.read(response);
+			}
+			catch (RuntimeException ex)
+			{
+				future.completeExceptionally(new IOException("Malformed response", ex));
+				return;
+			}
+			
+			future.complete(value);
+		}
+	}
+	
+	/**
+	 * Matches the responses to the pending requests, called by the I/O thread only.
+	 */
+	private static class ResponseHandler
+			extends ChannelInboundHandlerAdapter
+	{
+		private final Map<Long, PendingRequest<?>> pendingRequests;
+		
+		ResponseHandler(Map<Long, PendingRequest<?>> pendingRequests)
+		{
+			this.pendingRequests = pendingRequests;
+		}
+		
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg)
+		{
+			ByteBuf response = (ByteBuf) msg;
+			try
+			{
+				long requestId = response.readLong();
+				byte status = response.readByte();
+				
+				PendingRequest<?> request = pendingRequests.remove(requestId);
+				if (request == null)
+				{
+					return;
+				}
+				
+				if (status == BankBinaryProtocol.STATUS_OK)
+				{
+					request.complete(response);
+				}
+				else
+				{
+					request.future.completeExceptionally(new BankBinaryError(status,
+																			 BankBinaryProtocol.readString(response)));
+				}
+			}
+			finally
+			{
+				response.release();
+			}
+		}
+		
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx)
+		{
+			for (Long requestId : pendingRequests.keySet())
+			{
+				failPendingRequest(pendingRequests, requestId);
+			}
+		}
+		
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+		{
+			ctx.close();
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package rafalk42.api.binary;
+
+/**
+ * A request of BankBinaryClient answered with an error by the server.
+ */
+public class BankBinaryError
+		extends Exception
+{
+	private final byte status;
+	
+	BankBinaryError(byte status, String message)
+	{
+		super(message);
+		
+		this.status = status;
+	}
+	
+	/**
+	 * @return status of the response, one of the BankBinaryProtocol.STATUS_ constants other than STATUS_OK
+	 */
+	public byte getStatus()
+	{
+		return status;
+	}
+}
@@ -0,0 +1,132 @@
+package rafalk42.api.binary;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * The binary protocol spoken by BankBinaryServer and BankBinaryClient, for internal services calling the bank
+ * at rates where HTTP and JSON would cost more than the operations themselves.
+ * <p>
+ * Every frame starts with its length (int, not counting the length itself) followed by the ID of the request,
+ * a long chosen by the client and copied into the response. The ID is what matches a response to its request,
+ * so a client can send any number of requests without waiting for the responses (pipelining) and have requests
+ * of many callers in flight over one connection at the same time (multiplexing). Responses come in the order
+ * they are ready in, not in the order of the requests.
+ * <p>
+ * Request: length, request ID, operation (byte), then the fields of the operation:
+ * <pre>
+ * OPEN           initial balance (long), description (string)
+ * GET_BALANCE    account ID (string)
+ * DEPOSIT        account ID (string), amount (long), title (string)
+ * WITHDRAW       account ID (string), amount (long), title (string)
+ * TRANSFER       source account ID (string), destination account ID (string), amount (long)
+ * TRANSFER_BATCH mode (byte, TransferBatchMode ordinal), transfer count (int), then for every transfer: source
+ *                account ID (string), destination account ID (string), amount (long)
+ * </pre>
+ * Response: length, request ID, status (byte), then for STATUS_OK the fields of the operation:
+ * <pre>
+ * OPEN           account ID (string)
+ * GET_BALANCE    balance (long)
+ * DEPOSIT        result status (byte, OperationResult.Status ordinal), actual amount (long)
+ * WITHDRAW       the same as DEPOSIT
+ * TRANSFER       the same as DEPOSIT
+ * TRANSFER_BATCH result count (int), then a result status and an actual amount for every transfer
+ * </pre>
+ * or for any other status an error message (string).
+ * Important:
+ * 1. all numbers are big-endian, amounts are long counts of minor units (see MinorUnits),
+ * 2. a string is its length in bytes (unsigned short) followed by the bytes, UTF-8,
+ * 3. enums are sent as their ordinals, so new values may only ever be added at the end,
+ * 4. a frame can't be longer than MAXIMUM_FRAME_LENGTH bytes, the connection is closed when it is.
+ */
+public final class BankBinaryProtocol
+{
+	public static final byte OPERATION_OPEN = 1;
+	public static final byte OPERATION_GET_BALANCE = 2;
+	public static final byte OPERATION_DEPOSIT = 3;
+	public static final byte OPERATION_WITHDRAW = 4;
+	public static final byte OPERATION_TRANSFER = 5;
+	public static final byte OPERATION_TRANSFER_BATCH = 6;
+	
+	public static final byte STATUS_OK = 0;
+	/**
+	 * The account does not exist.
+	 */
+	public static final byte STATUS_NOT_FOUND = 1;
+	/**
+	 * The request is malformed or one of its fields is invalid.
+	 */
+	public static final byte STATUS_INVALID = 2;
+	public static final byte STATUS_INTERNAL_ERROR = 3;
+	
+	public static final int MAXIMUM_FRAME_LENGTH = 1024 * 1024;
+	public static final int LENGTH_FIELD_LENGTH = Integer.BYTES;
+	
+	private static final int MAXIMUM_STRING_LENGTH = 0xFFFF;
+	
+	private BankBinaryProtocol()
+	{
+	}
+	
+	/**
+	 * Start a frame, the length is left as 0, to be set by endFrame.
+	 *
+	 * @return index of the frame in the buffer
+	 */
+	static int beginFrame(ByteBuf buffer, long requestId)
+	{
+		int frameIndex = buffer.writerIndex();
+		buffer.writeInt(0);
+		buffer.writeLong(requestId);
+		
+		return frameIndex;
+	}
+	
+	/**
+	 * @param frameIndex index returned by beginFrame
+	 */
+	static void endFrame(ByteBuf buffer, int frameIndex)
+	{
+		buffer.setInt(frameIndex, buffer.writerIndex() - frameIndex - LENGTH_FIELD_LENGTH);
+	}
+	
+	/**
+	 * @param value string to write, null is written as an empty string
+	 * @throws IllegalArgumentException thrown when the string is longer than 65535 bytes in UTF-8
+	 */
+	static void writeString(ByteBuf buffer, String value)
+	{
+		if (value == null)
+		{
+			buffer.writeShort(0);
+			return;
+		}
+		
+		int lengthIndex = buffer.writerIndex();
+		buffer.writeShort(0);
+		int length = ByteBufUtil.writeUtf8(buffer, value);
+		
+		if (length > MAXIMUM_STRING_LENGTH)
+		{
+			buffer.writerIndex(lengthIndex);
+			throw new IllegalArgumentException("String too long: " + length + " bytes");
+		}
+		
+		buffer.setShort(lengthIndex, length);
+	}
+	
+	/**
+	 * @throws IndexOutOfBoundsException thrown when the frame ends before the string does
+	 */
+	static String readString(ByteBuf buffer)
+	{
+		int length = buffer.readUnsignedShort();
+		int index = buffer.readerIndex();
+		buffer.skipBytes(length);
+		
+		return buffer.toString(index, length, StandardCharsets.UTF_8);
+	}
+}
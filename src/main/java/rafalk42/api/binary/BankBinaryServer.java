@@ -0,0 +1,419 @@
+package rafalk42.api.binary;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.LoggerFactory;
+import rafalk42.bank.domain.Bank;
+import rafalk42.bank.domain.BankAccount;
+import rafalk42.bank.domain.BankAccountDescription;
+import rafalk42.bank.domain.BankAccountNotFound;
+import rafalk42.bank.domain.BankInternalError;
+import rafalk42.bank.domain.BankTransfer;
+import rafalk42.bank.domain.OperationResult;
+import rafalk42.bank.domain.TransferBatchMode;
+import rafalk42.money.MinorUnits;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * TCP listener speaking BankBinaryProtocol, for internal services, next to (and on the same bank as) the HTTP REST API.
+ * An event loop thread only cuts the incoming bytes into frames. All the frames that came in with one read
+ * of a connection are handed over to a worker thread as a single task, the worker executes them against the bank
+ * one after another and sends all their responses with a single write. A client pipelining its requests thus
+ * pays for one hand-over and one system call per batch of requests, not per request.
+ * Important:
+ * 1. the bank is called synchronously, by the workers only, the event loops never wait for it,
+ * 2. batches of one connection can be executed by several workers at the same time, so the responses of a connection
+ * can come in any order, as allowed by the protocol,
+ * 3. a connection with MAXIMUM_PENDING_REQUESTS requests in flight is not read until some of them are answered,
+ * so a client sending faster than the bank answers is slowed down by TCP instead of filling the memory,
+ * 4. a frame that can't be read is answered with STATUS_INVALID, a frame that is too long closes the connection.
+ */
+public class BankBinaryServer
+{
+	private static final int MAXIMUM_PENDING_REQUESTS = 4096;
+	private static final int SHUTDOWN_TIMEOUT = 5;
+	private static final TransferBatchMode[] TRANSFER_BATCH_MODES = TransferBatchMode.values();
+	
+	private final org.slf4j.Logger log = LoggerFactory.getLogger(BankBinaryServer.class);
+	private final Bank bank;
+	private final int workerThreadCount;
+	private EventLoopGroup acceptorGroup;
+	private EventLoopGroup eventLoopGroup;
+	private ExecutorService workers;
+	
+	/**
+	 * @param bank              bank to serve
+	 * @param workerThreadCount number of threads executing the requests, these are the ones waiting for the bank
+	 */
+	public BankBinaryServer(Bank bank, int workerThreadCount)
+	{
+		if (workerThreadCount < 1)
+		{
+			throw new IllegalArgumentException("Worker thread count must be positive");
+		}
+		
+		this.bank = bank;
+		this.workerThreadCount = workerThreadCount;
+	}
+	
+	public void start(String listenAddress, int listenPort)
+			throws Exception
+	{
+		log.info("Starting binary protocol server");
+		
+		acceptorGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("bank-binary-acceptor"));
+		eventLoopGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("bank-binary"));
+		workers = Executors.newFixedThreadPool(workerThreadCount, new DefaultThreadFactory("bank-binary-worker"));
+		
+		ServerBootstrap bootstrap = new ServerBootstrap()
+				.group(acceptorGroup, eventLoopGroup)
+				.channel(NioServerSocketChannel.class)
+				.childOption(ChannelOption.TCP_NODELAY, true)
+				.childHandler(new ChannelInitializer<SocketChannel>()
+				{
+					@Override
+					protected void initChannel(SocketChannel channel)
+					{
+						channel.pipeline()
+							   .addLast(new LengthFieldBasedFrameDecoder(BankBinaryProtocol.MAXIMUM_FRAME_LENGTH,
+																		 0,
+																		 BankBinaryProtocol.LENGTH_FIELD_LENGTH,
+																		 0,
+																		 BankBinaryProtocol.LENGTH_FIELD_LENGTH))
+							   .addLast(new BankBinaryHandler());
+					}
+				});
+		
+		bootstrap.bind(listenAddress, listenPort).sync();
+		
+		log.info("Binary protocol server ready");
+	}
+	
+	/**
+	 * Close the listening socket and every connection, waiting for the event loops to finish.
+	 */
+	public void stop()
+	{
+		log.info("Stopping binary protocol server");
+		
+		acceptorGroup.shutdownGracefully(0, SHUTDOWN_TIMEOUT, TimeUnit.SECONDS).syncUninterruptibly();
+		eventLoopGroup.shutdownGracefully(0, SHUTDOWN_TIMEOUT, TimeUnit.SECONDS).syncUninterruptibly();
+		workers.shutdownNow();
+	}
+	
+	/**
+	 * One per connection. Collects the frames of a read and hands them over to a worker when the read is complete.
+	 */
+	private class BankBinaryHandler
+			extends ChannelInboundHandlerAdapter
+	{
+		private final AtomicInteger pendingRequestCount = new AtomicInteger();
+		private List<ByteBuf> receivedFrames = new ArrayList<>();
+		
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg)
+		{
+			receivedFrames.add((ByteBuf) msg);
+		}
+		
+		@Override
+		public void channelReadComplete(ChannelHandlerContext ctx)
+		{
+			if (receivedFrames.isEmpty())
+			{
+				return;
+			}
+			
+			List<ByteBuf> frames = receivedFrames;
+			receivedFrames = new ArrayList<>();
+			
+			if (pendingRequestCount.addAndGet(frames.size()) >= MAXIMUM_PENDING_REQUESTS)
+			{
+				ctx.channel().config().setAutoRead(false);
+			}
+			
+			workers.execute(() -> executeFrames(ctx, frames));
+		}
+		
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx)
+		{
+			receivedFrames.forEach(ReferenceCountUtil::release);
+			receivedFrames.clear();
+		}
+		
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+		{
+			log.debug("Binary protocol connection failed", cause);
+			ctx.close();
+		}
+		
+		/**
+		 * Called by a worker.
+		 */
+		private void executeFrames(ChannelHandlerContext ctx, List<ByteBuf> frames)
+		{
+			ByteBuf responses = ctx.alloc().buffer();
+			for (ByteBuf frame : frames)
+			{
+				try
+				{
+					executeFrame(frame, responses);
+				}
+				finally
+				{
+					frame.release();
+				}
+			}
+			
+			ctx.writeAndFlush(responses);
+			
+			int previousCount = pendingRequestCount.getAndAdd(-frames.size());
+			if (previousCount >= MAXIMUM_PENDING_REQUESTS
+				&& previousCount - frames.size() < MAXIMUM_PENDING_REQUESTS)
+			{
+				// Decided by the event loop, which is the one that stops reading, so the two never race.
+				ctx.executor().execute(() ->
+									   {
+										   if (pendingRequestCount.get() < MAXIMUM_PENDING_REQUESTS)
+										   {
+											   ctx.channel().config().setAutoRead(true);
+										   }
+									   });
+			}
+		}
+	}
+	
+	private void executeFrame(ByteBuf frame, ByteBuf responses)
+	{
+		if (frame.readableBytes() < Long.BYTES)
+		{
+			// Not even a request ID to answer to.
+			return;
+		}
+		
+		int frameIndex = BankBinaryProtocol.beginFrame(responses, frame.readLong());
+		int statusIndex = responses.writerIndex();
+		responses.writeByte(BankBinaryProtocol.STATUS_OK);
+		
+		try
+		{
+			executeOperation(frame, responses);
+		}
+		catch (BankAccountNotFound ex)
+		{
+			writeError(responses, statusIndex, BankBinaryProtocol.STATUS_NOT_FOUND,
+					   String.format("Account ID %s not found", ex.getAccountId()));
+		}
+		catch (IndexOutOfBoundsException ex)
+		{
+			writeError(responses, statusIndex, BankBinaryProtocol.STATUS_INVALID, "Malformed request");
+		}
+		catch (IllegalArgumentException | UnsupportedOperationException ex)
+		{
+			writeError(responses, statusIndex, BankBinaryProtocol.STATUS_INVALID, ex.getMessage());
+		}
+		catch (BankInternalError | RuntimeException ex)
+		{
+			log.warn("Binary protocol request failed", ex);
+			writeError(responses, statusIndex, BankBinaryProtocol.STATUS_INTERNAL_ERROR, "Internal error");
+		}
+		
+		BankBinaryProtocol.endFrame(responses, frameIndex);
+	}
+	
+	private void executeOperation(ByteBuf frame, ByteBuf response)
+			throws BankInternalError, BankAccountNotFound
+	{
+		byte operation = frame.readByte();
+		switch (operation)
+		{
+			case BankBinaryProtocol.OPERATION_OPEN:
+			{
+				BigDecimal initialBalance = MinorUnits.toAmount(frame.readLong());
+				String description = BankBinaryProtocol.readString(frame);
+				
+				BankAccount account = bank.accountOpen(new BankAccountDescription.Builder()
+															   .description(description)
+															   .initialBalance(initialBalance)
+															   .build());
+				BankBinaryProtocol.writeString(response, account.getId());
+				break;
+			}
+			case BankBinaryProtocol.OPERATION_GET_BALANCE:
+			{
+				BankAccount account = findAccount(BankBinaryProtocol.readString(frame));
+				
+				response.writeLong(MinorUnits.fromAmount(bank.accountGetBalance(account)));
+				break;
+			}
+			case BankBinaryProtocol.OPERATION_DEPOSIT:
+			{
+				BankAccount account = findAccount(BankBinaryProtocol.readString(frame));
+				BigDecimal amount = MinorUnits.toAmount(frame.readLong());
+				String title = BankBinaryProtocol.readString(frame);
+				
+				writeOperationResult(response, bank.accountDeposit(account, amount, title));
+				break;
+			}
+			case BankBinaryProtocol.OPERATION_WITHDRAW:
+			{
+				BankAccount account = findAccount(BankBinaryProtocol.readString(frame));
+				BigDecimal amount = MinorUnits.toAmount(frame.readLong());
+				String title = BankBinaryProtocol.readString(frame);
+				
+				writeOperationResult(response, bank.accountWithdraw(account, amount, title));
+				break;
+			}
+			case BankBinaryProtocol.OPERATION_TRANSFER:
+			{
+				BankAccount sourceAccount = findAccount(BankBinaryProtocol.readString(frame));
+				BankAccount destinationAccount = findAccount(BankBinaryProtocol.readString(frame));
+				BigDecimal amount = MinorUnits.toAmount(frame.readLong());
+				
+				writeOperationResult(response, bank.transferAmount(sourceAccount, destinationAccount, amount));
+				break;
+			}
+			case BankBinaryProtocol.OPERATION_TRANSFER_BATCH:
+				executeTransferBatch(frame, response);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown operation: " + operation);
+		}
+	}
+	
+	/**
+	 * The same as BankJsonApi does with a batch: every account is looked up once, transfers referring to an account
+	 * that does not exist are reported as FAILED_ACCOUNT_NOT_FOUND without asking the bank, and in the atomic
+	 * and netted modes such a transfer aborts the whole batch.
+	 */
+	private void executeTransferBatch(ByteBuf frame, ByteBuf response)
+			throws BankInternalError
+	{
+		int modeIndex = frame.readUnsignedByte();
+		if (modeIndex >= TRANSFER_BATCH_MODES.length)
+		{
+			throw new IllegalArgumentException("Unknown transfer batch mode: " + modeIndex);
+		}
+		
+		TransferBatchMode mode = TRANSFER_BATCH_MODES[modeIndex];
+		
+		int transferCount = frame.readInt();
+		if (transferCount < 0)
+		{
+			throw new IllegalArgumentException("Transfer count cannot be negative");
+		}
+		
+		Map<String, Optional<BankAccount>> accounts = new HashMap<>();
+		List<BankAccount> sourceAccounts = new ArrayList<>(Math.min(transferCount, frame.readableBytes()));
+		List<BankAccount> destinationAccounts = new ArrayList<>(Math.min(transferCount, frame.readableBytes()));
+		List<BigDecimal> amounts = new ArrayList<>(Math.min(transferCount, frame.readableBytes()));
+		List<BankTransfer> bankTransfers = new ArrayList<>(Math.min(transferCount, frame.readableBytes()));
+		
+		for (int i = 0; i < transferCount; i++)
+		{
+			BankAccount sourceAccount = findAccount(accounts, BankBinaryProtocol.readString(frame));
+			BankAccount destinationAccount = findAccount(accounts, BankBinaryProtocol.readString(frame));
+			BigDecimal amount = MinorUnits.toAmount(frame.readLong());
+			
+			sourceAccounts.add(sourceAccount);
+			destinationAccounts.add(destinationAccount);
+			amounts.add(amount);
+			
+			if (sourceAccount != null
+				&& destinationAccount != null)
+			{
+				bankTransfers.add(new BankTransfer(sourceAccount, destinationAccount, amount));
+			}
+		}
+		
+		List<OperationResult> bankResults = new ArrayList<>();
+		if (bankTransfers.size() == transferCount
+			|| mode == TransferBatchMode.BEST_EFFORT)
+		{
+			bankResults = bank.transferBatch(bankTransfers, mode);
+		}
+		
+		Iterator<OperationResult> bankResultIterator = bankResults.iterator();
+		response.writeInt(transferCount);
+		for (int i = 0; i < transferCount; i++)
+		{
+			if (sourceAccounts.get(i) == null
+				|| destinationAccounts.get(i) == null)
+			{
+				writeOperationResult(response, OperationResult.getAccountNotFound(amounts.get(i)));
+			}
+			else if (bankResultIterator.hasNext())
+			{
+				writeOperationResult(response, bankResultIterator.next());
+			}
+			else
+			{
+				writeOperationResult(response, OperationResult.getBatchAborted(amounts.get(i)));
+			}
+		}
+	}
+	
+	private BankAccount findAccount(String accountId)
+			throws BankInternalError, BankAccountNotFound
+	{
+		return bank.accountFindById(accountId)
+				   .orElseThrow(() -> new BankAccountNotFound(accountId));
+	}
+	
+	/**
+	 * @return the account, null if it does not exist
+	 */
+	private BankAccount findAccount(Map<String, Optional<BankAccount>> accounts, String accountId)
+			throws BankInternalError
+	{
+		Optional<BankAccount> account = accounts.get(accountId);
+		if (account == null)
+		{
+			account = bank.accountFindById(accountId);
+			accounts.put(accountId, account);
+		}
+		
+		return account.orElse(null);
+	}
+	
+	private static void writeOperationResult(ByteBuf response, OperationResult result)
+	{
+		response.writeByte(result.getStatus().ordinal());
+		response.writeLong(MinorUnits.fromAmount(result.getActualAmount()));
+	}
+	
+	/**
+	 * Replace whatever was written after the status with the error.
+	 */
+	private static void writeError(ByteBuf response, int statusIndex, byte status, String message)
+	{
+		response.writerIndex(statusIndex);
+		response.writeByte(status);
+		BankBinaryProtocol.writeString(response, message);
+	}
+}
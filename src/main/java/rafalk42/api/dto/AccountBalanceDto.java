@@ -11,4 +11,9 @@ public class AccountBalanceDto
 	{
 		this.balance = balance;
 	}
+	
+	public BigDecimal getBalance()
+	{
+		return balance;
+	}
 }
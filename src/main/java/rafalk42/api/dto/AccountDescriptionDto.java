@@ -8,10 +8,10 @@ public class AccountDescriptionDto
 	private final String description;
 	private final BigDecimal initialBalance;
 	
-	public AccountDescriptionDto()
+	public AccountDescriptionDto(String description, BigDecimal initialBalance)
 	{
-		description = null;
-		initialBalance = null;
+		this.description = description;
+		this.initialBalance = initialBalance;
 	}
 	
 	public String getDescription()
@@ -0,0 +1,69 @@
+package rafalk42.api.dto;
+
+import java.math.BigDecimal;
+
+
+public class AccountHistoryEntryDto
+{
+	private final long sequence;
+	private final long timestamp;
+	private final String operation;
+	private final String sourceAccountId;
+	private final String destinationAccountId;
+	private final BigDecimal amount;
+	private final String title;
+	private final String result;
+	
+	public AccountHistoryEntryDto(long sequence, long timestamp, String operation, String sourceAccountId,
+								  String destinationAccountId, BigDecimal amount, String title, String result)
+	{
+		this.sequence = sequence;
+		this.timestamp = timestamp;
+		this.operation = operation;
+		this.sourceAccountId = sourceAccountId;
+		this.destinationAccountId = destinationAccountId;
+		this.amount = amount;
+		this.title = title;
+		this.result = result;
+	}
+	
+	public long getSequence()
+	{
+		return sequence;
+	}
+	
+	public long getTimestamp()
+	{
+		return timestamp;
+	}
+	
+	public String getOperation()
+	{
+		return operation;
+	}
+	
+	public String getSourceAccountId()
+	{
+		return sourceAccountId;
+	}
+	
+	public String getDestinationAccountId()
+	{
+		return destinationAccountId;
+	}
+	
+	public BigDecimal getAmount()
+	{
+		return amount;
+	}
+	
+	public String getTitle()
+	{
+		return title;
+	}
+	
+	public String getResult()
+	{
+		return result;
+	}
+}
@@ -15,4 +15,19 @@ public class AccountInfoDto
 		this.description = description;
 		this.balance = balance;
 	}
+	
+	public String getId()
+	{
+		return id;
+	}
+	
+	public String getDescription()
+	{
+		return description;
+	}
+	
+	public BigDecimal getBalance()
+	{
+		return balance;
+	}
 }
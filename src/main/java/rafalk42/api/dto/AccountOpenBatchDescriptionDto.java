@@ -0,0 +1,19 @@
+package rafalk42.api.dto;
+
+import java.util.List;
+
+
+public class AccountOpenBatchDescriptionDto
+{
+	private final List<AccountDescriptionDto> accounts;
+	
+	public AccountOpenBatchDescriptionDto(List<AccountDescriptionDto> accounts)
+	{
+		this.accounts = accounts;
+	}
+	
+	public List<AccountDescriptionDto> getAccounts()
+	{
+		return accounts;
+	}
+}
@@ -0,0 +1,19 @@
+package rafalk42.api.dto;
+
+import java.util.List;
+
+
+public class AccountOpenBatchResultDto
+{
+	private final List<AccountOpenResultDto> accounts;
+	
+	public AccountOpenBatchResultDto(List<AccountOpenResultDto> accounts)
+	{
+		this.accounts = accounts;
+	}
+	
+	public List<AccountOpenResultDto> getAccounts()
+	{
+		return accounts;
+	}
+}
@@ -8,4 +8,9 @@ public class AccountOpenResultDto
 	{
 		this.id = id;
 	}
+	
+	public String getId()
+	{
+		return id;
+	}
 }
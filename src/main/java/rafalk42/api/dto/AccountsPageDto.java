@@ -0,0 +1,30 @@
+package rafalk42.api.dto;
+
+import java.util.List;
+
+
+public class AccountsPageDto
+{
+	private final List<AccountInfoDto> accounts;
+	private final String nextAfter;
+	
+	/**
+	 * @param accounts  accounts on the page
+	 * @param nextAfter value of the after parameter for the next page, null (left out) if there are no more accounts
+	 */
+	public AccountsPageDto(List<AccountInfoDto> accounts, String nextAfter)
+	{
+		this.accounts = accounts;
+		this.nextAfter = nextAfter;
+	}
+	
+	public List<AccountInfoDto> getAccounts()
+	{
+		return accounts;
+	}
+	
+	public String getNextAfter()
+	{
+		return nextAfter;
+	}
+}
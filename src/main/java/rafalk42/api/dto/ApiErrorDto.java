@@ -9,4 +9,9 @@ public class ApiErrorDto
 	{
 		this.message = message;
 	}
+	
+	public String getMessage()
+	{
+		return message;
+	}
 }
@@ -8,10 +8,10 @@ public class DepositWithdrawDescriptionDto
 	private final BigDecimal amount;
 	private final String title;
 	
-	public DepositWithdrawDescriptionDto()
+	public DepositWithdrawDescriptionDto(BigDecimal amount, String title)
 	{
-		amount = null;
-		title = null;
+		this.amount = amount;
+		this.title = title;
 	}
 	
 	public BigDecimal getAmount()
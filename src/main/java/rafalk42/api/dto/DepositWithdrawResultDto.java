@@ -15,4 +15,19 @@ public class DepositWithdrawResultDto
 		this.actualAmount = actualAmount;
 		this.result = result;
 	}
+	
+	public DepositWithdrawDescriptionDto getRequest()
+	{
+		return request;
+	}
+	
+	public BigDecimal getActualAmount()
+	{
+		return actualAmount;
+	}
+	
+	public String getResult()
+	{
+		return result;
+	}
 }
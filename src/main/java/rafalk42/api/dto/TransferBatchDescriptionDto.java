@@ -0,0 +1,26 @@
+package rafalk42.api.dto;
+
+import java.util.List;
+
+
+public class TransferBatchDescriptionDto
+{
+	private final String mode;
+	private final List<TransferDescriptionDto> transfers;
+	
+	public TransferBatchDescriptionDto(String mode, List<TransferDescriptionDto> transfers)
+	{
+		this.mode = mode;
+		this.transfers = transfers;
+	}
+	
+	public String getMode()
+	{
+		return mode;
+	}
+	
+	public List<TransferDescriptionDto> getTransfers()
+	{
+		return transfers;
+	}
+}
@@ -0,0 +1,26 @@
+package rafalk42.api.dto;
+
+import java.util.List;
+
+
+public class TransferBatchResultDto
+{
+	private final String mode;
+	private final List<TransferResultDto> results;
+	
+	public TransferBatchResultDto(String mode, List<TransferResultDto> results)
+	{
+		this.mode = mode;
+		this.results = results;
+	}
+	
+	public String getMode()
+	{
+		return mode;
+	}
+	
+	public List<TransferResultDto> getResults()
+	{
+		return results;
+	}
+}
@@ -15,4 +15,19 @@ public class TransferResultDto
 		this.actualAmount = actualAmount;
 		this.result = result;
 	}
+	
+	public TransferDescriptionDto getRequest()
+	{
+		return request;
+	}
+	
+	public BigDecimal getActualAmount()
+	{
+		return actualAmount;
+	}
+	
+	public String getResult()
+	{
+		return result;
+	}
 }
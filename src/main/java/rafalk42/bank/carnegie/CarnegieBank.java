@@ -0,0 +1,293 @@
+package rafalk42.bank.carnegie;
+
+import rafalk42.bank.domain.*;
+import rafalk42.dao.AccountDao;
+import rafalk42.dao.AccountDaoInternalError;
+import rafalk42.dao.AccountInfo;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+
+/**
+ * Implementation of a Bank in which a single writer thread owns all the state. Every operation, reads included,
+ * is put as a command onto a pre-allocated ring buffer and the writer applies them strictly one by one, in order
+ * of their global sequence numbers, so no locks are needed on the state and the account DAO does not have to be
+ * thread-safe. Callers never hand a lock over to each other, they only wait on their own completion slot.
+ * <p>
+ * Business rules are the same as in the RockefellerBank.
+ * <p>
+ * The writer thread is started when the bank is created and runs until shutdown is called.
+ */
+public class CarnegieBank
+		implements Bank
+{
+	private static final int DEFAULT_RING_BUFFER_CAPACITY = 4096;
+	
+	private final CarnegieBankRingBuffer ringBuffer;
+	private final CarnegieBankWriter writer;
+	private final Thread writerThread;
+	private final ThreadLocal<CarnegieBankCompletion> completions;
+	private volatile boolean shutdown;
+	
+	public CarnegieBank(AccountDao accountDao)
+	{
+		this(accountDao, DEFAULT_RING_BUFFER_CAPACITY);
+	}
+	
+	/**
+	 * @param accountDao         account DAO, used only by the writer thread
+	 * @param ringBufferCapacity number of command slots, must be a power of two
+	 */
+	public CarnegieBank(AccountDao accountDao, int ringBufferCapacity)
+	{
+		ringBuffer = new CarnegieBankRingBuffer(ringBufferCapacity);
+		writer = new CarnegieBankWriter(accountDao, ringBuffer);
+		completions = ThreadLocal.withInitial(() -> new CarnegieBankCompletion(Thread.currentThread()));
+		shutdown = false;
+		
+		writerThread = new Thread(writer, "carnegie-bank-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+	
+	/**
+	 * Stop the writer thread. Operations must not be started after (or concurrently with) the shutdown.
+	 */
+	public void shutdown()
+	{
+		shutdown = true;
+		writer.stop(writerThread);
+	}
+	
+	/**
+	 * Retrieve the global sequence number of the most recently applied command. Sequence numbers start at 0 and
+	 * are assigned in the order in which commands are applied, without gaps.
+	 *
+	 * @return sequence of the last applied command, -1 if nothing was applied yet
+	 */
+	public long getAppliedSequence()
+	{
+		return writer.getAppliedSequence();
+	}
+	
+	@Override
+	public BankAccount accountOpen(BankAccountDescription accountDescription)
+			throws BankInternalError
+	{
+		if (accountDescription == null)
+		{
+			throw new IllegalArgumentException("Account description cannot be null");
+		}
+		
+		CarnegieBankCompletion completion = execute(CarnegieBankCommand.Type.OPEN, null, null, null, null,
+													accountDescription);
+		verifyNoErrors(completion);
+		
+		return new CarnegieBankAccount((String) completion.getResult());
+	}
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public Map<BankAccount, BankAccountInfo> accountsGetInfoAll()
+			throws BankInternalError
+	{
+		CarnegieBankCompletion completion = execute(CarnegieBankCommand.Type.GET_INFO_ALL, null, null, null, null,
+													null);
+		verifyNoErrors(completion);
+		
+		// Writer only copies the data out of the DAO, the rest of the work is done here, outside of it.
+		Set<AccountInfo> allAccounts = (Set<AccountInfo>) completion.getResult();
+		
+		Map<BankAccount, BankAccountInfo> result = new HashMap<>();
+		allAccounts.forEach(item -> result.put(new CarnegieBankAccount(item.getId()),
+											   new BankAccountInfo(item.getDescription(),
+																   item.getBalance())));
+		
+		return result;
+	}
+	
+	@Override
+	public Optional<BankAccount> accountFindById(String accountId)
+			throws BankInternalError
+	{
+		if (accountId == null)
+		{
+			throw new IllegalArgumentException("Account ID cannot be null");
+		}
+		
+		CarnegieBankCompletion completion = execute(CarnegieBankCommand.Type.FIND_BY_ID, accountId, null, null, null,
+													null);
+		verifyNoErrors(completion);
+		
+		if (!(Boolean) completion.getResult())
+		{
+			return Optional.empty();
+		}
+		
+		return Optional.of(new CarnegieBankAccount(accountId));
+	}
+	
+	@Override
+	public BankAccountInfo accountGetInfo(BankAccount account)
+			throws BankInternalError, BankAccountNotFound
+	{
+		verifyBankAccountImplementation(account);
+		
+		CarnegieBankCompletion completion = execute(CarnegieBankCommand.Type.GET_INFO, account.getId(), null, null,
+													null, null);
+		verifyNoErrorsOrMissingAccount(completion);
+		
+		AccountInfo info = (AccountInfo) completion.getResult();
+		
+		return new BankAccountInfo(info.getDescription(),
+								   info.getBalance());
+	}
+	
+	@Override
+	public BigDecimal accountGetBalance(BankAccount account)
+			throws BankInternalError, BankAccountNotFound
+	{
+		verifyBankAccountImplementation(account);
+		
+		CarnegieBankCompletion completion = execute(CarnegieBankCommand.Type.GET_BALANCE, account.getId(), null, null,
+													null, null);
+		verifyNoErrorsOrMissingAccount(completion);
+		
+		return (BigDecimal) completion.getResult();
+	}
+	
+	@Override
+	public OperationResult accountDeposit(BankAccount account, BigDecimal amount, String title)
+			throws BankInternalError, BankAccountNotFound
+	{
+		verifyBankAccountImplementation(account);
+		
+		if (amount == null)
+		{
+			throw new IllegalArgumentException("Amount cannot be null");
+		}
+		
+		CarnegieBankCompletion completion = execute(CarnegieBankCommand.Type.DEPOSIT, account.getId(), null, amount,
+													title, null);
+		verifyNoErrorsOrMissingAccount(completion);
+		
+		return (OperationResult) completion.getResult();
+	}
+	
+	@Override
+	public OperationResult accountWithdraw(BankAccount account, BigDecimal amount, String title)
+			throws BankInternalError, BankAccountNotFound
+	{
+		verifyBankAccountImplementation(account);
+		
+		if (amount == null)
+		{
+			throw new IllegalArgumentException("Amount cannot be null");
+		}
+		
+		CarnegieBankCompletion completion = execute(CarnegieBankCommand.Type.WITHDRAW, account.getId(), null, amount,
+													title, null);
+		verifyNoErrorsOrMissingAccount(completion);
+		
+		return (OperationResult) completion.getResult();
+	}
+	
+	@Override
+	public OperationResult transferAmount(BankAccount sourceAccount, BankAccount destinationAccount, BigDecimal amount)
+			throws BankInternalError, BankAccountNotFound
+	{
+		verifyBankAccountImplementation(sourceAccount);
+		verifyBankAccountImplementation(destinationAccount);
+		
+		if (amount == null)
+		{
+			throw new IllegalArgumentException("Amount cannot be null");
+		}
+		
+		CarnegieBankCompletion completion = execute(CarnegieBankCommand.Type.TRANSFER, sourceAccount.getId(),
+													destinationAccount.getId(), amount, null, null);
+		verifyNoErrorsOrMissingAccount(completion);
+		
+		return (OperationResult) completion.getResult();
+	}
+	
+	@Override
+	public void accountClose(BankAccount account)
+			throws BankInternalError, BankAccountNotFound
+	{
+		verifyBankAccountImplementation(account);
+		
+		CarnegieBankCompletion completion = execute(CarnegieBankCommand.Type.CLOSE, account.getId(), null, null, null,
+													null);
+		verifyNoErrorsOrMissingAccount(completion);
+	}
+	
+	/**
+	 * Put a command onto the ring buffer and wait until the writer applies it.
+	 *
+	 * @return completion slot of the calling thread, filled in with the outcome of the command
+	 */
+	private CarnegieBankCompletion execute(CarnegieBankCommand.Type type, String accountId, String otherAccountId,
+										   BigDecimal amount, String title, BankAccountDescription accountDescription)
+	{
+		if (shutdown)
+		{
+			throw new IllegalStateException("Bank has been shut down");
+		}
+		
+		CarnegieBankCompletion completion = completions.get();
+		completion.reset();
+		
+		long sequence = ringBuffer.claim();
+		ringBuffer.get(sequence)
+				  .set(type, accountId, otherAccountId, amount, title, accountDescription, completion);
+		ringBuffer.publish(sequence);
+		writer.wakeUp(writerThread);
+		
+		completion.await();
+		
+		return completion;
+	}
+	
+	private void verifyNoErrors(CarnegieBankCompletion completion)
+			throws BankInternalError
+	{
+		if (completion.getRuntimeError() != null)
+		{
+			throw completion.getRuntimeError();
+		}
+		
+		if (completion.getInternalError() != null)
+		{
+			throw new BankInternalError(completion.getInternalError());
+		}
+	}
+	
+	private void verifyNoErrorsOrMissingAccount(CarnegieBankCompletion completion)
+			throws BankInternalError, BankAccountNotFound
+	{
+		verifyNoErrors(completion);
+		
+		if (completion.getAccountNotFound() != null)
+		{
+			throw completion.getAccountNotFound();
+		}
+	}
+	
+	private void verifyBankAccountImplementation(BankAccount bankAccount)
+	{
+		if (bankAccount == null)
+		{
+			throw new IllegalArgumentException("Bank account cannot be null");
+		}
+		
+		if (!(bankAccount instanceof CarnegieBankAccount))
+		{
+			throw new IllegalArgumentException("Unsupported implementation of BankAccount");
+		}
+	}
+}
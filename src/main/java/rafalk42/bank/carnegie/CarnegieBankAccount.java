@@ -0,0 +1,57 @@
+package rafalk42.bank.carnegie;
+
+import rafalk42.bank.domain.BankAccount;
+
+import java.util.Objects;
+
+
+public class CarnegieBankAccount
+		extends BankAccount
+{
+	private final String id;
+	
+	CarnegieBankAccount(String id)
+	{
+		if (id == null)
+		{
+			throw new IllegalArgumentException("ID cannot be null");
+		}
+		
+		this.id = id;
+	}
+	
+	@Override
+	public String getId()
+	{
+		return id;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "CarnegieBankAccount{" +
+			   "id='" + id + '\'' +
+			   '}';
+	}
+	
+	@Override
+	public boolean equals(Object o)
+	{
+		if (this == o)
+		{
+			return true;
+		}
+		if (o == null || getClass() != o.getClass())
+		{
+			return false;
+		}
+		CarnegieBankAccount that = (CarnegieBankAccount) o;
+		return id.equals(that.id);
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return Objects.hash(id);
+	}
+}
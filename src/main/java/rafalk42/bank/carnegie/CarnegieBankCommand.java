@@ -0,0 +1,86 @@
+package rafalk42.bank.carnegie;
+
+import rafalk42.bank.domain.BankAccountDescription;
+
+import java.math.BigDecimal;
+
+
+/**
+ * A single, pre-allocated slot of the command ring buffer. Callers fill it in and publish it, the writer applies
+ * it and then clears it, so that it does not keep any references once it's done.
+ */
+class CarnegieBankCommand
+{
+	enum Type
+	{
+		OPEN,
+		GET_INFO_ALL,
+		FIND_BY_ID,
+		GET_INFO,
+		GET_BALANCE,
+		DEPOSIT,
+		WITHDRAW,
+		TRANSFER,
+		CLOSE
+	}
+	
+	private Type type;
+	private String accountId;
+	private String otherAccountId;
+	private BigDecimal amount;
+	private String title;
+	private BankAccountDescription accountDescription;
+	private CarnegieBankCompletion completion;
+	
+	void set(Type type, String accountId, String otherAccountId, BigDecimal amount, String title,
+			 BankAccountDescription accountDescription, CarnegieBankCompletion completion)
+	{
+		this.type = type;
+		this.accountId = accountId;
+		this.otherAccountId = otherAccountId;
+		this.amount = amount;
+		this.title = title;
+		this.accountDescription = accountDescription;
+		this.completion = completion;
+	}
+	
+	void clear()
+	{
+		set(null, null, null, null, null, null, null);
+	}
+	
+	Type getType()
+	{
+		return type;
+	}
+	
+	String getAccountId()
+	{
+		return accountId;
+	}
+	
+	String getOtherAccountId()
+	{
+		return otherAccountId;
+	}
+	
+	BigDecimal getAmount()
+	{
+		return amount;
+	}
+	
+	String getTitle()
+	{
+		return title;
+	}
+	
+	BankAccountDescription getAccountDescription()
+	{
+		return accountDescription;
+	}
+	
+	CarnegieBankCompletion getCompletion()
+	{
+		return completion;
+	}
+}
@@ -0,0 +1,120 @@
+package rafalk42.bank.carnegie;
+
+import rafalk42.bank.domain.BankAccountNotFound;
+import rafalk42.dao.AccountDaoInternalError;
+
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * A completion slot on which a caller waits for the writer to apply its command. There's one per calling thread
+ * and it is reused for every command that thread submits, so waiting allocates nothing.
+ * The writer fills in the outcome and then flips the volatile done flag, which makes the outcome visible
+ * to the caller. The caller spins for a moment first and parks only if the writer is slow to respond.
+ */
+class CarnegieBankCompletion
+{
+	private static final int SPIN_TRIES = 200;
+	
+	private final Thread waiter;
+	private volatile boolean done;
+	private volatile boolean waiterParked;
+	private Object result;
+	private BankAccountNotFound accountNotFound;
+	private AccountDaoInternalError internalError;
+	private RuntimeException runtimeError;
+	
+	CarnegieBankCompletion(Thread waiter)
+	{
+		this.waiter = waiter;
+	}
+	
+	/**
+	 * Prepare for another command, called by the waiter before submitting it.
+	 */
+	void reset()
+	{
+		result = null;
+		accountNotFound = null;
+		internalError = null;
+		runtimeError = null;
+		done = false;
+	}
+	
+	void setResult(Object result)
+	{
+		this.result = result;
+	}
+	
+	void setAccountNotFound(BankAccountNotFound accountNotFound)
+	{
+		this.accountNotFound = accountNotFound;
+	}
+	
+	void setInternalError(AccountDaoInternalError internalError)
+	{
+		this.internalError = internalError;
+	}
+	
+	void setRuntimeError(RuntimeException runtimeError)
+	{
+		this.runtimeError = runtimeError;
+	}
+	
+	/**
+	 * Signal the waiter that the outcome is ready, called by the writer.
+	 */
+	void complete()
+	{
+		done = true;
+		
+		if (waiterParked)
+		{
+			LockSupport.unpark(waiter);
+		}
+	}
+	
+	/**
+	 * Wait until the writer completes the command, called by the waiter.
+	 */
+	void await()
+	{
+		for (int i = 0; i < SPIN_TRIES && !done; i++)
+		{
+			Thread.yield();
+		}
+		
+		while (!done)
+		{
+			waiterParked = true;
+			
+			// Check again after announcing the intention to park, otherwise the writer could miss us.
+			if (!done)
+			{
+				LockSupport.park(this);
+			}
+			
+			waiterParked = false;
+		}
+	}
+	
+	Object getResult()
+	{
+		return result;
+	}
+	
+	BankAccountNotFound getAccountNotFound()
+	{
+		return accountNotFound;
+	}
+	
+	AccountDaoInternalError getInternalError()
+	{
+		return internalError;
+	}
+	
+	RuntimeException getRuntimeError()
+	{
+		return runtimeError;
+	}
+}
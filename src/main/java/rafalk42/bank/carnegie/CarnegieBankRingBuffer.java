@@ -0,0 +1,92 @@
+package rafalk42.bank.carnegie;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Multi-producer, single-consumer ring buffer of pre-allocated command slots.
+ * Every command gets a global sequence number when its slot is claimed. The slot of a given sequence is free
+ * once the consumer has moved past the sequence that used it one lap earlier. A slot becomes visible to
+ * the consumer only when it is published, which happens after it is completely filled in.
+ */
+class CarnegieBankRingBuffer
+{
+	private final CarnegieBankCommand[] slots;
+	private final AtomicLongArray publishedSequences;
+	private final int mask;
+	private final AtomicLong nextClaimSequence;
+	/**
+	 * Every command with a sequence lower than this one has been applied. Written only by the consumer.
+	 */
+	private volatile long consumedSequence;
+	
+	/**
+	 * @param capacity number of slots, must be a power of two
+	 */
+	CarnegieBankRingBuffer(int capacity)
+	{
+		if (capacity <= 0
+			|| Integer.bitCount(capacity) != 1)
+		{
+			throw new IllegalArgumentException("Capacity must be a positive power of two");
+		}
+		
+		slots = new CarnegieBankCommand[capacity];
+		publishedSequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++)
+		{
+			slots[i] = new CarnegieBankCommand();
+			publishedSequences.set(i, -1);
+		}
+		
+		mask = capacity - 1;
+		nextClaimSequence = new AtomicLong(0);
+		consumedSequence = 0;
+	}
+	
+	/**
+	 * Claim the next sequence, waiting for the consumer to free its slot if the ring is full.
+	 *
+	 * @return claimed sequence
+	 */
+	long claim()
+	{
+		long sequence = nextClaimSequence.getAndIncrement();
+		
+		while (sequence - slots.length >= consumedSequence)
+		{
+			// Ring is full, the writer is behind. Back off instead of burning the core it might need.
+			LockSupport.parkNanos(1000);
+		}
+		
+		return sequence;
+	}
+	
+	CarnegieBankCommand get(long sequence)
+	{
+		return slots[(int) sequence & mask];
+	}
+	
+	/**
+	 * Make the slot of given sequence visible to the consumer. This is a full volatile write on purpose, so that
+	 * a following read of the consumer's parked flag cannot be reordered before it.
+	 *
+	 * @param sequence a claimed sequence which slot is already filled in
+	 */
+	void publish(long sequence)
+	{
+		publishedSequences.set((int) sequence & mask, sequence);
+	}
+	
+	boolean isPublished(long sequence)
+	{
+		return publishedSequences.get((int) sequence & mask) == sequence;
+	}
+	
+	void setConsumedSequence(long consumedSequence)
+	{
+		this.consumedSequence = consumedSequence;
+	}
+}
@@ -0,0 +1,287 @@
+package rafalk42.bank.carnegie;
+
+import rafalk42.bank.domain.BankAccountDescription;
+import rafalk42.bank.domain.BankAccountNotFound;
+import rafalk42.bank.domain.OperationResult;
+import rafalk42.dao.AccountDao;
+import rafalk42.dao.AccountDaoInternalError;
+import rafalk42.dao.BalanceUpdateStatus;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * The only thread that ever touches the account DAO of a CarnegieBank. It takes every published command off
+ * the ring buffer in sequence order and applies it. All the commands that are already published when it wakes up
+ * are applied as one batch, before their slots are handed back to the callers.
+ * When there is nothing to do it spins for a moment and then parks until a caller wakes it up.
+ */
+class CarnegieBankWriter
+		implements Runnable
+{
+	private static final int MAXIMUM_BATCH_SIZE = 256;
+	private static final int SPIN_TRIES = 1000;
+	
+	private final AccountDao accountDao;
+	private final CarnegieBankRingBuffer ringBuffer;
+	private final BigDecimal rulesMinimumTransferAmount = BigDecimal.valueOf(1, 2);
+	private volatile boolean running;
+	private volatile boolean parked;
+	private volatile long appliedSequence;
+	
+	CarnegieBankWriter(AccountDao accountDao, CarnegieBankRingBuffer ringBuffer)
+	{
+		this.accountDao = accountDao;
+		this.ringBuffer = ringBuffer;
+		
+		running = true;
+		parked = false;
+		appliedSequence = -1;
+	}
+	
+	@Override
+	public void run()
+	{
+		long nextSequence = 0;
+		
+		while (running)
+		{
+			long batchEnd = nextSequence;
+			while (batchEnd - nextSequence < MAXIMUM_BATCH_SIZE
+				   && ringBuffer.isPublished(batchEnd))
+			{
+				batchEnd++;
+			}
+			
+			if (batchEnd == nextSequence)
+			{
+				idle(nextSequence);
+				continue;
+			}
+			
+			for (long sequence = nextSequence; sequence < batchEnd; sequence++)
+			{
+				CarnegieBankCommand command = ringBuffer.get(sequence);
+				CarnegieBankCompletion completion = command.getCompletion();
+				
+				apply(command, completion);
+				command.clear();
+				appliedSequence = sequence;
+				
+				completion.complete();
+			}
+			
+			nextSequence = batchEnd;
+			ringBuffer.setConsumedSequence(nextSequence);
+		}
+	}
+	
+	/**
+	 * Wake the writer up if it's parked, called by a caller right after publishing a command.
+	 *
+	 * @param writerThread thread running this writer
+	 */
+	void wakeUp(Thread writerThread)
+	{
+		if (parked)
+		{
+			LockSupport.unpark(writerThread);
+		}
+	}
+	
+	void stop(Thread writerThread)
+	{
+		running = false;
+		LockSupport.unpark(writerThread);
+	}
+	
+	/**
+	 * @return sequence of the last command applied, -1 if there was none
+	 */
+	long getAppliedSequence()
+	{
+		return appliedSequence;
+	}
+	
+	private void idle(long nextSequence)
+	{
+		for (int i = 0; i < SPIN_TRIES; i++)
+		{
+			if (ringBuffer.isPublished(nextSequence))
+			{
+				return;
+			}
+		}
+		
+		parked = true;
+		
+		// Check again after announcing the intention to park, otherwise a caller could miss us.
+		if (running
+			&& !ringBuffer.isPublished(nextSequence))
+		{
+			LockSupport.park(this);
+		}
+		
+		parked = false;
+	}
+	
+	private void apply(CarnegieBankCommand command, CarnegieBankCompletion completion)
+	{
+		try
+		{
+			switch (command.getType())
+			{
+				case OPEN:
+					BankAccountDescription accountDescription = command.getAccountDescription();
+					completion.setResult(accountDao.open(accountDescription.getDescription(),
+														 accountDescription.getInitialBalance()));
+					break;
+				case GET_INFO_ALL:
+					completion.setResult(accountDao.findAll());
+					break;
+				case FIND_BY_ID:
+					completion.setResult(accountDao.doesItExist(command.getAccountId()));
+					break;
+				case GET_INFO:
+					verifyAccountExists(command.getAccountId());
+					completion.setResult(accountDao.getInfo(command.getAccountId()));
+					break;
+				case GET_BALANCE:
+					verifyAccountExists(command.getAccountId());
+					completion.setResult(accountDao.getBalance(command.getAccountId()));
+					break;
+				case DEPOSIT:
+					completion.setResult(executeDeposit(command.getAccountId(),
+														command.getAmount()));
+					break;
+				case WITHDRAW:
+					completion.setResult(executeWithdraw(command.getAccountId(),
+														 command.getAmount()));
+					break;
+				case TRANSFER:
+					completion.setResult(executeTransfer(command.getAccountId(),
+														 command.getOtherAccountId(),
+														 command.getAmount()));
+					break;
+				case CLOSE:
+					verifyAccountExists(command.getAccountId());
+					accountDao.close(command.getAccountId());
+					break;
+				default:
+					throw new IllegalStateException("Unsupported command type " + command.getType());
+			}
+			
+			accountDao.commit();
+			accountDao.sync();
+		}
+		catch (BankAccountNotFound ex)
+		{
+			completion.setAccountNotFound(ex);
+		}
+		catch (AccountDaoInternalError ex)
+		{
+			completion.setInternalError(ex);
+		}
+		catch (RuntimeException ex)
+		{
+			completion.setRuntimeError(ex);
+		}
+	}
+	
+	private void verifyAccountExists(String accountId)
+			throws AccountDaoInternalError, BankAccountNotFound
+	{
+		if (!accountDao.doesItExist(accountId))
+		{
+			throw new BankAccountNotFound(accountId);
+		}
+	}
+	
+	/**
+	 * Business rules are the same as in RockefellerBank.executeDeposit.
+	 */
+	private OperationResult executeDeposit(String accountId, BigDecimal amount)
+			throws AccountDaoInternalError, BankAccountNotFound
+	{
+		if (amount.compareTo(rulesMinimumTransferAmount) < 0)
+		{
+			verifyAccountExists(accountId);
+			
+			return OperationResult.getInvalidAmount(amount);
+		}
+		
+		BigDecimal amountRounded = amount.setScale(2, RoundingMode.HALF_UP);
+		
+		return getOperationResult(accountDao.applyDelta(accountId, amountRounded), amountRounded, accountId, null);
+	}
+	
+	/**
+	 * Business rules are the same as in RockefellerBank.executeWithdraw.
+	 */
+	private OperationResult executeWithdraw(String accountId, BigDecimal amount)
+			throws AccountDaoInternalError, BankAccountNotFound
+	{
+		if (amount.compareTo(rulesMinimumTransferAmount) < 0)
+		{
+			verifyAccountExists(accountId);
+			
+			return OperationResult.getInvalidAmount(amount);
+		}
+		
+		BigDecimal amountRounded = amount.setScale(2, RoundingMode.HALF_UP);
+		
+		return getOperationResult(accountDao.applyDelta(accountId, amountRounded.negate()), amountRounded, accountId,
+								  null);
+	}
+	
+	/**
+	 * Business rules are the same as in RockefellerBank.executeTransfer.
+	 */
+	private OperationResult executeTransfer(String sourceAccountId, String destinationAccountId, BigDecimal amount)
+			throws AccountDaoInternalError, BankAccountNotFound
+	{
+		if (sourceAccountId.equals(destinationAccountId))
+		{
+			verifyAccountExists(sourceAccountId);
+			
+			return OperationResult.getNotAllowed(amount);
+		}
+		
+		if (amount.compareTo(rulesMinimumTransferAmount) < 0)
+		{
+			verifyAccountExists(sourceAccountId);
+			verifyAccountExists(destinationAccountId);
+			
+			return OperationResult.getInvalidAmount(amount);
+		}
+		
+		BigDecimal amountRounded = amount.setScale(2, RoundingMode.HALF_UP);
+		
+		return getOperationResult(accountDao.move(sourceAccountId, destinationAccountId, amountRounded), amountRounded,
+								  sourceAccountId, destinationAccountId);
+	}
+	
+	/**
+	 * The same as RockefellerBank.getOperationResult.
+	 */
+	private OperationResult getOperationResult(BalanceUpdateStatus status, BigDecimal amountRounded, String accountId,
+											   String destinationAccountId)
+			throws BankAccountNotFound
+	{
+		switch (status)
+		{
+			case APPLIED:
+				return OperationResult.getSuccessful(amountRounded);
+			case NOT_ENOUGH_FUNDS:
+				return OperationResult.getNotEnoughFunds(amountRounded);
+			case ACCOUNT_NOT_FOUND:
+				throw new BankAccountNotFound(accountId);
+			case DESTINATION_ACCOUNT_NOT_FOUND:
+				throw new BankAccountNotFound(destinationAccountId);
+			default:
+				throw new IllegalStateException("Unsupported balance update status " + status);
+		}
+	}
+}
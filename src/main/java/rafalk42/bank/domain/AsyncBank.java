@@ -0,0 +1,183 @@
+package rafalk42.bank.domain;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+
+/**
+ * The same model of a bank as the Bank interface, but none of the methods waits for the operation to finish.
+ * Every method returns a future instead, completed with the result of the operation, or completed exceptionally
+ * with BankInternalError or BankAccountNotFound wherever the matching method of the Bank interface would throw
+ * them. Invalid arguments (e.g. a null amount) are reported with IllegalArgumentException, either thrown
+ * right away or completing the future, depending on the implementation.
+ * <p>
+ * Futures may be completed on a thread of the bank implementation, so whatever is chained to them should be
+ * short and must not block, or the bank will be stuck waiting for it.
+ */
+public interface AsyncBank
+{
+	/**
+	 * See Bank.accountOpen.
+	 *
+	 * @param accountDescription a set of information required for setting up the new account
+	 * @return future completed with the handler for newly opened account
+	 */
+	CompletableFuture<BankAccount> accountOpen(BankAccountDescription accountDescription);
+	
+	/**
+	 * See Bank.accountOpenBatch. The default implementation opens all the accounts at the same time, one call
+	 * of accountOpen each.
+	 *
+	 * @param accountDescriptions sets of information required for setting up the new accounts
+	 * @return future completed with handlers for the newly opened accounts, in the same order as the descriptions
+	 */
+	default CompletableFuture<List<BankAccount>> accountOpenBatch(List<BankAccountDescription> accountDescriptions)
+	{
+		if (accountDescriptions == null)
+		{
+			throw new IllegalArgumentException("Account descriptions cannot be null");
+		}
+		
+		List<CompletableFuture<BankAccount>> accounts = new ArrayList<>(accountDescriptions.size());
+		for (BankAccountDescription accountDescription : accountDescriptions)
+		{
+			accounts.add(accountOpen(accountDescription));
+		}
+		
+		return CompletableFuture.allOf(accounts.toArray(new CompletableFuture<?>[0]))
+								.thenApply(ignored -> accounts.stream()
+															  .map(CompletableFuture::join)
+															  .collect(Collectors.toList()));
+	}
+	
+	/**
+	 * See Bank.accountsGetInfoAll.
+	 *
+	 * @return future completed with a map of handlers and detailed information about each account
+	 */
+	CompletableFuture<Map<BankAccount, BankAccountInfo>> accountsGetInfoAll();
+	
+	/**
+	 * See Bank.accountsGetInfoPage.
+	 *
+	 * @param afterAccountId ID after which the page starts, null to start from the very first account
+	 * @param limit          maximum number of accounts on the page, must be positive
+	 * @return future completed with an ordered (by iteration) map of handlers and detailed information about
+	 * at most limit accounts
+	 */
+	CompletableFuture<Map<BankAccount, BankAccountInfo>> accountsGetInfoPage(String afterAccountId, int limit);
+	
+	/**
+	 * See Bank.accountFindById.
+	 *
+	 * @param accountId ID of desired account
+	 * @return future completed with the handler for account, if found
+	 */
+	CompletableFuture<Optional<BankAccount>> accountFindById(String accountId);
+	
+	/**
+	 * See Bank.accountGetInfo.
+	 *
+	 * @param account a handler for account
+	 * @return future completed with detailed information about account
+	 */
+	CompletableFuture<BankAccountInfo> accountGetInfo(BankAccount account);
+	
+	/**
+	 * See Bank.accountGetBalance.
+	 *
+	 * @param account a handler for account
+	 * @return future completed with current balance
+	 */
+	CompletableFuture<BigDecimal> accountGetBalance(BankAccount account);
+	
+	/**
+	 * See Bank.accountDeposit.
+	 *
+	 * @param account a handler for account
+	 * @param amount  amount to deposit
+	 * @param title   a description of this transaction
+	 * @return future completed with detailed information about the result of this transaction
+	 */
+	CompletableFuture<OperationResult> accountDeposit(BankAccount account, BigDecimal amount, String title);
+	
+	/**
+	 * See Bank.accountWithdraw.
+	 *
+	 * @param account a handler for account
+	 * @param amount  amount to withdraw
+	 * @param title   a description of this transaction
+	 * @return future completed with detailed information about the result of this transaction
+	 */
+	CompletableFuture<OperationResult> accountWithdraw(BankAccount account, BigDecimal amount, String title);
+	
+	/**
+	 * See Bank.transferAmount.
+	 *
+	 * @param sourceAccount      account from which given amount will be taken
+	 * @param destinationAccount account to which given amount will be added
+	 * @param amount             amount ot transfer
+	 * @return future completed with detailed information about the result of this transaction
+	 */
+	CompletableFuture<OperationResult> transferAmount(BankAccount sourceAccount, BankAccount destinationAccount,
+													  BigDecimal amount);
+	
+	/**
+	 * See Bank.transferBatch. A mode not supported by the implementation completes the future exceptionally
+	 * with UnsupportedOperationException.
+	 *
+	 * @param transfers transfers to execute, in order
+	 * @param mode      what to do with the rest of the batch when a transfer fails
+	 * @return future completed with results of the transfers, in the same order as the transfers
+	 */
+	CompletableFuture<List<OperationResult>> transferBatch(List<BankTransfer> transfers, TransferBatchMode mode);
+	
+	/**
+	 * See Bank.accountGetHistory. The default implementation completes the future with
+	 * UnsupportedOperationException.
+	 *
+	 * @param account       a handler for account
+	 * @param fromTimestamp start of the time range (inclusive), in milliseconds since the epoch
+	 * @param toTimestamp   end of the time range (exclusive), in milliseconds since the epoch
+	 * @param afterSequence sequence number after which the page starts, 0 to start from the oldest entry
+	 * @param limit         maximum number of entries on the page, must be positive
+	 * @return future completed with at most limit entries
+	 */
+	default CompletableFuture<List<BankAccountHistoryEntry>> accountGetHistory(BankAccount account, long fromTimestamp,
+																			   long toTimestamp, long afterSequence,
+																			   int limit)
+	{
+		CompletableFuture<List<BankAccountHistoryEntry>> result = new CompletableFuture<>();
+		result.completeExceptionally(new UnsupportedOperationException("Account history is not supported"));
+		
+		return result;
+	}
+	
+	/**
+	 * See Bank.accountGetVersion. The default implementation completes the future with
+	 * UnsupportedOperationException.
+	 *
+	 * @param account a handler for account
+	 * @return future completed with current version of the account
+	 */
+	default CompletableFuture<Long> accountGetVersion(BankAccount account)
+	{
+		CompletableFuture<Long> result = new CompletableFuture<>();
+		result.completeExceptionally(new UnsupportedOperationException("Account versions are not supported"));
+		
+		return result;
+	}
+	
+	/**
+	 * See Bank.accountClose.
+	 *
+	 * @param account a handler for account
+	 * @return future completed once the account is closed
+	 */
+	CompletableFuture<Void> accountClose(BankAccount account);
+}
@@ -0,0 +1,159 @@
+package rafalk42.bank.domain;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+
+/**
+ * Makes an AsyncBank out of any blocking Bank, by running every call on given executor. The bank still blocks,
+ * only it blocks a thread of the executor and not the caller.
+ * With an executor that runs the task right away (Runnable::run) every future is already completed when it is
+ * returned, which is the way to use a blocking bank through the AsyncBank interface without any thread handoff.
+ */
+public class AsyncBankAdapter
+		implements AsyncBank
+{
+	private final Bank bank;
+	private final Executor executor;
+	
+	public AsyncBankAdapter(Bank bank, Executor executor)
+	{
+		if (bank == null)
+		{
+			throw new IllegalArgumentException("Bank cannot be null");
+		}
+		
+		if (executor == null)
+		{
+			throw new IllegalArgumentException("Executor cannot be null");
+		}
+		
+		this.bank = bank;
+		this.executor = executor;
+	}
+	
+	@Override
+	public CompletableFuture<BankAccount> accountOpen(BankAccountDescription accountDescription)
+	{
+		return submit(() -> bank.accountOpen(accountDescription));
+	}
+	
+	@Override
+	public CompletableFuture<List<BankAccount>> accountOpenBatch(List<BankAccountDescription> accountDescriptions)
+	{
+		return submit(() -> bank.accountOpenBatch(accountDescriptions));
+	}
+	
+	@Override
+	public CompletableFuture<Map<BankAccount, BankAccountInfo>> accountsGetInfoAll()
+	{
+		return submit(bank::accountsGetInfoAll);
+	}
+	
+	@Override
+	public CompletableFuture<Map<BankAccount, BankAccountInfo>> accountsGetInfoPage(String afterAccountId, int limit)
+	{
+		return submit(() -> bank.accountsGetInfoPage(afterAccountId, limit));
+	}
+	
+	@Override
+	public CompletableFuture<Optional<BankAccount>> accountFindById(String accountId)
+	{
+		return submit(() -> bank.accountFindById(accountId));
+	}
+	
+	@Override
+	public CompletableFuture<BankAccountInfo> accountGetInfo(BankAccount account)
+	{
+		return submit(() -> bank.accountGetInfo(account));
+	}
+	
+	@Override
+	public CompletableFuture<BigDecimal> accountGetBalance(BankAccount account)
+	{
+		return submit(() -> bank.accountGetBalance(account));
+	}
+	
+	@Override
+	public CompletableFuture<OperationResult> accountDeposit(BankAccount account, BigDecimal amount, String title)
+	{
+		return submit(() -> bank.accountDeposit(account, amount, title));
+	}
+	
+	@Override
+	public CompletableFuture<OperationResult> accountWithdraw(BankAccount account, BigDecimal amount, String title)
+	{
+		return submit(() -> bank.accountWithdraw(account, amount, title));
+	}
+	
+	@Override
+	public CompletableFuture<OperationResult> transferAmount(BankAccount sourceAccount, BankAccount destinationAccount,
+															 BigDecimal amount)
+	{
+		return submit(() -> bank.transferAmount(sourceAccount, destinationAccount, amount));
+	}
+	
+	@Override
+	public CompletableFuture<List<OperationResult>> transferBatch(List<BankTransfer> transfers, TransferBatchMode mode)
+	{
+		return submit(() -> bank.transferBatch(transfers, mode));
+	}
+	
+	@Override
+	public CompletableFuture<List<BankAccountHistoryEntry>> accountGetHistory(BankAccount account, long fromTimestamp,
+																			  long toTimestamp, long afterSequence,
+																			  int limit)
+	{
+		return submit(() -> bank.accountGetHistory(account, fromTimestamp, toTimestamp, afterSequence, limit));
+	}
+	
+	@Override
+	public CompletableFuture<Long> accountGetVersion(BankAccount account)
+	{
+		return submit(() -> bank.accountGetVersion(account));
+	}
+	
+	@Override
+	public CompletableFuture<Void> accountClose(BankAccount account)
+	{
+		return submit(() ->
+					  {
+						  bank.accountClose(account);
+						
+						  return null;
+					  });
+	}
+	
+	/**
+	 * Run a call of the blocking bank on the executor. Whatever the call throws completes the future.
+	 */
+	private <T> CompletableFuture<T> submit(BankCall<T> call)
+	{
+		CompletableFuture<T> result = new CompletableFuture<>();
+		
+		executor.execute(() ->
+						 {
+							 try
+							 {
+								 result.complete(call.execute());
+							 }
+							 catch (Throwable ex)
+							 {
+								 result.completeExceptionally(ex);
+							 }
+						 });
+		
+		return result;
+	}
+	
+	@FunctionalInterface
+	private interface BankCall<T>
+	{
+		T execute()
+				throws BankInternalError, BankAccountNotFound;
+	}
+}
@@ -1,6 +1,10 @@
 package rafalk42.bank.domain;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
@@ -26,6 +30,33 @@ public interface Bank
 	BankAccount accountOpen(BankAccountDescription accountDescription)
 			throws BankInternalError;
 	
+	/**
+	 * Open a number of new accounts at once, e.g. when onboarding a whole batch of customers.
+	 * <p>
+	 * The default implementation simply opens the accounts one by one. Implementations that can open the whole
+	 * batch in one step are expected to override it.
+	 *
+	 * @param accountDescriptions sets of information required for setting up the new accounts
+	 * @return handlers for the newly opened accounts, in the same order as the descriptions
+	 * @throws BankInternalError thrown when unknown error occurred
+	 */
+	default List<BankAccount> accountOpenBatch(List<BankAccountDescription> accountDescriptions)
+			throws BankInternalError
+	{
+		if (accountDescriptions == null)
+		{
+			throw new IllegalArgumentException("Account descriptions cannot be null");
+		}
+		
+		List<BankAccount> result = new ArrayList<>(accountDescriptions.size());
+		for (BankAccountDescription accountDescription : accountDescriptions)
+		{
+			result.add(accountOpen(accountDescription));
+		}
+		
+		return result;
+	}
+	
 	/**
 	 * Retrieve detailed information about all accounts.
 	 *
@@ -35,6 +66,41 @@ public interface Bank
 	Map<BankAccount, BankAccountInfo> accountsGetInfoAll()
 			throws BankInternalError;
 	
+	/**
+	 * Retrieve detailed information about accounts one page at a time, in order of their IDs (natural String order).
+	 * The page starts right after given ID, which does not have to belong to an existing account, so the ID
+	 * of the last account of a page can always be used to ask for the next one. Every page is consistent on its own,
+	 * the same way accountsGetInfoAll is, but accounts can change in between the pages.
+	 * <p>
+	 * The default implementation simply cuts the page out of accountsGetInfoAll, so it's just as expensive.
+	 * Implementations that can iterate their accounts in order are expected to override it.
+	 *
+	 * @param afterAccountId ID after which the page starts, null to start from the very first account
+	 * @param limit          maximum number of accounts on the page, must be positive
+	 * @return an ordered (by iteration) map of handlers and detailed information about at most limit accounts,
+	 * empty when there are no more accounts
+	 * @throws BankInternalError thrown when unknown error occurred
+	 */
+	default Map<BankAccount, BankAccountInfo> accountsGetInfoPage(String afterAccountId, int limit)
+			throws BankInternalError
+	{
+		if (limit <= 0)
+		{
+			throw new IllegalArgumentException("Limit must be positive");
+		}
+		
+		Map<BankAccount, BankAccountInfo> result = new LinkedHashMap<>();
+		accountsGetInfoAll().entrySet()
+							.stream()
+							.filter(entry -> afterAccountId == null
+											 || entry.getKey().getId().compareTo(afterAccountId) > 0)
+							.sorted(Comparator.comparing(entry -> entry.getKey().getId()))
+							.limit(limit)
+							.forEach(entry -> result.put(entry.getKey(), entry.getValue()));
+		
+		return result;
+	}
+	
 	/**
 	 * Retrieve a handler for an account with given ID.
 	 *
@@ -106,6 +172,95 @@ public interface Bank
 	OperationResult transferAmount(BankAccount sourceAccount, BankAccount destinationAccount, BigDecimal amount)
 			throws BankInternalError, BankAccountNotFound;
 	
+	/**
+	 * Execute a whole list of transfers at once. A missing account does not fail the whole call, it is reported
+	 * as FAILED_ACCOUNT_NOT_FOUND result of the transfer that refers to it.
+	 * <p>
+	 * The default implementation supports only the BEST_EFFORT mode, by simply executing the transfers one by one,
+	 * so other operations can interleave with them. Implementations that can run the whole batch under one
+	 * critical section are expected to override it.
+	 *
+	 * @param transfers transfers to execute, in order
+	 * @param mode      what to do with the rest of the batch when a transfer fails
+	 * @return results of the transfers, in the same order as the transfers
+	 * @throws BankInternalError             thrown when unknown error occurred
+	 * @throws UnsupportedOperationException thrown when given mode is not supported by the implementation
+	 */
+	default List<OperationResult> transferBatch(List<BankTransfer> transfers, TransferBatchMode mode)
+			throws BankInternalError
+	{
+		if (transfers == null)
+		{
+			throw new IllegalArgumentException("Transfers cannot be null");
+		}
+		
+		if (mode != TransferBatchMode.BEST_EFFORT)
+		{
+			throw new UnsupportedOperationException("Transfer batch mode " + mode + " is not supported");
+		}
+		
+		List<OperationResult> results = new ArrayList<>(transfers.size());
+		for (BankTransfer transfer : transfers)
+		{
+			try
+			{
+				results.add(transferAmount(transfer.getSourceAccount(),
+										   transfer.getDestinationAccount(),
+										   transfer.getAmount()));
+			}
+			catch (BankAccountNotFound ex)
+			{
+				results.add(OperationResult.getAccountNotFound(transfer.getAmount()));
+			}
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * Retrieve the history of an account: deposits, withdrawals and transfers, successful or not, in the order
+	 * they were made, oldest first. The history is read one page at a time, passing the sequence number of the last
+	 * entry of a page as afterSequence gives the next one.
+	 * <p>
+	 * The default implementation throws UnsupportedOperationException, banks that keep an audit log are expected
+	 * to override it.
+	 *
+	 * @param account       a handler for account
+	 * @param fromTimestamp start of the time range (inclusive), in milliseconds since the epoch
+	 * @param toTimestamp   end of the time range (exclusive), in milliseconds since the epoch
+	 * @param afterSequence sequence number after which the page starts, 0 to start from the oldest entry
+	 * @param limit         maximum number of entries on the page, must be positive
+	 * @return at most limit entries, empty when there are no more
+	 * @throws BankInternalError             thrown when unknown error occurred
+	 * @throws UnsupportedOperationException thrown when the implementation keeps no history
+	 */
+	default List<BankAccountHistoryEntry> accountGetHistory(BankAccount account, long fromTimestamp, long toTimestamp,
+															long afterSequence, int limit)
+			throws BankInternalError
+	{
+		throw new UnsupportedOperationException("Account history is not supported");
+	}
+	
+	/**
+	 * Retrieve the version of an account, a number that changes whenever the balance of the account does, so that
+	 * whoever read the account before can tell whether there is anything new without reading it again. Versions
+	 * are only meaningful within a single instance of the bank, they start over whenever the bank is created.
+	 * <p>
+	 * The default implementation throws UnsupportedOperationException, banks that keep track of versions
+	 * are expected to override it.
+	 *
+	 * @param account a handler for account
+	 * @return current version of the account
+	 * @throws BankInternalError             thrown when unknown error occurred
+	 * @throws BankAccountNotFound           thrown when account pointed by the handler doesn't exist
+	 * @throws UnsupportedOperationException thrown when the implementation keeps no versions
+	 */
+	default long accountGetVersion(BankAccount account)
+			throws BankInternalError, BankAccountNotFound
+	{
+		throw new UnsupportedOperationException("Account versions are not supported");
+	}
+	
 	/**
 	 * Close given account, completely discarding any funds that might be left on it.
 	 *
@@ -0,0 +1,110 @@
+package rafalk42.bank.domain;
+
+import java.math.BigDecimal;
+
+
+/**
+ * Represents a single operation in the history of an account, see Bank.accountGetHistory.
+ */
+public class BankAccountHistoryEntry
+{
+	public enum Operation
+	{
+		DEPOSIT,
+		WITHDRAWAL,
+		TRANSFER
+	}
+	
+	private final long sequence;
+	private final long timestamp;
+	private final Operation operation;
+	private final String sourceAccountId;
+	private final String destinationAccountId;
+	private final BigDecimal amount;
+	private final String title;
+	private final OperationResult.Status status;
+	
+	public BankAccountHistoryEntry(long sequence, long timestamp, Operation operation, String sourceAccountId,
+								   String destinationAccountId, BigDecimal amount, String title,
+								   OperationResult.Status status)
+	{
+		this.sequence = sequence;
+		this.timestamp = timestamp;
+		this.operation = operation;
+		this.sourceAccountId = sourceAccountId;
+		this.destinationAccountId = destinationAccountId;
+		this.amount = amount;
+		this.title = title;
+		this.status = status;
+	}
+	
+	/**
+	 * @return sequence number of the operation, unique within the bank and growing with time
+	 */
+	public long getSequence()
+	{
+		return sequence;
+	}
+	
+	/**
+	 * @return time of the operation, in milliseconds since the epoch
+	 */
+	public long getTimestamp()
+	{
+		return timestamp;
+	}
+	
+	public Operation getOperation()
+	{
+		return operation;
+	}
+	
+	/**
+	 * @return ID of the account money was taken from, null for a deposit
+	 */
+	public String getSourceAccountId()
+	{
+		return sourceAccountId;
+	}
+	
+	/**
+	 * @return ID of the account money was put into, null for a withdrawal
+	 */
+	public String getDestinationAccountId()
+	{
+		return destinationAccountId;
+	}
+	
+	public BigDecimal getAmount()
+	{
+		return amount;
+	}
+	
+	/**
+	 * @return title of a deposit or a withdrawal, null if there was none
+	 */
+	public String getTitle()
+	{
+		return title;
+	}
+	
+	public OperationResult.Status getStatus()
+	{
+		return status;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "BankAccountHistoryEntry{" +
+			   "sequence=" + sequence +
+			   ", timestamp=" + timestamp +
+			   ", operation=" + operation +
+			   ", sourceAccountId='" + sourceAccountId + '\'' +
+			   ", destinationAccountId='" + destinationAccountId + '\'' +
+			   ", amount=" + amount +
+			   ", title='" + title + '\'' +
+			   ", status=" + status +
+			   '}';
+	}
+}
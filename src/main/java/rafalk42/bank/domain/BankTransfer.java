@@ -0,0 +1,46 @@
+package rafalk42.bank.domain;
+
+import java.math.BigDecimal;
+
+
+/**
+ * Represents a single transfer of a batch, see Bank.transferBatch.
+ */
+public class BankTransfer
+{
+	private final BankAccount sourceAccount;
+	private final BankAccount destinationAccount;
+	private final BigDecimal amount;
+	
+	public BankTransfer(BankAccount sourceAccount, BankAccount destinationAccount, BigDecimal amount)
+	{
+		this.sourceAccount = sourceAccount;
+		this.destinationAccount = destinationAccount;
+		this.amount = amount;
+	}
+	
+	public BankAccount getSourceAccount()
+	{
+		return sourceAccount;
+	}
+	
+	public BankAccount getDestinationAccount()
+	{
+		return destinationAccount;
+	}
+	
+	public BigDecimal getAmount()
+	{
+		return amount;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "BankTransfer{" +
+			   "sourceAccount=" + sourceAccount +
+			   ", destinationAccount=" + destinationAccount +
+			   ", amount=" + amount +
+			   '}';
+	}
+}
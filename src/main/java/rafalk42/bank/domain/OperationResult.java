@@ -26,7 +26,16 @@ public class OperationResult
 		/**
 		 * Requested operation is not allowed due to business restrictions.
 		 */
-		FAILED_NOT_ALLOWED
+		FAILED_NOT_ALLOWED,
+		/**
+		 * One of the accounts does not exist. Reported only for the transfers of a batch, a single operation
+		 * throws BankAccountNotFound instead.
+		 */
+		FAILED_ACCOUNT_NOT_FOUND,
+		/**
+		 * Operation was not applied (or was rolled back) because another operation of the same atomic batch failed.
+		 */
+		FAILED_BATCH_ABORTED
 	}
 	
 	private final Status status;
@@ -58,6 +67,16 @@ public class OperationResult
 		return new OperationResult(Status.FAILED_NOT_ALLOWED, actualAmount);
 	}
 	
+	public static OperationResult getAccountNotFound(BigDecimal actualAmount)
+	{
+		return new OperationResult(Status.FAILED_ACCOUNT_NOT_FOUND, actualAmount);
+	}
+	
+	public static OperationResult getBatchAborted(BigDecimal actualAmount)
+	{
+		return new OperationResult(Status.FAILED_BATCH_ABORTED, actualAmount);
+	}
+	
 	public Status getStatus()
 	{
 		return status;
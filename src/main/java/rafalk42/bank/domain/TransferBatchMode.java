@@ -0,0 +1,24 @@
+package rafalk42.bank.domain;
+
+/**
+ * Decides what happens to a batch of transfers when some of them fail.
+ */
+public enum TransferBatchMode
+{
+	/**
+	 * All the transfers succeed or none of them is applied. Processing stops at the first failed transfer,
+	 * every other transfer of the batch is reported as FAILED_BATCH_ABORTED.
+	 */
+	ATOMIC,
+	/**
+	 * Every transfer is tried on its own, failed transfers do not affect the others.
+	 */
+	BEST_EFFORT,
+	/**
+	 * All the transfers succeed or none of them is applied, like ATOMIC, but the rule that an account cannot
+	 * get into debt is checked against the net result of the whole batch, not after each transfer. Transfers
+	 * between the same accounts may cancel each other out. Accounts that would end up in debt have their outgoing
+	 * transfers reported as FAILED_NOT_ENOUGH_FUNDS, every other transfer as FAILED_BATCH_ABORTED.
+	 */
+	NETTED
+}
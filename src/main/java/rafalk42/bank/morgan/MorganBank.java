@@ -0,0 +1,396 @@
+package rafalk42.bank.morgan;
+
+import rafalk42.bank.domain.*;
+import rafalk42.dao.AccountIdAllocator;
+import rafalk42.money.MinorUnits;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Implementation of a Bank that does not use any locks for single account operations. Every balance is a long
+ * count of minor units kept in an atomic cell and every deposit, withdrawal or close is a compare-and-set loop on that
+ * cell. Business rules are the same as in the RockefellerBank.
+ * <p>
+ * A transfer locks the two cells (see MorganBankBalanceCell), always in the order of the account IDs, so two
+ * transfers can't deadlock, checks both balances and writes both new ones. So it either happens whole or has
+ * no effect at all, and nobody sees the amount taken from the source and not yet added to the destination.
+ * accountsGetInfoAll is not a point-in-time snapshot though, it reads the accounts one by one.
+ * <p>
+ * It doesn't use the account DAO, state lives only in memory.
+ */
+public class MorganBank
+		implements Bank
+{
+	private final ConcurrentMap<String, MorganBankBalanceCell> accounts;
+	private final AccountIdAllocator accountIdAllocator;
+	private final BigDecimal rulesMinimumTransferAmount = BigDecimal.valueOf(1, 2);
+	
+	public MorganBank()
+	{
+		accounts = new ConcurrentHashMap<>();
+		accountIdAllocator = new AccountIdAllocator();
+	}
+	
+	@Override
+	public BankAccount accountOpen(BankAccountDescription accountDescription)
+			throws BankInternalError
+	{
+		long initialBalance;
+		try
+		{
+			initialBalance = MinorUnits.fromAmount(accountDescription.getInitialBalance());
+		}
+		catch (ArithmeticException ex)
+		{
+			throw new IllegalArgumentException("Initial balance is out of range");
+		}
+		
+		if (initialBalance > MorganBankBalanceCell.MAXIMUM_BALANCE)
+		{
+			throw new IllegalArgumentException("Initial balance is out of range");
+		}
+		
+		String newAccountId = accountIdAllocator.allocate();
+		MorganBankBalanceCell balanceCell = new MorganBankBalanceCell(accountDescription.getDescription(),
+																	  initialBalance);
+		accounts.put(newAccountId, balanceCell);
+		
+		return new MorganBankAccount(newAccountId, balanceCell);
+	}
+	
+	@Override
+	public Map<BankAccount, BankAccountInfo> accountsGetInfoAll()
+			throws BankInternalError
+	{
+		Map<BankAccount, BankAccountInfo> result = new HashMap<>();
+		accounts.forEach((accountId, balanceCell) ->
+						 {
+							 long balance = balanceCell.getBalance();
+							 if (balance != MorganBankBalanceCell.CLOSED)
+							 {
+								 result.put(new MorganBankAccount(accountId, balanceCell),
+											new BankAccountInfo(balanceCell.getDescription(),
+																MinorUnits.toAmount(balance)));
+							 }
+						 });
+		
+		return result;
+	}
+	
+	@Override
+	public Optional<BankAccount> accountFindById(String accountId)
+			throws BankInternalError
+	{
+		if (accountId == null)
+		{
+			throw new IllegalArgumentException("Account ID cannot be null");
+		}
+		
+		MorganBankBalanceCell balanceCell = accounts.get(accountId);
+		if (balanceCell == null)
+		{
+			return Optional.empty();
+		}
+		
+		return Optional.of(new MorganBankAccount(accountId, balanceCell));
+	}
+	
+	@Override
+	public BankAccountInfo accountGetInfo(BankAccount account)
+			throws BankInternalError, BankAccountNotFound
+	{
+		MorganBankBalanceCell balanceCell = getBalanceCell(account);
+		long balance = getOpenAccountBalance(account, balanceCell);
+		
+		return new BankAccountInfo(balanceCell.getDescription(),
+								   MinorUnits.toAmount(balance));
+	}
+	
+	@Override
+	public BigDecimal accountGetBalance(BankAccount account)
+			throws BankInternalError, BankAccountNotFound
+	{
+		MorganBankBalanceCell balanceCell = getBalanceCell(account);
+		
+		return MinorUnits.toAmount(getOpenAccountBalance(account, balanceCell));
+	}
+	
+	@Override
+	public OperationResult accountDeposit(BankAccount account, BigDecimal amount, String title)
+			throws BankInternalError, BankAccountNotFound
+	{
+		MorganBankBalanceCell balanceCell = getBalanceCell(account);
+		
+		if (amount == null)
+		{
+			throw new IllegalArgumentException("Amount cannot be null");
+		}
+		
+		getOpenAccountBalance(account, balanceCell);
+		
+		if (amount.compareTo(rulesMinimumTransferAmount) < 0)
+		{
+			return OperationResult.getInvalidAmount(amount);
+		}
+		
+		long amountMinor;
+		try
+		{
+			amountMinor = MinorUnits.fromAmount(amount);
+		}
+		catch (ArithmeticException ex)
+		{
+			return OperationResult.getInvalidAmount(amount);
+		}
+		
+		switch (credit(balanceCell, amountMinor))
+		{
+			case APPLIED:
+				return OperationResult.getSuccessful(MinorUnits.toAmount(amountMinor));
+			case BALANCE_OVERFLOW:
+				return OperationResult.getNotAllowed(MinorUnits.toAmount(amountMinor));
+			default:
+				throw new BankAccountNotFound(account.getId());
+		}
+	}
+	
+	@Override
+	public OperationResult accountWithdraw(BankAccount account, BigDecimal amount, String title)
+			throws BankInternalError, BankAccountNotFound
+	{
+		MorganBankBalanceCell balanceCell = getBalanceCell(account);
+		
+		if (amount == null)
+		{
+			throw new IllegalArgumentException("Amount cannot be null");
+		}
+		
+		getOpenAccountBalance(account, balanceCell);
+		
+		if (amount.compareTo(rulesMinimumTransferAmount) < 0)
+		{
+			return OperationResult.getInvalidAmount(amount);
+		}
+		
+		long amountMinor;
+		try
+		{
+			amountMinor = MinorUnits.fromAmount(amount);
+		}
+		catch (ArithmeticException ex)
+		{
+			return OperationResult.getInvalidAmount(amount);
+		}
+		
+		switch (debit(balanceCell, amountMinor))
+		{
+			case APPLIED:
+				return OperationResult.getSuccessful(MinorUnits.toAmount(amountMinor));
+			case NOT_ENOUGH_FUNDS:
+				return OperationResult.getNotEnoughFunds(MinorUnits.toAmount(amountMinor));
+			default:
+				throw new BankAccountNotFound(account.getId());
+		}
+	}
+	
+	/**
+	 * Business rules are the same as in RockefellerBank.executeTransfer.
+	 */
+	@Override
+	public OperationResult transferAmount(BankAccount sourceAccount, BankAccount destinationAccount, BigDecimal amount)
+			throws BankInternalError, BankAccountNotFound
+	{
+		MorganBankBalanceCell sourceCell = getBalanceCell(sourceAccount);
+		MorganBankBalanceCell destinationCell = getBalanceCell(destinationAccount);
+		
+		if (amount == null)
+		{
+			throw new IllegalArgumentException("Amount cannot be null");
+		}
+		
+		getOpenAccountBalance(sourceAccount, sourceCell);
+		getOpenAccountBalance(destinationAccount, destinationCell);
+		
+		if (sourceCell == destinationCell)
+		{
+			return OperationResult.getNotAllowed(amount);
+		}
+		
+		if (amount.compareTo(rulesMinimumTransferAmount) < 0)
+		{
+			return OperationResult.getInvalidAmount(amount);
+		}
+		
+		long amountMinor;
+		try
+		{
+			amountMinor = MinorUnits.fromAmount(amount);
+		}
+		catch (ArithmeticException ex)
+		{
+			return OperationResult.getInvalidAmount(amount);
+		}
+		
+		// Always lock the lower ID first, this is what makes it deadlock free.
+		boolean sourceFirst = sourceAccount.getId().compareTo(destinationAccount.getId()) < 0;
+		MorganBankBalanceCell firstCell = sourceFirst ? sourceCell : destinationCell;
+		MorganBankBalanceCell secondCell = sourceFirst ? destinationCell : sourceCell;
+		
+		long firstBalance = firstCell.lock();
+		if (firstBalance == MorganBankBalanceCell.CLOSED)
+		{
+			throw new BankAccountNotFound((sourceFirst ? sourceAccount : destinationAccount).getId());
+		}
+		
+		long secondBalance = secondCell.lock();
+		if (secondBalance == MorganBankBalanceCell.CLOSED)
+		{
+			firstCell.unlock(firstBalance);
+			throw new BankAccountNotFound((sourceFirst ? destinationAccount : sourceAccount).getId());
+		}
+		
+		long sourceBalance = sourceFirst ? firstBalance : secondBalance;
+		long destinationBalance = sourceFirst ? secondBalance : firstBalance;
+		
+		OperationResult result;
+		if (sourceBalance < amountMinor)
+		{
+			result = OperationResult.getNotEnoughFunds(MinorUnits.toAmount(amountMinor));
+		}
+		else if (amountMinor > MorganBankBalanceCell.MAXIMUM_BALANCE - destinationBalance)
+		{
+			result = OperationResult.getNotAllowed(MinorUnits.toAmount(amountMinor));
+		}
+		else
+		{
+			sourceBalance -= amountMinor;
+			destinationBalance += amountMinor;
+			result = OperationResult.getSuccessful(MinorUnits.toAmount(amountMinor));
+		}
+		
+		sourceCell.unlock(sourceBalance);
+		destinationCell.unlock(destinationBalance);
+		
+		return result;
+	}
+	
+	@Override
+	public void accountClose(BankAccount account)
+			throws BankInternalError, BankAccountNotFound
+	{
+		MorganBankBalanceCell balanceCell = getBalanceCell(account);
+		
+		if (!balanceCell.close())
+		{
+			throw new BankAccountNotFound(account.getId());
+		}
+		
+		accounts.remove(account.getId(), balanceCell);
+	}
+	
+	private enum BalanceChange
+	{
+		APPLIED,
+		NOT_ENOUGH_FUNDS,
+		BALANCE_OVERFLOW,
+		ACCOUNT_CLOSED
+	}
+	
+	/**
+	 * Atomically subtract given amount from the balance, unless that would make the balance negative.
+	 *
+	 * @param balanceCell balance to subtract from
+	 * @param amountMinor amount in minor units, positive
+	 * @return result of this operation
+	 */
+	private BalanceChange debit(MorganBankBalanceCell balanceCell, long amountMinor)
+	{
+		while (true)
+		{
+			long balanceBefore = balanceCell.getBalance();
+			
+			if (balanceBefore == MorganBankBalanceCell.CLOSED)
+			{
+				return BalanceChange.ACCOUNT_CLOSED;
+			}
+			
+			long balanceAfter = balanceBefore - amountMinor;
+			
+			if (balanceAfter < 0)
+			{
+				return BalanceChange.NOT_ENOUGH_FUNDS;
+			}
+			
+			if (balanceCell.compareAndSetBalance(balanceBefore, balanceAfter))
+			{
+				return BalanceChange.APPLIED;
+			}
+		}
+	}
+	
+	/**
+	 * Atomically add given amount to the balance, unless that would take it over the maximum.
+	 *
+	 * @param balanceCell balance to add to
+	 * @param amountMinor amount in minor units, positive
+	 * @return result of this operation
+	 */
+	private BalanceChange credit(MorganBankBalanceCell balanceCell, long amountMinor)
+	{
+		while (true)
+		{
+			long balanceBefore = balanceCell.getBalance();
+			
+			if (balanceBefore == MorganBankBalanceCell.CLOSED)
+			{
+				return BalanceChange.ACCOUNT_CLOSED;
+			}
+			
+			if (amountMinor > MorganBankBalanceCell.MAXIMUM_BALANCE - balanceBefore)
+			{
+				return BalanceChange.BALANCE_OVERFLOW;
+			}
+			
+			long balanceAfter = balanceBefore + amountMinor;
+			
+			if (balanceCell.compareAndSetBalance(balanceBefore, balanceAfter))
+			{
+				return BalanceChange.APPLIED;
+			}
+		}
+	}
+	
+	private long getOpenAccountBalance(BankAccount account, MorganBankBalanceCell balanceCell)
+			throws BankAccountNotFound
+	{
+		long balance = balanceCell.getBalance();
+		
+		if (balance == MorganBankBalanceCell.CLOSED)
+		{
+			throw new BankAccountNotFound(account.getId());
+		}
+		
+		return balance;
+	}
+	
+	private MorganBankBalanceCell getBalanceCell(BankAccount bankAccount)
+	{
+		if (bankAccount == null)
+		{
+			throw new IllegalArgumentException("Bank account cannot be null");
+		}
+		
+		if (!(bankAccount instanceof MorganBankAccount))
+		{
+			throw new IllegalArgumentException("Unsupported implementation of BankAccount");
+		}
+		
+		return ((MorganBankAccount) bankAccount).getBalanceCell();
+	}
+}
@@ -0,0 +1,73 @@
+package rafalk42.bank.morgan;
+
+import rafalk42.bank.domain.BankAccount;
+
+import java.util.Objects;
+
+
+/**
+ * A handler for an account of MorganBank. Apart from the ID it keeps a reference to the account's balance cell,
+ * so that operations on an already found account do not need any lookup.
+ */
+public class MorganBankAccount
+		extends BankAccount
+{
+	private final String id;
+	private final MorganBankBalanceCell balanceCell;
+	
+	MorganBankAccount(String id, MorganBankBalanceCell balanceCell)
+	{
+		if (id == null)
+		{
+			throw new IllegalArgumentException("ID cannot be null");
+		}
+		
+		if (balanceCell == null)
+		{
+			throw new IllegalArgumentException("Balance cell cannot be null");
+		}
+		
+		this.id = id;
+		this.balanceCell = balanceCell;
+	}
+	
+	@Override
+	public String getId()
+	{
+		return id;
+	}
+	
+	MorganBankBalanceCell getBalanceCell()
+	{
+		return balanceCell;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "MorganBankAccount{" +
+			   "id='" + id + '\'' +
+			   '}';
+	}
+	
+	@Override
+	public boolean equals(Object o)
+	{
+		if (this == o)
+		{
+			return true;
+		}
+		if (o == null || getClass() != o.getClass())
+		{
+			return false;
+		}
+		MorganBankAccount that = (MorganBankAccount) o;
+		return id.equals(that.id);
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return Objects.hash(id);
+	}
+}
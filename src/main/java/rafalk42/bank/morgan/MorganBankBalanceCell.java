@@ -0,0 +1,129 @@
+package rafalk42.bank.morgan;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+
+/**
+ * State of a single MorganBank account: immutable description and a balance kept as a long count of minor units,
+ * updated only with compare-and-set. A closed account is marked with a special balance value, so that closing
+ * races correctly with all the other operations.
+ * <p>
+ * A transfer needs two balances to change together, so it can lock a cell: the LOCKED bit is set in the balance
+ * with a compare-and-set, which makes every other compare-and-set on the cell fail until the transfer writes
+ * the new balance, and getBalance waits for that too. A transfer holds the lock for a few instructions only,
+ * so the waiting is just yielding the CPU to it.
+ */
+class MorganBankBalanceCell
+{
+	/**
+	 * Balance of a closed account. Balances are never negative, so this cannot clash with a real one.
+	 */
+	static final long CLOSED = Long.MIN_VALUE;
+	/**
+	 * Bit marking a balance locked by a transfer. It is above every balance the cell can hold, so the balance
+	 * stays in the lower bits while it is set.
+	 */
+	static final long LOCKED = 1L << 62;
+	static final long MAXIMUM_BALANCE = LOCKED - 1;
+	
+	private static final AtomicLongFieldUpdater<MorganBankBalanceCell> BALANCE_UPDATER =
+			AtomicLongFieldUpdater.newUpdater(MorganBankBalanceCell.class, "balance");
+	
+	private final String description;
+	private volatile long balance;
+	
+	MorganBankBalanceCell(String description, long initialBalance)
+	{
+		this.description = description;
+		balance = initialBalance;
+	}
+	
+	String getDescription()
+	{
+		return description;
+	}
+	
+	/**
+	 * @return balance, never one in the middle of a transfer, or CLOSED
+	 */
+	long getBalance()
+	{
+		long current = balance;
+		while (isLocked(current))
+		{
+			Thread.yield();
+			current = balance;
+		}
+		
+		return current;
+	}
+	
+	/**
+	 * @param expectedBalance balance returned by getBalance, so never a locked one
+	 */
+	boolean compareAndSetBalance(long expectedBalance, long newBalance)
+	{
+		return BALANCE_UPDATER.compareAndSet(this, expectedBalance, newBalance);
+	}
+	
+	/**
+	 * Lock the balance for a transfer, waiting for the transfer holding it already, if there is one. Cells have to be
+	 * locked in a fixed order, see MorganBank.transferAmount.
+	 *
+	 * @return the balance at the moment it was locked, or CLOSED if the account is closed (and nothing got locked)
+	 */
+	long lock()
+	{
+		while (true)
+		{
+			long current = getBalance();
+			if (current == CLOSED)
+			{
+				return CLOSED;
+			}
+			
+			if (compareAndSetBalance(current, current | LOCKED))
+			{
+				return current;
+			}
+		}
+	}
+	
+	/**
+	 * Set the balance and release the lock, in a single write. Only the holder of the lock may call it.
+	 *
+	 * @param newBalance the balance, 0 to MAXIMUM_BALANCE
+	 */
+	void unlock(long newBalance)
+	{
+		balance = newBalance;
+	}
+	
+	/**
+	 * Mark the account as closed, discarding any funds left on it. Waits for a transfer holding the lock.
+	 *
+	 * @return true if this call closed the account, false if it was already closed
+	 */
+	boolean close()
+	{
+		while (true)
+		{
+			long current = getBalance();
+			if (current == CLOSED)
+			{
+				return false;
+			}
+			
+			if (compareAndSetBalance(current, CLOSED))
+			{
+				return true;
+			}
+		}
+	}
+	
+	private static boolean isLocked(long balance)
+	{
+		// CLOSED has only the sign bit set, so it never looks locked.
+		return (balance & LOCKED) != 0;
+	}
+}
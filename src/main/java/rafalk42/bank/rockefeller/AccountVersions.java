@@ -0,0 +1,201 @@
+package rafalk42.bank.rockefeller;
+
+import rafalk42.dao.AccountIdAllocator;
+
+import java.util.concurrent.locks.StampedLock;
+
+
+/**
+ * Versions of the accounts of the RockefellerBank, a counter per account that is bumped whenever its balance changes.
+ * Only the accounts changed since the bank was created have an entry, every other account is at version 0.
+ * The entries are spread over segments, each an open addressing hash table keyed by the account number, with
+ * the numbers and the versions interleaved in a single long array, so neither is boxed (16 bytes per entry, plus
+ * spare capacity).
+ * Important:
+ * 1. it is thread-safe, every segment has a StampedLock of its own, so only bumps of the same segment wait
+ * for each other,
+ * 2. get takes no lock, it reads the segment optimistically and falls back to the read lock only if bumps of the
+ * segment keep getting in the way,
+ * 3. IDs in a format other than the one of AccountIdAllocator all share a single entry, so a change of any of them
+ * bumps the version of all of them, which is still correct, if wasteful,
+ * 4. entries are never removed, a closed account keeps its last version (IDs are never reused anyway).
+ */
+final class AccountVersions
+{
+	private static final int SEGMENT_BITS = 6;
+	private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+	private static final int INITIAL_SLOT_COUNT = 256;
+	private static final int OPTIMISTIC_READ_ATTEMPTS = 3;
+	/**
+	 * A new table is all zeros, so 0 marks an empty slot. Account numbers start at 1.
+	 */
+	private static final long EMPTY_KEY = 0;
+	private static final long IRREGULAR_KEY = -1;
+	
+	private final Segment[] segments;
+	
+	AccountVersions()
+	{
+		segments = new Segment[SEGMENT_COUNT];
+		for (int i = 0; i < SEGMENT_COUNT; i++)
+		{
+			segments[i] = new Segment();
+		}
+	}
+	
+	/**
+	 * @param accountId ID of an account
+	 * @return current version of the account, 0 if it was never changed
+	 */
+	long get(String accountId)
+	{
+		long key = toKey(accountId);
+		
+		return getSegment(key).get(key);
+	}
+	
+	/**
+	 * Move the account to its next version, called after its balance was changed.
+	 *
+	 * @param accountId ID of an account
+	 */
+	void bump(String accountId)
+	{
+		long key = toKey(accountId);
+		
+		getSegment(key).bump(key);
+	}
+	
+	private Segment getSegment(long key)
+	{
+		return segments[(int) ((key * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - SEGMENT_BITS))];
+	}
+	
+	private static long toKey(String accountId)
+	{
+		long number = AccountIdAllocator.parseNumber(accountId);
+		
+		return number > 0
+				? number
+				: IRREGULAR_KEY;
+	}
+	
+	/**
+	 * @return index of the key in the table, or of the empty slot where it would go
+	 */
+	private static int findSlot(long[] table, long key)
+	{
+		int mask = table.length / 2 - 1;
+		int slot = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+		
+		while (table[slot * 2] != EMPTY_KEY
+			   && table[slot * 2] != key)
+		{
+			slot = (slot + 1) & mask;
+		}
+		
+		return slot * 2;
+	}
+	
+	private static final class Segment
+	{
+		private final StampedLock lock;
+		/**
+		 * Pairs of an account number and its version. Never more than half full, so a probe always ends, even when
+		 * an optimistic reader sees the table in the middle of a bump. Growing builds a new table and only then puts
+		 * it in place.
+		 */
+		private long[] table;
+		private int entryCount;
+		
+		Segment()
+		{
+			lock = new StampedLock();
+			table = new long[INITIAL_SLOT_COUNT * 2];
+			entryCount = 0;
+		}
+		
+		long get(long key)
+		{
+			for (int attempt = 0; attempt < OPTIMISTIC_READ_ATTEMPTS; attempt++)
+			{
+				long stamp = lock.tryOptimisticRead();
+				if (stamp == 0)
+				{
+					// Segment is being changed right now, don't even try.
+					continue;
+				}
+				
+				long version = read(table, key);
+				
+				if (lock.validate(stamp))
+				{
+					return version;
+				}
+			}
+			
+			long stamp = lock.readLock();
+			try
+			{
+				return read(table, key);
+			}
+			finally
+			{
+				lock.unlockRead(stamp);
+			}
+		}
+		
+		void bump(long key)
+		{
+			long stamp = lock.writeLock();
+			try
+			{
+				int index = findSlot(table, key);
+				if (table[index] == key)
+				{
+					table[index + 1]++;
+					return;
+				}
+				
+				table[index] = key;
+				table[index + 1] = 1;
+				
+				if (++entryCount * 4 > table.length)
+				{
+					growTable();
+				}
+			}
+			finally
+			{
+				lock.unlockWrite(stamp);
+			}
+		}
+		
+		private static long read(long[] table, long key)
+		{
+			int index = findSlot(table, key);
+			
+			return table[index] == key
+					? table[index + 1]
+					: 0;
+		}
+		
+		private void growTable()
+		{
+			long[] oldTable = table;
+			long[] newTable = new long[oldTable.length * 2];
+			
+			for (int i = 0; i < oldTable.length; i += 2)
+			{
+				if (oldTable[i] != EMPTY_KEY)
+				{
+					int index = findSlot(newTable, oldTable[i]);
+					newTable[index] = oldTable[i];
+					newTable[index + 1] = oldTable[i + 1];
+				}
+			}
+			
+			table = newTable;
+		}
+	}
+}
@@ -4,54 +4,164 @@ import rafalk42.bank.domain.*;
 import rafalk42.dao.AccountDao;
 import rafalk42.dao.AccountDaoInternalError;
 import rafalk42.dao.AccountInfo;
+import rafalk42.dao.AuditLogDao;
+import rafalk42.dao.AuditLogDaoInMemory;
+import rafalk42.dao.AuditLogEntry;
+import rafalk42.dao.AuditLogOperation;
+import rafalk42.dao.AuditLogStatus;
+import rafalk42.dao.BalanceUpdateStatus;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 
 /**
- * Implementation of a simple Bank that uses AccountDAO for data storage. It is thread-safe
- * and locking is global per instance, without any granularity, e.g. per account. Thread-safety of
- * underlying DAO is not required.
+ * Implementation of a simple Bank that uses AccountDAO for data storage. It is thread-safe and supports
+ * two locking modes:
+ * 1. global - locking is global per instance, without any granularity, thread-safety of underlying DAO
+ * is not required,
+ * 2. per account - only the accounts touched by an operation are locked, so operations on unrelated accounts
+ * can run in parallel, but the underlying DAO has to be thread-safe (e.g. AccountDaoConcurrent).
+ * <p>
+ * In per account mode queries about a single account (accountFindById, accountGetInfo and accountGetBalance) do not
+ * take a lock, they read optimistically and retry if a change of the account could have overlapped the read.
+ * In global mode they take the lock for reading, the DAO is not required to be thread-safe, so it must not be read
+ * while it is being changed.
+ * <p>
+ * Every deposit, withdrawal and transfer that gets a result, failed or not, is recorded in the audit log. It is logged
+ * inside the critical section of the operation, after the operation is applied, so the order of the entries
+ * of an account is the order its balance changed in. Logging takes no lock of its own (see AuditLogDaoInMemory).
+ * <p>
+ * Every change of the balance of an account (and closing it) bumps its version, inside the critical section
+ * of the operation, after the change is applied. Versions are read without any lock of the bank (see AccountVersions).
  */
 public class RockefellerBank
 		implements Bank
 {
-	private final AccountDao accountDao;
 	/**
-	 * Let's simply use a per instance of this class lock, which is not great when it comes to performance
-	 * (an operation will lock the whole bank, irregardless of the accounts involved),
-	 * but it's very easy to follow and debug and good enough in this situation.
-	 * Let's just say this is a rather sluggish bank.
-	 * Added bonus is that we are not depending on the thread safety of the account DAO implementation.
+	 * Granularity of locking used by the bank.
 	 */
-	private final Lock transactionLock;
+	public enum LockingMode
+	{
+		/**
+		 * Single lock for the whole bank. Let's just say this is a rather sluggish bank.
+		 */
+		GLOBAL,
+		/**
+		 * Lock striped by account ID, requires a thread-safe account DAO.
+		 */
+		PER_ACCOUNT
+	}
+	
+	private static final int LOCK_STRIPE_COUNT = 1024;
+	private static final int OPTIMISTIC_READ_ATTEMPTS = 3;
+	
+	private final AccountDao accountDao;
+	private final AuditLogDao auditLogDao;
+	private final TransactionLocks transactionLocks;
+	private final AccountVersions accountVersions;
 	private final BigDecimal rulesMinimumTransferAmount = BigDecimal.valueOf(1, 2);
 	
 	public RockefellerBank(AccountDao accountDao)
 	{
+		this(accountDao, LockingMode.GLOBAL);
+	}
+	
+	public RockefellerBank(AccountDao accountDao, LockingMode lockingMode)
+	{
+		this(accountDao, lockingMode, new AuditLogDaoInMemory());
+	}
+	
+	public RockefellerBank(AccountDao accountDao, LockingMode lockingMode, AuditLogDao auditLogDao)
+	{
+		if (auditLogDao == null)
+		{
+			throw new IllegalArgumentException("Audit log DAO cannot be null");
+		}
+		
 		this.accountDao = accountDao;
+		this.auditLogDao = auditLogDao;
+		this.accountVersions = new AccountVersions();
 		
-		transactionLock = new ReentrantLock();
+		switch (lockingMode)
+		{
+			case GLOBAL:
+				transactionLocks = new TransactionLocksGlobal();
+				break;
+			case PER_ACCOUNT:
+				transactionLocks = new TransactionLocksStriped(LOCK_STRIPE_COUNT);
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported locking mode");
+		}
 	}
 	
 	@Override
 	public BankAccount accountOpen(BankAccountDescription accountDescription)
 			throws BankInternalError
 	{
+		String newAccountId;
 		try
 		{
-			transactionLock.lock();
-			String newAccountId = accountDao.open(accountDescription.getDescription(),
-												  accountDescription.getInitialBalance());
+			transactionLocks.lockOpen();
+			newAccountId = accountDao.open(accountDescription.getDescription(),
+										   accountDescription.getInitialBalance());
+			accountDao.commit();
+		}
+		catch (AccountDaoInternalError ex)
+		{
+			throw new BankInternalError(ex);
+		}
+		finally
+		{
+			transactionLocks.unlockOpen();
+		}
+		
+		awaitDurable();
+		
+		return new RockefellerBankAccount(newAccountId);
+	}
+	
+	/**
+	 * The whole batch takes the open lock once and is handed to the DAO in one call, which reserves the IDs
+	 * of all the accounts at once; with a journal the batch is made durable as a whole too.
+	 */
+	@Override
+	public List<BankAccount> accountOpenBatch(List<BankAccountDescription> accountDescriptions)
+			throws BankInternalError
+	{
+		if (accountDescriptions == null)
+		{
+			throw new IllegalArgumentException("Account descriptions cannot be null");
+		}
+		
+		List<String> descriptions = new ArrayList<>(accountDescriptions.size());
+		List<BigDecimal> initialBalances = new ArrayList<>(accountDescriptions.size());
+		for (BankAccountDescription accountDescription : accountDescriptions)
+		{
+			if (accountDescription == null)
+			{
+				throw new IllegalArgumentException("Account description cannot be null");
+			}
 			
-			return new RockefellerBankAccount(newAccountId);
+			descriptions.add(accountDescription.getDescription());
+			initialBalances.add(accountDescription.getInitialBalance());
+		}
+		
+		List<String> newAccountIds;
+		try
+		{
+			transactionLocks.lockOpen();
+			newAccountIds = accountDao.openBatch(descriptions, initialBalances);
+			accountDao.commit();
 		}
 		catch (AccountDaoInternalError ex)
 		{
@@ -59,8 +169,15 @@ public class RockefellerBank
 		}
 		finally
 		{
-			transactionLock.unlock();
+			transactionLocks.unlockOpen();
 		}
+		
+		awaitDurable();
+		
+		List<BankAccount> result = new ArrayList<>(newAccountIds.size());
+		newAccountIds.forEach(accountId -> result.add(new RockefellerBankAccount(accountId)));
+		
+		return result;
 	}
 	
 	@Override
@@ -69,7 +186,7 @@ public class RockefellerBank
 	{
 		try
 		{
-			transactionLock.lock();
+			transactionLocks.lockAll();
 			
 			Set<AccountInfo> allAccounts = accountDao.findAll();
 			
@@ -86,19 +203,58 @@ public class RockefellerBank
 		}
 		finally
 		{
-			transactionLock.unlock();
+			transactionLocks.unlockAll();
 		}
 	}
 	
+	/**
+	 * Only one page of accounts is copied out of the DAO, so the lock is held for a bounded time no matter how many
+	 * accounts there are.
+	 */
 	@Override
-	public Optional<BankAccount> accountFindById(String accountId)
+	public Map<BankAccount, BankAccountInfo> accountsGetInfoPage(String afterAccountId, int limit)
 			throws BankInternalError
 	{
+		if (limit <= 0)
+		{
+			throw new IllegalArgumentException("Limit must be positive");
+		}
+		
 		try
 		{
-			transactionLock.lock();
+			transactionLocks.lockAll();
 			
-			if (!accountDao.doesItExist(accountId))
+			List<AccountInfo> pageAccounts = accountDao.findPage(afterAccountId, limit);
+			
+			Map<BankAccount, BankAccountInfo> result = new LinkedHashMap<>();
+			pageAccounts.forEach(item -> result.put(new RockefellerBankAccount(item.getId()),
+													new BankAccountInfo(item.getDescription(),
+																		item.getBalance())));
+			
+			return result;
+		}
+		catch (AccountDaoInternalError ex)
+		{
+			throw new BankInternalError(ex);
+		}
+		finally
+		{
+			transactionLocks.unlockAll();
+		}
+	}
+	
+	@Override
+	public Optional<BankAccount> accountFindById(String accountId)
+			throws BankInternalError
+	{
+		if (accountId == null)
+		{
+			throw new IllegalArgumentException("Account ID cannot be null");
+		}
+		
+		try
+		{
+			if (!readAccount(accountId, () -> accountDao.doesItExist(accountId)))
 			{
 				return Optional.empty();
 			}
@@ -109,9 +265,10 @@ public class RockefellerBank
 		{
 			throw new BankInternalError(ex);
 		}
-		finally
+		catch (BankAccountNotFound ex)
 		{
-			transactionLock.unlock();
+			// Not thrown by the read above.
+			throw new IllegalStateException(ex);
 		}
 	}
 	
@@ -121,17 +278,17 @@ public class RockefellerBank
 	{
 		verifyBankAccountImplementation(account);
 		
+		String accountId = account.getId();
+		
 		try
 		{
-			transactionLock.lock();
-			
-			String accountId = account.getId();
-			if (!accountDao.doesItExist(accountId))
-			{
-				throw new BankAccountNotFound(accountId);
-			}
-			
-			AccountInfo info = accountDao.getInfo(accountId);
+			AccountInfo info = readAccount(accountId,
+										   () ->
+										   {
+											   verifyAccountExists(accountId);
+											
+											   return accountDao.getInfo(accountId);
+										   });
 			
 			return new BankAccountInfo(info.getDescription(),
 									   info.getBalance());
@@ -140,10 +297,6 @@ public class RockefellerBank
 		{
 			throw new BankInternalError(ex);
 		}
-		finally
-		{
-			transactionLock.unlock();
-		}
 	}
 	
 	@Override
@@ -152,26 +305,22 @@ public class RockefellerBank
 	{
 		verifyBankAccountImplementation(account);
 		
+		String accountId = account.getId();
+		
 		try
 		{
-			transactionLock.lock();
-			
-			String accountId = account.getId();
-			if (!accountDao.doesItExist(accountId))
-			{
-				throw new BankAccountNotFound(accountId);
-			}
-			
-			return accountDao.getBalance(accountId);
+			return readAccount(accountId,
+							   () ->
+							   {
+								   verifyAccountExists(accountId);
+								
+								   return accountDao.getBalance(accountId);
+							   });
 		}
 		catch (AccountDaoInternalError ex)
 		{
 			throw new BankInternalError(ex);
 		}
-		finally
-		{
-			transactionLock.unlock();
-		}
 	}
 	
 	@Override
@@ -185,19 +334,18 @@ public class RockefellerBank
 			throw new IllegalArgumentException("Amount cannot be null");
 		}
 		
+		String accountId = account.getId();
+		
+		OperationResult result;
 		try
 		{
-			transactionLock.lock();
+			transactionLocks.lockAccount(accountId);
 			
-			String accountId = account.getId();
-			
-			if (!accountDao.doesItExist(accountId))
-			{
-				throw new BankAccountNotFound(accountId);
-			}
-			
-			return executeDeposit(accountId,
-								  amount);
+			result = executeDeposit(accountId,
+									amount);
+			log(AuditLogOperation.DEPOSIT, null, accountId, title, result);
+			bumpVersions(result, accountId, null);
+			accountDao.commit();
 		}
 		catch (AccountDaoInternalError ex)
 		{
@@ -205,8 +353,12 @@ public class RockefellerBank
 		}
 		finally
 		{
-			transactionLock.unlock();
+			transactionLocks.unlockAccount(accountId);
 		}
+		
+		awaitDurable();
+		
+		return result;
 	}
 	
 	@Override
@@ -220,19 +372,18 @@ public class RockefellerBank
 			throw new IllegalArgumentException("Amount cannot be null");
 		}
 		
+		String accountId = account.getId();
+		
+		OperationResult result;
 		try
 		{
-			transactionLock.lock();
-			
-			String accountId = account.getId();
-			
-			if (!accountDao.doesItExist(accountId))
-			{
-				throw new BankAccountNotFound(accountId);
-			}
+			transactionLocks.lockAccount(accountId);
 			
-			return executeWithdraw(accountId,
-								   amount);
+			result = executeWithdraw(accountId,
+									 amount);
+			log(AuditLogOperation.WITHDRAWAL, accountId, null, title, result);
+			bumpVersions(result, accountId, null);
+			accountDao.commit();
 		}
 		catch (AccountDaoInternalError ex)
 		{
@@ -240,8 +391,12 @@ public class RockefellerBank
 		}
 		finally
 		{
-			transactionLock.unlock();
+			transactionLocks.unlockAccount(accountId);
 		}
+		
+		awaitDurable();
+		
+		return result;
 	}
 	
 	@Override
@@ -256,26 +411,104 @@ public class RockefellerBank
 			throw new IllegalArgumentException("Amount cannot be null");
 		}
 		
+		String sourceAccountId = sourceAccount.getId();
+		String destinationAccountId = destinationAccount.getId();
+		
+		OperationResult result;
 		try
 		{
-			transactionLock.lock();
+			transactionLocks.lockAccounts(sourceAccountId, destinationAccountId);
 			
-			String sourceAccountId = sourceAccount.getId();
-			String destinationAccountId = destinationAccount.getId();
+			result = executeTransfer(sourceAccountId,
+									 destinationAccountId,
+									 amount);
+			log(AuditLogOperation.TRANSFER, sourceAccountId, destinationAccountId, null, result);
+			bumpVersions(result, sourceAccountId, destinationAccountId);
+			accountDao.commit();
+		}
+		catch (AccountDaoInternalError ex)
+		{
+			throw new BankInternalError(ex);
+		}
+		finally
+		{
+			transactionLocks.unlockAccounts(sourceAccountId, destinationAccountId);
+		}
+		
+		awaitDurable();
+		
+		return result;
+	}
+	
+	/**
+	 * All the accounts touched by the batch are locked once, for the whole batch, so no other operation
+	 * can see (or interleave with) a partially applied batch.
+	 * In the atomic mode transfers that were already applied when one of them fails are rolled back
+	 * by moving the money back, in reverse order, before the locks are released.
+	 * In the netted mode nothing is applied until the whole batch is known to be fine, then every touched account
+	 * gets its new balance set once, no matter how many transfers it took part in.
+	 */
+	@Override
+	public List<OperationResult> transferBatch(List<BankTransfer> transfers, TransferBatchMode mode)
+			throws BankInternalError
+	{
+		if (transfers == null)
+		{
+			throw new IllegalArgumentException("Transfers cannot be null");
+		}
+		
+		if (mode == null)
+		{
+			throw new IllegalArgumentException("Transfer batch mode cannot be null");
+		}
+		
+		Set<String> accountIds = new HashSet<>();
+		for (BankTransfer transfer : transfers)
+		{
+			verifyBankAccountImplementation(transfer.getSourceAccount());
+			verifyBankAccountImplementation(transfer.getDestinationAccount());
+			
+			if (transfer.getAmount() == null)
+			{
+				throw new IllegalArgumentException("Amount cannot be null");
+			}
+			
+			accountIds.add(transfer.getSourceAccount().getId());
+			accountIds.add(transfer.getDestinationAccount().getId());
+		}
+		
+		List<OperationResult> results;
+		try
+		{
+			transactionLocks.lockAccounts(accountIds);
 			
-			if (!accountDao.doesItExist(sourceAccountId))
+			switch (mode)
 			{
-				throw new BankAccountNotFound(sourceAccountId);
+				case ATOMIC:
+					results = executeTransferBatchAtomic(transfers);
+					break;
+				case BEST_EFFORT:
+					results = executeTransferBatchBestEffort(transfers);
+					break;
+				case NETTED:
+					results = executeTransferBatchNetted(transfers);
+					break;
+				default:
+					throw new IllegalArgumentException("Unsupported transfer batch mode");
 			}
 			
-			if (!accountDao.doesItExist(destinationAccountId))
+			// Final results only, transfers rolled back by an atomic batch are logged as aborted (and bump nothing).
+			for (int i = 0; i < transfers.size(); i++)
 			{
-				throw new BankAccountNotFound(destinationAccountId);
+				BankTransfer transfer = transfers.get(i);
+				log(AuditLogOperation.TRANSFER, transfer.getSourceAccount().getId(),
+					transfer.getDestinationAccount().getId(), null, results.get(i));
+				bumpVersions(results.get(i), transfer.getSourceAccount().getId(),
+							 transfer.getDestinationAccount().getId());
 			}
 			
-			return executeTransfer(sourceAccountId,
-								   destinationAccountId,
-								   amount);
+			// All the changes of the batch as one unit, so that a crash cannot leave it half applied.
+			accountDao.commit();
 		}
 		catch (AccountDaoInternalError ex)
 		{
@@ -283,7 +516,194 @@ public class RockefellerBank
 		}
 		finally
 		{
-			transactionLock.unlock();
+			transactionLocks.unlockAccounts(accountIds);
+		}
+		
+		awaitDurable();
+		
+		return results;
+	}
+	
+	private List<OperationResult> executeTransferBatchBestEffort(List<BankTransfer> transfers)
+			throws AccountDaoInternalError
+	{
+		List<OperationResult> results = new ArrayList<>(transfers.size());
+		for (BankTransfer transfer : transfers)
+		{
+			results.add(executeBatchTransfer(transfer));
+		}
+		
+		return results;
+	}
+	
+	private List<OperationResult> executeTransferBatchAtomic(List<BankTransfer> transfers)
+			throws AccountDaoInternalError
+	{
+		List<OperationResult> results = new ArrayList<>(transfers.size());
+		for (BankTransfer transfer : transfers)
+		{
+			OperationResult result = executeBatchTransfer(transfer);
+			results.add(result);
+			
+			if (result.getStatus() != OperationResult.Status.SUCCESSFUL)
+			{
+				rollbackTransferBatch(transfers, results);
+				
+				return results;
+			}
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * Business rules are the same as in executeTransfer, except assumption #4 which is verified once, against
+	 * the net change of balance of every account over the whole batch. Missing accounts are reported
+	 * as FAILED_ACCOUNT_NOT_FOUND, like in the other modes.
+	 */
+	private List<OperationResult> executeTransferBatchNetted(List<BankTransfer> transfers)
+			throws AccountDaoInternalError
+	{
+		List<OperationResult> results = new ArrayList<>(transfers.size());
+		Map<String, BigDecimal> netChanges = new HashMap<>();
+		boolean failed = false;
+		
+		for (BankTransfer transfer : transfers)
+		{
+			String sourceAccountId = transfer.getSourceAccount().getId();
+			String destinationAccountId = transfer.getDestinationAccount().getId();
+			BigDecimal amount = transfer.getAmount();
+			
+			OperationResult result;
+			if (!accountDao.doesItExist(sourceAccountId)
+				|| !accountDao.doesItExist(destinationAccountId))
+			{
+				result = OperationResult.getAccountNotFound(amount);
+			}
+			// Verify assumption #1.
+			else if (sourceAccountId.equals(destinationAccountId))
+			{
+				result = OperationResult.getNotAllowed(amount);
+			}
+			// Verify assumption #2.
+			else if (amount.compareTo(rulesMinimumTransferAmount) < 0)
+			{
+				result = OperationResult.getInvalidAmount(amount);
+			}
+			else
+			{
+				// Apply assumption #3.
+				BigDecimal amountRounded = amount.setScale(2, RoundingMode.HALF_UP);
+				
+				netChanges.merge(sourceAccountId, amountRounded.negate(), BigDecimal::add);
+				netChanges.merge(destinationAccountId, amountRounded, BigDecimal::add);
+				
+				result = OperationResult.getSuccessful(amountRounded);
+			}
+			
+			failed |= result.getStatus() != OperationResult.Status.SUCCESSFUL;
+			results.add(result);
+		}
+		
+		// Verify assumption #4, on the net result.
+		Map<String, BigDecimal> newBalances = new HashMap<>();
+		Set<String> accountsInDebt = new HashSet<>();
+		for (Map.Entry<String, BigDecimal> netChange : netChanges.entrySet())
+		{
+			if (netChange.getValue().signum() == 0)
+			{
+				continue;
+			}
+			
+			BigDecimal newBalance = accountDao.getBalance(netChange.getKey()).add(netChange.getValue());
+			if (newBalance.signum() < 0)
+			{
+				accountsInDebt.add(netChange.getKey());
+			}
+			
+			newBalances.put(netChange.getKey(), newBalance);
+		}
+		
+		if (failed
+			|| !accountsInDebt.isEmpty())
+		{
+			for (int i = 0; i < results.size(); i++)
+			{
+				OperationResult result = results.get(i);
+				if (result.getStatus() != OperationResult.Status.SUCCESSFUL)
+				{
+					continue;
+				}
+				
+				if (accountsInDebt.contains(transfers.get(i).getSourceAccount().getId()))
+				{
+					results.set(i, OperationResult.getNotEnoughFunds(result.getActualAmount()));
+				}
+				else
+				{
+					results.set(i, OperationResult.getBatchAborted(result.getActualAmount()));
+				}
+			}
+			
+			return results;
+		}
+		
+		for (Map.Entry<String, BigDecimal> newBalance : newBalances.entrySet())
+		{
+			accountDao.setBalance(newBalance.getKey(), newBalance.getValue());
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * Undo the successful transfers of an atomic batch, the last of the results is the one that failed.
+	 * Results of all the other transfers of the batch, applied or not, are replaced with FAILED_BATCH_ABORTED.
+	 * Moving the money back cannot fail, every destination account still holds at least the amount it received,
+	 * as the transfers applied after it are undone first and nothing else could touch the accounts in the meantime.
+	 */
+	private void rollbackTransferBatch(List<BankTransfer> transfers, List<OperationResult> results)
+			throws AccountDaoInternalError
+	{
+		int failedIndex = results.size() - 1;
+		
+		for (int i = failedIndex - 1; i >= 0; i--)
+		{
+			BankTransfer transfer = transfers.get(i);
+			BigDecimal actualAmount = results.get(i).getActualAmount();
+			
+			BalanceUpdateStatus status = accountDao.move(transfer.getDestinationAccount().getId(),
+														 transfer.getSourceAccount().getId(),
+														 actualAmount);
+			if (status != BalanceUpdateStatus.APPLIED)
+			{
+				throw new IllegalStateException("Rollback of a batch transfer failed with status " + status);
+			}
+			
+			results.set(i, OperationResult.getBatchAborted(actualAmount));
+		}
+		
+		for (int i = failedIndex + 1; i < transfers.size(); i++)
+		{
+			results.add(OperationResult.getBatchAborted(transfers.get(i).getAmount()));
+		}
+	}
+	
+	/**
+	 * Execute a transfer of a batch, a missing account is reported in the result instead of being thrown.
+	 */
+	private OperationResult executeBatchTransfer(BankTransfer transfer)
+			throws AccountDaoInternalError
+	{
+		try
+		{
+			return executeTransfer(transfer.getSourceAccount().getId(),
+								   transfer.getDestinationAccount().getId(),
+								   transfer.getAmount());
+		}
+		catch (BankAccountNotFound ex)
+		{
+			return OperationResult.getAccountNotFound(transfer.getAmount());
 		}
 	}
 	
@@ -294,28 +714,26 @@ public class RockefellerBank
 	 * @param amount    amount to accountDeposit
 	 * @return result of this operation
 	 * @throws AccountDaoInternalError thrown when underlying DAO failed due to unknown error
+	 * @throws BankAccountNotFound     thrown when the account does not exist
 	 */
 	private OperationResult executeDeposit(String accountId, BigDecimal amount)
-			throws AccountDaoInternalError
+			throws AccountDaoInternalError, BankAccountNotFound
 	{
 		// Verify assumption #2.
 		if (amount.compareTo(rulesMinimumTransferAmount) < 0)
 		{
+			verifyAccountExists(accountId);
+			
 			return OperationResult.getInvalidAmount(amount);
 		}
 		
 		// Apply assumption #3.
 		BigDecimal amountRounded = amount.setScale(2, RoundingMode.HALF_UP);
 		
-		BigDecimal balanceBefore = accountDao.getBalance(accountId);
+		// Update balance, existence of the account is checked by the same call.
+		BalanceUpdateStatus status = accountDao.applyDelta(accountId, amountRounded);
 		
-		// Calculate new balance.
-		BigDecimal balanceAfter = balanceBefore.add(amountRounded);
-		
-		// Update balance.
-		accountDao.setBalance(accountId, balanceAfter);
-		
-		return OperationResult.getSuccessful(amountRounded);
+		return getOperationResult(status, amountRounded, accountId, null);
 	}
 	
 	/**
@@ -325,34 +743,26 @@ public class RockefellerBank
 	 * @param amount    amount to accountWithdraw
 	 * @return result of this operation
 	 * @throws AccountDaoInternalError thrown when underlying DAO failed due to unknown error
+	 * @throws BankAccountNotFound     thrown when the account does not exist
 	 */
 	private OperationResult executeWithdraw(String accountId, BigDecimal amount)
-			throws AccountDaoInternalError
+			throws AccountDaoInternalError, BankAccountNotFound
 	{
 		// Verify assumption #2.
 		if (amount.compareTo(rulesMinimumTransferAmount) < 0)
 		{
+			verifyAccountExists(accountId);
+			
 			return OperationResult.getInvalidAmount(amount);
 		}
 		
 		// Apply assumption #3.
 		BigDecimal amountRounded = amount.setScale(2, RoundingMode.HALF_UP);
 		
-		BigDecimal balanceBefore = accountDao.getBalance(accountId);
-		
-		// Calculate new balance.
-		BigDecimal balanceAfter = balanceBefore.subtract(amountRounded);
+		// Update balance, existence of the account and assumption #4 are checked by the same call.
+		BalanceUpdateStatus status = accountDao.applyDelta(accountId, amountRounded.negate());
 		
-		// Verify assumption #4.
-		if (balanceAfter.compareTo(BigDecimal.ZERO) < 0)
-		{
-			return OperationResult.getNotEnoughFunds(amountRounded);
-		}
-		
-		// Update balance.
-		accountDao.setBalance(accountId, balanceAfter);
-		
-		return OperationResult.getSuccessful(amountRounded);
+		return getOperationResult(status, amountRounded, accountId, null);
 	}
 	
 	/**
@@ -365,50 +775,168 @@ public class RockefellerBank
 	 * <p>
 	 * Of course a proper rule engine of some sort should be used for better maintainability, but this is explicit
 	 * enough for the purpose of this implementation.
+	 * <p>
+	 * The transfer itself is a single call to the DAO, which also checks that both accounts exist and that
+	 * the source account has enough funds. Only when a transfer is rejected before that, the existence
+	 * of the accounts is checked separately, as a missing account takes precedence over any other failure.
 	 *
 	 * @param sourceAccountId      account ID from which amount will be taken
 	 * @param destinationAccountId account ID to which amount will be added
 	 * @param amount               amount to transfer
 	 * @return result of this operation
 	 * @throws AccountDaoInternalError thrown when underlying DAO failed due to unknown error
+	 * @throws BankAccountNotFound     thrown when either of the accounts does not exist
 	 */
 	private OperationResult executeTransfer(String sourceAccountId, String destinationAccountId, BigDecimal amount)
-			throws AccountDaoInternalError
+			throws AccountDaoInternalError, BankAccountNotFound
 	{
 		// Verify assumption #1.
 		if (sourceAccountId.equals(destinationAccountId))
 		{
+			verifyAccountExists(sourceAccountId);
+			
 			return OperationResult.getNotAllowed(amount);
 		}
 		
 		// Verify assumption #2.
 		if (amount.compareTo(rulesMinimumTransferAmount) < 0)
 		{
+			verifyAccountExists(sourceAccountId);
+			verifyAccountExists(destinationAccountId);
+			
 			return OperationResult.getInvalidAmount(amount);
 		}
 		
 		// Apply assumption #3.
 		BigDecimal amountRounded = amount.setScale(2, RoundingMode.HALF_UP);
 		
-		// Check current balances.
-		BigDecimal balanceSourceBefore = accountDao.getBalance(sourceAccountId);
-		BigDecimal balanceDestinationBefore = accountDao.getBalance(destinationAccountId);
+		// Update balance on both accounts, assumption #4 is verified by the same call.
+		BalanceUpdateStatus status = accountDao.move(sourceAccountId, destinationAccountId, amountRounded);
 		
-		// Calculate new balances.
-		BigDecimal balanceSourceAfter = balanceSourceBefore.subtract(amountRounded);
-		BigDecimal balanceDestinationAfter = balanceDestinationBefore.add(amountRounded);
+		return getOperationResult(status, amountRounded, sourceAccountId, destinationAccountId);
+	}
+	
+	/**
+	 * Record the result of an operation in the audit log.
+	 */
+	private void log(AuditLogOperation operation, String sourceAccountId, String destinationAccountId, String title,
+					 OperationResult result)
+	{
+		auditLogDao.log(operation, sourceAccountId, destinationAccountId, result.getActualAmount(), title,
+						toAuditLogStatus(result.getStatus()));
+	}
+	
+	/**
+	 * Bump the versions of the accounts of an operation, if it changed their balances.
+	 */
+	private void bumpVersions(OperationResult result, String sourceAccountId, String destinationAccountId)
+	{
+		if (result.getStatus() != OperationResult.Status.SUCCESSFUL)
+		{
+			return;
+		}
 		
-		// Verify assumption #4.
-		if (balanceSourceAfter.compareTo(BigDecimal.ZERO) < 0)
+		accountVersions.bump(sourceAccountId);
+		if (destinationAccountId != null)
 		{
-			return OperationResult.getNotEnoughFunds(amountRounded);
+			accountVersions.bump(destinationAccountId);
 		}
+	}
+	
+	private static AuditLogStatus toAuditLogStatus(OperationResult.Status status)
+	{
+		switch (status)
+		{
+			case SUCCESSFUL:
+				return AuditLogStatus.SUCCESSFUL;
+			case FAILED_INVALID_AMOUNT:
+				return AuditLogStatus.FAILED_INVALID_AMOUNT;
+			case FAILED_NOT_ENOUGH_FUNDS:
+				return AuditLogStatus.FAILED_NOT_ENOUGH_FUNDS;
+			case FAILED_NOT_ALLOWED:
+				return AuditLogStatus.FAILED_NOT_ALLOWED;
+			case FAILED_ACCOUNT_NOT_FOUND:
+				return AuditLogStatus.FAILED_ACCOUNT_NOT_FOUND;
+			case FAILED_BATCH_ABORTED:
+				return AuditLogStatus.FAILED_BATCH_ABORTED;
+			default:
+				throw new IllegalStateException("Unsupported operation status " + status);
+		}
+	}
+	
+	/**
+	 * Translate the status of a balance update done by the DAO into the result of an operation.
+	 *
+	 * @param status               status returned by the DAO
+	 * @param amountRounded        amount of the operation
+	 * @param accountId            ID of the (source) account
+	 * @param destinationAccountId ID of the destination account, null if there is none
+	 * @return result of the operation
+	 * @throws BankAccountNotFound thrown when the DAO didn't find one of the accounts
+	 */
+	private OperationResult getOperationResult(BalanceUpdateStatus status, BigDecimal amountRounded, String accountId,
+											   String destinationAccountId)
+			throws BankAccountNotFound
+	{
+		switch (status)
+		{
+			case APPLIED:
+				return OperationResult.getSuccessful(amountRounded);
+			case NOT_ENOUGH_FUNDS:
+				return OperationResult.getNotEnoughFunds(amountRounded);
+			case ACCOUNT_NOT_FOUND:
+				throw new BankAccountNotFound(accountId);
+			case DESTINATION_ACCOUNT_NOT_FOUND:
+				throw new BankAccountNotFound(destinationAccountId);
+			default:
+				throw new IllegalStateException("Unsupported balance update status " + status);
+		}
+	}
+	
+	/**
+	 * Read straight from the audit log, without any lock of the bank. The history stays there after the account
+	 * is closed.
+	 */
+	@Override
+	public List<BankAccountHistoryEntry> accountGetHistory(BankAccount account, long fromTimestamp, long toTimestamp,
+														   long afterSequence, int limit)
+	{
+		verifyBankAccountImplementation(account);
 		
-		// Update balance on both accounts.
-		accountDao.setBalance(sourceAccountId, balanceSourceAfter);
-		accountDao.setBalance(destinationAccountId, balanceDestinationAfter);
+		if (limit <= 0)
+		{
+			throw new IllegalArgumentException("Limit must be positive");
+		}
+		
+		List<AuditLogEntry> entries = auditLogDao.findByAccount(account.getId(), fromTimestamp, toTimestamp,
+																afterSequence, limit);
+		
+		List<BankAccountHistoryEntry> result = new ArrayList<>(entries.size());
+		for (AuditLogEntry entry : entries)
+		{
+			result.add(new BankAccountHistoryEntry(entry.getSequence(),
+												   entry.getTimestamp(),
+												   BankAccountHistoryEntry.Operation.valueOf(entry.getOperation().name()),
+												   entry.getSourceAccountId(),
+												   entry.getDestinationAccountId(),
+												   entry.getAmount(),
+												   entry.getTitle(),
+												   OperationResult.Status.valueOf(entry.getStatus().name())));
+		}
 		
-		return OperationResult.getSuccessful(amountRounded);
+		return result;
+	}
+	
+	/**
+	 * Read straight from the versions, without any lock of the bank and without asking the DAO whether the account
+	 * still exists: the handler was just found, and closing the account bumps its version anyway.
+	 */
+	@Override
+	public long accountGetVersion(BankAccount account)
+	{
+		verifyBankAccountImplementation(account);
+		
+		return accountVersions.get(account.getId());
 	}
 	
 	@Override
@@ -417,11 +945,11 @@ public class RockefellerBank
 	{
 		verifyBankAccountImplementation(account);
 		
+		String accountId = account.getId();
+		
 		try
 		{
-			transactionLock.lock();
-			
-			String accountId = account.getId();
+			transactionLocks.lockAccount(accountId);
 			
 			if (!accountDao.doesItExist(accountId))
 			{
@@ -429,14 +957,112 @@ public class RockefellerBank
 			}
 			
 			accountDao.close(accountId);
+			accountVersions.bump(accountId);
+			accountDao.commit();
+		}
+		catch (AccountDaoInternalError ex)
+		{
+			throw new BankInternalError(ex);
+		}
+		finally
+		{
+			transactionLocks.unlockAccount(accountId);
+		}
+		
+		awaitDurable();
+	}
+	
+	/**
+	 * Wait for the changes committed by the operation to become durable, done after the locks are released,
+	 * so that other operations are not held up by it and can get their changes forced together with these.
+	 *
+	 * @throws BankInternalError thrown when underlying DAO failed due to unknown error
+	 */
+	private void awaitDurable()
+			throws BankInternalError
+	{
+		try
+		{
+			accountDao.sync();
 		}
 		catch (AccountDaoInternalError ex)
 		{
 			throw new BankInternalError(ex);
 		}
+	}
+	
+	/**
+	 * A read of a single account, which may be run more than once.
+	 *
+	 * @param <T> type of the result
+	 */
+	@FunctionalInterface
+	private interface AccountRead<T>
+	{
+		T read()
+				throws AccountDaoInternalError, BankAccountNotFound;
+	}
+	
+	/**
+	 * Run a read of a single account without taking any lock, if the locking strategy allows it (a thread-safe
+	 * DAO). If a change of the account could have overlapped the read, whatever it returned or threw is discarded,
+	 * as it could be based on a half-applied change, and the read is repeated. After a few failed attempts the read
+	 * is done under a read lock, so that a steady stream of changes cannot starve it. When the account is being
+	 * changed right now, or the strategy doesn't allow optimistic reads, it goes straight for the read lock.
+	 *
+	 * @param accountId   ID of the account being read
+	 * @param accountRead the read itself, must not change anything
+	 * @param <T>         type of the result
+	 * @return result of a read that did not overlap any change of the account
+	 * @throws AccountDaoInternalError thrown when underlying DAO failed due to unknown error
+	 * @throws BankAccountNotFound     thrown by the read
+	 */
+	private <T> T readAccount(String accountId, AccountRead<T> accountRead)
+			throws AccountDaoInternalError, BankAccountNotFound
+	{
+		for (int attempt = 0; attempt < OPTIMISTIC_READ_ATTEMPTS; attempt++)
+		{
+			long stamp = transactionLocks.tryOptimisticAccountRead(accountId);
+			if (stamp == 0)
+			{
+				break;
+			}
+			
+			try
+			{
+				T result = accountRead.read();
+				
+				if (transactionLocks.validateAccountRead(accountId, stamp))
+				{
+					return result;
+				}
+			}
+			catch (AccountDaoInternalError | BankAccountNotFound | RuntimeException ex)
+			{
+				if (transactionLocks.validateAccountRead(accountId, stamp))
+				{
+					throw ex;
+				}
+			}
+		}
+		
+		long stamp = transactionLocks.lockAccountRead(accountId);
+		try
+		{
+			return accountRead.read();
+		}
 		finally
 		{
-			transactionLock.unlock();
+			transactionLocks.unlockAccountRead(accountId, stamp);
+		}
+	}
+	
+	private void verifyAccountExists(String accountId)
+			throws AccountDaoInternalError, BankAccountNotFound
+	{
+		if (!accountDao.doesItExist(accountId))
+		{
+			throw new BankAccountNotFound(accountId);
 		}
 	}
 	
@@ -0,0 +1,87 @@
+package rafalk42.bank.rockefeller;
+
+import java.util.Set;
+
+
+/**
+ * Locking strategy used by the RockefellerBank to isolate operations from each other. Every lock method
+ * has a matching unlock method, which has to be called with the same arguments once the operation is done.
+ * Locks are not reentrant, an operation must not take a lock it already holds.
+ */
+interface TransactionLocks
+{
+	/**
+	 * Lock for the duration of opening a new account, that is an operation that does not know its account ID yet.
+	 */
+	void lockOpen();
+	
+	void unlockOpen();
+	
+	/**
+	 * Lock every account at once, e.g. to get a consistent view of all the balances.
+	 */
+	void lockAll();
+	
+	void unlockAll();
+	
+	/**
+	 * Lock a single account with given ID.
+	 *
+	 * @param accountId ID of an account to lock
+	 */
+	void lockAccount(String accountId);
+	
+	void unlockAccount(String accountId);
+	
+	/**
+	 * Start an optimistic read of a single account. It takes no lock at all, whatever was read has to be checked
+	 * with validateAccountRead before it can be trusted. A read running over a change can see the DAO in any state,
+	 * so only strategies that require a thread-safe DAO can allow it.
+	 *
+	 * @param accountId ID of an account to read
+	 * @return stamp to validate the read with, 0 if the account is being changed right now or if the strategy
+	 * doesn't allow reading without a lock, the read lock has to be taken then
+	 */
+	long tryOptimisticAccountRead(String accountId);
+	
+	/**
+	 * Check whether the account could have been changed since the optimistic read was started.
+	 *
+	 * @param accountId ID of an account that was read
+	 * @param stamp     stamp returned by tryOptimisticAccountRead
+	 * @return true if nothing could have changed the account in the meantime, so the read is consistent
+	 */
+	boolean validateAccountRead(String accountId, long stamp);
+	
+	/**
+	 * Lock a single account with given ID for reading only. Readers do not block each other, but they do block,
+	 * and are blocked by, every lock that changes the account.
+	 *
+	 * @param accountId ID of an account to lock
+	 * @return stamp to unlock the account with, readers holding the same lock each have their own
+	 */
+	long lockAccountRead(String accountId);
+	
+	void unlockAccountRead(String accountId, long stamp);
+	
+	/**
+	 * Lock two accounts with given IDs. Implementations have to take care of the order in which the locks are taken,
+	 * so that two operations locking the same pair of accounts (in any order) cannot deadlock.
+	 *
+	 * @param accountId1 ID of the first account to lock
+	 * @param accountId2 ID of the second account to lock, may be the same as the first one
+	 */
+	void lockAccounts(String accountId1, String accountId2);
+	
+	void unlockAccounts(String accountId1, String accountId2);
+	
+	/**
+	 * Lock all the accounts with given IDs at once, e.g. for the duration of a batch of operations. The same rules
+	 * about the order of taking the locks apply as for lockAccounts with two accounts.
+	 *
+	 * @param accountIds IDs of the accounts to lock
+	 */
+	void lockAccounts(Set<String> accountIds);
+	
+	void unlockAccounts(Set<String> accountIds);
+}
@@ -0,0 +1,124 @@
+package rafalk42.bank.rockefeller;
+
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+
+
+/**
+ * Let's simply use a per instance lock, which is not great when it comes to performance
+ * (an operation will lock the whole bank, irregardless of the accounts involved),
+ * but it's very easy to follow and debug and good enough in most situations.
+ * Added bonus is that we are not depending on the thread safety of the account DAO implementation,
+ * which is also why there are no optimistic reads, a read running over a change could find the DAO
+ * in the middle of rebuilding its map and never get as far as validating itself.
+ * The stamp of the write lock is kept until it is unlocked, so unlocking a lock that isn't held fails loudly.
+ */
+class TransactionLocksGlobal
+		implements TransactionLocks
+{
+	private final StampedLock transactionLock;
+	// Written and read only by the holder of the write lock.
+	private long writeStamp;
+	
+	TransactionLocksGlobal()
+	{
+		transactionLock = new StampedLock();
+	}
+	
+	@Override
+	public void lockOpen()
+	{
+		lockWrite();
+	}
+	
+	@Override
+	public void unlockOpen()
+	{
+		unlockWrite();
+	}
+	
+	@Override
+	public void lockAll()
+	{
+		lockWrite();
+	}
+	
+	@Override
+	public void unlockAll()
+	{
+		unlockWrite();
+	}
+	
+	@Override
+	public void lockAccount(String accountId)
+	{
+		lockWrite();
+	}
+	
+	@Override
+	public void unlockAccount(String accountId)
+	{
+		unlockWrite();
+	}
+	
+	@Override
+	public long tryOptimisticAccountRead(String accountId)
+	{
+		return 0;
+	}
+	
+	@Override
+	public boolean validateAccountRead(String accountId, long stamp)
+	{
+		return transactionLock.validate(stamp);
+	}
+	
+	@Override
+	public long lockAccountRead(String accountId)
+	{
+		return transactionLock.readLock();
+	}
+	
+	@Override
+	public void unlockAccountRead(String accountId, long stamp)
+	{
+		transactionLock.unlockRead(stamp);
+	}
+	
+	@Override
+	public void lockAccounts(String accountId1, String accountId2)
+	{
+		lockWrite();
+	}
+	
+	@Override
+	public void unlockAccounts(String accountId1, String accountId2)
+	{
+		unlockWrite();
+	}
+	
+	@Override
+	public void lockAccounts(Set<String> accountIds)
+	{
+		lockWrite();
+	}
+	
+	@Override
+	public void unlockAccounts(Set<String> accountIds)
+	{
+		unlockWrite();
+	}
+	
+	private void lockWrite()
+	{
+		writeStamp = transactionLock.writeLock();
+	}
+	
+	/**
+	 * @throws IllegalMonitorStateException thrown when the write lock is not held
+	 */
+	private void unlockWrite()
+	{
+		transactionLock.unlockWrite(writeStamp);
+	}
+}
@@ -0,0 +1,190 @@
+package rafalk42.bank.rockefeller;
+
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+
+
+/**
+ * Locks only the accounts an operation touches. Accounts are mapped to a fixed number of lock stripes
+ * by the hash of their ID, so memory used by the locks does not grow with the number of accounts, at the cost
+ * of two unrelated accounts occasionally sharing a stripe.
+ * Deadlocks are avoided by always taking multiple stripes in the order of their index.
+ * Optimistic reads are validated against the stripe of the account only, so they are not disturbed by changes
+ * to accounts on other stripes.
+ * Opening an account takes no lock at all, which means that the account DAO used with this strategy
+ * must be thread-safe (which is also what makes the optimistic reads safe).
+ * The stamp of every write locked stripe is kept until it is unlocked, so unlocking a stripe that isn't held fails
+ * loudly.
+ */
+class TransactionLocksStriped
+		implements TransactionLocks
+{
+	private final StampedLock[] stripes;
+	// Stamp of the write lock of each stripe, written and read only by the holder of that lock.
+	private final long[] writeStamps;
+	private final int stripeMask;
+	
+	/**
+	 * @param stripeCount number of lock stripes, must be a power of two
+	 */
+	TransactionLocksStriped(int stripeCount)
+	{
+		if (stripeCount <= 0
+			|| Integer.bitCount(stripeCount) != 1)
+		{
+			throw new IllegalArgumentException("Stripe count must be a positive power of two");
+		}
+		
+		stripes = new StampedLock[stripeCount];
+		writeStamps = new long[stripeCount];
+		for (int i = 0; i < stripeCount; i++)
+		{
+			stripes[i] = new StampedLock();
+		}
+		stripeMask = stripeCount - 1;
+	}
+	
+	@Override
+	public void lockOpen()
+	{
+		// Account DAO is responsible for handing out unique IDs, nothing to lock.
+	}
+	
+	@Override
+	public void unlockOpen()
+	{
+	}
+	
+	@Override
+	public void lockAll()
+	{
+		for (int i = 0; i < stripes.length; i++)
+		{
+			lockStripe(i);
+		}
+	}
+	
+	@Override
+	public void unlockAll()
+	{
+		for (int i = stripes.length - 1; i >= 0; i--)
+		{
+			unlockStripe(i);
+		}
+	}
+	
+	@Override
+	public void lockAccount(String accountId)
+	{
+		lockStripe(getStripeIndex(accountId));
+	}
+	
+	@Override
+	public void unlockAccount(String accountId)
+	{
+		unlockStripe(getStripeIndex(accountId));
+	}
+	
+	@Override
+	public long tryOptimisticAccountRead(String accountId)
+	{
+		return stripes[getStripeIndex(accountId)].tryOptimisticRead();
+	}
+	
+	@Override
+	public boolean validateAccountRead(String accountId, long stamp)
+	{
+		return stripes[getStripeIndex(accountId)].validate(stamp);
+	}
+	
+	@Override
+	public long lockAccountRead(String accountId)
+	{
+		return stripes[getStripeIndex(accountId)].readLock();
+	}
+	
+	@Override
+	public void unlockAccountRead(String accountId, long stamp)
+	{
+		stripes[getStripeIndex(accountId)].unlockRead(stamp);
+	}
+	
+	@Override
+	public void lockAccounts(String accountId1, String accountId2)
+	{
+		int index1 = getStripeIndex(accountId1);
+		int index2 = getStripeIndex(accountId2);
+		
+		// Always lock the lower index first, this is what makes it deadlock free.
+		lockStripe(Math.min(index1, index2));
+		if (index1 != index2)
+		{
+			lockStripe(Math.max(index1, index2));
+		}
+	}
+	
+	@Override
+	public void unlockAccounts(String accountId1, String accountId2)
+	{
+		int index1 = getStripeIndex(accountId1);
+		int index2 = getStripeIndex(accountId2);
+		
+		if (index1 != index2)
+		{
+			unlockStripe(Math.max(index1, index2));
+		}
+		unlockStripe(Math.min(index1, index2));
+	}
+	
+	@Override
+	public void lockAccounts(Set<String> accountIds)
+	{
+		for (int index : getStripeIndexes(accountIds))
+		{
+			lockStripe(index);
+		}
+	}
+	
+	@Override
+	public void unlockAccounts(Set<String> accountIds)
+	{
+		int[] indexes = getStripeIndexes(accountIds);
+		for (int i = indexes.length - 1; i >= 0; i--)
+		{
+			unlockStripe(indexes[i]);
+		}
+	}
+	
+	private void lockStripe(int index)
+	{
+		writeStamps[index] = stripes[index].writeLock();
+	}
+	
+	/**
+	 * @throws IllegalMonitorStateException thrown when the write lock of the stripe is not held
+	 */
+	private void unlockStripe(int index)
+	{
+		stripes[index].unlockWrite(writeStamps[index]);
+	}
+	
+	/**
+	 * @return distinct indexes of the stripes of given accounts, in ascending order
+	 */
+	private int[] getStripeIndexes(Set<String> accountIds)
+	{
+		return accountIds.stream()
+						 .mapToInt(this::getStripeIndex)
+						 .distinct()
+						 .sorted()
+						 .toArray();
+	}
+	
+	private int getStripeIndex(String accountId)
+	{
+		int hash = accountId.hashCode();
+		
+		// Spread higher bits downwards, sequential IDs differ mostly on the last characters anyway.
+		return (hash ^ (hash >>> 16)) & stripeMask;
+	}
+}
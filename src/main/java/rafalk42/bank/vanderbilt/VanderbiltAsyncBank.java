@@ -0,0 +1,603 @@
+package rafalk42.bank.vanderbilt;
+
+import org.slf4j.LoggerFactory;
+import rafalk42.bank.domain.*;
+import rafalk42.dao.AccountDao;
+import rafalk42.dao.AccountDaoInternalError;
+import rafalk42.dao.AccountInfo;
+import rafalk42.dao.BalanceUpdateStatus;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+
+/**
+ * Implementation of an AsyncBank that splits the accounts into shards. Every shard has its own account DAO and its
+ * own thread, which is the only one touching that DAO, so the DAO does not have to be thread-safe and operations
+ * on accounts of one shard need no synchronization at all, while the shards work in parallel. Shard of an account
+ * is chosen by a pluggable VanderbiltBankShardAssignment when the account is opened and becomes a part of its ID.
+ * Every operation is a task (or a couple of tasks) of the shard threads and nobody ever waits for them, the futures
+ * are completed by the shard threads.
+ * <p>
+ * A transfer within one shard is a single task of that shard. A transfer between two shards is handed over
+ * from one shard thread to the other:
+ * 1. the source shard takes the amount from the source account and, in the same task, hands the credit over
+ * to the destination shard,
+ * 2. the destination shard adds the amount to the destination account,
+ * 3. only if the destination account does not exist (anymore) or the credit fails, the amount is handed back
+ * to the source shard and returned to the source account.
+ * Every step runs exactly once, on the thread owning the account it changes, so the money cannot be lost or
+ * duplicated. The future of a transfer is completed once the transfer is complete, but other operations can
+ * observe the amount in flight, already taken from the source account and not yet added to the destination one.
+ * The same applies to accountsGetInfoAll, which is consistent per shard only, and to accountsGetInfoPage.
+ * <p>
+ * Business rules are the same as in the RockefellerBank, the only difference is that a transfer between shards
+ * learns that the destination account does not exist after checking the funds on the source account.
+ * Transfer batches are supported in the BEST_EFFORT mode only, the transfers are executed one after another.
+ * <p>
+ * The shard threads are started when the bank is created and run until shutdown is called.
+ */
+public class VanderbiltAsyncBank
+		implements AsyncBank
+{
+	private final org.slf4j.Logger log = LoggerFactory.getLogger(VanderbiltAsyncBank.class);
+	private final VanderbiltBankShard[] shards;
+	private final int[] shardsInIdOrder;
+	private final VanderbiltBankShardAssignment shardAssignment;
+	private final BigDecimal rulesMinimumTransferAmount = BigDecimal.valueOf(1, 2);
+	
+	/**
+	 * @param shardCount         number of shards, each one with its own thread, e.g. the number of CPU cores
+	 * @param accountDaoSupplier supplier of account DAOs, called once per shard, the DAOs do not have to be
+	 *                           thread-safe
+	 * @param shardAssignment    strategy deciding on which shard a new account is placed
+	 */
+	public VanderbiltAsyncBank(int shardCount, Supplier<AccountDao> accountDaoSupplier,
+							   VanderbiltBankShardAssignment shardAssignment)
+	{
+		if (shardCount <= 0)
+		{
+			throw new IllegalArgumentException("Shard count must be positive");
+		}
+		
+		if (shardAssignment == null)
+		{
+			throw new IllegalArgumentException("Shard assignment cannot be null");
+		}
+		
+		this.shardAssignment = shardAssignment;
+		
+		shards = new VanderbiltBankShard[shardCount];
+		for (int i = 0; i < shardCount; i++)
+		{
+			shards[i] = new VanderbiltBankShard(i, accountDaoSupplier.get());
+		}
+		
+		shardsInIdOrder = IntStream.range(0, shardCount)
+								   .boxed()
+								   .sorted(Comparator.comparing(VanderbiltBankAccount::getIdPrefix))
+								   .mapToInt(Integer::intValue)
+								   .toArray();
+	}
+	
+	/**
+	 * Stop all the shard threads. Operations must not be started after (or concurrently with) the shutdown.
+	 */
+	public void shutdown()
+	{
+		for (VanderbiltBankShard shard : shards)
+		{
+			shard.shutdown();
+		}
+	}
+	
+	@Override
+	public CompletableFuture<BankAccount> accountOpen(BankAccountDescription accountDescription)
+	{
+		int shardIndex = shardAssignment.assignShard(accountDescription, shards.length);
+		if (shardIndex < 0
+			|| shardIndex >= shards.length)
+		{
+			throw new IllegalStateException("Shard assignment returned invalid shard " + shardIndex);
+		}
+		
+		return shards[shardIndex].submit(accountDao -> new VanderbiltBankAccount(shardIndex,
+																				 accountDao.open(accountDescription.getDescription(),
+																								 accountDescription.getInitialBalance())));
+	}
+	
+	@Override
+	public CompletableFuture<Map<BankAccount, BankAccountInfo>> accountsGetInfoAll()
+	{
+		// Ask all the shards at once, so that they work on it in parallel.
+		List<CompletableFuture<Set<AccountInfo>>> shardAccounts = new ArrayList<>();
+		for (VanderbiltBankShard shard : shards)
+		{
+			shardAccounts.add(shard.submit(AccountDao::findAll));
+		}
+		
+		return CompletableFuture.allOf(shardAccounts.toArray(new CompletableFuture<?>[0]))
+								.thenApply(ignored ->
+										   {
+											   Map<BankAccount, BankAccountInfo> result = new HashMap<>();
+											   for (int i = 0; i < shards.length; i++)
+											   {
+												   int shardIndex = i;
+												   shardAccounts.get(i)
+																.join()
+																.forEach(item -> result.put(new VanderbiltBankAccount(shardIndex, item.getId()),
+																							new BankAccountInfo(item.getDescription(),
+																												item.getBalance())));
+											   }
+											
+											   return result;
+										   });
+	}
+	
+	/**
+	 * Account IDs compared as Strings come shard by shard, in String order of the shard prefixes ("1-" goes before
+	 * "10-", which goes before "2-"), and in order of the DAO IDs within a shard. So the shards are simply asked
+	 * one after another, each of them for whatever is still missing on the page.
+	 */
+	@Override
+	public CompletableFuture<Map<BankAccount, BankAccountInfo>> accountsGetInfoPage(String afterAccountId, int limit)
+	{
+		if (limit <= 0)
+		{
+			throw new IllegalArgumentException("Limit must be positive");
+		}
+		
+		return addShardPage(new LinkedHashMap<>(), 0, afterAccountId, limit);
+	}
+	
+	@Override
+	public CompletableFuture<Optional<BankAccount>> accountFindById(String accountId)
+	{
+		if (accountId == null)
+		{
+			throw new IllegalArgumentException("Account ID cannot be null");
+		}
+		
+		VanderbiltBankAccount account = VanderbiltBankAccount.parse(accountId, shards.length);
+		if (account == null)
+		{
+			return CompletableFuture.completedFuture(Optional.empty());
+		}
+		
+		return getShard(account).submit(accountDao -> accountDao.doesItExist(account.getShardAccountId())
+				? Optional.of(account)
+				: Optional.empty());
+	}
+	
+	@Override
+	public CompletableFuture<BankAccountInfo> accountGetInfo(BankAccount account)
+	{
+		VanderbiltBankAccount vanderbiltAccount = verifyBankAccountImplementation(account);
+		
+		return getShard(vanderbiltAccount).submit(
+				accountDao ->
+				{
+					verifyAccountExists(accountDao, vanderbiltAccount);
+					
+					AccountInfo info = accountDao.getInfo(vanderbiltAccount.getShardAccountId());
+					
+					return new BankAccountInfo(info.getDescription(),
+											   info.getBalance());
+				});
+	}
+	
+	@Override
+	public CompletableFuture<BigDecimal> accountGetBalance(BankAccount account)
+	{
+		VanderbiltBankAccount vanderbiltAccount = verifyBankAccountImplementation(account);
+		
+		return getShard(vanderbiltAccount).submit(
+				accountDao ->
+				{
+					verifyAccountExists(accountDao, vanderbiltAccount);
+					
+					return accountDao.getBalance(vanderbiltAccount.getShardAccountId());
+				});
+	}
+	
+	@Override
+	public CompletableFuture<OperationResult> accountDeposit(BankAccount account, BigDecimal amount, String title)
+	{
+		VanderbiltBankAccount vanderbiltAccount = verifyBankAccountImplementation(account);
+		
+		if (amount == null)
+		{
+			throw new IllegalArgumentException("Amount cannot be null");
+		}
+		
+		return getShard(vanderbiltAccount).submit(
+				accountDao -> executeDeposit(accountDao, vanderbiltAccount, amount));
+	}
+	
+	@Override
+	public CompletableFuture<OperationResult> accountWithdraw(BankAccount account, BigDecimal amount, String title)
+	{
+		VanderbiltBankAccount vanderbiltAccount = verifyBankAccountImplementation(account);
+		
+		if (amount == null)
+		{
+			throw new IllegalArgumentException("Amount cannot be null");
+		}
+		
+		return getShard(vanderbiltAccount).submit(
+				accountDao -> executeWithdraw(accountDao, vanderbiltAccount, amount));
+	}
+	
+	@Override
+	public CompletableFuture<OperationResult> transferAmount(BankAccount sourceAccount, BankAccount destinationAccount,
+															 BigDecimal amount)
+	{
+		VanderbiltBankAccount source = verifyBankAccountImplementation(sourceAccount);
+		VanderbiltBankAccount destination = verifyBankAccountImplementation(destinationAccount);
+		
+		if (amount == null)
+		{
+			throw new IllegalArgumentException("Amount cannot be null");
+		}
+		
+		if (source.getShardIndex() != destination.getShardIndex())
+		{
+			return transferBetweenShards(source, destination, amount);
+		}
+		
+		return getShard(source).submit(
+				accountDao -> executeTransfer(accountDao, source, destination, amount));
+	}
+	
+	@Override
+	public CompletableFuture<List<OperationResult>> transferBatch(List<BankTransfer> transfers, TransferBatchMode mode)
+	{
+		if (transfers == null)
+		{
+			throw new IllegalArgumentException("Transfers cannot be null");
+		}
+		
+		if (mode != TransferBatchMode.BEST_EFFORT)
+		{
+			CompletableFuture<List<OperationResult>> result = new CompletableFuture<>();
+			result.completeExceptionally(new UnsupportedOperationException("Transfer batch mode " + mode
+																		   + " is not supported"));
+			
+			return result;
+		}
+		
+		for (BankTransfer transfer : transfers)
+		{
+			verifyBankAccountImplementation(transfer.getSourceAccount());
+			verifyBankAccountImplementation(transfer.getDestinationAccount());
+			
+			if (transfer.getAmount() == null)
+			{
+				throw new IllegalArgumentException("Amount cannot be null");
+			}
+		}
+		
+		// Each transfer starts only when the previous one is done, a transfer may depend on the funds of the previous.
+		CompletableFuture<List<OperationResult>> result = CompletableFuture.completedFuture(
+				new ArrayList<>(transfers.size()));
+		for (BankTransfer transfer : transfers)
+		{
+			result = result.thenCompose(results -> transferAmount(transfer.getSourceAccount(),
+																  transfer.getDestinationAccount(),
+																  transfer.getAmount())
+					.handle((operationResult, ex) -> addBatchResult(results, transfer, operationResult, ex)));
+		}
+		
+		return result;
+	}
+	
+	@Override
+	public CompletableFuture<Void> accountClose(BankAccount account)
+	{
+		VanderbiltBankAccount vanderbiltAccount = verifyBankAccountImplementation(account);
+		
+		return getShard(vanderbiltAccount).submit(
+				accountDao ->
+				{
+					verifyAccountExists(accountDao, vanderbiltAccount);
+					accountDao.close(vanderbiltAccount.getShardAccountId());
+					
+					return null;
+				});
+	}
+	
+	/**
+	 * Add the result of a transfer of a batch to the results of the batch, a missing account is reported
+	 * in the result, anything else fails the whole batch.
+	 */
+	private List<OperationResult> addBatchResult(List<OperationResult> results, BankTransfer transfer,
+												 OperationResult operationResult, Throwable error)
+	{
+		Throwable cause = error instanceof CompletionException
+				? error.getCause()
+				: error;
+		
+		if (cause == null)
+		{
+			results.add(operationResult);
+		}
+		else if (cause instanceof BankAccountNotFound)
+		{
+			results.add(OperationResult.getAccountNotFound(transfer.getAmount()));
+		}
+		else
+		{
+			throw new CompletionException(cause);
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * Fill the rest of a page with the accounts of the next shard (in ID order), then move on to the one after it.
+	 *
+	 * @param page           accounts collected so far
+	 * @param orderIndex     position of the shard in shardsInIdOrder
+	 * @param afterAccountId ID after which the page starts, null to start from the very first account
+	 * @param limit          maximum number of accounts on the page
+	 * @return future completed with the whole page
+	 */
+	private CompletableFuture<Map<BankAccount, BankAccountInfo>> addShardPage(Map<BankAccount, BankAccountInfo> page,
+																			  int orderIndex, String afterAccountId,
+																			  int limit)
+	{
+		if (orderIndex == shardsInIdOrder.length
+			|| page.size() == limit)
+		{
+			return CompletableFuture.completedFuture(page);
+		}
+		
+		int shardIndex = shardsInIdOrder[orderIndex];
+		String idPrefix = VanderbiltBankAccount.getIdPrefix(shardIndex);
+		
+		// Every ID of the shard starts with the prefix, so unless the page starts within the shard, the shard is
+		// either entirely before the start of the page or entirely after it.
+		String shardAfterAccountId = null;
+		if (afterAccountId != null)
+		{
+			if (afterAccountId.startsWith(idPrefix))
+			{
+				shardAfterAccountId = afterAccountId.substring(idPrefix.length());
+			}
+			else if (afterAccountId.compareTo(idPrefix) > 0)
+			{
+				return addShardPage(page, orderIndex + 1, afterAccountId, limit);
+			}
+		}
+		
+		String pageStart = shardAfterAccountId;
+		int remaining = limit - page.size();
+		
+		return shards[shardIndex].submit(accountDao -> accountDao.findPage(pageStart, remaining))
+								 .thenCompose(shardAccounts ->
+											  {
+												  shardAccounts.forEach(item -> page.put(new VanderbiltBankAccount(shardIndex, item.getId()),
+																						 new BankAccountInfo(item.getDescription(),
+																											 item.getBalance())));
+												
+												  return addShardPage(page, orderIndex + 1, afterAccountId, limit);
+											  });
+	}
+	
+	/**
+	 * Start a transfer between accounts on two different shards, see the description of the class for the steps.
+	 *
+	 * @param source      account from which amount will be taken
+	 * @param destination account to which amount will be added
+	 * @param amount      amount to transfer
+	 * @return future completed once the whole transfer is done, including the refund if there is one
+	 */
+	private CompletableFuture<OperationResult> transferBetweenShards(VanderbiltBankAccount source,
+																	 VanderbiltBankAccount destination,
+																	 BigDecimal amount)
+	{
+		CompletableFuture<OperationResult> result = new CompletableFuture<>();
+		
+		getShard(source).submit(
+				sourceAccountDao ->
+				{
+					OperationResult debitResult = executeWithdraw(sourceAccountDao, source, amount);
+					if (debitResult.getStatus() != OperationResult.Status.SUCCESSFUL)
+					{
+						result.complete(debitResult);
+					}
+					else
+					{
+						// Hand the credit over while still on the source shard thread, nothing can get in between.
+						creditAfterDebit(source, destination, debitResult.getActualAmount(), result);
+					}
+					
+					return null;
+				})
+				.whenComplete((ignored, ex) ->
+							  {
+								  if (ex != null)
+								  {
+									  result.completeExceptionally(ex);
+								  }
+							  });
+		
+		return result;
+	}
+	
+	private void creditAfterDebit(VanderbiltBankAccount source, VanderbiltBankAccount destination,
+								  BigDecimal amountRounded, CompletableFuture<OperationResult> result)
+	{
+		getShard(destination).submit(
+				destinationAccountDao ->
+				{
+					BalanceUpdateStatus status = destinationAccountDao.applyDelta(destination.getShardAccountId(),
+																				  amountRounded);
+					
+					return getOperationResult(status, amountRounded, destination, null);
+				})
+				.whenComplete((ignored, ex) ->
+							  {
+								  if (ex == null)
+								  {
+									  result.complete(OperationResult.getSuccessful(amountRounded));
+								  }
+								  else
+								  {
+									  refundAfterFailedCredit(source, amountRounded, ex, result);
+								  }
+							  });
+	}
+	
+	private void refundAfterFailedCredit(VanderbiltBankAccount source, BigDecimal amountRounded, Throwable creditError,
+										 CompletableFuture<OperationResult> result)
+	{
+		getShard(source).submit(
+				sourceAccountDao ->
+				{
+					// If the source account got closed in the meantime, the refund is discarded together with
+					// the rest of its funds, the same as when closing an account with a positive balance.
+					return sourceAccountDao.applyDelta(source.getShardAccountId(), amountRounded);
+				})
+				.whenComplete((ignored, ex) ->
+							  {
+								  if (ex != null)
+								  {
+									  log.error(String.format("Refund of %s to account %s failed",
+															  amountRounded, source.getId()), ex);
+								  }
+								
+								  result.completeExceptionally(creditError);
+							  });
+	}
+	
+	/**
+	 * Business rules are the same as in RockefellerBank.executeDeposit.
+	 */
+	private OperationResult executeDeposit(AccountDao accountDao, VanderbiltBankAccount account, BigDecimal amount)
+			throws AccountDaoInternalError, BankAccountNotFound
+	{
+		if (amount.compareTo(rulesMinimumTransferAmount) < 0)
+		{
+			verifyAccountExists(accountDao, account);
+			
+			return OperationResult.getInvalidAmount(amount);
+		}
+		
+		BigDecimal amountRounded = amount.setScale(2, RoundingMode.HALF_UP);
+		BalanceUpdateStatus status = accountDao.applyDelta(account.getShardAccountId(), amountRounded);
+		
+		return getOperationResult(status, amountRounded, account, null);
+	}
+	
+	/**
+	 * Business rules are the same as in RockefellerBank.executeWithdraw.
+	 */
+	private OperationResult executeWithdraw(AccountDao accountDao, VanderbiltBankAccount account, BigDecimal amount)
+			throws AccountDaoInternalError, BankAccountNotFound
+	{
+		if (amount.compareTo(rulesMinimumTransferAmount) < 0)
+		{
+			verifyAccountExists(accountDao, account);
+			
+			return OperationResult.getInvalidAmount(amount);
+		}
+		
+		BigDecimal amountRounded = amount.setScale(2, RoundingMode.HALF_UP);
+		BalanceUpdateStatus status = accountDao.applyDelta(account.getShardAccountId(), amountRounded.negate());
+		
+		return getOperationResult(status, amountRounded, account, null);
+	}
+	
+	/**
+	 * Business rules are the same as in RockefellerBank.executeTransfer, both accounts are on the same shard.
+	 */
+	private OperationResult executeTransfer(AccountDao accountDao, VanderbiltBankAccount source,
+											VanderbiltBankAccount destination, BigDecimal amount)
+			throws AccountDaoInternalError, BankAccountNotFound
+	{
+		if (source.equals(destination))
+		{
+			verifyAccountExists(accountDao, source);
+			
+			return OperationResult.getNotAllowed(amount);
+		}
+		
+		if (amount.compareTo(rulesMinimumTransferAmount) < 0)
+		{
+			verifyAccountExists(accountDao, source);
+			verifyAccountExists(accountDao, destination);
+			
+			return OperationResult.getInvalidAmount(amount);
+		}
+		
+		BigDecimal amountRounded = amount.setScale(2, RoundingMode.HALF_UP);
+		BalanceUpdateStatus status = accountDao.move(source.getShardAccountId(),
+													 destination.getShardAccountId(),
+													 amountRounded);
+		
+		return getOperationResult(status, amountRounded, source, destination);
+	}
+	
+	/**
+	 * The same as RockefellerBank.getOperationResult.
+	 */
+	private OperationResult getOperationResult(BalanceUpdateStatus status, BigDecimal amountRounded,
+											   VanderbiltBankAccount account, VanderbiltBankAccount destination)
+			throws BankAccountNotFound
+	{
+		switch (status)
+		{
+			case APPLIED:
+				return OperationResult.getSuccessful(amountRounded);
+			case NOT_ENOUGH_FUNDS:
+				return OperationResult.getNotEnoughFunds(amountRounded);
+			case ACCOUNT_NOT_FOUND:
+				throw new BankAccountNotFound(account.getId());
+			case DESTINATION_ACCOUNT_NOT_FOUND:
+				throw new BankAccountNotFound(destination.getId());
+			default:
+				throw new IllegalStateException("Unsupported balance update status " + status);
+		}
+	}
+	
+	private void verifyAccountExists(AccountDao accountDao, VanderbiltBankAccount account)
+			throws AccountDaoInternalError, BankAccountNotFound
+	{
+		if (!accountDao.doesItExist(account.getShardAccountId()))
+		{
+			throw new BankAccountNotFound(account.getId());
+		}
+	}
+	
+	private VanderbiltBankShard getShard(VanderbiltBankAccount account)
+	{
+		return shards[account.getShardIndex()];
+	}
+	
+	private VanderbiltBankAccount verifyBankAccountImplementation(BankAccount bankAccount)
+	{
+		if (bankAccount == null)
+		{
+			throw new IllegalArgumentException("Bank account cannot be null");
+		}
+		
+		if (!(bankAccount instanceof VanderbiltBankAccount))
+		{
+			throw new IllegalArgumentException("Unsupported implementation of BankAccount");
+		}
+		
+		VanderbiltBankAccount account = (VanderbiltBankAccount) bankAccount;
+		if (account.getShardIndex() >= shards.length)
+		{
+			throw new IllegalArgumentException("Account belongs to a different bank");
+		}
+		
+		return account;
+	}
+}
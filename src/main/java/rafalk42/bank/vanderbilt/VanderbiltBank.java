@@ -0,0 +1,187 @@
+package rafalk42.bank.vanderbilt;
+
+import rafalk42.bank.domain.*;
+import rafalk42.dao.AccountDao;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+
+/**
+ * Blocking face of a VanderbiltAsyncBank, every operation is started on the shards and then simply waited for.
+ * See VanderbiltAsyncBank for the details of how the shards work and what can be observed while they do.
+ * <p>
+ * The shard threads are started when the bank is created and run until shutdown is called.
+ */
+public class VanderbiltBank
+		implements Bank
+{
+	private final VanderbiltAsyncBank asyncBank;
+	
+	/**
+	 * @param shardCount         number of shards, each one with its own thread, e.g. the number of CPU cores
+	 * @param accountDaoSupplier supplier of account DAOs, called once per shard, the DAOs do not have to be
+	 *                           thread-safe
+	 * @param shardAssignment    strategy deciding on which shard a new account is placed
+	 */
+	public VanderbiltBank(int shardCount, Supplier<AccountDao> accountDaoSupplier,
+						  VanderbiltBankShardAssignment shardAssignment)
+	{
+		asyncBank = new VanderbiltAsyncBank(shardCount, accountDaoSupplier, shardAssignment);
+	}
+	
+	/**
+	 * Stop all the shard threads. Operations must not be started after (or concurrently with) the shutdown.
+	 */
+	public void shutdown()
+	{
+		asyncBank.shutdown();
+	}
+	
+	/**
+	 * @return the same bank, without the waiting
+	 */
+	public VanderbiltAsyncBank getAsyncBank()
+	{
+		return asyncBank;
+	}
+	
+	@Override
+	public BankAccount accountOpen(BankAccountDescription accountDescription)
+			throws BankInternalError
+	{
+		return awaitWithoutMissingAccount(asyncBank.accountOpen(accountDescription));
+	}
+	
+	@Override
+	public Map<BankAccount, BankAccountInfo> accountsGetInfoAll()
+			throws BankInternalError
+	{
+		return awaitWithoutMissingAccount(asyncBank.accountsGetInfoAll());
+	}
+	
+	@Override
+	public Map<BankAccount, BankAccountInfo> accountsGetInfoPage(String afterAccountId, int limit)
+			throws BankInternalError
+	{
+		return awaitWithoutMissingAccount(asyncBank.accountsGetInfoPage(afterAccountId, limit));
+	}
+	
+	@Override
+	public Optional<BankAccount> accountFindById(String accountId)
+			throws BankInternalError
+	{
+		return awaitWithoutMissingAccount(asyncBank.accountFindById(accountId));
+	}
+	
+	@Override
+	public BankAccountInfo accountGetInfo(BankAccount account)
+			throws BankInternalError, BankAccountNotFound
+	{
+		return await(asyncBank.accountGetInfo(account));
+	}
+	
+	@Override
+	public BigDecimal accountGetBalance(BankAccount account)
+			throws BankInternalError, BankAccountNotFound
+	{
+		return await(asyncBank.accountGetBalance(account));
+	}
+	
+	@Override
+	public OperationResult accountDeposit(BankAccount account, BigDecimal amount, String title)
+			throws BankInternalError, BankAccountNotFound
+	{
+		return await(asyncBank.accountDeposit(account, amount, title));
+	}
+	
+	@Override
+	public OperationResult accountWithdraw(BankAccount account, BigDecimal amount, String title)
+			throws BankInternalError, BankAccountNotFound
+	{
+		return await(asyncBank.accountWithdraw(account, amount, title));
+	}
+	
+	@Override
+	public OperationResult transferAmount(BankAccount sourceAccount, BankAccount destinationAccount, BigDecimal amount)
+			throws BankInternalError, BankAccountNotFound
+	{
+		return await(asyncBank.transferAmount(sourceAccount, destinationAccount, amount));
+	}
+	
+	@Override
+	public void accountClose(BankAccount account)
+			throws BankInternalError, BankAccountNotFound
+	{
+		await(asyncBank.accountClose(account));
+	}
+	
+	/**
+	 * Wait for the result of work done by the shards, translating whatever they threw.
+	 *
+	 * @param future future to wait for
+	 * @param <T>    type of the result
+	 * @return result of the work
+	 * @throws BankInternalError   thrown when the account DAO failed or the wait got interrupted
+	 * @throws BankAccountNotFound thrown when the work could not find an account
+	 */
+	private <T> T await(CompletableFuture<T> future)
+			throws BankInternalError, BankAccountNotFound
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new BankInternalError(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			
+			if (cause instanceof BankAccountNotFound)
+			{
+				throw (BankAccountNotFound) cause;
+			}
+			
+			if (cause instanceof BankInternalError)
+			{
+				throw (BankInternalError) cause;
+			}
+			
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+			
+			if (cause instanceof Error)
+			{
+				throw (Error) cause;
+			}
+			
+			throw new BankInternalError(cause);
+		}
+	}
+	
+	/**
+	 * The same as await, for work that does not look for a particular account.
+	 */
+	private <T> T awaitWithoutMissingAccount(CompletableFuture<T> future)
+			throws BankInternalError
+	{
+		try
+		{
+			return await(future);
+		}
+		catch (BankAccountNotFound ex)
+		{
+			throw new IllegalStateException("Unexpected missing account " + ex.getAccountId());
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package rafalk42.bank.vanderbilt;
+
+import rafalk42.bank.domain.BankAccount;
+
+import java.util.Objects;
+
+
+/**
+ * Account of a VanderbiltBank. Its ID is made of the index of the shard owning the account and of the ID given
+ * to the account by the DAO of that shard, e.g. 3-0000000017, so the shard can always be told from the ID alone.
+ */
+public class VanderbiltBankAccount
+		extends BankAccount
+{
+	private static final char ID_SEPARATOR = '-';
+	
+	private final int shardIndex;
+	private final String shardAccountId;
+	private final String id;
+	
+	VanderbiltBankAccount(int shardIndex, String shardAccountId)
+	{
+		if (shardAccountId == null)
+		{
+			throw new IllegalArgumentException("ID cannot be null");
+		}
+		
+		this.shardIndex = shardIndex;
+		this.shardAccountId = shardAccountId;
+		id = getIdPrefix(shardIndex) + shardAccountId;
+	}
+	
+	/**
+	 * @param shardIndex index of a shard
+	 * @return the part every ID of an account of given shard starts with
+	 */
+	static String getIdPrefix(int shardIndex)
+	{
+		return shardIndex + String.valueOf(ID_SEPARATOR);
+	}
+	
+	/**
+	 * Split an account ID back into the shard index and the ID within the shard.
+	 *
+	 * @param id         account ID
+	 * @param shardCount number of shards of the bank
+	 * @return the account or null if the ID is not a valid ID of this bank
+	 */
+	static VanderbiltBankAccount parse(String id, int shardCount)
+	{
+		int separatorIndex = id.indexOf(ID_SEPARATOR);
+		if (separatorIndex <= 0
+			|| separatorIndex == id.length() - 1)
+		{
+			return null;
+		}
+		
+		int shardIndex;
+		try
+		{
+			shardIndex = Integer.parseInt(id.substring(0, separatorIndex));
+		}
+		catch (NumberFormatException ex)
+		{
+			return null;
+		}
+		
+		if (shardIndex < 0
+			|| shardIndex >= shardCount)
+		{
+			return null;
+		}
+		
+		VanderbiltBankAccount account = new VanderbiltBankAccount(shardIndex, id.substring(separatorIndex + 1));
+		
+		// Reject anything that would not come out of this bank in exactly the same form, e.g. "+1-..." or "01-...".
+		return account.getId().equals(id) ? account : null;
+	}
+	
+	@Override
+	public String getId()
+	{
+		return id;
+	}
+	
+	int getShardIndex()
+	{
+		return shardIndex;
+	}
+	
+	String getShardAccountId()
+	{
+		return shardAccountId;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "VanderbiltBankAccount{" +
+			   "id='" + id + '\'' +
+			   '}';
+	}
+	
+	@Override
+	public boolean equals(Object o)
+	{
+		if (this == o)
+		{
+			return true;
+		}
+		if (o == null || getClass() != o.getClass())
+		{
+			return false;
+		}
+		VanderbiltBankAccount that = (VanderbiltBankAccount) o;
+		return id.equals(that.id);
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return Objects.hash(id);
+	}
+}
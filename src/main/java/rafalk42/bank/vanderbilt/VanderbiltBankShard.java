@@ -0,0 +1,88 @@
+package rafalk42.bank.vanderbilt;
+
+import rafalk42.bank.domain.BankAccountNotFound;
+import rafalk42.bank.domain.BankInternalError;
+import rafalk42.dao.AccountDao;
+import rafalk42.dao.AccountDaoInternalError;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * A single shard of a VanderbiltBank: an account DAO together with the one and only thread allowed to touch it.
+ * Everything that reads or changes the accounts of the shard is a task executed by that thread, in the order
+ * in which the tasks were submitted, so the DAO does not have to be thread-safe.
+ */
+class VanderbiltBankShard
+{
+	private final AccountDao accountDao;
+	private final ExecutorService executor;
+	
+	VanderbiltBankShard(int index, AccountDao accountDao)
+	{
+		this.accountDao = accountDao;
+		
+		executor = Executors.newSingleThreadExecutor(runnable ->
+													 {
+														 Thread thread = new Thread(runnable,
+																					"vanderbilt-bank-shard-" + index);
+														 thread.setDaemon(true);
+														
+														 return thread;
+													 });
+	}
+	
+	/**
+	 * Run a task on the shard thread.
+	 *
+	 * @param task task to run
+	 * @param <T>  type of the result
+	 * @return future completed with the result of the task or with whatever it threw, a failure of the account DAO
+	 * is wrapped in BankInternalError
+	 */
+	<T> CompletableFuture<T> submit(Task<T> task)
+	{
+		CompletableFuture<T> result = new CompletableFuture<>();
+		
+		executor.execute(() ->
+						 {
+							 try
+							 {
+								 T value = task.run(accountDao);
+								 accountDao.commit();
+								 accountDao.sync();
+								
+								 result.complete(value);
+							 }
+							 catch (AccountDaoInternalError ex)
+							 {
+								 result.completeExceptionally(new BankInternalError(ex));
+							 }
+							 catch (Throwable ex)
+							 {
+								 result.completeExceptionally(ex);
+							 }
+						 });
+		
+		return result;
+	}
+	
+	void shutdown()
+	{
+		executor.shutdownNow();
+	}
+	
+	/**
+	 * Piece of work done on the shard thread, the only place where the account DAO of the shard can be used.
+	 *
+	 * @param <T> type of the result
+	 */
+	@FunctionalInterface
+	interface Task<T>
+	{
+		T run(AccountDao accountDao)
+				throws AccountDaoInternalError, BankAccountNotFound;
+	}
+}
@@ -0,0 +1,21 @@
+package rafalk42.bank.vanderbilt;
+
+import rafalk42.bank.domain.BankAccountDescription;
+
+
+/**
+ * Decides which shard of a VanderbiltBank a newly opened account goes to. The shard becomes a part of the account
+ * ID, so the decision is final for the whole life of the account.
+ * Transfers between accounts on the same shard are a lot cheaper than the ones crossing shards, so a good
+ * assignment keeps together the accounts that often transfer money between each other.
+ * Implementations have to be thread-safe.
+ */
+public interface VanderbiltBankShardAssignment
+{
+	/**
+	 * @param accountDescription description of the account being opened
+	 * @param shardCount         number of shards of the bank
+	 * @return index of the shard, from 0 to shardCount - 1
+	 */
+	int assignShard(BankAccountDescription accountDescription, int shardCount);
+}
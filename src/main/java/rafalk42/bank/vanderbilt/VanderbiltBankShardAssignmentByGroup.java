@@ -0,0 +1,44 @@
+package rafalk42.bank.vanderbilt;
+
+import rafalk42.bank.domain.BankAccountDescription;
+
+import java.util.function.Function;
+
+
+/**
+ * Puts all the accounts of the same group (e.g. all the accounts of one customer) on the same shard, so that
+ * transfers within a group never cross shards. The group of an account is extracted from its description
+ * by a given function and the shard is picked by the hash of the group.
+ */
+public class VanderbiltBankShardAssignmentByGroup
+		implements VanderbiltBankShardAssignment
+{
+	private final Function<BankAccountDescription, String> groupExtractor;
+	
+	/**
+	 * @param groupExtractor function returning the group of an account, must not return null
+	 */
+	public VanderbiltBankShardAssignmentByGroup(Function<BankAccountDescription, String> groupExtractor)
+	{
+		if (groupExtractor == null)
+		{
+			throw new IllegalArgumentException("Group extractor cannot be null");
+		}
+		
+		this.groupExtractor = groupExtractor;
+	}
+	
+	@Override
+	public int assignShard(BankAccountDescription accountDescription, int shardCount)
+	{
+		String group = groupExtractor.apply(accountDescription);
+		if (group == null)
+		{
+			throw new IllegalArgumentException("Account group cannot be null");
+		}
+		
+		int hash = group.hashCode();
+		
+		return Math.floorMod(hash ^ (hash >>> 16), shardCount);
+	}
+}
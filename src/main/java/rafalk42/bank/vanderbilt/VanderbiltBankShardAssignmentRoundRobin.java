@@ -0,0 +1,26 @@
+package rafalk42.bank.vanderbilt;
+
+import rafalk42.bank.domain.BankAccountDescription;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Spreads the accounts evenly over all the shards, one after another, ignoring what the accounts are.
+ */
+public class VanderbiltBankShardAssignmentRoundRobin
+		implements VanderbiltBankShardAssignment
+{
+	private final AtomicInteger counter;
+	
+	public VanderbiltBankShardAssignmentRoundRobin()
+	{
+		counter = new AtomicInteger();
+	}
+	
+	@Override
+	public int assignShard(BankAccountDescription accountDescription, int shardCount)
+	{
+		return Math.floorMod(counter.getAndIncrement(), shardCount);
+	}
+}
@@ -1,6 +1,8 @@
 package rafalk42.dao;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 
@@ -20,6 +22,54 @@ public interface AccountDao
 	String open(String description, BigDecimal initialBalance)
 			throws AccountDaoInternalError;
 	
+	/**
+	 * Open a number of new accounts at once, with consecutive IDs, in the same order as the descriptions.
+	 * Arguments are checked before any account is opened.
+	 * <p>
+	 * The default implementation simply opens the accounts one by one. Implementations that can reserve the IDs
+	 * and the space for the whole batch in one step are expected to override it.
+	 *
+	 * @param descriptions    texts describing the accounts
+	 * @param initialBalances initial balances of the accounts, as many as there are descriptions
+	 * @return IDs of the newly created accounts
+	 * @throws AccountDaoInternalError thrown when unknown error occurred
+	 */
+	default List<String> openBatch(List<String> descriptions, List<BigDecimal> initialBalances)
+			throws AccountDaoInternalError
+	{
+		verifyBatch(descriptions, initialBalances);
+		
+		List<String> result = new ArrayList<>(descriptions.size());
+		for (int i = 0; i < descriptions.size(); i++)
+		{
+			result.add(open(descriptions.get(i), initialBalances.get(i)));
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Check the arguments of openBatch, the checks open makes for every account included.
+	 */
+	static void verifyBatch(List<String> descriptions, List<BigDecimal> initialBalances)
+	{
+		if (descriptions == null
+			|| initialBalances == null)
+		{
+			throw new IllegalArgumentException("Batch cannot be null");
+		}
+		
+		if (descriptions.size() != initialBalances.size())
+		{
+			throw new IllegalArgumentException("Every account needs both a description and an initial balance");
+		}
+		
+		if (initialBalances.contains(null))
+		{
+			throw new IllegalArgumentException("Initial balance cannot be null");
+		}
+	}
+	
 	/**
 	 * Check if an account with given ID exists, returning true if id does, false otherwise.
 	 *
@@ -39,6 +89,19 @@ public interface AccountDao
 	Set<AccountInfo> findAll()
 			throws AccountDaoInternalError;
 	
+	/**
+	 * Retrieve detailed information about accounts one page at a time, in order of their IDs (natural String order).
+	 * The page starts right after given ID, which does not have to belong to an existing account, so the last ID
+	 * of a page can always be used to ask for the next one.
+	 *
+	 * @param afterAccountId ID after which the page starts, null to start from the very first account
+	 * @param limit          maximum number of accounts on the page, must be positive
+	 * @return information about at most limit accounts, ordered by ID, empty when there are no more accounts
+	 * @throws AccountDaoInternalError thrown when unknown error occurred
+	 */
+	List<AccountInfo> findPage(String afterAccountId, int limit)
+			throws AccountDaoInternalError;
+	
 	/**
 	 * Retrieve detailed information about a single account with given ID.
 	 *
@@ -69,6 +132,32 @@ public interface AccountDao
 	void setBalance(String accountId, BigDecimal newBalance)
 			throws AccountDaoInternalError;
 	
+	/**
+	 * Add given delta to the balance of an account with given ID, as a single operation, but only if the balance
+	 * does not become negative.
+	 *
+	 * @param accountId ID of an account which balance will be changed
+	 * @param delta     amount to add to the balance, negative to subtract
+	 * @return APPLIED if the balance was changed, NOT_ENOUGH_FUNDS or ACCOUNT_NOT_FOUND otherwise
+	 * @throws AccountDaoInternalError thrown when unknown error occurred
+	 */
+	BalanceUpdateStatus applyDelta(String accountId, BigDecimal delta)
+			throws AccountDaoInternalError;
+	
+	/**
+	 * Move given amount from one account to another, as a single operation, but only if the balance of the source
+	 * account does not become negative. Either both balances are changed or none is.
+	 *
+	 * @param sourceAccountId      ID of an account from which the amount will be taken
+	 * @param destinationAccountId ID of an account to which the amount will be added, must differ from the source
+	 * @param amount               amount to move, cannot be negative
+	 * @return APPLIED if the balances were changed, NOT_ENOUGH_FUNDS, ACCOUNT_NOT_FOUND (source)
+	 * or DESTINATION_ACCOUNT_NOT_FOUND otherwise
+	 * @throws AccountDaoInternalError thrown when unknown error occurred
+	 */
+	BalanceUpdateStatus move(String sourceAccountId, String destinationAccountId, BigDecimal amount)
+			throws AccountDaoInternalError;
+	
 	/**
 	 * Close an account with giben ID.
 	 *
@@ -77,4 +166,46 @@ public interface AccountDao
 	 */
 	void close(String accountId)
 			throws AccountDaoInternalError;
+	
+	/**
+	 * Put an account back with given ID, description and balance, replacing the account with the same ID if there
+	 * is one. Used to recover accounts from a snapshot, so the ID must be one that the DAO handed out itself before;
+	 * IDs handed out by open afterwards are greater than all the restored ones, so no ID is ever reused.
+	 * Not supported by default.
+	 *
+	 * @param accountId   ID the account had
+	 * @param description a text describing account
+	 * @param balance     balance the account had
+	 * @throws AccountDaoInternalError thrown when unknown error occurred
+	 */
+	default void restore(String accountId, String description, BigDecimal balance)
+			throws AccountDaoInternalError
+	{
+		throw new UnsupportedOperationException("Restoring accounts is not supported");
+	}
+	
+	/**
+	 * Hand the changes made by the calling thread since its last commit over to the persistence of the DAO,
+	 * as a single unit, all of them or none survive a crash. Callers changing accounts call it once per operation,
+	 * while still holding whatever locks they hold, so that the changes are persisted in the order they were made.
+	 * Does nothing in DAOs that are not persistent or that persist every change on their own.
+	 *
+	 * @throws AccountDaoInternalError thrown when unknown error occurred
+	 */
+	default void commit()
+			throws AccountDaoInternalError
+	{
+	}
+	
+	/**
+	 * Wait until everything committed by the calling thread so far is as durable as the DAO makes it. Callers call
+	 * it after releasing their locks, so that other threads can go on (and get their own changes made durable
+	 * together with these) in the meantime. Does nothing in DAOs that are not persistent.
+	 *
+	 * @throws AccountDaoInternalError thrown when unknown error occurred
+	 */
+	default void sync()
+			throws AccountDaoInternalError
+	{
+	}
 }
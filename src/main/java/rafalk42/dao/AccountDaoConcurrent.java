@@ -0,0 +1,433 @@
+package rafalk42.dao;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+
+/**
+ * A thread-safe variant of the in-memory data store, implementation of account DAO.
+ * Important:
+ * 1. it does not support any kind of persistence,
+ * 2. every single call is thread-safe, but a sequence of calls is NOT atomic, e.g. getBalance followed
+ * by setBalance on the same account has to be serialized by the caller, or replaced with applyDelta or move,
+ * which are atomic on their own,
+ * 3. it does NOT impose any business rules, just some null checks.
+ */
+public class AccountDaoConcurrent
+		implements AccountDao
+{
+	private final Map<String, AccountConcurrent> accounts;
+	private final AccountIdAllocator accountIdAllocator;
+	
+	public AccountDaoConcurrent()
+	{
+		accounts = new ConcurrentHashMap<>();
+		accountIdAllocator = new AccountIdAllocator();
+	}
+	
+	@Override
+	public String open(String description, BigDecimal initialBalance)
+			throws AccountDaoInternalError
+	{
+		if (initialBalance == null)
+		{
+			throw new IllegalArgumentException("Initial balance cannot be null");
+		}
+		
+		String newAccountId = accountIdAllocator.allocate();
+		AccountConcurrent newAccount = new AccountConcurrent(description, initialBalance);
+		
+		accounts.put(newAccountId, newAccount);
+		
+		return newAccountId;
+	}
+	
+	/**
+	 * The IDs of the whole batch are reserved at once, concurrent opens get theirs before or after the batch.
+	 */
+	@Override
+	public List<String> openBatch(List<String> descriptions, List<BigDecimal> initialBalances)
+			throws AccountDaoInternalError
+	{
+		AccountDao.verifyBatch(descriptions, initialBalances);
+		
+		if (descriptions.isEmpty())
+		{
+			return new ArrayList<>();
+		}
+		
+		AccountIdAllocator.Block ids = accountIdAllocator.reserve(descriptions.size());
+		
+		List<String> result = new ArrayList<>(descriptions.size());
+		for (int i = 0; i < descriptions.size(); i++)
+		{
+			String newAccountId = ids.next();
+			accounts.put(newAccountId, new AccountConcurrent(descriptions.get(i), initialBalances.get(i)));
+			result.add(newAccountId);
+		}
+		
+		return result;
+	}
+	
+	@Override
+	public boolean doesItExist(String accountId)
+			throws AccountDaoInternalError
+	{
+		verifyAccountId(accountId);
+		
+		return accounts.containsKey(accountId);
+	}
+	
+	@Override
+	public Set<AccountInfo> findAll()
+			throws AccountDaoInternalError
+	{
+		return accounts.entrySet()
+					   .stream()
+					   .map(entry -> new AccountInfo(entry.getKey(),
+													 entry.getValue().getDescription(),
+													 entry.getValue().getBalance()))
+					   .collect(Collectors.toSet());
+	}
+	
+	/**
+	 * IDs are sequential numbers, so the map is not kept sorted for the sake of paging (every lookup would pay
+	 * for that), the page is made by looking up the numbers that come after the given ID one by one instead,
+	 * up to the last number handed out. Closed accounts cost a lookup each, and there's no cap on them: a page
+	 * that starts in a long run of closed accounts walks all of it, the cost of a page is the number of accounts
+	 * it returns plus the number of closed ones in between.
+	 */
+	@Override
+	public List<AccountInfo> findPage(String afterAccountId, int limit)
+			throws AccountDaoInternalError
+	{
+		if (limit <= 0)
+		{
+			throw new IllegalArgumentException("Limit must be positive");
+		}
+		
+		long number = afterAccountId == null
+				? 1
+				: AccountIdAllocator.getFirstNumberAfter(afterAccountId);
+		long endNumber = accountIdAllocator.getNextNumber();
+		
+		List<AccountInfo> result = new ArrayList<>();
+		for (; number < endNumber && result.size() < limit; number++)
+		{
+			String accountId = AccountIdAllocator.formatNumber(number);
+			AccountConcurrent account = accounts.get(accountId);
+			if (account != null)
+			{
+				result.add(new AccountInfo(accountId,
+										   account.getDescription(),
+										   account.getBalance()));
+			}
+		}
+		
+		return result;
+	}
+	
+	@Override
+	public AccountInfo getInfo(String accountId)
+			throws AccountDaoInternalError
+	{
+		AccountConcurrent account = getAccount(accountId);
+		
+		return new AccountInfo(accountId,
+							   account.getDescription(),
+							   account.getBalance());
+	}
+	
+	@Override
+	public BigDecimal getBalance(String accountId)
+			throws AccountDaoInternalError
+	{
+		return getAccount(accountId).getBalance();
+	}
+	
+	@Override
+	public void setBalance(String accountId, BigDecimal newBalance)
+			throws AccountDaoInternalError
+	{
+		verifyAccountId(accountId);
+		
+		if (newBalance == null)
+		{
+			throw new IllegalArgumentException("New balance cannot be null");
+		}
+		
+		AccountConcurrent account = getAccount(accountId);
+		account.lock();
+		try
+		{
+			account.setBalance(newBalance);
+		}
+		finally
+		{
+			account.unlock();
+		}
+	}
+	
+	@Override
+	public BalanceUpdateStatus applyDelta(String accountId, BigDecimal delta)
+			throws AccountDaoInternalError
+	{
+		verifyAccountId(accountId);
+		
+		if (delta == null)
+		{
+			throw new IllegalArgumentException("Delta cannot be null");
+		}
+		
+		AccountConcurrent account = accounts.get(accountId);
+		if (account == null)
+		{
+			return BalanceUpdateStatus.ACCOUNT_NOT_FOUND;
+		}
+		
+		account.lock();
+		try
+		{
+			if (account.isClosed())
+			{
+				return BalanceUpdateStatus.ACCOUNT_NOT_FOUND;
+			}
+			
+			BigDecimal balanceAfter = account.getBalance().add(delta);
+			if (balanceAfter.signum() < 0)
+			{
+				return BalanceUpdateStatus.NOT_ENOUGH_FUNDS;
+			}
+			
+			account.setBalance(balanceAfter);
+		}
+		finally
+		{
+			account.unlock();
+		}
+		
+		return BalanceUpdateStatus.APPLIED;
+	}
+	
+	@Override
+	public BalanceUpdateStatus move(String sourceAccountId, String destinationAccountId, BigDecimal amount)
+			throws AccountDaoInternalError
+	{
+		verifyMove(sourceAccountId, destinationAccountId, amount);
+		
+		AccountConcurrent sourceAccount = accounts.get(sourceAccountId);
+		if (sourceAccount == null)
+		{
+			return BalanceUpdateStatus.ACCOUNT_NOT_FOUND;
+		}
+		
+		AccountConcurrent destinationAccount = accounts.get(destinationAccountId);
+		if (destinationAccount == null)
+		{
+			return BalanceUpdateStatus.DESTINATION_ACCOUNT_NOT_FOUND;
+		}
+		
+		// Always lock the account with the lower ID first, so that two opposite moves cannot deadlock.
+		boolean sourceFirst = sourceAccountId.compareTo(destinationAccountId) < 0;
+		AccountConcurrent firstAccount = sourceFirst ? sourceAccount : destinationAccount;
+		AccountConcurrent secondAccount = sourceFirst ? destinationAccount : sourceAccount;
+		
+		firstAccount.lock();
+		secondAccount.lock();
+		try
+		{
+			if (sourceAccount.isClosed())
+			{
+				return BalanceUpdateStatus.ACCOUNT_NOT_FOUND;
+			}
+			
+			if (destinationAccount.isClosed())
+			{
+				return BalanceUpdateStatus.DESTINATION_ACCOUNT_NOT_FOUND;
+			}
+			
+			BigDecimal balanceSourceAfter = sourceAccount.getBalance().subtract(amount);
+			if (balanceSourceAfter.signum() < 0)
+			{
+				return BalanceUpdateStatus.NOT_ENOUGH_FUNDS;
+			}
+			
+			sourceAccount.setBalance(balanceSourceAfter);
+			destinationAccount.setBalance(destinationAccount.getBalance().add(amount));
+		}
+		finally
+		{
+			secondAccount.unlock();
+			firstAccount.unlock();
+		}
+		
+		return BalanceUpdateStatus.APPLIED;
+	}
+	
+	@Override
+	public void close(String accountId)
+			throws AccountDaoInternalError
+	{
+		verifyAccountId(accountId);
+		
+		AccountConcurrent account = accounts.remove(accountId);
+		if (account == null)
+		{
+			throw new IllegalArgumentException("Account not found");
+		}
+		
+		// Let the compound updates that already found the account know it's gone.
+		account.lock();
+		try
+		{
+			account.close();
+		}
+		finally
+		{
+			account.unlock();
+		}
+	}
+	
+	@Override
+	public void restore(String accountId, String description, BigDecimal balance)
+			throws AccountDaoInternalError
+	{
+		verifyAccountId(accountId);
+		
+		if (balance == null)
+		{
+			throw new IllegalArgumentException("Balance cannot be null");
+		}
+		
+		long number = AccountIdAllocator.parseNumber(accountId);
+		if (number < 1
+			|| number > AccountIdAllocator.MAXIMUM_NUMBER)
+		{
+			throw new IllegalArgumentException("Invalid account ID");
+		}
+		
+		accounts.put(accountId, new AccountConcurrent(description, balance));
+		accountIdAllocator.advancePast(number);
+	}
+	
+	/**
+	 * Retrieve an account with given ID with a single lookup, so that the result is not affected by
+	 * the account being closed in between two separate calls to the map.
+	 *
+	 * @param accountId ID of an account to retrieve
+	 * @return the account
+	 */
+	private AccountConcurrent getAccount(String accountId)
+	{
+		verifyAccountId(accountId);
+		
+		AccountConcurrent account = accounts.get(accountId);
+		if (account == null)
+		{
+			throw new IllegalArgumentException("Account not found");
+		}
+		
+		return account;
+	}
+	
+	/**
+	 * Check arguments of a move. Just null checks and the sanity of the amount, no business rules.
+	 */
+	private void verifyMove(String sourceAccountId, String destinationAccountId, BigDecimal amount)
+	{
+		if (sourceAccountId == null
+			|| destinationAccountId == null)
+		{
+			throw new IllegalArgumentException("Account ID cannot be null");
+		}
+		
+		if (sourceAccountId.equals(destinationAccountId))
+		{
+			throw new IllegalArgumentException("Source and destination accounts must differ");
+		}
+		
+		if (amount == null)
+		{
+			throw new IllegalArgumentException("Amount cannot be null");
+		}
+		
+		if (amount.signum() < 0)
+		{
+			throw new IllegalArgumentException("Amount cannot be negative");
+		}
+	}
+	
+	/**
+	 * Check if given ID can be used. Just a null check at this point.
+	 *
+	 * @param accountId account ID to check
+	 */
+	private void verifyAccountId(String accountId)
+	{
+		if (accountId == null)
+		{
+			throw new IllegalArgumentException("Account ID cannot be null");
+		}
+	}
+	
+	/**
+	 * Object that holds information about a single account. Balance is volatile so that a value set by one thread
+	 * is immediately visible to all the others. Changes of the balance and closing are done while holding
+	 * the lock of the object.
+	 */
+	private static class AccountConcurrent
+	{
+		private final String description;
+		private final ReentrantLock lock;
+		private volatile BigDecimal balance;
+		private boolean closed;
+		
+		AccountConcurrent(String description, BigDecimal initialBalance)
+		{
+			this.description = description;
+			lock = new ReentrantLock();
+			balance = initialBalance;
+		}
+		
+		void lock()
+		{
+			lock.lock();
+		}
+		
+		void unlock()
+		{
+			lock.unlock();
+		}
+		
+		String getDescription()
+		{
+			return description;
+		}
+		
+		BigDecimal getBalance()
+		{
+			return balance;
+		}
+		
+		void setBalance(BigDecimal balance)
+		{
+			this.balance = balance;
+		}
+		
+		boolean isClosed()
+		{
+			return closed;
+		}
+		
+		void close()
+		{
+			closed = true;
+		}
+	}
+}
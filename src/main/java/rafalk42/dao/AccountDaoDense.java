@@ -0,0 +1,496 @@
+package rafalk42.dao;
+
+import rafalk42.money.MinorUnits;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * An in-memory data store, implementation of account DAO, that takes advantage of account IDs being nothing more
+ * than sequential numbers. The number is used as an index into plain arrays, one per field (struct of arrays):
+ * balances as long counts of minor units, descriptions and a bitmap telling which accounts are open. There's no
+ * object per account at all, so an account costs about 12 bytes of heap (plus the description itself and the spare
+ * capacity of the arrays) instead of a hash map entry, a String key, an account object and a BigDecimal, and a scan
+ * over all accounts is a walk over a few contiguous arrays.
+ * Important:
+ * 1. it does not support any kind of persistence,
+ * 2. it is NOT thread-safe by any means,
+ * 3. it does NOT impose any business rules, just some null checks,
+ * 4. balances are kept as minor units, so they are rounded to MinorUnits.SCALE decimal places (half up) when set
+ * and always come back with exactly that scale,
+ * 5. IDs have the same format as those of AccountDaoInMemory, but anything else is simply an ID of a nonexistent
+ * account; IDs of closed accounts are never reused.
+ */
+public class AccountDaoDense
+		implements AccountDao
+{
+	private static final int INITIAL_CAPACITY = 1024;
+	
+	// Index of an account is its ID number minus one, IDs start at 1.
+	private long[] balances;
+	private String[] descriptions;
+	private long[] openBitmap;
+	private int accountCount;
+	
+	public AccountDaoDense()
+	{
+		balances = new long[INITIAL_CAPACITY];
+		descriptions = new String[INITIAL_CAPACITY];
+		openBitmap = new long[INITIAL_CAPACITY / Long.SIZE];
+		accountCount = 0;
+	}
+	
+	@Override
+	public String open(String description, BigDecimal initialBalance)
+			throws AccountDaoInternalError
+	{
+		if (initialBalance == null)
+		{
+			throw new IllegalArgumentException("Initial balance cannot be null");
+		}
+		
+		long initialBalanceMinorUnits = toMinorUnits(initialBalance);
+		
+		if (accountCount == balances.length)
+		{
+			grow();
+		}
+		
+		int index = accountCount++;
+		balances[index] = initialBalanceMinorUnits;
+		descriptions[index] = description;
+		openBitmap[index >>> 6] |= 1L << index;
+		
+		return formatAccountId(index);
+	}
+	
+	/**
+	 * Balances are converted first, so a balance out of range opens none of the accounts. The arrays grow at most
+	 * once per batch and the IDs are rendered by a block of AccountIdAllocator, counting up in place.
+	 */
+	@Override
+	public List<String> openBatch(List<String> descriptions, List<BigDecimal> initialBalances)
+			throws AccountDaoInternalError
+	{
+		AccountDao.verifyBatch(descriptions, initialBalances);
+		
+		int count = descriptions.size();
+		if (count == 0)
+		{
+			return new ArrayList<>();
+		}
+		
+		long[] initialBalancesMinorUnits = new long[count];
+		for (int i = 0; i < count; i++)
+		{
+			initialBalancesMinorUnits[i] = toMinorUnits(initialBalances.get(i));
+		}
+		
+		while (balances.length - accountCount < count)
+		{
+			grow();
+		}
+		
+		AccountIdAllocator.Block ids = new AccountIdAllocator.Block(accountCount + 1L, count);
+		
+		List<String> result = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+		{
+			int index = accountCount++;
+			balances[index] = initialBalancesMinorUnits[i];
+			this.descriptions[index] = descriptions.get(i);
+			openBitmap[index >>> 6] |= 1L << index;
+			result.add(ids.next());
+		}
+		
+		return result;
+	}
+	
+	@Override
+	public boolean doesItExist(String accountId)
+			throws AccountDaoInternalError
+	{
+		verifyAccountId(accountId);
+		
+		return findIndex(accountId) >= 0;
+	}
+	
+	@Override
+	public Set<AccountInfo> findAll()
+			throws AccountDaoInternalError
+	{
+		Set<AccountInfo> result = new HashSet<>();
+		for (int index = nextOpenIndex(0); index >= 0; index = nextOpenIndex(index + 1))
+		{
+			result.add(getAccountInfo(index));
+		}
+		
+		return result;
+	}
+	
+	@Override
+	public List<AccountInfo> findPage(String afterAccountId, int limit)
+			throws AccountDaoInternalError
+	{
+		if (limit <= 0)
+		{
+			throw new IllegalArgumentException("Limit must be positive");
+		}
+		
+		int startIndex = afterAccountId == null
+				? 0
+				: findFirstIndexAfter(afterAccountId);
+		
+		List<AccountInfo> result = new ArrayList<>();
+		for (int index = nextOpenIndex(startIndex); index >= 0 && result.size() < limit; index = nextOpenIndex(index + 1))
+		{
+			result.add(getAccountInfo(index));
+		}
+		
+		return result;
+	}
+	
+	@Override
+	public AccountInfo getInfo(String accountId)
+			throws AccountDaoInternalError
+	{
+		return getAccountInfo(getIndex(accountId));
+	}
+	
+	@Override
+	public BigDecimal getBalance(String accountId)
+			throws AccountDaoInternalError
+	{
+		return MinorUnits.toAmount(balances[getIndex(accountId)]);
+	}
+	
+	@Override
+	public void setBalance(String accountId, BigDecimal newBalance)
+			throws AccountDaoInternalError
+	{
+		verifyAccountId(accountId);
+		
+		if (newBalance == null)
+		{
+			throw new IllegalArgumentException("New balance cannot be null");
+		}
+		
+		balances[getIndex(accountId)] = toMinorUnits(newBalance);
+	}
+	
+	@Override
+	public BalanceUpdateStatus applyDelta(String accountId, BigDecimal delta)
+			throws AccountDaoInternalError
+	{
+		verifyAccountId(accountId);
+		
+		if (delta == null)
+		{
+			throw new IllegalArgumentException("Delta cannot be null");
+		}
+		
+		int index = findIndex(accountId);
+		if (index < 0)
+		{
+			return BalanceUpdateStatus.ACCOUNT_NOT_FOUND;
+		}
+		
+		long balanceAfter = addMinorUnits(balances[index], toMinorUnits(delta));
+		if (balanceAfter < 0)
+		{
+			return BalanceUpdateStatus.NOT_ENOUGH_FUNDS;
+		}
+		
+		balances[index] = balanceAfter;
+		
+		return BalanceUpdateStatus.APPLIED;
+	}
+	
+	@Override
+	public BalanceUpdateStatus move(String sourceAccountId, String destinationAccountId, BigDecimal amount)
+			throws AccountDaoInternalError
+	{
+		verifyMove(sourceAccountId, destinationAccountId, amount);
+		
+		int sourceIndex = findIndex(sourceAccountId);
+		if (sourceIndex < 0)
+		{
+			return BalanceUpdateStatus.ACCOUNT_NOT_FOUND;
+		}
+		
+		int destinationIndex = findIndex(destinationAccountId);
+		if (destinationIndex < 0)
+		{
+			return BalanceUpdateStatus.DESTINATION_ACCOUNT_NOT_FOUND;
+		}
+		
+		long amountMinorUnits = toMinorUnits(amount);
+		
+		long balanceSourceAfter = balances[sourceIndex] - amountMinorUnits;
+		if (balanceSourceAfter < 0)
+		{
+			return BalanceUpdateStatus.NOT_ENOUGH_FUNDS;
+		}
+		
+		long balanceDestinationAfter = addMinorUnits(balances[destinationIndex], amountMinorUnits);
+		
+		balances[sourceIndex] = balanceSourceAfter;
+		balances[destinationIndex] = balanceDestinationAfter;
+		
+		return BalanceUpdateStatus.APPLIED;
+	}
+	
+	@Override
+	public void close(String accountId)
+			throws AccountDaoInternalError
+	{
+		int index = getIndex(accountId);
+		
+		openBitmap[index >>> 6] &= ~(1L << index);
+		balances[index] = 0;
+		descriptions[index] = null;
+	}
+	
+	/**
+	 * Accounts can be restored in any order, the ones between the restored ones and the last one ever opened
+	 * are simply closed.
+	 */
+	@Override
+	public void restore(String accountId, String description, BigDecimal balance)
+			throws AccountDaoInternalError
+	{
+		verifyAccountId(accountId);
+		
+		if (balance == null)
+		{
+			throw new IllegalArgumentException("Balance cannot be null");
+		}
+		
+		long number = AccountIdAllocator.parseNumber(accountId);
+		if (number < 1
+			|| number > Integer.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("Invalid account ID");
+		}
+		
+		long balanceMinorUnits = toMinorUnits(balance);
+		
+		int index = (int) (number - 1);
+		while (index >= balances.length)
+		{
+			grow();
+		}
+		
+		balances[index] = balanceMinorUnits;
+		descriptions[index] = description;
+		openBitmap[index >>> 6] |= 1L << index;
+		accountCount = Math.max(accountCount, index + 1);
+	}
+	
+	/**
+	 * Grow all the arrays by half, the bitmap is always big enough for all the indexes of the other arrays.
+	 */
+	private void grow()
+	{
+		if (balances.length >= Integer.MAX_VALUE / 2)
+		{
+			throw new IllegalStateException("Too many accounts");
+		}
+		
+		int newCapacity = balances.length + (balances.length >> 1);
+		
+		// Keep the capacity a multiple of the bitmap word size.
+		newCapacity = (newCapacity + Long.SIZE - 1) / Long.SIZE * Long.SIZE;
+		
+		balances = Arrays.copyOf(balances, newCapacity);
+		descriptions = Arrays.copyOf(descriptions, newCapacity);
+		openBitmap = Arrays.copyOf(openBitmap, newCapacity / Long.SIZE);
+	}
+	
+	/**
+	 * Find the first open account at or after given index, skipping whole words of the bitmap at once.
+	 *
+	 * @param fromIndex index to start from
+	 * @return index of the open account or -1 if there's none
+	 */
+	private int nextOpenIndex(int fromIndex)
+	{
+		if (fromIndex >= accountCount)
+		{
+			return -1;
+		}
+		
+		int wordIndex = fromIndex >>> 6;
+		long word = openBitmap[wordIndex] & (-1L << fromIndex);
+		
+		while (word == 0)
+		{
+			wordIndex++;
+			if (wordIndex * Long.SIZE >= accountCount)
+			{
+				return -1;
+			}
+			
+			word = openBitmap[wordIndex];
+		}
+		
+		return wordIndex * Long.SIZE + Long.numberOfTrailingZeros(word);
+	}
+	
+	/**
+	 * IDs of all the accounts ever opened are in ascending String order, so the first index with an ID greater
+	 * than given one can be found with a binary search, no matter whether that ID is valid or not.
+	 *
+	 * @param accountId ID to compare with
+	 * @return index of the first account (open or not) with a greater ID, accountCount if there's none
+	 */
+	private int findFirstIndexAfter(String accountId)
+	{
+		// Most of the time it's the last ID of the previous page, no need to search then.
+		long number = AccountIdAllocator.parseNumber(accountId);
+		if (number >= 0)
+		{
+			return (int) Math.min(number, accountCount);
+		}
+		
+		int low = 0;
+		int high = accountCount;
+		
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (formatAccountId(middle).compareTo(accountId) > 0)
+			{
+				high = middle;
+			}
+			else
+			{
+				low = middle + 1;
+			}
+		}
+		
+		return low;
+	}
+	
+	private AccountInfo getAccountInfo(int index)
+	{
+		return new AccountInfo(formatAccountId(index),
+							   descriptions[index],
+							   MinorUnits.toAmount(balances[index]));
+	}
+	
+	/**
+	 * Retrieve an index of an open account with given ID.
+	 *
+	 * @param accountId ID of an account to retrieve
+	 * @return index of the account
+	 */
+	private int getIndex(String accountId)
+	{
+		verifyAccountId(accountId);
+		
+		int index = findIndex(accountId);
+		if (index < 0)
+		{
+			throw new IllegalArgumentException("Account not found");
+		}
+		
+		return index;
+	}
+	
+	/**
+	 * Turn an ID into an index, without creating any objects on the way.
+	 *
+	 * @param accountId ID of an account
+	 * @return index of the account or -1 if there's no open account with such ID, including IDs in a wrong format
+	 */
+	private int findIndex(String accountId)
+	{
+		long number = AccountIdAllocator.parseNumber(accountId);
+		if (number < 1
+			|| number > accountCount)
+		{
+			return -1;
+		}
+		
+		int index = (int) (number - 1);
+		
+		return (openBitmap[index >>> 6] & (1L << index)) != 0
+				? index
+				: -1;
+	}
+	
+	private static String formatAccountId(int index)
+	{
+		return AccountIdAllocator.formatNumber(index + 1L);
+	}
+	
+	private static long toMinorUnits(BigDecimal amount)
+	{
+		try
+		{
+			return MinorUnits.fromAmount(amount);
+		}
+		catch (ArithmeticException ex)
+		{
+			throw new IllegalArgumentException("Amount is out of range");
+		}
+	}
+	
+	private static long addMinorUnits(long balance, long delta)
+	{
+		try
+		{
+			return Math.addExact(balance, delta);
+		}
+		catch (ArithmeticException ex)
+		{
+			throw new IllegalArgumentException("Balance is out of range");
+		}
+	}
+	
+	/**
+	 * Check arguments of a move. Just null checks and the sanity of the amount, no business rules.
+	 */
+	private void verifyMove(String sourceAccountId, String destinationAccountId, BigDecimal amount)
+	{
+		if (sourceAccountId == null
+			|| destinationAccountId == null)
+		{
+			throw new IllegalArgumentException("Account ID cannot be null");
+		}
+		
+		if (sourceAccountId.equals(destinationAccountId))
+		{
+			throw new IllegalArgumentException("Source and destination accounts must differ");
+		}
+		
+		if (amount == null)
+		{
+			throw new IllegalArgumentException("Amount cannot be null");
+		}
+		
+		if (amount.signum() < 0)
+		{
+			throw new IllegalArgumentException("Amount cannot be negative");
+		}
+	}
+	
+	/**
+	 * Check if given ID can be used. Just a null check at this point.
+	 *
+	 * @param accountId account ID to check
+	 */
+	private void verifyAccountId(String accountId)
+	{
+		if (accountId == null)
+		{
+			throw new IllegalArgumentException("Account ID cannot be null");
+		}
+	}
+}
@@ -1,7 +1,9 @@
 package rafalk42.dao;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -18,12 +20,12 @@ public class AccountDaoInMemory
 		implements AccountDao
 {
 	private final Map<String, AccountInMemory> accounts;
-	private int accountIdCounter;
+	private final AccountIdAllocator accountIdAllocator;
 	
 	public AccountDaoInMemory()
 	{
 		accounts = new HashMap<>();
-		accountIdCounter = 1;
+		accountIdAllocator = new AccountIdAllocator();
 	}
 	
 	@Override
@@ -35,7 +37,7 @@ public class AccountDaoInMemory
 			throw new IllegalArgumentException("Initial balance cannot be null");
 		}
 		
-		String newAccountId = getNextAccountId();
+		String newAccountId = accountIdAllocator.allocate();
 		AccountInMemory newAccount = new AccountInMemory(description, initialBalance);
 		
 		accounts.put(newAccountId, newAccount);
@@ -43,6 +45,30 @@ public class AccountDaoInMemory
 		return newAccountId;
 	}
 	
+	@Override
+	public List<String> openBatch(List<String> descriptions, List<BigDecimal> initialBalances)
+			throws AccountDaoInternalError
+	{
+		AccountDao.verifyBatch(descriptions, initialBalances);
+		
+		if (descriptions.isEmpty())
+		{
+			return new ArrayList<>();
+		}
+		
+		AccountIdAllocator.Block ids = accountIdAllocator.reserve(descriptions.size());
+		
+		List<String> result = new ArrayList<>(descriptions.size());
+		for (int i = 0; i < descriptions.size(); i++)
+		{
+			String newAccountId = ids.next();
+			accounts.put(newAccountId, new AccountInMemory(descriptions.get(i), initialBalances.get(i)));
+			result.add(newAccountId);
+		}
+		
+		return result;
+	}
+	
 	@Override
 	public boolean doesItExist(String accountId)
 			throws AccountDaoInternalError
@@ -67,18 +93,49 @@ public class AccountDaoInMemory
 					   .collect(Collectors.toSet());
 	}
 	
+	/**
+	 * IDs are sequential numbers, so the map is not kept sorted for the sake of paging (every lookup would pay
+	 * for that), the page is made by looking up the numbers that come after the given ID one by one instead,
+	 * up to the last number handed out. Closed accounts cost a lookup each, and there's no cap on them: a page
+	 * that starts in a long run of closed accounts walks all of it, the cost of a page is the number of accounts
+	 * it returns plus the number of closed ones in between.
+	 */
 	@Override
-	public AccountInfo getInfo(String accountId)
+	public List<AccountInfo> findPage(String afterAccountId, int limit)
 			throws AccountDaoInternalError
 	{
-		verifyAccountId(accountId);
+		if (limit <= 0)
+		{
+			throw new IllegalArgumentException("Limit must be positive");
+		}
+		
+		long number = afterAccountId == null
+				? 1
+				: AccountIdAllocator.getFirstNumberAfter(afterAccountId);
+		long endNumber = accountIdAllocator.getNextNumber();
 		
-		if (!accounts.containsKey(accountId))
+		List<AccountInfo> result = new ArrayList<>();
+		for (; number < endNumber && result.size() < limit; number++)
 		{
-			throw new IllegalArgumentException("Account not found");
+			String accountId = AccountIdAllocator.formatNumber(number);
+			AccountInMemory account = accounts.get(accountId);
+			if (account != null)
+			{
+				result.add(new AccountInfo(accountId,
+										   account.getDescription(),
+										   account.getBalance()));
+			}
 		}
 		
-		AccountInMemory account = accounts.get(accountId);
+		return result;
+	}
+	
+	@Override
+	public AccountInfo getInfo(String accountId)
+			throws AccountDaoInternalError
+	{
+		AccountInMemory account = getAccount(accountId);
+		
 		return new AccountInfo(accountId,
 							   account.getDescription(),
 							   account.getBalance());
@@ -87,34 +144,80 @@ public class AccountDaoInMemory
 	@Override
 	public BigDecimal getBalance(String accountId)
 			throws AccountDaoInternalError
+	{
+		return getAccount(accountId).getBalance();
+	}
+	
+	@Override
+	public void setBalance(String accountId, BigDecimal newBalance)
+			throws AccountDaoInternalError
 	{
 		verifyAccountId(accountId);
 		
-		if (!accounts.containsKey(accountId))
+		if (newBalance == null)
 		{
-			throw new IllegalArgumentException("Account not found");
+			throw new IllegalArgumentException("New balance cannot be null");
 		}
 		
-		return accounts.get(accountId)
-					   .getBalance();
+		getAccount(accountId).setBalance(newBalance);
 	}
 	
 	@Override
-	public void setBalance(String accountId, BigDecimal newBalance)
+	public BalanceUpdateStatus applyDelta(String accountId, BigDecimal delta)
 			throws AccountDaoInternalError
 	{
 		verifyAccountId(accountId);
 		
-		if (newBalance == null)
+		if (delta == null)
 		{
-			throw new IllegalArgumentException("New balance cannot be null");
+			throw new IllegalArgumentException("Delta cannot be null");
 		}
 		
-		if (!accounts.containsKey(accountId))
+		AccountInMemory account = accounts.get(accountId);
+		if (account == null)
 		{
-			throw new IllegalArgumentException("Account not found");
+			return BalanceUpdateStatus.ACCOUNT_NOT_FOUND;
+		}
+		
+		BigDecimal balanceAfter = account.getBalance().add(delta);
+		if (balanceAfter.signum() < 0)
+		{
+			return BalanceUpdateStatus.NOT_ENOUGH_FUNDS;
 		}
-		accounts.get(accountId).setBalance(newBalance);
+		
+		account.setBalance(balanceAfter);
+		
+		return BalanceUpdateStatus.APPLIED;
+	}
+	
+	@Override
+	public BalanceUpdateStatus move(String sourceAccountId, String destinationAccountId, BigDecimal amount)
+			throws AccountDaoInternalError
+	{
+		verifyMove(sourceAccountId, destinationAccountId, amount);
+		
+		AccountInMemory sourceAccount = accounts.get(sourceAccountId);
+		if (sourceAccount == null)
+		{
+			return BalanceUpdateStatus.ACCOUNT_NOT_FOUND;
+		}
+		
+		AccountInMemory destinationAccount = accounts.get(destinationAccountId);
+		if (destinationAccount == null)
+		{
+			return BalanceUpdateStatus.DESTINATION_ACCOUNT_NOT_FOUND;
+		}
+		
+		BigDecimal balanceSourceAfter = sourceAccount.getBalance().subtract(amount);
+		if (balanceSourceAfter.signum() < 0)
+		{
+			return BalanceUpdateStatus.NOT_ENOUGH_FUNDS;
+		}
+		
+		sourceAccount.setBalance(balanceSourceAfter);
+		destinationAccount.setBalance(destinationAccount.getBalance().add(amount));
+		
+		return BalanceUpdateStatus.APPLIED;
 	}
 	
 	@Override
@@ -123,21 +226,78 @@ public class AccountDaoInMemory
 	{
 		verifyAccountId(accountId);
 		
-		if (!accounts.containsKey(accountId))
+		if (accounts.remove(accountId) == null)
 		{
 			throw new IllegalArgumentException("Account not found");
 		}
-		accounts.remove(accountId);
+	}
+	
+	@Override
+	public void restore(String accountId, String description, BigDecimal balance)
+			throws AccountDaoInternalError
+	{
+		verifyAccountId(accountId);
+		
+		if (balance == null)
+		{
+			throw new IllegalArgumentException("Balance cannot be null");
+		}
+		
+		long number = AccountIdAllocator.parseNumber(accountId);
+		if (number < 1
+			|| number > AccountIdAllocator.MAXIMUM_NUMBER)
+		{
+			throw new IllegalArgumentException("Invalid account ID");
+		}
+		
+		accounts.put(accountId, new AccountInMemory(description, balance));
+		accountIdAllocator.advancePast(number);
 	}
 	
 	/**
-	 * Generate another, unique ID for account. Uniqueness is only guaranteed per instance, not globally.
+	 * Retrieve an account with given ID with a single lookup.
 	 *
-	 * @return new unique ID
+	 * @param accountId ID of an account to retrieve
+	 * @return the account
+	 */
+	private AccountInMemory getAccount(String accountId)
+	{
+		verifyAccountId(accountId);
+		
+		AccountInMemory account = accounts.get(accountId);
+		if (account == null)
+		{
+			throw new IllegalArgumentException("Account not found");
+		}
+		
+		return account;
+	}
+	
+	/**
+	 * Check arguments of a move. Just null checks and the sanity of the amount, no business rules.
 	 */
-	private String getNextAccountId()
+	private void verifyMove(String sourceAccountId, String destinationAccountId, BigDecimal amount)
 	{
-		return String.format("%010d", accountIdCounter++);
+		if (sourceAccountId == null
+			|| destinationAccountId == null)
+		{
+			throw new IllegalArgumentException("Account ID cannot be null");
+		}
+		
+		if (sourceAccountId.equals(destinationAccountId))
+		{
+			throw new IllegalArgumentException("Source and destination accounts must differ");
+		}
+		
+		if (amount == null)
+		{
+			throw new IllegalArgumentException("Amount cannot be null");
+		}
+		
+		if (amount.signum() < 0)
+		{
+			throw new IllegalArgumentException("Amount cannot be negative");
+		}
 	}
 	
 	/**
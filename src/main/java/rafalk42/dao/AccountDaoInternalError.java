@@ -3,4 +3,12 @@ package rafalk42.dao;
 public class AccountDaoInternalError
 		extends Exception
 {
+	public AccountDaoInternalError()
+	{
+	}
+	
+	public AccountDaoInternalError(Throwable cause)
+	{
+		super(cause);
+	}
 }
@@ -0,0 +1,677 @@
+package rafalk42.dao;
+
+import rafalk42.money.MinorUnits;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+/**
+ * A data store, implementation of account DAO, that keeps the accounts outside of the heap, in memory-mapped files.
+ * Like in AccountDaoDense, the number in an account ID is simply an index, here into a table of fixed-width records
+ * (ID number, balance in minor units, offset and length of the description, flags). Descriptions are variable
+ * in length, so they are appended to a separate file and never moved or reclaimed afterwards.
+ * <p>
+ * The files are the storage, there's nothing to load: reopening the same directory maps the files again and all
+ * the accounts are there right away, no matter how many of them there are. The heap only holds the buffers
+ * and the page cache of the OS decides what actually sits in memory. Files are mapped in segments, since a single
+ * MappedByteBuffer cannot be bigger than 2 GB, and a new segment is mapped whenever the data outgrows the old ones.
+ * The files grow a whole segment (1 GB) at a time, but only the pages actually written take space on the disk.
+ * Important:
+ * 1. changes go to the page cache, so they survive the process dying, but not the OS or the machine dying,
+ * unless force (or shutdown) was called after them,
+ * 2. changes of more than one record are NOT crash-atomic: a move writes two balances, possibly on two pages, and
+ * the OS writes pages back in whatever order it likes, so an OS or machine crash between force calls can leave
+ * the amount taken from one account and not added to the other (or the other way round), and nothing detects
+ * that on reopen,
+ * 3. it is NOT thread-safe by any means, except for force, which can be called from another thread at any time
+ * (it writes through whatever is in the page cache at that moment),
+ * 4. it does NOT impose any business rules, just some null checks,
+ * 5. balances are kept as minor units, so they are rounded to MinorUnits.SCALE decimal places (half up) when set
+ * and always come back with exactly that scale,
+ * 6. IDs are the same as those of AccountDaoDense; IDs of closed accounts are never reused.
+ */
+public class AccountDaoMapped
+		implements AccountDao
+{
+	private static final String ACCOUNTS_FILE_NAME = "accounts.dat";
+	private static final String DESCRIPTIONS_FILE_NAME = "descriptions.dat";
+	private static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+	private static final long MAXIMUM_ACCOUNT_COUNT = 9999999999L;
+	
+	// Header at the beginning of the accounts file.
+	private static final int HEADER_SIZE = 64;
+	private static final int HEADER_MAGIC = 0;
+	private static final int HEADER_VERSION = 4;
+	private static final int HEADER_ACCOUNT_COUNT = 8;
+	private static final int HEADER_DESCRIPTIONS_END = 16;
+	private static final int MAGIC = 0x52424b41;
+	private static final int VERSION = 1;
+	
+	// Account records, right after the header, index of an account is its ID number minus one.
+	private static final int RECORD_SIZE = 32;
+	private static final int RECORD_NUMBER = 0;
+	private static final int RECORD_BALANCE = 8;
+	private static final int RECORD_DESCRIPTION_OFFSET = 16;
+	private static final int RECORD_DESCRIPTION_LENGTH = 24;
+	private static final int RECORD_FLAGS = 28;
+	private static final int FLAG_OPEN = 1;
+	private static final int NULL_DESCRIPTION_LENGTH = -1;
+	
+	private final FileChannel accountsChannel;
+	private final FileChannel descriptionsChannel;
+	private final MappedRegion accounts;
+	private final MappedRegion descriptions;
+	private long accountCount;
+	private long descriptionsEnd;
+	
+	/**
+	 * Open the account table in given directory, creating the directory and an empty table if there's none.
+	 *
+	 * @param directory directory holding the files of the table
+	 * @throws AccountDaoInternalError thrown when the files could not be opened or mapped
+	 */
+	public AccountDaoMapped(Path directory)
+			throws AccountDaoInternalError
+	{
+		this(directory, DEFAULT_SEGMENT_SIZE);
+	}
+	
+	/**
+	 * @param directory   directory holding the files of the table
+	 * @param segmentSize size of a single mapped segment in bytes, a multiple of the record size, only tests need
+	 *                    anything else than the default
+	 */
+	AccountDaoMapped(Path directory, int segmentSize)
+			throws AccountDaoInternalError
+	{
+		if (segmentSize < HEADER_SIZE
+			|| segmentSize % RECORD_SIZE != 0)
+		{
+			throw new IllegalArgumentException("Segment size must be a multiple of " + RECORD_SIZE);
+		}
+		
+		try
+		{
+			Files.createDirectories(directory);
+			
+			accountsChannel = FileChannel.open(directory.resolve(ACCOUNTS_FILE_NAME), StandardOpenOption.CREATE,
+											   StandardOpenOption.READ, StandardOpenOption.WRITE);
+			descriptionsChannel = FileChannel.open(directory.resolve(DESCRIPTIONS_FILE_NAME), StandardOpenOption.CREATE,
+												   StandardOpenOption.READ, StandardOpenOption.WRITE);
+			
+			boolean created = accountsChannel.size() == 0;
+			
+			accounts = new MappedRegion(accountsChannel, segmentSize);
+			accounts.ensureCapacity(Math.max(accountsChannel.size(), HEADER_SIZE));
+			descriptions = new MappedRegion(descriptionsChannel, segmentSize);
+			descriptions.ensureCapacity(descriptionsChannel.size());
+			
+			if (created)
+			{
+				accounts.putInt(HEADER_MAGIC, MAGIC);
+				accounts.putInt(HEADER_VERSION, VERSION);
+				accounts.putLong(HEADER_ACCOUNT_COUNT, 0);
+				accounts.putLong(HEADER_DESCRIPTIONS_END, 0);
+			}
+		}
+		catch (IOException ex)
+		{
+			throw new AccountDaoInternalError(ex);
+		}
+		
+		if (accounts.getInt(HEADER_MAGIC) != MAGIC
+			|| accounts.getInt(HEADER_VERSION) != VERSION)
+		{
+			throw new IllegalArgumentException("Not an account table: " + directory);
+		}
+		
+		accountCount = accounts.getLong(HEADER_ACCOUNT_COUNT);
+		descriptionsEnd = accounts.getLong(HEADER_DESCRIPTIONS_END);
+		
+		if (recordPosition(accountCount) > accounts.getCapacity()
+			|| descriptionsEnd > descriptions.getCapacity())
+		{
+			throw new IllegalArgumentException("Account table is truncated: " + directory);
+		}
+	}
+	
+	/**
+	 * Write all the changes made so far through to the storage device.
+	 *
+	 * @throws AccountDaoInternalError thrown when writing failed
+	 */
+	public void force()
+			throws AccountDaoInternalError
+	{
+		try
+		{
+			descriptions.force();
+			accounts.force();
+		}
+		catch (UncheckedIOException ex)
+		{
+			throw new AccountDaoInternalError(ex.getCause());
+		}
+	}
+	
+	/**
+	 * Write all the changes through to the storage device and close the files. The DAO must not be used after that.
+	 *
+	 * @throws AccountDaoInternalError thrown when writing or closing failed
+	 */
+	public void shutdown()
+			throws AccountDaoInternalError
+	{
+		force();
+		
+		try
+		{
+			descriptionsChannel.close();
+			accountsChannel.close();
+		}
+		catch (IOException ex)
+		{
+			throw new AccountDaoInternalError(ex);
+		}
+	}
+	
+	@Override
+	public String open(String description, BigDecimal initialBalance)
+			throws AccountDaoInternalError
+	{
+		if (initialBalance == null)
+		{
+			throw new IllegalArgumentException("Initial balance cannot be null");
+		}
+		
+		long initialBalanceMinorUnits = toMinorUnits(initialBalance);
+		
+		if (accountCount == MAXIMUM_ACCOUNT_COUNT)
+		{
+			throw new IllegalStateException("Too many accounts");
+		}
+		
+		byte[] descriptionBytes = description == null
+				? null
+				: description.getBytes(StandardCharsets.UTF_8);
+		long descriptionOffset = descriptionsEnd;
+		long record = recordPosition(accountCount);
+		
+		try
+		{
+			accounts.ensureCapacity(record + RECORD_SIZE);
+			
+			if (descriptionBytes != null)
+			{
+				descriptions.ensureCapacity(descriptionOffset + descriptionBytes.length);
+				descriptions.put(descriptionOffset, descriptionBytes);
+				descriptionsEnd += descriptionBytes.length;
+			}
+		}
+		catch (IOException ex)
+		{
+			throw new AccountDaoInternalError(ex);
+		}
+		
+		long number = accountCount + 1;
+		
+		accounts.putLong(record + RECORD_NUMBER, number);
+		accounts.putLong(record + RECORD_BALANCE, initialBalanceMinorUnits);
+		accounts.putLong(record + RECORD_DESCRIPTION_OFFSET, descriptionOffset);
+		accounts.putInt(record + RECORD_DESCRIPTION_LENGTH, descriptionBytes == null
+				? NULL_DESCRIPTION_LENGTH
+				: descriptionBytes.length);
+		accounts.putInt(record + RECORD_FLAGS, FLAG_OPEN);
+		
+		// The header goes last, so that a process dying halfway leaves the table as it was before.
+		accounts.putLong(HEADER_DESCRIPTIONS_END, descriptionsEnd);
+		accounts.putLong(HEADER_ACCOUNT_COUNT, number);
+		accountCount = number;
+		
+		return AccountIdAllocator.formatNumber(number);
+	}
+	
+	@Override
+	public boolean doesItExist(String accountId)
+			throws AccountDaoInternalError
+	{
+		verifyAccountId(accountId);
+		
+		return findIndex(accountId) >= 0;
+	}
+	
+	@Override
+	public Set<AccountInfo> findAll()
+			throws AccountDaoInternalError
+	{
+		Set<AccountInfo> result = new HashSet<>();
+		for (long index = nextOpenIndex(0); index >= 0; index = nextOpenIndex(index + 1))
+		{
+			result.add(getAccountInfo(index));
+		}
+		
+		return result;
+	}
+	
+	@Override
+	public List<AccountInfo> findPage(String afterAccountId, int limit)
+			throws AccountDaoInternalError
+	{
+		if (limit <= 0)
+		{
+			throw new IllegalArgumentException("Limit must be positive");
+		}
+		
+		long startIndex = afterAccountId == null
+				? 0
+				: findFirstIndexAfter(afterAccountId);
+		
+		List<AccountInfo> result = new ArrayList<>();
+		for (long index = nextOpenIndex(startIndex); index >= 0 && result.size() < limit; index = nextOpenIndex(index + 1))
+		{
+			result.add(getAccountInfo(index));
+		}
+		
+		return result;
+	}
+	
+	@Override
+	public AccountInfo getInfo(String accountId)
+			throws AccountDaoInternalError
+	{
+		return getAccountInfo(getIndex(accountId));
+	}
+	
+	@Override
+	public BigDecimal getBalance(String accountId)
+			throws AccountDaoInternalError
+	{
+		return MinorUnits.toAmount(accounts.getLong(recordPosition(getIndex(accountId)) + RECORD_BALANCE));
+	}
+	
+	@Override
+	public void setBalance(String accountId, BigDecimal newBalance)
+			throws AccountDaoInternalError
+	{
+		verifyAccountId(accountId);
+		
+		if (newBalance == null)
+		{
+			throw new IllegalArgumentException("New balance cannot be null");
+		}
+		
+		accounts.putLong(recordPosition(getIndex(accountId)) + RECORD_BALANCE, toMinorUnits(newBalance));
+	}
+	
+	@Override
+	public BalanceUpdateStatus applyDelta(String accountId, BigDecimal delta)
+			throws AccountDaoInternalError
+	{
+		verifyAccountId(accountId);
+		
+		if (delta == null)
+		{
+			throw new IllegalArgumentException("Delta cannot be null");
+		}
+		
+		long index = findIndex(accountId);
+		if (index < 0)
+		{
+			return BalanceUpdateStatus.ACCOUNT_NOT_FOUND;
+		}
+		
+		long balancePosition = recordPosition(index) + RECORD_BALANCE;
+		
+		long balanceAfter = addMinorUnits(accounts.getLong(balancePosition), toMinorUnits(delta));
+		if (balanceAfter < 0)
+		{
+			return BalanceUpdateStatus.NOT_ENOUGH_FUNDS;
+		}
+		
+		accounts.putLong(balancePosition, balanceAfter);
+		
+		return BalanceUpdateStatus.APPLIED;
+	}
+	
+	@Override
+	public BalanceUpdateStatus move(String sourceAccountId, String destinationAccountId, BigDecimal amount)
+			throws AccountDaoInternalError
+	{
+		verifyMove(sourceAccountId, destinationAccountId, amount);
+		
+		long sourceIndex = findIndex(sourceAccountId);
+		if (sourceIndex < 0)
+		{
+			return BalanceUpdateStatus.ACCOUNT_NOT_FOUND;
+		}
+		
+		long destinationIndex = findIndex(destinationAccountId);
+		if (destinationIndex < 0)
+		{
+			return BalanceUpdateStatus.DESTINATION_ACCOUNT_NOT_FOUND;
+		}
+		
+		long amountMinorUnits = toMinorUnits(amount);
+		long sourceBalancePosition = recordPosition(sourceIndex) + RECORD_BALANCE;
+		long destinationBalancePosition = recordPosition(destinationIndex) + RECORD_BALANCE;
+		
+		long balanceSourceAfter = accounts.getLong(sourceBalancePosition) - amountMinorUnits;
+		if (balanceSourceAfter < 0)
+		{
+			return BalanceUpdateStatus.NOT_ENOUGH_FUNDS;
+		}
+		
+		long balanceDestinationAfter = addMinorUnits(accounts.getLong(destinationBalancePosition), amountMinorUnits);
+		
+		accounts.putLong(sourceBalancePosition, balanceSourceAfter);
+		accounts.putLong(destinationBalancePosition, balanceDestinationAfter);
+		
+		return BalanceUpdateStatus.APPLIED;
+	}
+	
+	@Override
+	public void close(String accountId)
+			throws AccountDaoInternalError
+	{
+		long record = recordPosition(getIndex(accountId));
+		
+		// The description stays where it is, the descriptions file is append-only.
+		accounts.putInt(record + RECORD_FLAGS, 0);
+		accounts.putLong(record + RECORD_BALANCE, 0);
+	}
+	
+	private static long recordPosition(long index)
+	{
+		return HEADER_SIZE + index * RECORD_SIZE;
+	}
+	
+	private boolean isOpen(long index)
+	{
+		return (accounts.getInt(recordPosition(index) + RECORD_FLAGS) & FLAG_OPEN) != 0;
+	}
+	
+	/**
+	 * Find the first open account at or after given index.
+	 *
+	 * @param fromIndex index to start from
+	 * @return index of the open account or -1 if there's none
+	 */
+	private long nextOpenIndex(long fromIndex)
+	{
+		for (long index = fromIndex; index < accountCount; index++)
+		{
+			if (isOpen(index))
+			{
+				return index;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * The same as AccountDaoDense.findFirstIndexAfter.
+	 *
+	 * @param accountId ID to compare with
+	 * @return index of the first account (open or not) with a greater ID, accountCount if there's none
+	 */
+	private long findFirstIndexAfter(String accountId)
+	{
+		long number = AccountIdAllocator.parseNumber(accountId);
+		if (number >= 0)
+		{
+			return Math.min(number, accountCount);
+		}
+		
+		long low = 0;
+		long high = accountCount;
+		
+		while (low < high)
+		{
+			long middle = (low + high) >>> 1;
+			if (AccountIdAllocator.formatNumber(middle + 1).compareTo(accountId) > 0)
+			{
+				high = middle;
+			}
+			else
+			{
+				low = middle + 1;
+			}
+		}
+		
+		return low;
+	}
+	
+	private AccountInfo getAccountInfo(long index)
+	{
+		long record = recordPosition(index);
+		
+		return new AccountInfo(AccountIdAllocator.formatNumber(accounts.getLong(record + RECORD_NUMBER)),
+							   readDescription(record),
+							   MinorUnits.toAmount(accounts.getLong(record + RECORD_BALANCE)));
+	}
+	
+	private String readDescription(long record)
+	{
+		int length = accounts.getInt(record + RECORD_DESCRIPTION_LENGTH);
+		if (length == NULL_DESCRIPTION_LENGTH)
+		{
+			return null;
+		}
+		
+		byte[] bytes = new byte[length];
+		descriptions.get(accounts.getLong(record + RECORD_DESCRIPTION_OFFSET), bytes);
+		
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Retrieve an index of an open account with given ID.
+	 *
+	 * @param accountId ID of an account to retrieve
+	 * @return index of the account
+	 */
+	private long getIndex(String accountId)
+	{
+		verifyAccountId(accountId);
+		
+		long index = findIndex(accountId);
+		if (index < 0)
+		{
+			throw new IllegalArgumentException("Account not found");
+		}
+		
+		return index;
+	}
+	
+	/**
+	 * @param accountId ID of an account
+	 * @return index of the account or -1 if there's no open account with such ID, including IDs in a wrong format
+	 */
+	private long findIndex(String accountId)
+	{
+		long number = AccountIdAllocator.parseNumber(accountId);
+		if (number < 1
+			|| number > accountCount)
+		{
+			return -1;
+		}
+		
+		long index = number - 1;
+		
+		return isOpen(index)
+				? index
+				: -1;
+	}
+	
+	private static long toMinorUnits(BigDecimal amount)
+	{
+		try
+		{
+			return MinorUnits.fromAmount(amount);
+		}
+		catch (ArithmeticException ex)
+		{
+			throw new IllegalArgumentException("Amount is out of range");
+		}
+	}
+	
+	private static long addMinorUnits(long balance, long delta)
+	{
+		try
+		{
+			return Math.addExact(balance, delta);
+		}
+		catch (ArithmeticException ex)
+		{
+			throw new IllegalArgumentException("Balance is out of range");
+		}
+	}
+	
+	/**
+	 * Check arguments of a move. Just null checks and the sanity of the amount, no business rules.
+	 */
+	private void verifyMove(String sourceAccountId, String destinationAccountId, BigDecimal amount)
+	{
+		if (sourceAccountId == null
+			|| destinationAccountId == null)
+		{
+			throw new IllegalArgumentException("Account ID cannot be null");
+		}
+		
+		if (sourceAccountId.equals(destinationAccountId))
+		{
+			throw new IllegalArgumentException("Source and destination accounts must differ");
+		}
+		
+		if (amount == null)
+		{
+			throw new IllegalArgumentException("Amount cannot be null");
+		}
+		
+		if (amount.signum() < 0)
+		{
+			throw new IllegalArgumentException("Amount cannot be negative");
+		}
+	}
+	
+	/**
+	 * Check if given ID can be used. Just a null check at this point.
+	 *
+	 * @param accountId account ID to check
+	 */
+	private void verifyAccountId(String accountId)
+	{
+		if (accountId == null)
+		{
+			throw new IllegalArgumentException("Account ID cannot be null");
+		}
+	}
+	
+	/**
+	 * A file mapped as a row of equally sized segments, addressed as if it was one big buffer. Ints and longs must
+	 * not cross the border of a segment, which holds as long as they are aligned to their size, byte arrays can.
+	 */
+	private static final class MappedRegion
+	{
+		private final FileChannel channel;
+		private final int segmentSize;
+		private final List<MappedByteBuffer> segments;
+		
+		MappedRegion(FileChannel channel, int segmentSize)
+		{
+			this.channel = channel;
+			this.segmentSize = segmentSize;
+			
+			// Segments are added rarely and force may walk them from another thread.
+			segments = new CopyOnWriteArrayList<>();
+		}
+		
+		/**
+		 * Map more segments, if needed, so that given number of bytes is available. The file grows along.
+		 *
+		 * @param size number of bytes needed from the beginning of the file
+		 * @throws IOException thrown when mapping failed
+		 */
+		void ensureCapacity(long size)
+				throws IOException
+		{
+			while (getCapacity() < size)
+			{
+				segments.add(channel.map(FileChannel.MapMode.READ_WRITE, getCapacity(), segmentSize));
+			}
+		}
+		
+		long getCapacity()
+		{
+			return (long) segments.size() * segmentSize;
+		}
+		
+		int getInt(long position)
+		{
+			return segment(position).getInt(offset(position));
+		}
+		
+		void putInt(long position, int value)
+		{
+			segment(position).putInt(offset(position), value);
+		}
+		
+		long getLong(long position)
+		{
+			return segment(position).getLong(offset(position));
+		}
+		
+		void putLong(long position, long value)
+		{
+			segment(position).putLong(offset(position), value);
+		}
+		
+		void get(long position, byte[] destination)
+		{
+			for (int i = 0; i < destination.length; i++)
+			{
+				destination[i] = segment(position + i).get(offset(position + i));
+			}
+		}
+		
+		void put(long position, byte[] source)
+		{
+			for (int i = 0; i < source.length; i++)
+			{
+				segment(position + i).put(offset(position + i), source[i]);
+			}
+		}
+		
+		void force()
+		{
+			for (MappedByteBuffer segment : segments)
+			{
+				segment.force();
+			}
+		}
+		
+		private MappedByteBuffer segment(long position)
+		{
+			return segments.get((int) (position / segmentSize));
+		}
+		
+		private int offset(long position)
+		{
+			return (int) (position % segmentSize);
+		}
+	}
+}
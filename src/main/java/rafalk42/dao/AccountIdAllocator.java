@@ -0,0 +1,225 @@
+package rafalk42.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Hands out IDs of new accounts, in the format all the account DAOs share: a sequential number, zero padded
+ * to 10 digits. Numbers are reserved in contiguous blocks, with a single atomic add however many accounts the block
+ * is for, so opening a batch of accounts costs one step here rather than one per account. The IDs of a block are
+ * rendered by counting up the digits of a buffer of the block in place, instead of formatting every number from
+ * scratch with String.format.
+ * Important:
+ * 1. it is thread-safe, a block is not, it belongs to whoever reserved it,
+ * 2. numbers start at 1 and are never handed out twice; advancePast can only move the next number forward.
+ */
+public class AccountIdAllocator
+{
+	private static final int ID_LENGTH = 10;
+	static final long MAXIMUM_NUMBER = 9999999999L;
+	
+	private final AtomicLong nextNumber;
+	
+	public AccountIdAllocator()
+	{
+		nextNumber = new AtomicLong(1);
+	}
+	
+	/**
+	 * Reserve a block of consecutive account numbers.
+	 *
+	 * @param count number of IDs in the block, must be positive
+	 * @return the block, rendering its IDs in increasing order
+	 */
+	public Block reserve(int count)
+	{
+		if (count <= 0)
+		{
+			throw new IllegalArgumentException("Count must be positive");
+		}
+		
+		long firstNumber = nextNumber.getAndAdd(count);
+		if (firstNumber + count - 1 > MAXIMUM_NUMBER)
+		{
+			throw new IllegalStateException("Account IDs exhausted");
+		}
+		
+		return new Block(firstNumber, count);
+	}
+	
+	/**
+	 * @return ID of a single new account
+	 */
+	public String allocate()
+	{
+		return reserve(1).next();
+	}
+	
+	/**
+	 * Make sure all the numbers handed out from now on are greater than given one, e.g. of a restored account.
+	 *
+	 * @param number number of an account that exists already
+	 */
+	public void advancePast(long number)
+	{
+		nextNumber.accumulateAndGet(number + 1, Math::max);
+	}
+	
+	/**
+	 * @return the number the next account is going to get, every account handed out so far has a lower one
+	 */
+	public long getNextNumber()
+	{
+		return nextNumber.get();
+	}
+	
+	/**
+	 * Find where a page of accounts starting after given ID begins. IDs are all digits and all of the same length,
+	 * so their natural String order is the order of their numbers.
+	 *
+	 * @param accountId any string, it doesn't have to be an ID handed out here
+	 * @return the lowest number which ID comes after given one in the natural String order, MAXIMUM_NUMBER + 1
+	 * if there is none
+	 */
+	public static long getFirstNumberAfter(String accountId)
+	{
+		// Most of the time it's the last ID of the previous page, no need to search then.
+		long number = parseNumber(accountId);
+		if (number >= 0)
+		{
+			return number + 1;
+		}
+		
+		long low = 1;
+		long high = MAXIMUM_NUMBER + 1;
+		
+		while (low < high)
+		{
+			long middle = (low + high) >>> 1;
+			if (formatNumber(middle).compareTo(accountId) > 0)
+			{
+				high = middle;
+			}
+			else
+			{
+				low = middle + 1;
+			}
+		}
+		
+		return low;
+	}
+	
+	/**
+	 * @param accountId ID of an account
+	 * @return number of the ID or -1 if it's not in the format of IDs handed out here
+	 */
+	public static long parseNumber(String accountId)
+	{
+		if (accountId.length() != ID_LENGTH)
+		{
+			return -1;
+		}
+		
+		long number = 0;
+		for (int i = 0; i < ID_LENGTH; i++)
+		{
+			char digit = accountId.charAt(i);
+			if (digit < '0'
+				|| digit > '9')
+			{
+				return -1;
+			}
+			
+			number = number * 10 + (digit - '0');
+		}
+		
+		return number;
+	}
+	
+	/**
+	 * @param number number of an account, from 1 to 9999999999
+	 * @return the number as an ID, zero padded to 10 digits
+	 */
+	public static String formatNumber(long number)
+	{
+		byte[] digits = new byte[ID_LENGTH];
+		putDigits(number, digits);
+		
+		return toId(digits);
+	}
+	
+	private static void putDigits(long number, byte[] digits)
+	{
+		for (int i = ID_LENGTH - 1; i >= 0; i--)
+		{
+			digits[i] = (byte) ('0' + number % 10);
+			number /= 10;
+		}
+	}
+	
+	private static String toId(byte[] digits)
+	{
+		// Digits only, so single bytes, which the String can take over without compressing chars first.
+		return new String(digits, StandardCharsets.ISO_8859_1);
+	}
+	
+	/**
+	 * Consecutive account IDs, rendered one at a time into a buffer that is reused for the whole block.
+	 */
+	public static final class Block
+	{
+		private final byte[] digits;
+		private int remaining;
+		
+		/**
+		 * @param firstNumber number of the first account of the block, from 1 to 9999999999
+		 * @param count       number of IDs in the block
+		 */
+		Block(long firstNumber, int count)
+		{
+			digits = new byte[ID_LENGTH];
+			remaining = count;
+			
+			putDigits(firstNumber, digits);
+		}
+		
+		public boolean hasNext()
+		{
+			return remaining > 0;
+		}
+		
+		/**
+		 * @return the next ID of the block
+		 */
+		public String next()
+		{
+			if (remaining == 0)
+			{
+				throw new NoSuchElementException("No more IDs in the block");
+			}
+			
+			String id = toId(digits);
+			
+			if (--remaining > 0)
+			{
+				increment();
+			}
+			
+			return id;
+		}
+		
+		private void increment()
+		{
+			int i = ID_LENGTH - 1;
+			while (digits[i] == '9')
+			{
+				digits[i] = '0';
+				i--;
+			}
+			
+			digits[i]++;
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package rafalk42.dao;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+
+/**
+ * A DAO layer interface of the audit log, an append-only ledger of the operations posted by a bank. Entries are never
+ * changed or removed once logged.
+ */
+public interface AuditLogDao
+{
+	/**
+	 * Append an entry to the log, returning its sequence number. Sequence numbers start at 1 and increase by one
+	 * with every entry.
+	 *
+	 * @param operation            kind of the operation
+	 * @param sourceAccountId      ID of the account money was taken from, null if none
+	 * @param destinationAccountId ID of the account money was put into, null if none
+	 * @param amount               amount of the operation
+	 * @param title                title of the operation, null if none
+	 * @param status               resulting status of the operation
+	 * @return sequence number of the entry
+	 */
+	long log(AuditLogOperation operation, String sourceAccountId, String destinationAccountId, BigDecimal amount,
+			 String title, AuditLogStatus status);
+	
+	/**
+	 * @return sequence number of the last entry visible to the queries, 0 if there is none
+	 */
+	long getLastSequence();
+	
+	/**
+	 * Retrieve the entries logged in given time range, in the order of their sequence numbers. Passing
+	 * the sequence number of the last entry returned as afterSequence gives the next page.
+	 *
+	 * @param fromTimestamp start of the range (inclusive), in milliseconds since the epoch
+	 * @param toTimestamp   end of the range (exclusive), in milliseconds since the epoch
+	 * @param afterSequence only entries with greater sequence numbers are returned, 0 for all
+	 * @param limit         maximum number of entries to return
+	 * @return up to limit entries from the time range
+	 */
+	List<AuditLogEntry> findByTimestamp(long fromTimestamp, long toTimestamp, long afterSequence, int limit);
+	
+	/**
+	 * Retrieve the entries of operations that took money from or put money into given account, logged in given
+	 * time range, in the order of their sequence numbers. Passing the sequence number of the last entry returned
+	 * as afterSequence gives the next page.
+	 *
+	 * @param accountId     ID of the account
+	 * @param fromTimestamp start of the range (inclusive), in milliseconds since the epoch
+	 * @param toTimestamp   end of the range (exclusive), in milliseconds since the epoch
+	 * @param afterSequence only entries with greater sequence numbers are returned, 0 for all
+	 * @param limit         maximum number of entries to return
+	 * @return up to limit entries of the account
+	 */
+	List<AuditLogEntry> findByAccount(String accountId, long fromTimestamp, long toTimestamp, long afterSequence,
+									  int limit);
+}
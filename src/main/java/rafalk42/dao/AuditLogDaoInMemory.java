@@ -0,0 +1,565 @@
+package rafalk42.dao;
+
+import rafalk42.money.MinorUnits;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+
+/**
+ * An in-memory implementation of audit log DAO. Entries are kept in chunks of preallocated arrays, one array per field
+ * (struct of arrays, like in AccountDaoDense), so there's no object per entry: an entry costs 38 bytes of heap, plus
+ * the title which is shared with the caller. Account IDs are kept as their numbers and amounts as long counts
+ * of minor units. An entry that cannot be represented that way, with an ID in some other format or an amount with
+ * more decimal places than MinorUnits.SCALE (both only happen for failed operations), is kept as a whole in a map
+ * next to the chunks instead. No object is kept per entry, but logging one still makes some garbage: the amount
+ * is converted to minor units with MinorUnits.fromAmount, which makes a short-lived BigDecimal or two (setScale
+ * and movePointRight), and that happens inside the critical section of the operation being logged.
+ * <p>
+ * Logging takes no lock. The sequence number of an entry comes from an atomic counter and tells which slot of which
+ * chunk the entry goes to, so concurrent loggers never touch the same slots. The timestamp is written last,
+ * with release semantics, and marks the entry as complete; queries see the entries up to the first one that
+ * is not complete yet. The chunk after the current one is allocated by whoever logs the middle entry of the current
+ * one, long before anybody needs it, so a logger does not wait for a chunk to be allocated.
+ * <p>
+ * Complete entries are sealed and indexed by the first query that finds them so, never by a logger. The primary
+ * index is by time, over segments of 1024 entries: for every segment the greatest timestamp up to its end
+ * and the smallest one from its start on, both of which only grow with the segment index, so a time range is found
+ * with a binary search even though loggers racing each other can put entries a little out of time order. Only
+ * the segments the range overlaps are scanned. The secondary index is by account: a posting list per account
+ * number, the indexes of its entries in order (see AuditLogPostingLists). The entries of an account are logged one
+ * after another, under the locks of the bank, and a timestamp never goes back from the one of the entry logged
+ * before it, so the timestamps of an account follow its posting list and a time range is a binary search away too.
+ * The index costs 4 bytes per account of an entry.
+ * Important:
+ * 1. it does not support any kind of persistence,
+ * 2. it is thread-safe,
+ * 3. timestamps must be positive, 0 marks an entry that is not complete yet,
+ * 4. amounts that are kept as minor units come back with exactly MinorUnits.SCALE decimal places,
+ * 5. entries of the same account logged at the same time, without anything ordering them, may not be found
+ * by a query by account and time range; the bank never does that.
+ */
+public class AuditLogDaoInMemory
+		implements AuditLogDao
+{
+	private static final int CHUNK_SHIFT = 16;
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	private static final int MAX_CHUNK_COUNT = 1 << 15;
+	// Segments of the time index, much shorter than chunks, only the start of one has to be scanned by a query.
+	private static final int SEGMENT_SHIFT = 10;
+	private static final int INITIAL_SEGMENT_CAPACITY = 1024;
+	private static final long MAX_ENTRY_COUNT = (long) MAX_CHUNK_COUNT * CHUNK_SIZE;
+	// Amounts with more integer digits than that may not fit in a long count of minor units.
+	private static final int MAX_INTEGER_DIGITS = 16;
+	private static final long NO_ACCOUNT = -1;
+	private static final long IRREGULAR_ACCOUNT = -2;
+	// Set in the operation of an entry kept in the map of irregular entries.
+	private static final byte IRREGULAR = (byte) 0x80;
+	private static final AuditLogOperation[] OPERATIONS = AuditLogOperation.values();
+	private static final AuditLogStatus[] STATUSES = AuditLogStatus.values();
+	
+	private final LongSupplier clock;
+	private final AtomicReferenceArray<Chunk> chunks;
+	private final AtomicLong entryCounter;
+	private final Map<Long, AuditLogEntry> irregularEntries;
+	// The greatest timestamp given out so far, timestamps never go back even if the clock does.
+	private final AtomicLong lastTimestamp;
+	// Number of entries known to be complete, only a hint where to start looking for the first one that is not.
+	private volatile long completeEntryCount;
+	
+	// Guards the index below.
+	private final ReentrantLock indexLock;
+	private long[] segmentMaxTimestamps;
+	private long[] segmentMinTimestamps;
+	private int segmentCount;
+	private final AuditLogPostingLists postingLists;
+	private long indexedEntryCount;
+	
+	public AuditLogDaoInMemory()
+	{
+		this(System::currentTimeMillis);
+	}
+	
+	/**
+	 * @param clock source of the timestamps of the entries, in milliseconds since the epoch
+	 */
+	AuditLogDaoInMemory(LongSupplier clock)
+	{
+		this.clock = clock;
+		chunks = new AtomicReferenceArray<>(MAX_CHUNK_COUNT);
+		chunks.set(0, new Chunk());
+		entryCounter = new AtomicLong();
+		irregularEntries = new ConcurrentHashMap<>();
+		lastTimestamp = new AtomicLong();
+		completeEntryCount = 0;
+		
+		indexLock = new ReentrantLock();
+		segmentMaxTimestamps = new long[INITIAL_SEGMENT_CAPACITY];
+		segmentMinTimestamps = new long[INITIAL_SEGMENT_CAPACITY];
+		segmentCount = 0;
+		postingLists = new AuditLogPostingLists();
+		indexedEntryCount = 0;
+	}
+	
+	@Override
+	public long log(AuditLogOperation operation, String sourceAccountId, String destinationAccountId, BigDecimal amount,
+					String title, AuditLogStatus status)
+	{
+		if (operation == null)
+		{
+			throw new IllegalArgumentException("Operation cannot be null");
+		}
+		
+		if (amount == null)
+		{
+			throw new IllegalArgumentException("Amount cannot be null");
+		}
+		
+		if (status == null)
+		{
+			throw new IllegalArgumentException("Status cannot be null");
+		}
+		
+		long timestamp = getTimestamp();
+		long index = entryCounter.getAndIncrement();
+		if (index >= MAX_ENTRY_COUNT)
+		{
+			throw new IllegalStateException("Audit log is full");
+		}
+		
+		int chunkIndex = (int) (index >>> CHUNK_SHIFT);
+		int offset = (int) index & CHUNK_MASK;
+		
+		Chunk chunk = getChunk(chunkIndex);
+		if (offset == CHUNK_SIZE / 2
+			&& chunkIndex + 1 < MAX_CHUNK_COUNT)
+		{
+			chunks.compareAndSet(chunkIndex + 1, null, new Chunk());
+		}
+		
+		long sourceAccountNumber = toAccountNumber(sourceAccountId);
+		long destinationAccountNumber = toAccountNumber(destinationAccountId);
+		boolean exactAmount = isExactInMinorUnits(amount);
+		byte operationCode = (byte) operation.ordinal();
+		
+		if (sourceAccountNumber == IRREGULAR_ACCOUNT
+			|| destinationAccountNumber == IRREGULAR_ACCOUNT
+			|| !exactAmount)
+		{
+			irregularEntries.put(index + 1, new AuditLogEntry(index + 1, timestamp, operation, sourceAccountId,
+															  destinationAccountId, amount, title, status));
+			operationCode |= IRREGULAR;
+		}
+		
+		chunk.operations[offset] = operationCode;
+		chunk.statuses[offset] = (byte) status.ordinal();
+		chunk.sourceAccounts[offset] = sourceAccountNumber;
+		chunk.destinationAccounts[offset] = destinationAccountNumber;
+		chunk.amounts[offset] = exactAmount
+				? MinorUnits.fromAmount(amount)
+				: 0;
+		chunk.titles[offset] = title;
+		// Publishes all the fields above.
+		chunk.timestamps.lazySet(offset, timestamp);
+		
+		return index + 1;
+	}
+	
+	@Override
+	public long getLastSequence()
+	{
+		return getCompleteEntryCount();
+	}
+	
+	/**
+	 * Sealed segments are skipped by a binary search over their timestamp bounds, only the segments that may
+	 * hold entries from the time range are scanned.
+	 */
+	@Override
+	public List<AuditLogEntry> findByTimestamp(long fromTimestamp, long toTimestamp, long afterSequence, int limit)
+	{
+		verifyLimit(limit);
+		
+		long firstIndex;
+		long endIndex;
+		indexLock.lock();
+		try
+		{
+			indexCompleteEntries();
+			
+			// Maximums are over all the segments up to the given one, minimums over all from the given one on,
+			// so both only grow with the segment index and can be searched.
+			int firstSegment = findFirstSegment(segmentMaxTimestamps, fromTimestamp);
+			int endSegment = findFirstSegment(segmentMinTimestamps, toTimestamp);
+			
+			firstIndex = (long) firstSegment << SEGMENT_SHIFT;
+			endIndex = Math.min((long) Math.max(firstSegment, endSegment) << SEGMENT_SHIFT, indexedEntryCount);
+		}
+		finally
+		{
+			indexLock.unlock();
+		}
+		
+		List<AuditLogEntry> result = new ArrayList<>();
+		for (long index = Math.max(firstIndex, afterSequence); index < endIndex && result.size() < limit; index++)
+		{
+			long timestamp = getTimestamp(index);
+			
+			if (timestamp >= fromTimestamp
+				&& timestamp < toTimestamp)
+			{
+				result.add(getEntry(index));
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * The posting list of the account is searched for the first entry after the sequence and from the time range,
+	 * then read until the end of the range. This relies
+	 * on the timestamps of the entries of an account following their order, see the class description.
+	 */
+	@Override
+	public List<AuditLogEntry> findByAccount(String accountId, long fromTimestamp, long toTimestamp,
+											 long afterSequence, int limit)
+	{
+		if (accountId == null)
+		{
+			throw new IllegalArgumentException("Account ID cannot be null");
+		}
+		
+		verifyLimit(limit);
+		
+		long accountNumber = toAccountNumber(accountId);
+		if (accountNumber == IRREGULAR_ACCOUNT)
+		{
+			return findIrregularByAccount(accountId, fromTimestamp, toTimestamp, afterSequence, limit);
+		}
+		
+		AuditLogPostingLists.PostingList postingList;
+		indexLock.lock();
+		try
+		{
+			indexCompleteEntries();
+			postingList = postingLists.get(accountNumber);
+		}
+		finally
+		{
+			indexLock.unlock();
+		}
+		
+		List<AuditLogEntry> result = new ArrayList<>();
+		
+		int position = Math.max(findFirstPosting(postingList, index -> index >= afterSequence),
+								findFirstPosting(postingList, index -> getTimestamp(index) >= fromTimestamp));
+		for (; position < postingList.size() && result.size() < limit; position++)
+		{
+			int index = postingList.get(position);
+			if (getTimestamp(index) >= toTimestamp)
+			{
+				return result;
+			}
+			
+			result.add(getEntry(index));
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Entries of IDs that are not in the format of account numbers are not indexed, the only place they can be
+	 * found in are the irregular entries.
+	 */
+	private List<AuditLogEntry> findIrregularByAccount(String accountId, long fromTimestamp, long toTimestamp,
+													   long afterSequence, int limit)
+	{
+		long entryCount = getCompleteEntryCount();
+		
+		return irregularEntries.values()
+							   .stream()
+							   .filter(entry -> entry.getSequence() > afterSequence
+												&& entry.getSequence() <= entryCount
+												&& entry.getTimestamp() >= fromTimestamp
+												&& entry.getTimestamp() < toTimestamp
+												&& (accountId.equals(entry.getSourceAccountId())
+													|| accountId.equals(entry.getDestinationAccountId())))
+							   .sorted(Comparator.comparingLong(AuditLogEntry::getSequence))
+							   .limit(limit)
+							   .collect(Collectors.toList());
+	}
+	
+	/**
+	 * Index all the entries that got complete since the last call, which seals them. Has to be called with the index
+	 * lock held.
+	 */
+	private void indexCompleteEntries()
+	{
+		long entryCount = getCompleteEntryCount();
+		
+		for (long index = indexedEntryCount; index < entryCount; index++)
+		{
+			Chunk chunk = chunks.get((int) (index >>> CHUNK_SHIFT));
+			int offset = (int) index & CHUNK_MASK;
+			
+			addTimestamp((int) (index >>> SEGMENT_SHIFT), chunk.timestamps.get(offset));
+			
+			if ((chunk.operations[offset] & IRREGULAR) == 0)
+			{
+				addPostings(chunk.sourceAccounts[offset], chunk.destinationAccounts[offset], (int) index);
+			}
+			else
+			{
+				AuditLogEntry entry = irregularEntries.get(index + 1);
+				addPostings(toAccountNumber(entry.getSourceAccountId()),
+							toAccountNumber(entry.getDestinationAccountId()),
+							(int) index);
+			}
+		}
+		
+		indexedEntryCount = Math.max(indexedEntryCount, entryCount);
+	}
+	
+	private void addTimestamp(int segment, long timestamp)
+	{
+		if (segment == segmentCount)
+		{
+			if (segmentCount == segmentMaxTimestamps.length)
+			{
+				segmentMaxTimestamps = Arrays.copyOf(segmentMaxTimestamps, segmentCount * 2);
+				segmentMinTimestamps = Arrays.copyOf(segmentMinTimestamps, segmentCount * 2);
+			}
+			
+			segmentMaxTimestamps[segment] = segment > 0
+					? segmentMaxTimestamps[segment - 1]
+					: Long.MIN_VALUE;
+			segmentMinTimestamps[segment] = Long.MAX_VALUE;
+			segmentCount++;
+		}
+		
+		segmentMaxTimestamps[segment] = Math.max(segmentMaxTimestamps[segment], timestamp);
+		// An entry a little behind the others lowers the minimum of the segments before it too, rarely more than one.
+		for (int i = segment; i >= 0 && segmentMinTimestamps[i] > timestamp; i--)
+		{
+			segmentMinTimestamps[i] = timestamp;
+		}
+	}
+	
+	/**
+	 * A transfer from an account to itself gets into the posting list of the account once.
+	 */
+	private void addPostings(long sourceAccountNumber, long destinationAccountNumber, int index)
+	{
+		if (sourceAccountNumber >= 0)
+		{
+			postingLists.add(sourceAccountNumber, index);
+		}
+		
+		if (destinationAccountNumber >= 0
+			&& destinationAccountNumber != sourceAccountNumber)
+		{
+			postingLists.add(destinationAccountNumber, index);
+		}
+	}
+	
+	/**
+	 * Has to be called with the index lock held.
+	 *
+	 * @return first of the segments whose bound is at least the timestamp, segmentCount if none
+	 */
+	private int findFirstSegment(long[] bounds, long timestamp)
+	{
+		int low = 0;
+		int high = segmentCount;
+		
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (bounds[middle] >= timestamp)
+			{
+				high = middle;
+			}
+			else
+			{
+				low = middle + 1;
+			}
+		}
+		
+		return low;
+	}
+	
+	/**
+	 * @return first position of the posting list at which the condition holds, it has to hold for all the positions
+	 * after it too; size of the list if there's none
+	 */
+	private static int findFirstPosting(AuditLogPostingLists.PostingList postingList, IntPredicate condition)
+	{
+		int low = 0;
+		int high = postingList.size();
+		
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (condition.test(postingList.get(middle)))
+			{
+				high = middle;
+			}
+			else
+			{
+				low = middle + 1;
+			}
+		}
+		
+		return low;
+	}
+	
+	private long getTimestamp(long index)
+	{
+		return chunks.get((int) (index >>> CHUNK_SHIFT))
+					 .timestamps
+					 .get((int) index & CHUNK_MASK);
+	}
+	
+	/**
+	 * @return current time, unless it is before the greatest timestamp given out so far, then that timestamp
+	 */
+	private long getTimestamp()
+	{
+		long timestamp = clock.getAsLong();
+		long last = lastTimestamp.get();
+		
+		// Written only when the clock moves on, which is at most once a millisecond.
+		return timestamp > last
+				? lastTimestamp.accumulateAndGet(timestamp, Math::max)
+				: last;
+	}
+	
+	private Chunk getChunk(int chunkIndex)
+	{
+		Chunk chunk = chunks.get(chunkIndex);
+		if (chunk != null)
+		{
+			return chunk;
+		}
+		
+		// The logger of the middle entry of the previous chunk has not got to allocating it yet.
+		chunks.compareAndSet(chunkIndex, null, new Chunk());
+		
+		return chunks.get(chunkIndex);
+	}
+	
+	/**
+	 * @return number of the entries from the start of the log that are all complete
+	 */
+	private long getCompleteEntryCount()
+	{
+		long entryCount = completeEntryCount;
+		long reservedEntryCount = Math.min(entryCounter.get(), MAX_ENTRY_COUNT);
+		
+		while (entryCount < reservedEntryCount)
+		{
+			Chunk chunk = chunks.get((int) (entryCount >>> CHUNK_SHIFT));
+			if (chunk == null
+				|| chunk.timestamps.get((int) entryCount & CHUNK_MASK) == 0)
+			{
+				break;
+			}
+			
+			entryCount++;
+		}
+		
+		// Racing queries may store a smaller count over a bigger one, which is still a valid hint.
+		completeEntryCount = entryCount;
+		
+		return entryCount;
+	}
+	
+	/**
+	 * @param index index of a complete entry
+	 * @return the entry
+	 */
+	private AuditLogEntry getEntry(long index)
+	{
+		Chunk chunk = chunks.get((int) (index >>> CHUNK_SHIFT));
+		int offset = (int) index & CHUNK_MASK;
+		
+		long timestamp = chunk.timestamps.get(offset);
+		byte operationCode = chunk.operations[offset];
+		
+		if ((operationCode & IRREGULAR) != 0)
+		{
+			return irregularEntries.get(index + 1);
+		}
+		
+		return new AuditLogEntry(index + 1,
+								 timestamp,
+								 OPERATIONS[operationCode],
+								 toAccountId(chunk.sourceAccounts[offset]),
+								 toAccountId(chunk.destinationAccounts[offset]),
+								 MinorUnits.toAmount(chunk.amounts[offset]),
+								 chunk.titles[offset],
+								 STATUSES[chunk.statuses[offset]]);
+	}
+	
+	private static void verifyLimit(int limit)
+	{
+		if (limit <= 0)
+		{
+			throw new IllegalArgumentException("Limit must be positive");
+		}
+	}
+	
+	private static long toAccountNumber(String accountId)
+	{
+		if (accountId == null)
+		{
+			return NO_ACCOUNT;
+		}
+		
+		long number = AccountIdAllocator.parseNumber(accountId);
+		
+		return number >= 0
+				? number
+				: IRREGULAR_ACCOUNT;
+	}
+	
+	private static String toAccountId(long accountNumber)
+	{
+		return accountNumber == NO_ACCOUNT
+				? null
+				: AccountIdAllocator.formatNumber(accountNumber);
+	}
+	
+	private static boolean isExactInMinorUnits(BigDecimal amount)
+	{
+		return amount.scale() <= MinorUnits.SCALE
+			   && amount.precision() - amount.scale() <= MAX_INTEGER_DIGITS;
+	}
+	
+	/**
+	 * Preallocated slots for CHUNK_SIZE entries, one array per field.
+	 */
+	private static final class Chunk
+	{
+		final AtomicLongArray timestamps = new AtomicLongArray(CHUNK_SIZE);
+		final byte[] operations = new byte[CHUNK_SIZE];
+		final byte[] statuses = new byte[CHUNK_SIZE];
+		final long[] sourceAccounts = new long[CHUNK_SIZE];
+		final long[] destinationAccounts = new long[CHUNK_SIZE];
+		final long[] amounts = new long[CHUNK_SIZE];
+		final String[] titles = new String[CHUNK_SIZE];
+	}
+}
@@ -0,0 +1,148 @@
+package rafalk42.dao;
+
+import java.math.BigDecimal;
+import java.util.Objects;
+
+
+/**
+ * A single entry of the audit log, an operation posted by the bank. Used as a part of the public interface
+ * by the audit log DAO.
+ */
+public class AuditLogEntry
+{
+	private final long sequence;
+	private final long timestamp;
+	private final AuditLogOperation operation;
+	private final String sourceAccountId;
+	private final String destinationAccountId;
+	private final BigDecimal amount;
+	private final String title;
+	private final AuditLogStatus status;
+	
+	public AuditLogEntry(long sequence, long timestamp, AuditLogOperation operation, String sourceAccountId,
+						 String destinationAccountId, BigDecimal amount, String title, AuditLogStatus status)
+	{
+		if (operation == null)
+		{
+			throw new IllegalArgumentException("Operation cannot be null");
+		}
+		
+		if (amount == null)
+		{
+			throw new IllegalArgumentException("Amount cannot be null");
+		}
+		
+		if (status == null)
+		{
+			throw new IllegalArgumentException("Status cannot be null");
+		}
+		
+		this.sequence = sequence;
+		this.timestamp = timestamp;
+		this.operation = operation;
+		this.sourceAccountId = sourceAccountId;
+		this.destinationAccountId = destinationAccountId;
+		this.amount = amount;
+		this.title = title;
+		this.status = status;
+	}
+	
+	/**
+	 * @return number of the entry, entries are numbered from 1 in the order they were logged
+	 */
+	public long getSequence()
+	{
+		return sequence;
+	}
+	
+	/**
+	 * @return time the entry was logged at, in milliseconds since the epoch
+	 */
+	public long getTimestamp()
+	{
+		return timestamp;
+	}
+	
+	public AuditLogOperation getOperation()
+	{
+		return operation;
+	}
+	
+	/**
+	 * @return ID of the account money was taken from, null for a deposit
+	 */
+	public String getSourceAccountId()
+	{
+		return sourceAccountId;
+	}
+	
+	/**
+	 * @return ID of the account money was put into, null for a withdrawal
+	 */
+	public String getDestinationAccountId()
+	{
+		return destinationAccountId;
+	}
+	
+	public BigDecimal getAmount()
+	{
+		return amount;
+	}
+	
+	/**
+	 * @return title of a deposit or a withdrawal, null if there was none (always for a transfer)
+	 */
+	public String getTitle()
+	{
+		return title;
+	}
+	
+	public AuditLogStatus getStatus()
+	{
+		return status;
+	}
+	
+	@Override
+	public boolean equals(Object o)
+	{
+		if (this == o)
+		{
+			return true;
+		}
+		if (o == null || getClass() != o.getClass())
+		{
+			return false;
+		}
+		AuditLogEntry that = (AuditLogEntry) o;
+		return sequence == that.sequence &&
+			   timestamp == that.timestamp &&
+			   operation == that.operation &&
+			   Objects.equals(sourceAccountId, that.sourceAccountId) &&
+			   Objects.equals(destinationAccountId, that.destinationAccountId) &&
+			   amount.equals(that.amount) &&
+			   Objects.equals(title, that.title) &&
+			   status == that.status;
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return Objects.hash(sequence, timestamp, operation, sourceAccountId, destinationAccountId, amount, title,
+							status);
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "AuditLogEntry{" +
+			   "sequence=" + sequence +
+			   ", timestamp=" + timestamp +
+			   ", operation=" + operation +
+			   ", sourceAccountId='" + sourceAccountId + '\'' +
+			   ", destinationAccountId='" + destinationAccountId + '\'' +
+			   ", amount=" + amount +
+			   ", title='" + title + '\'' +
+			   ", status=" + status +
+			   '}';
+	}
+}
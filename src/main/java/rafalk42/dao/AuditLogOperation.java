@@ -0,0 +1,20 @@
+package rafalk42.dao;
+
+/**
+ * Kind of an operation recorded in the audit log, see AuditLogDao.
+ */
+public enum AuditLogOperation
+{
+	/**
+	 * Money put into the (destination) account.
+	 */
+	DEPOSIT,
+	/**
+	 * Money taken out of the (source) account.
+	 */
+	WITHDRAWAL,
+	/**
+	 * Money moved from the source account to the destination account.
+	 */
+	TRANSFER
+}
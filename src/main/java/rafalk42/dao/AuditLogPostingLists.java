@@ -0,0 +1,146 @@
+package rafalk42.dao;
+
+import java.util.Arrays;
+
+
+/**
+ * Posting lists of the audit log, for every account number the indexes of the entries of the account, in increasing
+ * order. A list is a plain int array, 4 bytes per entry of an account (plus spare capacity), and the lists are kept
+ * in an open addressing hash table keyed by the account number, so neither the numbers nor the indexes are boxed.
+ * Important:
+ * 1. it is NOT thread-safe by any means, but a list taken with get can be read up to its size at the time
+ * while entries are being added, as long as the reader got it under the same lock the writer uses.
+ */
+final class AuditLogPostingLists
+{
+	private static final int INITIAL_TABLE_SIZE = 1024;
+	private static final int INITIAL_LIST_CAPACITY = 4;
+	private static final long EMPTY_KEY = -1;
+	
+	private long[] keys;
+	private PostingList[] lists;
+	private int listCount;
+	
+	AuditLogPostingLists()
+	{
+		keys = new long[INITIAL_TABLE_SIZE];
+		Arrays.fill(keys, EMPTY_KEY);
+		lists = new PostingList[INITIAL_TABLE_SIZE];
+		listCount = 0;
+	}
+	
+	/**
+	 * @param accountNumber number of an account, not negative
+	 * @param entryIndex    index of an entry, greater than any index added for the account so far
+	 */
+	void add(long accountNumber, int entryIndex)
+	{
+		int slot = findSlot(keys, accountNumber);
+		
+		PostingList list = lists[slot];
+		if (list == null)
+		{
+			list = new PostingList();
+			keys[slot] = accountNumber;
+			lists[slot] = list;
+			
+			if (++listCount * 2 > keys.length)
+			{
+				growTable();
+			}
+		}
+		
+		list.add(entryIndex);
+	}
+	
+	/**
+	 * @param accountNumber number of an account
+	 * @return copy of the entry indexes of the account, empty if there are none
+	 */
+	PostingList get(long accountNumber)
+	{
+		PostingList list = lists[findSlot(keys, accountNumber)];
+		
+		return list != null
+				? new PostingList(list.entryIndexes, list.size)
+				: new PostingList();
+	}
+	
+	private void growTable()
+	{
+		long[] oldKeys = keys;
+		PostingList[] oldLists = lists;
+		
+		keys = new long[oldKeys.length * 2];
+		Arrays.fill(keys, EMPTY_KEY);
+		lists = new PostingList[oldLists.length * 2];
+		
+		for (int i = 0; i < oldKeys.length; i++)
+		{
+			if (oldKeys[i] != EMPTY_KEY)
+			{
+				int slot = findSlot(keys, oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				lists[slot] = oldLists[i];
+			}
+		}
+	}
+	
+	/**
+	 * @return slot of the key, or the empty slot where it would go
+	 */
+	private static int findSlot(long[] keys, long key)
+	{
+		int mask = keys.length - 1;
+		int slot = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+		
+		while (keys[slot] != EMPTY_KEY
+			   && keys[slot] != key)
+		{
+			slot = (slot + 1) & mask;
+		}
+		
+		return slot;
+	}
+	
+	/**
+	 * Indexes of the entries of a single account. A copy returned by get shares the array with the original,
+	 * which only ever writes past the size of the copy (or to a new array).
+	 */
+	static final class PostingList
+	{
+		private int[] entryIndexes;
+		private int size;
+		
+		PostingList()
+		{
+			this(new int[INITIAL_LIST_CAPACITY], 0);
+		}
+		
+		private PostingList(int[] entryIndexes, int size)
+		{
+			this.entryIndexes = entryIndexes;
+			this.size = size;
+		}
+		
+		private void add(int entryIndex)
+		{
+			if (size == entryIndexes.length)
+			{
+				entryIndexes = Arrays.copyOf(entryIndexes, size * 2);
+			}
+			
+			entryIndexes[size++] = entryIndex;
+		}
+		
+		int size()
+		{
+			return size;
+		}
+		
+		int get(int position)
+		{
+			return entryIndexes[position];
+		}
+	}
+}
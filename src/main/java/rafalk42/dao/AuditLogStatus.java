@@ -0,0 +1,15 @@
+package rafalk42.dao;
+
+/**
+ * Resulting status of an operation recorded in the audit log, the same as the status of the result the bank
+ * returned for the operation.
+ */
+public enum AuditLogStatus
+{
+	SUCCESSFUL,
+	FAILED_INVALID_AMOUNT,
+	FAILED_NOT_ENOUGH_FUNDS,
+	FAILED_NOT_ALLOWED,
+	FAILED_ACCOUNT_NOT_FOUND,
+	FAILED_BATCH_ABORTED
+}
@@ -0,0 +1,25 @@
+package rafalk42.dao;
+
+/**
+ * Outcome of a compound balance update done by the account DAO in a single call, see AccountDao.applyDelta
+ * and AccountDao.move. Nothing is changed unless the status is APPLIED.
+ */
+public enum BalanceUpdateStatus
+{
+	/**
+	 * Balances have been updated.
+	 */
+	APPLIED,
+	/**
+	 * Balance of the (source) account would become negative.
+	 */
+	NOT_ENOUGH_FUNDS,
+	/**
+	 * The (source) account does not exist.
+	 */
+	ACCOUNT_NOT_FOUND,
+	/**
+	 * Destination account of a move does not exist.
+	 */
+	DESTINATION_ACCOUNT_NOT_FOUND
+}
@@ -0,0 +1,225 @@
+package rafalk42.dao.journal;
+
+import rafalk42.dao.AccountDao;
+import rafalk42.dao.AccountDaoInternalError;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Changes of accounts made by a single thread since its last commit, collected as the bytes of a single journal
+ * entry, so that they are all replayed or none is. Every change starts with its type and then has:
+ * 1. OPEN - account ID, description and initial balance,
+ * 2. BALANCE - account ID and the new balance,
+ * 3. CLOSE - account ID.
+ * Strings are UTF-8 bytes preceded by their length (int, -1 for null), amounts are the scale (int) and the unscaled
+ * value as a two's complement byte array preceded by its length (int). Amounts are recorded exactly as they were
+ * given, so that replaying them gives the DAO the very same values, rounding included.
+ */
+class AccountChanges
+{
+	static final byte OPEN = 1;
+	private static final byte BALANCE = 2;
+	private static final byte CLOSE = 3;
+	
+	private final ByteArrayOutputStream bytes;
+	private long committedSequence;
+	
+	AccountChanges()
+	{
+		bytes = new ByteArrayOutputStream();
+		committedSequence = 0;
+	}
+	
+	void addOpen(String accountId, String description, BigDecimal initialBalance)
+	{
+		bytes.write(OPEN);
+		writeString(accountId);
+		writeString(description);
+		writeAmount(initialBalance);
+	}
+	
+	void addBalance(String accountId, BigDecimal balance)
+	{
+		bytes.write(BALANCE);
+		writeString(accountId);
+		writeAmount(balance);
+	}
+	
+	void addClose(String accountId)
+	{
+		bytes.write(CLOSE);
+		writeString(accountId);
+	}
+	
+	boolean isEmpty()
+	{
+		return bytes.size() == 0;
+	}
+	
+	byte[] toByteArray()
+	{
+		return bytes.toByteArray();
+	}
+	
+	void clear()
+	{
+		bytes.reset();
+	}
+	
+	/**
+	 * @return sequence number of the journal entry with the last changes committed by the thread, 0 if none
+	 */
+	long getCommittedSequence()
+	{
+		return committedSequence;
+	}
+	
+	void setCommittedSequence(long committedSequence)
+	{
+		this.committedSequence = committedSequence;
+	}
+	
+	/**
+	 * Apply the changes of a journal entry to a DAO, the same way they were applied when they were recorded.
+	 * <p>
+	 * On top of a snapshot the DAO can already have some of the changes, as the snapshot is taken while the accounts
+	 * keep changing: accounts are restored with the IDs recorded rather than opened, and changes of accounts which
+	 * are not there are skipped, they were closed before the snapshot got to them and the closing follows.
+	 *
+	 * @param entry         bytes of the entry
+	 * @param accountDao    DAO to apply the changes to
+	 * @param afterSnapshot whether the DAO was restored from a snapshot taken after the entry was recorded
+	 * @return ID of the last account opened by the entry, null if there's none
+	 * @throws AccountDaoInternalError thrown by the DAO
+	 */
+	static String apply(ByteBuffer entry, AccountDao accountDao, boolean afterSnapshot)
+			throws AccountDaoInternalError
+	{
+		String lastOpenedAccountId = null;
+		
+		while (entry.hasRemaining())
+		{
+			byte type = entry.get();
+			String accountId = readString(entry);
+			
+			switch (type)
+			{
+				case OPEN:
+					String description = readString(entry);
+					BigDecimal initialBalance = readAmount(entry);
+					
+					if (afterSnapshot)
+					{
+						accountDao.restore(accountId, description, initialBalance);
+					}
+					else
+					{
+						String openedAccountId = accountDao.open(description, initialBalance);
+						if (!openedAccountId.equals(accountId))
+						{
+							throw new IllegalStateException(String.format("Journal does not match the account DAO, "
+																		  + "account %s was opened as %s",
+																		  accountId, openedAccountId));
+						}
+					}
+					
+					lastOpenedAccountId = accountId;
+					break;
+				case BALANCE:
+					BigDecimal balance = readAmount(entry);
+					
+					if (!afterSnapshot
+						|| accountDao.doesItExist(accountId))
+					{
+						accountDao.setBalance(accountId, balance);
+					}
+					break;
+				case CLOSE:
+					if (!afterSnapshot
+						|| accountDao.doesItExist(accountId))
+					{
+						accountDao.close(accountId);
+					}
+					break;
+				default:
+					throw new IllegalStateException("Unsupported journal change type " + type);
+			}
+		}
+		
+		return lastOpenedAccountId;
+	}
+	
+	private void writeString(String value)
+	{
+		if (value == null)
+		{
+			writeInt(-1);
+			return;
+		}
+		
+		byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+		writeInt(valueBytes.length);
+		bytes.write(valueBytes, 0, valueBytes.length);
+	}
+	
+	private void writeAmount(BigDecimal amount)
+	{
+		byte[] unscaledBytes = amount.unscaledValue().toByteArray();
+		
+		writeInt(amount.scale());
+		writeInt(unscaledBytes.length);
+		bytes.write(unscaledBytes, 0, unscaledBytes.length);
+	}
+	
+	private void writeInt(int value)
+	{
+		bytes.write(value >>> 24);
+		bytes.write(value >>> 16);
+		bytes.write(value >>> 8);
+		bytes.write(value);
+	}
+	
+	static String readString(ByteBuffer entry)
+	{
+		int length = entry.getInt();
+		if (length < 0)
+		{
+			return null;
+		}
+		
+		byte[] valueBytes = new byte[length];
+		entry.get(valueBytes);
+		
+		return new String(valueBytes, StandardCharsets.UTF_8);
+	}
+	
+	static BigDecimal readAmount(ByteBuffer entry)
+	{
+		int scale = entry.getInt();
+		int length = entry.getInt();
+		
+		// Nearly every amount fits in a long, no need for a BigInteger then.
+		if (length <= Long.BYTES)
+		{
+			long unscaled = length > 0
+					? entry.get()
+					: 0;
+			for (int i = 1; i < length; i++)
+			{
+				unscaled = unscaled << 8 | (entry.get() & 0xff);
+			}
+			
+			return BigDecimal.valueOf(unscaled, scale);
+		}
+		
+		byte[] unscaledBytes = new byte[length];
+		entry.get(unscaledBytes);
+		
+		return new BigDecimal(new BigInteger(unscaledBytes), scale);
+	}
+}
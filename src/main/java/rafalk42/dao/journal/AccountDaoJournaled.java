@@ -0,0 +1,432 @@
+package rafalk42.dao.journal;
+
+import org.slf4j.LoggerFactory;
+import rafalk42.dao.AccountDao;
+import rafalk42.dao.AccountDaoInternalError;
+import rafalk42.dao.AccountInfo;
+import rafalk42.dao.BalanceUpdateStatus;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Account DAO that makes another, in-memory one, durable by recording every change in a write-ahead journal.
+ * When it's created, the journal is replayed into the other DAO, which has to be empty at that point, so it ends up
+ * exactly as it was when the journal was last written to.
+ * <p>
+ * Changes are applied to the other DAO right away, but they only get to the journal on commit, all the changes
+ * made by a thread since its previous commit as a single entry, so e.g. a batch of transfers is replayed either
+ * whole or not at all. Opening an account is the exception, it's journaled immediately, in the same order in which
+ * the IDs are handed out, as the replay relies on getting the same IDs again. A change is acknowledged once sync
+ * returns, which (depending on the sync policy) waits for it to be forced to the storage device.
+ * <p>
+ * To keep the journal (and the time to replay it) from growing forever, a snapshot of all the accounts can be
+ * taken at any time, while the accounts keep changing (a fuzzy snapshot). It starts a new journal segment first,
+ * then reads the accounts page by page, so it has every change journaled before that segment and maybe some
+ * of the later ones; replaying the journal from that segment on top of the snapshot gives the accounts as they
+ * were at the end of the journal. Once the snapshot is stored, the older snapshots and journal segments are deleted.
+ * The next time the DAO is created, the latest snapshot is loaded (by as many threads as there are CPU cores)
+ * and only the rest of the journal is replayed.
+ * Important:
+ * 1. it's as thread-safe as the other DAO is, but changes of the same account must not be made concurrently
+ * (the banks lock the accounts they change anyway),
+ * 2. changes that were applied but not committed yet can be seen by other threads, even though they would not
+ * survive a crash; anything that depends on them is committed after them, so it would not survive either,
+ * 3. it does NOT impose any business rules, the other DAO does what it does,
+ * 4. snapshots need the other DAO to support restoring accounts.
+ */
+public class AccountDaoJournaled
+		implements AccountDao
+{
+	/**
+	 * Source of the accounts for a snapshot, page by page, the same way findPage of a DAO gives them. A page must
+	 * not have changes that are not committed yet (which findPage of the DAO itself could give), e.g. a bank reads
+	 * it under the same locks under which it changes the accounts.
+	 */
+	@FunctionalInterface
+	public interface PageReader
+	{
+		List<AccountInfo> read(String afterAccountId, int limit)
+				throws AccountDaoInternalError;
+	}
+	
+	private static final int SNAPSHOT_PAGE_SIZE = 4096;
+	
+	private final org.slf4j.Logger log = LoggerFactory.getLogger(AccountDaoJournaled.class);
+	private final AccountDao accountDao;
+	private final Path directory;
+	private final Journal journal;
+	private final ReentrantLock openLock;
+	private final ReentrantLock snapshotLock;
+	private final ThreadLocal<AccountChanges> threadChanges;
+	// Guarded by the open lock.
+	private String lastOpenedAccountId;
+	// Only used while the journal is replayed.
+	private long replayedEntryCount;
+	// Guarded by the snapshot lock.
+	private long snapshotSequence;
+	
+	/**
+	 * @param accountDao empty DAO to keep the accounts in
+	 * @param directory  directory of the journal and the snapshots
+	 * @param syncPolicy when to force the journal to the storage device
+	 * @throws AccountDaoInternalError thrown when the snapshot or the journal could not be read or replayed
+	 */
+	public AccountDaoJournaled(AccountDao accountDao, Path directory, JournalSyncPolicy syncPolicy)
+			throws AccountDaoInternalError
+	{
+		this(accountDao, directory, syncPolicy, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * @param loaderThreadCount number of threads loading the snapshot
+	 */
+	AccountDaoJournaled(AccountDao accountDao, Path directory, JournalSyncPolicy syncPolicy, int loaderThreadCount)
+			throws AccountDaoInternalError
+	{
+		this.accountDao = accountDao;
+		this.directory = directory;
+		
+		openLock = new ReentrantLock();
+		snapshotLock = new ReentrantLock();
+		threadChanges = ThreadLocal.withInitial(AccountChanges::new);
+		
+		if (!accountDao.findPage(null, 1).isEmpty())
+		{
+			throw new IllegalStateException("Account DAO to replay the journal into must be empty");
+		}
+		
+		long firstSegment = 1;
+		Path snapshotFile;
+		try
+		{
+			Files.createDirectories(directory);
+			
+			snapshotFile = AccountSnapshot.findLatest(directory);
+			if (snapshotFile != null)
+			{
+				long startNanos = System.nanoTime();
+				
+				AccountSnapshot snapshot = AccountSnapshot.load(snapshotFile, accountDao, loaderThreadCount);
+				firstSegment = snapshot.getJournalSegment();
+				lastOpenedAccountId = snapshot.getLastOpenedAccountId();
+				reserveLastOpenedAccountId();
+				
+				log.info(String.format("Loaded snapshot %s, %d accounts in %d ms with %d threads",
+									   snapshotFile.getFileName(), snapshot.getAccountCount(),
+									   elapsedMillis(startNanos), loaderThreadCount));
+			}
+		}
+		catch (IOException ex)
+		{
+			throw new AccountDaoInternalError(ex);
+		}
+		
+		boolean afterSnapshot = snapshotFile != null;
+		long startNanos = System.nanoTime();
+		
+		journal = new Journal(directory, syncPolicy, Journal.DEFAULT_SEGMENT_SIZE, firstSegment,
+							  entry -> replay(entry, afterSnapshot));
+		
+		log.info(String.format("Replayed %d journal entries from segment %d in %d ms", replayedEntryCount,
+							   firstSegment, elapsedMillis(startNanos)));
+		
+		// Nothing to take a snapshot of until something gets journaled, unless the snapshot is missing something.
+		snapshotSequence = afterSnapshot && replayedEntryCount == 0
+				? 0
+				: -1;
+	}
+	
+	/**
+	 * Take a snapshot of all the accounts, while they keep changing, and delete the journal it makes unnecessary.
+	 * Only one snapshot is taken at a time. Nothing is done if nothing was journaled since the last snapshot.
+	 *
+	 * @param pageReader source of the accounts
+	 * @throws AccountDaoInternalError thrown when the snapshot could not be written or the journal failed
+	 */
+	public void snapshot(PageReader pageReader)
+			throws AccountDaoInternalError
+	{
+		snapshotLock.lock();
+		try
+		{
+			long sequence = journal.getAppendedSequence();
+			if (sequence == snapshotSequence)
+			{
+				return;
+			}
+			
+			long startNanos = System.nanoTime();
+			long journalSegment = journal.startNewSegment();
+			
+			Path snapshotFile;
+			long accountCount;
+			try (AccountSnapshot.Writer writer = new AccountSnapshot.Writer(directory, journalSegment))
+			{
+				List<AccountInfo> page = pageReader.read(null, SNAPSHOT_PAGE_SIZE);
+				while (!page.isEmpty())
+				{
+					writer.addChunk(page);
+					page = pageReader.read(page.get(page.size() - 1).getId(), SNAPSHOT_PAGE_SIZE);
+				}
+				
+				// An account is journaled right after it's opened, under the open lock, so once the lock is free
+				// the opening of every account in the snapshot is in the journal.
+				String lastOpened;
+				openLock.lock();
+				try
+				{
+					lastOpened = lastOpenedAccountId;
+				}
+				finally
+				{
+					openLock.unlock();
+				}
+				
+				// The snapshot can have changes the journal could still lose, e.g. half of the accounts of a batch
+				// of transfers, together with the rest of the journal they are whole again.
+				journal.force();
+				
+				writer.finish(lastOpened);
+				snapshotFile = writer.getSnapshotFile();
+				accountCount = writer.getAccountCount();
+			}
+			
+			AccountSnapshot.deleteOlder(directory, snapshotFile);
+			journal.deleteSegmentsBefore(journalSegment);
+			snapshotSequence = sequence;
+			
+			log.info(String.format("Took snapshot %s, %d accounts in %d ms", snapshotFile.getFileName(), accountCount,
+								   elapsedMillis(startNanos)));
+		}
+		catch (IOException ex)
+		{
+			throw new AccountDaoInternalError(ex);
+		}
+		finally
+		{
+			snapshotLock.unlock();
+		}
+	}
+	
+	/**
+	 * Write everything committed so far to the journal and close it, once a snapshot being taken is finished.
+	 * The DAO must not be used after that.
+	 *
+	 * @throws AccountDaoInternalError thrown when the journal failed at some point
+	 */
+	public void shutdown()
+			throws AccountDaoInternalError
+	{
+		snapshotLock.lock();
+		try
+		{
+			journal.shutdown();
+		}
+		finally
+		{
+			snapshotLock.unlock();
+		}
+	}
+	
+	@Override
+	public String open(String description, BigDecimal initialBalance)
+			throws AccountDaoInternalError
+	{
+		openLock.lock();
+		try
+		{
+			String accountId = accountDao.open(description, initialBalance);
+			
+			AccountChanges changes = new AccountChanges();
+			changes.addOpen(accountId, description, initialBalance);
+			
+			threadChanges.get().setCommittedSequence(journal.append(changes.toByteArray()));
+			lastOpenedAccountId = accountId;
+			
+			return accountId;
+		}
+		finally
+		{
+			openLock.unlock();
+		}
+	}
+	
+	/**
+	 * The whole batch is a single journal entry, so after a crash either all of its accounts are there or none is.
+	 */
+	@Override
+	public List<String> openBatch(List<String> descriptions, List<BigDecimal> initialBalances)
+			throws AccountDaoInternalError
+	{
+		openLock.lock();
+		try
+		{
+			List<String> accountIds = accountDao.openBatch(descriptions, initialBalances);
+			if (accountIds.isEmpty())
+			{
+				return accountIds;
+			}
+			
+			AccountChanges changes = new AccountChanges();
+			for (int i = 0; i < accountIds.size(); i++)
+			{
+				changes.addOpen(accountIds.get(i), descriptions.get(i), initialBalances.get(i));
+			}
+			
+			threadChanges.get().setCommittedSequence(journal.append(changes.toByteArray()));
+			lastOpenedAccountId = accountIds.get(accountIds.size() - 1);
+			
+			return accountIds;
+		}
+		finally
+		{
+			openLock.unlock();
+		}
+	}
+	
+	@Override
+	public boolean doesItExist(String accountId)
+			throws AccountDaoInternalError
+	{
+		return accountDao.doesItExist(accountId);
+	}
+	
+	@Override
+	public Set<AccountInfo> findAll()
+			throws AccountDaoInternalError
+	{
+		return accountDao.findAll();
+	}
+	
+	@Override
+	public List<AccountInfo> findPage(String afterAccountId, int limit)
+			throws AccountDaoInternalError
+	{
+		return accountDao.findPage(afterAccountId, limit);
+	}
+	
+	@Override
+	public AccountInfo getInfo(String accountId)
+			throws AccountDaoInternalError
+	{
+		return accountDao.getInfo(accountId);
+	}
+	
+	@Override
+	public BigDecimal getBalance(String accountId)
+			throws AccountDaoInternalError
+	{
+		return accountDao.getBalance(accountId);
+	}
+	
+	@Override
+	public void setBalance(String accountId, BigDecimal newBalance)
+			throws AccountDaoInternalError
+	{
+		accountDao.setBalance(accountId, newBalance);
+		
+		threadChanges.get().addBalance(accountId, newBalance);
+	}
+	
+	@Override
+	public BalanceUpdateStatus applyDelta(String accountId, BigDecimal delta)
+			throws AccountDaoInternalError
+	{
+		BalanceUpdateStatus status = accountDao.applyDelta(accountId, delta);
+		
+		if (status == BalanceUpdateStatus.APPLIED)
+		{
+			threadChanges.get().addBalance(accountId, accountDao.getBalance(accountId));
+		}
+		
+		return status;
+	}
+	
+	@Override
+	public BalanceUpdateStatus move(String sourceAccountId, String destinationAccountId, BigDecimal amount)
+			throws AccountDaoInternalError
+	{
+		BalanceUpdateStatus status = accountDao.move(sourceAccountId, destinationAccountId, amount);
+		
+		if (status == BalanceUpdateStatus.APPLIED)
+		{
+			AccountChanges changes = threadChanges.get();
+			changes.addBalance(sourceAccountId, accountDao.getBalance(sourceAccountId));
+			changes.addBalance(destinationAccountId, accountDao.getBalance(destinationAccountId));
+		}
+		
+		return status;
+	}
+	
+	@Override
+	public void close(String accountId)
+			throws AccountDaoInternalError
+	{
+		accountDao.close(accountId);
+		
+		threadChanges.get().addClose(accountId);
+	}
+	
+	@Override
+	public void commit()
+			throws AccountDaoInternalError
+	{
+		AccountChanges changes = threadChanges.get();
+		if (changes.isEmpty())
+		{
+			return;
+		}
+		
+		long sequence = journal.append(changes.toByteArray());
+		changes.clear();
+		changes.setCommittedSequence(sequence);
+	}
+	
+	@Override
+	public void sync()
+			throws AccountDaoInternalError
+	{
+		journal.awaitDurable(threadChanges.get().getCommittedSequence());
+	}
+	
+	private void replay(ByteBuffer entry, boolean afterSnapshot)
+			throws AccountDaoInternalError
+	{
+		String openedAccountId = AccountChanges.apply(entry, accountDao, afterSnapshot);
+		if (openedAccountId != null)
+		{
+			lastOpenedAccountId = openedAccountId;
+		}
+		
+		replayedEntryCount++;
+	}
+	
+	/**
+	 * A snapshot has no closed accounts, if the last account ever opened is one of them, it's restored and closed
+	 * right away, so that its ID (and the ones before it) is not handed out again.
+	 */
+	private void reserveLastOpenedAccountId()
+			throws AccountDaoInternalError
+	{
+		if (lastOpenedAccountId != null
+			&& !accountDao.doesItExist(lastOpenedAccountId))
+		{
+			accountDao.restore(lastOpenedAccountId, null, BigDecimal.ZERO);
+			accountDao.close(lastOpenedAccountId);
+		}
+	}
+	
+	private static long elapsedMillis(long startNanos)
+	{
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+	}
+}
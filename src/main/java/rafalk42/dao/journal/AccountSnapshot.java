@@ -0,0 +1,468 @@
+package rafalk42.dao.journal;
+
+import rafalk42.dao.AccountDao;
+import rafalk42.dao.AccountDaoInternalError;
+import rafalk42.dao.AccountInfo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+
+/**
+ * Snapshot of all the accounts, kept in a file next to the journal, together with the number of the journal segment
+ * from which the journal has to be replayed on top of it. The file is:
+ * 1. header - magic number, version, journal segment number (long), number of accounts (long), number of chunks
+ * and CRC32 of all that,
+ * 2. chunks - length (int), CRC32 (int) and the accounts, encoded as OPEN changes of a journal entry,
+ * 3. trailer - ID of the last account ever opened, a string the way the changes have them, and its CRC32.
+ * Chunks are independent of each other, so they can be read and decoded by many threads at the same time.
+ * <p>
+ * A snapshot is written to a temporary file which only gets its final name once it's complete and forced, so there
+ * is never a partial snapshot under the final name.
+ */
+final class AccountSnapshot
+{
+	private static final String FILE_PREFIX = "snapshot-";
+	private static final String FILE_SUFFIX = ".snap";
+	private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+	private static final int MAGIC = 0x52424b53;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+	private static final int CHUNK_HEADER_SIZE = 8;
+	
+	private final long journalSegment;
+	private final long accountCount;
+	private final String lastOpenedAccountId;
+	
+	private AccountSnapshot(long journalSegment, long accountCount, String lastOpenedAccountId)
+	{
+		this.journalSegment = journalSegment;
+		this.accountCount = accountCount;
+		this.lastOpenedAccountId = lastOpenedAccountId;
+	}
+	
+	/**
+	 * @return number of the first journal segment that is not covered by the snapshot
+	 */
+	long getJournalSegment()
+	{
+		return journalSegment;
+	}
+	
+	long getAccountCount()
+	{
+		return accountCount;
+	}
+	
+	/**
+	 * @return ID of the last account opened before the snapshot was complete, null if no account was ever opened
+	 */
+	String getLastOpenedAccountId()
+	{
+		return lastOpenedAccountId;
+	}
+	
+	/**
+	 * @return file of the newest complete snapshot in given directory, null if there's none
+	 */
+	static Path findLatest(Path directory)
+			throws IOException
+	{
+		List<Path> snapshotFiles = listFiles(directory, FILE_SUFFIX);
+		
+		return snapshotFiles.isEmpty()
+				? null
+				: snapshotFiles.get(snapshotFiles.size() - 1);
+	}
+	
+	/**
+	 * Delete the snapshots older than given one, including the temporary files of the ones never completed.
+	 */
+	static void deleteOlder(Path directory, Path snapshotFile)
+			throws IOException
+	{
+		List<Path> files = listFiles(directory, FILE_SUFFIX);
+		files.addAll(listFiles(directory, FILE_SUFFIX + TEMPORARY_FILE_SUFFIX));
+		
+		for (Path file : files)
+		{
+			if (file.getFileName().toString().compareTo(snapshotFile.getFileName().toString()) < 0)
+			{
+				Files.delete(file);
+			}
+		}
+	}
+	
+	/**
+	 * Read a snapshot and restore all its accounts in given DAO. The chunks are read and decoded by given number
+	 * of threads, the accounts are restored one chunk at a time, as the DAO does not have to be thread-safe.
+	 *
+	 * @param snapshotFile file of the snapshot
+	 * @param accountDao   DAO to restore the accounts in
+	 * @param threadCount  number of threads reading the chunks
+	 * @return the snapshot
+	 * @throws IOException             thrown when the snapshot could not be read or is damaged
+	 * @throws AccountDaoInternalError thrown by the DAO
+	 */
+	static AccountSnapshot load(Path snapshotFile, AccountDao accountDao, int threadCount)
+			throws IOException, AccountDaoInternalError
+	{
+		try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ))
+		{
+			ByteBuffer header = read(channel, 0, HEADER_SIZE, snapshotFile);
+			if (header.getInt() != MAGIC
+				|| header.getInt() != VERSION)
+			{
+				throw new IOException(String.format("%s is not an account snapshot", snapshotFile));
+			}
+			
+			long journalSegment = header.getLong();
+			long accountCount = header.getLong();
+			int chunkCount = header.getInt();
+			verifyChecksum(header.array(), 0, HEADER_SIZE - 4, header.getInt(), snapshotFile);
+			
+			// Only the chunk headers are read up front, to know where the chunks are.
+			long[] chunkPositions = new long[chunkCount];
+			long position = HEADER_SIZE;
+			for (int i = 0; i < chunkCount; i++)
+			{
+				chunkPositions[i] = position;
+				position += CHUNK_HEADER_SIZE + read(channel, position, CHUNK_HEADER_SIZE, snapshotFile).getInt();
+			}
+			
+			String lastOpenedAccountId = readTrailer(channel, position, snapshotFile);
+			
+			AtomicInteger restoredCount = new AtomicInteger();
+			// The DAO is restored into by one loader at a time.
+			ReentrantLock restoreLock = new ReentrantLock();
+			ExecutorService executor = Executors.newFixedThreadPool(threadCount, runnable ->
+			{
+				Thread thread = new Thread(runnable, "account-snapshot-loader");
+				thread.setDaemon(true);
+				return thread;
+			});
+			
+			try
+			{
+				List<Future<?>> futures = new ArrayList<>();
+				for (long chunkPosition : chunkPositions)
+				{
+					futures.add(executor.submit(() ->
+												{
+													List<AccountInfo> accounts = readChunk(channel, chunkPosition,
+																						   snapshotFile);
+													
+													restoreLock.lock();
+													try
+													{
+														for (AccountInfo account : accounts)
+														{
+															accountDao.restore(account.getId(),
+																			   account.getDescription(),
+																			   account.getBalance());
+														}
+													}
+													finally
+													{
+														restoreLock.unlock();
+													}
+													
+													restoredCount.addAndGet(accounts.size());
+													return null;
+												}));
+				}
+				
+				for (Future<?> future : futures)
+				{
+					future.get();
+				}
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				throw new AccountDaoInternalError(ex);
+			}
+			catch (ExecutionException ex)
+			{
+				if (ex.getCause() instanceof IOException)
+				{
+					throw (IOException) ex.getCause();
+				}
+				
+				if (ex.getCause() instanceof AccountDaoInternalError)
+				{
+					throw (AccountDaoInternalError) ex.getCause();
+				}
+				
+				if (ex.getCause() instanceof RuntimeException)
+				{
+					throw (RuntimeException) ex.getCause();
+				}
+				
+				throw new AccountDaoInternalError(ex.getCause());
+			}
+			finally
+			{
+				executor.shutdownNow();
+			}
+			
+			if (restoredCount.get() != accountCount)
+			{
+				throw new IOException(String.format("Snapshot %s is damaged, %d accounts instead of %d",
+													snapshotFile, restoredCount.get(), accountCount));
+			}
+			
+			return new AccountSnapshot(journalSegment, accountCount, lastOpenedAccountId);
+		}
+	}
+	
+	private static List<AccountInfo> readChunk(FileChannel channel, long position, Path snapshotFile)
+			throws IOException
+	{
+		ByteBuffer chunkHeader = read(channel, position, CHUNK_HEADER_SIZE, snapshotFile);
+		int length = chunkHeader.getInt();
+		int checksum = chunkHeader.getInt();
+		
+		ByteBuffer chunk = read(channel, position + CHUNK_HEADER_SIZE, length, snapshotFile);
+		verifyChecksum(chunk.array(), 0, length, checksum, snapshotFile);
+		
+		List<AccountInfo> accounts = new ArrayList<>();
+		while (chunk.hasRemaining())
+		{
+			if (chunk.get() != AccountChanges.OPEN)
+			{
+				throw new IOException(String.format("Snapshot %s is damaged at position %d", snapshotFile, position));
+			}
+			
+			String accountId = AccountChanges.readString(chunk);
+			String description = AccountChanges.readString(chunk);
+			
+			accounts.add(new AccountInfo(accountId, description, AccountChanges.readAmount(chunk)));
+		}
+		
+		return accounts;
+	}
+	
+	private static String readTrailer(FileChannel channel, long position, Path snapshotFile)
+			throws IOException
+	{
+		ByteBuffer trailerHeader = read(channel, position, CHUNK_HEADER_SIZE, snapshotFile);
+		int length = trailerHeader.getInt();
+		int checksum = trailerHeader.getInt();
+		
+		ByteBuffer trailer = read(channel, position + CHUNK_HEADER_SIZE, length, snapshotFile);
+		verifyChecksum(trailer.array(), 0, length, checksum, snapshotFile);
+		
+		return AccountChanges.readString(trailer);
+	}
+	
+	/**
+	 * Read given number of bytes at given position, positional reads can be done by many threads at once.
+	 */
+	private static ByteBuffer read(FileChannel channel, long position, int length, Path snapshotFile)
+			throws IOException
+	{
+		if (length < 0)
+		{
+			throw new IOException(String.format("Snapshot %s is damaged at position %d", snapshotFile, position));
+		}
+		
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer, position + buffer.position()) < 0)
+			{
+				throw new IOException(String.format("Snapshot %s is truncated", snapshotFile));
+			}
+		}
+		
+		// Through Buffer, the ByteBuffer overrides only exist since Java 9.
+		((Buffer) buffer).flip();
+		
+		return buffer;
+	}
+	
+	private static void verifyChecksum(byte[] data, int offset, int length, int checksum, Path snapshotFile)
+			throws IOException
+	{
+		CRC32 crc = new CRC32();
+		crc.update(data, offset, length);
+		
+		if ((int) crc.getValue() != checksum)
+		{
+			throw new IOException(String.format("Snapshot %s is damaged, checksum mismatch", snapshotFile));
+		}
+	}
+	
+	private static List<Path> listFiles(Path directory, String suffix)
+			throws IOException
+	{
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + suffix))
+		{
+			entries.forEach(files::add);
+		}
+		
+		// Numbers are zero padded, so the names sort the same way.
+		Collections.sort(files);
+		
+		return files;
+	}
+	
+	/**
+	 * Writer of a new snapshot, chunk by chunk. The snapshot gets its final name on finish, closing the writer
+	 * before that just deletes what was written.
+	 */
+	static class Writer
+			implements Closeable
+	{
+		private final Path directory;
+		private final Path temporaryFile;
+		private final Path snapshotFile;
+		private final long journalSegment;
+		private final FileChannel channel;
+		private long accountCount;
+		private int chunkCount;
+		private boolean finished;
+		
+		/**
+		 * @param directory      directory of the snapshots
+		 * @param journalSegment number of the first journal segment that will not be covered by the snapshot
+		 */
+		Writer(Path directory, long journalSegment)
+				throws IOException
+		{
+			this.directory = directory;
+			this.journalSegment = journalSegment;
+			
+			snapshotFile = directory.resolve(String.format("%s%010d%s", FILE_PREFIX, journalSegment, FILE_SUFFIX));
+			temporaryFile = directory.resolve(snapshotFile.getFileName() + TEMPORARY_FILE_SUFFIX);
+			channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+									   StandardOpenOption.WRITE);
+			channel.position(HEADER_SIZE);
+		}
+		
+		Path getSnapshotFile()
+		{
+			return snapshotFile;
+		}
+		
+		long getAccountCount()
+		{
+			return accountCount;
+		}
+		
+		void addChunk(List<AccountInfo> accounts)
+				throws IOException
+		{
+			AccountChanges chunk = new AccountChanges();
+			for (AccountInfo account : accounts)
+			{
+				chunk.addOpen(account.getId(), account.getDescription(), account.getBalance());
+			}
+			
+			writeChunk(chunk.toByteArray());
+			
+			accountCount += accounts.size();
+			chunkCount++;
+		}
+		
+		/**
+		 * Write the trailer and the header, force the snapshot and give it its final name.
+		 *
+		 * @param lastOpenedAccountId ID of the last account opened so far, null if there's none
+		 */
+		void finish(String lastOpenedAccountId)
+				throws IOException
+		{
+			byte[] trailer;
+			if (lastOpenedAccountId == null)
+			{
+				trailer = new byte[]{-1, -1, -1, -1};
+			}
+			else
+			{
+				byte[] idBytes = lastOpenedAccountId.getBytes(StandardCharsets.UTF_8);
+				trailer = ByteBuffer.allocate(4 + idBytes.length)
+									.putInt(idBytes.length)
+									.put(idBytes)
+									.array();
+			}
+			
+			writeChunk(trailer);
+			
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC)
+				  .putInt(VERSION)
+				  .putLong(journalSegment)
+				  .putLong(accountCount)
+				  .putInt(chunkCount);
+			
+			CRC32 crc = new CRC32();
+			crc.update(header.array(), 0, HEADER_SIZE - 4);
+			header.putInt((int) crc.getValue());
+			((Buffer) header).flip();
+			
+			while (header.hasRemaining())
+			{
+				channel.write(header, header.position());
+			}
+			
+			channel.force(false);
+			channel.close();
+			
+			Files.move(temporaryFile, snapshotFile, StandardCopyOption.ATOMIC_MOVE);
+			Journal.forceDirectory(directory);
+			
+			finished = true;
+		}
+		
+		@Override
+		public void close()
+				throws IOException
+		{
+			if (!finished)
+			{
+				channel.close();
+				Files.deleteIfExists(temporaryFile);
+			}
+		}
+		
+		private void writeChunk(byte[] data)
+				throws IOException
+		{
+			CRC32 crc = new CRC32();
+			crc.update(data, 0, data.length);
+			
+			ByteBuffer buffer = ByteBuffer.allocate(CHUNK_HEADER_SIZE + data.length);
+			buffer.putInt(data.length)
+				  .putInt((int) crc.getValue())
+				  .put(data);
+			((Buffer) buffer).flip();
+			
+			while (buffer.hasRemaining())
+			{
+				channel.write(buffer);
+			}
+		}
+	}
+}
@@ -0,0 +1,791 @@
+package rafalk42.dao.journal;
+
+import rafalk42.dao.AccountDaoInternalError;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+
+/**
+ * Write-ahead journal: an append-only sequence of entries, each one an opaque array of bytes, kept in a directory
+ * as a row of segment files. An entry on disk is its length (int), CRC32 of its bytes (int) and the bytes.
+ * A segment is closed and a new one started once it grows over the segment size, an entry is never split.
+ * <p>
+ * Callers only put their entries into a buffer, a single writer thread takes everything that piled up there,
+ * writes it with one call and forces it to the storage device according to the sync policy. So when many callers
+ * append at the same time, they all wait for the same force (group commit), the more of them the bigger the group.
+ * Whatever the policy, an entry is acknowledged only once it's written to the file, so that the process dying
+ * right after that does not lose it, only the OS or the machine dying can.
+ * <p>
+ * Opening the journal reads all the existing entries back, in order. A broken entry (torn write, bad checksum)
+ * at the end of the last segment is what a crash in the middle of a write leaves behind, the last segment is cut
+ * right before it; a broken entry anywhere else means the journal is damaged and it's not opened at all.
+ * <p>
+ * Segments only ever get longer, the journal is kept short by starting a new segment when a snapshot of
+ * everything before it is taken, and by deleting the older segments once the snapshot is safely stored.
+ */
+public class Journal
+{
+	/**
+	 * Consumer of the entries read back when the journal is opened.
+	 */
+	@FunctionalInterface
+	public interface Replay
+	{
+		void apply(ByteBuffer entry)
+				throws AccountDaoInternalError;
+	}
+	
+	static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+	
+	private static final String SEGMENT_FILE_PREFIX = "journal-";
+	private static final String SEGMENT_FILE_SUFFIX = ".log";
+	private static final int ENTRY_HEADER_SIZE = 8;
+	private static final int INITIAL_BUFFER_SIZE = 64 << 10;
+	
+	private final Path directory;
+	private final JournalSyncPolicy syncPolicy;
+	private final long segmentSize;
+	private final ReentrantLock lock;
+	private final Condition pendingAvailable;
+	private final Condition writtenAdvanced;
+	private final Condition durableAdvanced;
+	private final Condition segmentRolled;
+	private final Thread writerThread;
+	
+	// Guarded by the lock.
+	private byte[] pending;
+	private int pendingSize;
+	private long appendedSequence;
+	private long writtenSequence;
+	private long durableSequence;
+	private long forceRequestedSequence;
+	private int rollPosition;
+	private long rollSequence;
+	private long rolledSegmentNumber;
+	private boolean running;
+	private Exception failure;
+	
+	// Owned by the writer thread.
+	private byte[] writing;
+	private FileChannel segment;
+	private long segmentNumber;
+	private long segmentPosition;
+	
+	/**
+	 * Open the journal in given directory, creating it if needed, and read all its entries back.
+	 *
+	 * @param directory  directory holding the segment files
+	 * @param syncPolicy when to force the written entries to the storage device
+	 * @param replay     consumer of the existing entries, called for each of them, in order, before the constructor
+	 *                   returns
+	 * @throws AccountDaoInternalError thrown when the journal could not be read or is damaged, or thrown by the
+	 *                                 replay
+	 */
+	public Journal(Path directory, JournalSyncPolicy syncPolicy, Replay replay)
+			throws AccountDaoInternalError
+	{
+		this(directory, syncPolicy, DEFAULT_SEGMENT_SIZE, replay);
+	}
+	
+	Journal(Path directory, JournalSyncPolicy syncPolicy, long segmentSize, Replay replay)
+			throws AccountDaoInternalError
+	{
+		this(directory, syncPolicy, segmentSize, 1, replay);
+	}
+	
+	/**
+	 * @param segmentSize  size after which a new segment is started, only tests need anything else than the default
+	 * @param firstSegment number of the first segment to replay, the older ones are covered by a snapshot
+	 */
+	Journal(Path directory, JournalSyncPolicy syncPolicy, long segmentSize, long firstSegment, Replay replay)
+			throws AccountDaoInternalError
+	{
+		if (syncPolicy == null)
+		{
+			throw new IllegalArgumentException("Journal sync policy cannot be null");
+		}
+		
+		this.directory = directory;
+		this.syncPolicy = syncPolicy;
+		this.segmentSize = segmentSize;
+		
+		lock = new ReentrantLock();
+		pendingAvailable = lock.newCondition();
+		writtenAdvanced = lock.newCondition();
+		durableAdvanced = lock.newCondition();
+		segmentRolled = lock.newCondition();
+		rollPosition = -1;
+		pending = new byte[INITIAL_BUFFER_SIZE];
+		writing = new byte[INITIAL_BUFFER_SIZE];
+		
+		try
+		{
+			Files.createDirectories(directory);
+			
+			List<Path> segmentFiles = listSegmentFiles(firstSegment);
+			for (int i = 0; i < segmentFiles.size(); i++)
+			{
+				Path segmentFile = segmentFiles.get(i);
+				boolean last = i == segmentFiles.size() - 1;
+				
+				if (parseSegmentNumber(segmentFile) != firstSegment + i)
+				{
+					throw new IOException(String.format("Journal segment %d is missing", firstSegment + i));
+				}
+				
+				long validSize = replaySegment(segmentFile, last, replay);
+				
+				if (last)
+				{
+					segmentNumber = parseSegmentNumber(segmentFile);
+					segment = FileChannel.open(segmentFile, StandardOpenOption.WRITE);
+					segment.truncate(validSize);
+					segment.position(validSize);
+					segmentPosition = validSize;
+				}
+			}
+			
+			if (segment == null)
+			{
+				startSegment(firstSegment);
+			}
+		}
+		catch (IOException ex)
+		{
+			throw new AccountDaoInternalError(ex);
+		}
+		
+		running = true;
+		writerThread = new Thread(this::runWriter, "account-journal-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+	
+	/**
+	 * Append an entry. It only gets to the writer thread, use awaitDurable to wait for it to be written.
+	 *
+	 * @param entry bytes of the entry
+	 * @return sequence number of the entry, greater than that of any entry appended before
+	 * @throws AccountDaoInternalError thrown when the journal failed before or was shut down
+	 */
+	public long append(byte[] entry)
+			throws AccountDaoInternalError
+	{
+		CRC32 crc = new CRC32();
+		crc.update(entry, 0, entry.length);
+		int checksum = (int) crc.getValue();
+		
+		lock.lock();
+		try
+		{
+			verifyUsable();
+			
+			int entrySize = ENTRY_HEADER_SIZE + entry.length;
+			if (pending.length - pendingSize < entrySize)
+			{
+				byte[] newPending = new byte[Math.max(pending.length * 2, pendingSize + entrySize)];
+				System.arraycopy(pending, 0, newPending, 0, pendingSize);
+				pending = newPending;
+			}
+			
+			putInt(pending, pendingSize, entry.length);
+			putInt(pending, pendingSize + 4, checksum);
+			System.arraycopy(entry, 0, pending, pendingSize + ENTRY_HEADER_SIZE, entry.length);
+			pendingSize += entrySize;
+			
+			pendingAvailable.signal();
+			
+			return ++appendedSequence;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Wait until an entry is as durable as the sync policy makes it: forced to the storage device with
+	 * EVERY_OPERATION, written to the file (so in the page cache of the OS) with the other policies.
+	 *
+	 * @param sequence sequence number of the entry, 0 waits for nothing
+	 * @throws AccountDaoInternalError thrown when the journal failed or the wait got interrupted
+	 */
+	public void awaitDurable(long sequence)
+			throws AccountDaoInternalError
+	{
+		lock.lock();
+		try
+		{
+			if (syncPolicy.getMode() != JournalSyncPolicy.Mode.EVERY_OPERATION)
+			{
+				while (writtenSequence < sequence)
+				{
+					verifyNotFailed();
+					
+					writtenAdvanced.await();
+				}
+				
+				return;
+			}
+			
+			while (durableSequence < sequence)
+			{
+				verifyNotFailed();
+				
+				durableAdvanced.await();
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new AccountDaoInternalError(ex);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return sequence number of the last entry appended since the journal was opened, 0 if none was
+	 */
+	public long getAppendedSequence()
+	{
+		lock.lock();
+		try
+		{
+			return appendedSequence;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Wait until everything appended so far is forced to the storage device, no matter the sync policy.
+	 *
+	 * @throws AccountDaoInternalError thrown when the journal failed or the wait got interrupted
+	 */
+	public void force()
+			throws AccountDaoInternalError
+	{
+		lock.lock();
+		try
+		{
+			verifyUsable();
+			
+			long sequence = appendedSequence;
+			forceRequestedSequence = Math.max(forceRequestedSequence, sequence);
+			pendingAvailable.signal();
+			
+			while (durableSequence < sequence)
+			{
+				verifyNotFailed();
+				
+				durableAdvanced.await();
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new AccountDaoInternalError(ex);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Start a new segment. Entries appended before the call end up in the older segments (forced), the ones appended
+	 * after it in the new segment or later ones. Only one thread at a time can do that.
+	 *
+	 * @return number of the new segment
+	 * @throws AccountDaoInternalError thrown when the journal failed or the wait got interrupted
+	 */
+	public long startNewSegment()
+			throws AccountDaoInternalError
+	{
+		lock.lock();
+		try
+		{
+			verifyUsable();
+			
+			if (rollPosition >= 0)
+			{
+				throw new IllegalStateException("New segment is already being started");
+			}
+			
+			// Everything appended so far is in the pending buffer up to this position, or already written.
+			rollPosition = pendingSize;
+			rollSequence = appendedSequence;
+			pendingAvailable.signal();
+			
+			long previousSegmentNumber = rolledSegmentNumber;
+			while (rolledSegmentNumber == previousSegmentNumber)
+			{
+				verifyNotFailed();
+				
+				segmentRolled.await();
+			}
+			
+			return rolledSegmentNumber;
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new AccountDaoInternalError(ex);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Delete the segments older than given one, once whatever they hold is stored somewhere else.
+	 *
+	 * @param segmentNumber number of the oldest segment to keep, it's never the current one or a newer one
+	 * @throws AccountDaoInternalError thrown when a segment could not be deleted
+	 */
+	public void deleteSegmentsBefore(long segmentNumber)
+			throws AccountDaoInternalError
+	{
+		try
+		{
+			for (Path segmentFile : listSegmentFiles(1))
+			{
+				if (parseSegmentNumber(segmentFile) < segmentNumber)
+				{
+					Files.delete(segmentFile);
+				}
+			}
+		}
+		catch (IOException ex)
+		{
+			throw new AccountDaoInternalError(ex);
+		}
+	}
+	
+	/**
+	 * Write and force everything appended so far, then close the journal. Nothing can be appended after that.
+	 *
+	 * @throws AccountDaoInternalError thrown when the writer failed at some point
+	 */
+	public void shutdown()
+			throws AccountDaoInternalError
+	{
+		lock.lock();
+		try
+		{
+			running = false;
+			pendingAvailable.signal();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		
+		try
+		{
+			writerThread.join();
+			segment.close();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new AccountDaoInternalError(ex);
+		}
+		catch (IOException ex)
+		{
+			throw new AccountDaoInternalError(ex);
+		}
+		
+		lock.lock();
+		try
+		{
+			verifyNotFailed();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	private void runWriter()
+	{
+		long writtenSequence = 0;
+		long unforcedEntries = 0;
+		long lastForceNanos = System.nanoTime();
+		
+		try
+		{
+			while (true)
+			{
+				int size;
+				long batchEnd;
+				int rollAt;
+				long rollAtSequence;
+				boolean forceRequested;
+				boolean stopping;
+				
+				lock.lock();
+				try
+				{
+					while (pendingSize == 0
+						   && rollPosition < 0
+						   && forceRequestedSequence <= durableSequence
+						   && running)
+					{
+						if (unforcedEntries > 0
+							&& syncPolicy.getMode() == JournalSyncPolicy.Mode.INTERVAL)
+						{
+							long waitNanos = TimeUnit.MILLISECONDS.toNanos(syncPolicy.getValue())
+											 - (System.nanoTime() - lastForceNanos);
+							if (waitNanos <= 0)
+							{
+								break;
+							}
+							
+							pendingAvailable.awaitNanos(waitNanos);
+						}
+						else
+						{
+							pendingAvailable.await();
+						}
+					}
+					
+					byte[] buffer = writing;
+					writing = pending;
+					pending = buffer;
+					size = pendingSize;
+					pendingSize = 0;
+					batchEnd = appendedSequence;
+					rollAt = rollPosition;
+					rollAtSequence = rollSequence;
+					rollPosition = -1;
+					forceRequested = forceRequestedSequence > durableSequence;
+					stopping = !running;
+				}
+				finally
+				{
+					lock.unlock();
+				}
+				
+				if (rollAt >= 0)
+				{
+					write(writing, 0, rollAt);
+					startNextSegment();
+					
+					// Everything up to the new segment got forced with the old one.
+					unforcedEntries = 0;
+					lastForceNanos = System.nanoTime();
+					writtenSequence = rollAtSequence;
+					publishRolled(rollAtSequence);
+					
+					write(writing, rollAt, size - rollAt);
+				}
+				else
+				{
+					write(writing, 0, size);
+				}
+				
+				unforcedEntries += batchEnd - writtenSequence;
+				writtenSequence = batchEnd;
+				
+				if (unforcedEntries > 0
+					&& (stopping || forceRequested || isForceDue(unforcedEntries, lastForceNanos)))
+				{
+					segment.force(false);
+					unforcedEntries = 0;
+					lastForceNanos = System.nanoTime();
+					
+					publishDurable(batchEnd);
+				}
+				else
+				{
+					publishWritten(batchEnd);
+				}
+				
+				if (stopping
+					&& size == 0)
+				{
+					return;
+				}
+			}
+		}
+		catch (IOException | InterruptedException ex)
+		{
+			lock.lock();
+			try
+			{
+				failure = ex;
+				writtenAdvanced.signalAll();
+				durableAdvanced.signalAll();
+				segmentRolled.signalAll();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+	}
+	
+	private boolean isForceDue(long unforcedEntries, long lastForceNanos)
+	{
+		switch (syncPolicy.getMode())
+		{
+			case EVERY_OPERATION:
+				return true;
+			case INTERVAL:
+				return System.nanoTime() - lastForceNanos >= TimeUnit.MILLISECONDS.toNanos(syncPolicy.getValue());
+			case BATCH:
+				return unforcedEntries >= syncPolicy.getValue();
+			default:
+				throw new IllegalStateException("Unsupported journal sync mode " + syncPolicy.getMode());
+		}
+	}
+	
+	private void publishWritten(long sequence)
+	{
+		lock.lock();
+		try
+		{
+			writtenSequence = sequence;
+			writtenAdvanced.signalAll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	private void publishDurable(long sequence)
+	{
+		lock.lock();
+		try
+		{
+			writtenSequence = sequence;
+			durableSequence = sequence;
+			writtenAdvanced.signalAll();
+			durableAdvanced.signalAll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	private void publishRolled(long sequence)
+	{
+		lock.lock();
+		try
+		{
+			writtenSequence = sequence;
+			durableSequence = sequence;
+			rolledSegmentNumber = segmentNumber;
+			writtenAdvanced.signalAll();
+			durableAdvanced.signalAll();
+			segmentRolled.signalAll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Write whole entries to the current segment, starting a new one first if the current one is full.
+	 */
+	private void write(byte[] buffer, int offset, int size)
+			throws IOException
+	{
+		if (size == 0)
+		{
+			return;
+		}
+		
+		if (segmentPosition >= segmentSize)
+		{
+			startNextSegment();
+		}
+		
+		ByteBuffer data = ByteBuffer.wrap(buffer, offset, size);
+		while (data.hasRemaining())
+		{
+			segment.write(data);
+		}
+		
+		segmentPosition += size;
+	}
+	
+	private void startNextSegment()
+			throws IOException
+	{
+		// Everything in a closed segment is forced, only the last segment can have a torn end.
+		segment.force(false);
+		segment.close();
+		startSegment(segmentNumber + 1);
+	}
+	
+	private void startSegment(long number)
+			throws IOException
+	{
+		segmentNumber = number;
+		segment = FileChannel.open(directory.resolve(String.format("%s%010d%s", SEGMENT_FILE_PREFIX, number,
+																   SEGMENT_FILE_SUFFIX)),
+								   StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		segmentPosition = 0;
+		
+		forceDirectory(directory);
+	}
+	
+	/**
+	 * Make the creation (or renaming) of a file in given directory durable. Not every platform can open
+	 * a directory (Windows can't), there the file just has to do without it.
+	 */
+	static void forceDirectory(Path directory)
+	{
+		try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ))
+		{
+			directoryChannel.force(true);
+		}
+		catch (IOException ex)
+		{
+			// Not supported on this platform.
+		}
+	}
+	
+	/**
+	 * @param firstSegment number of the first segment to list, the older ones are left out
+	 */
+	private List<Path> listSegmentFiles(long firstSegment)
+			throws IOException
+	{
+		List<Path> segmentFiles = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+																	SEGMENT_FILE_PREFIX + "*" + SEGMENT_FILE_SUFFIX))
+		{
+			for (Path file : files)
+			{
+				if (parseSegmentNumber(file) >= firstSegment)
+				{
+					segmentFiles.add(file);
+				}
+			}
+		}
+		
+		// Numbers are zero padded, so the names sort the same way.
+		Collections.sort(segmentFiles);
+		
+		return segmentFiles;
+	}
+	
+	private static long parseSegmentNumber(Path segmentFile)
+	{
+		String name = segmentFile.getFileName().toString();
+		
+		return Long.parseLong(name.substring(SEGMENT_FILE_PREFIX.length(),
+											 name.length() - SEGMENT_FILE_SUFFIX.length()));
+	}
+	
+	/**
+	 * Read all the entries of a segment back.
+	 *
+	 * @param segmentFile segment to read
+	 * @param last        whether it's the last segment, the only one where a broken entry is allowed
+	 * @param replay      consumer of the entries
+	 * @return size of the segment up to the first broken entry
+	 * @throws IOException thrown when the segment could not be read or is damaged
+	 */
+	private static long replaySegment(Path segmentFile, boolean last, Replay replay)
+			throws IOException, AccountDaoInternalError
+	{
+		byte[] data = Files.readAllBytes(segmentFile);
+		CRC32 crc = new CRC32();
+		int position = 0;
+		
+		while (position < data.length)
+		{
+			int length = data.length - position >= ENTRY_HEADER_SIZE
+					? getInt(data, position)
+					: -1;
+			
+			boolean valid = length >= 0
+							&& length <= data.length - position - ENTRY_HEADER_SIZE;
+			
+			if (valid)
+			{
+				crc.reset();
+				crc.update(data, position + ENTRY_HEADER_SIZE, length);
+				valid = (int) crc.getValue() == getInt(data, position + 4);
+			}
+			
+			if (!valid)
+			{
+				if (!last)
+				{
+					throw new IOException(String.format("Journal segment %s is damaged at position %d",
+														segmentFile, position));
+				}
+				
+				return position;
+			}
+			
+			replay.apply(ByteBuffer.wrap(data, position + ENTRY_HEADER_SIZE, length).slice());
+			position += ENTRY_HEADER_SIZE + length;
+		}
+		
+		return position;
+	}
+	
+	private void verifyUsable()
+			throws AccountDaoInternalError
+	{
+		verifyNotFailed();
+		
+		if (!running)
+		{
+			throw new IllegalStateException("Journal is shut down");
+		}
+	}
+	
+	private void verifyNotFailed()
+			throws AccountDaoInternalError
+	{
+		if (failure != null)
+		{
+			throw new AccountDaoInternalError(failure);
+		}
+	}
+	
+	private static void putInt(byte[] buffer, int position, int value)
+	{
+		buffer[position] = (byte) (value >>> 24);
+		buffer[position + 1] = (byte) (value >>> 16);
+		buffer[position + 2] = (byte) (value >>> 8);
+		buffer[position + 3] = (byte) value;
+	}
+	
+	private static int getInt(byte[] buffer, int position)
+	{
+		return (buffer[position] & 0xff) << 24
+			   | (buffer[position + 1] & 0xff) << 16
+			   | (buffer[position + 2] & 0xff) << 8
+			   | (buffer[position + 3] & 0xff);
+	}
+}
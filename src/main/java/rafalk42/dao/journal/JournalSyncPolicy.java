@@ -0,0 +1,134 @@
+package rafalk42.dao.journal;
+
+/**
+ * When the journal forces what it has written to the storage device (fsync), which decides how much
+ * of the acknowledged changes a power failure can take away.
+ */
+public final class JournalSyncPolicy
+{
+	public enum Mode
+	{
+		/**
+		 * Every change is forced before it's acknowledged, nothing acknowledged is ever lost. Changes committed
+		 * at the same time share a single force (group commit).
+		 */
+		EVERY_OPERATION,
+		/**
+		 * Changes are acknowledged once they are written to the journal file and forced every given number
+		 * of milliseconds, so about that much of them can be lost when the OS or the machine dies (but not when just
+		 * the process does).
+		 */
+		INTERVAL,
+		/**
+		 * Changes are acknowledged once they are written to the journal file and forced every given number
+		 * of journal entries, so up to that many of them can be lost when the OS or the machine dies (but not when just
+		 * the process does).
+		 */
+		BATCH
+	}
+	
+	private final Mode mode;
+	private final long value;
+	
+	private JournalSyncPolicy(Mode mode, long value)
+	{
+		this.mode = mode;
+		this.value = value;
+	}
+	
+	public static JournalSyncPolicy everyOperation()
+	{
+		return new JournalSyncPolicy(Mode.EVERY_OPERATION, 0);
+	}
+	
+	/**
+	 * @param milliseconds time between forces, must be positive
+	 */
+	public static JournalSyncPolicy interval(long milliseconds)
+	{
+		if (milliseconds <= 0)
+		{
+			throw new IllegalArgumentException("Interval must be positive");
+		}
+		
+		return new JournalSyncPolicy(Mode.INTERVAL, milliseconds);
+	}
+	
+	/**
+	 * @param entries number of journal entries between forces, must be positive
+	 */
+	public static JournalSyncPolicy batch(int entries)
+	{
+		if (entries <= 0)
+		{
+			throw new IllegalArgumentException("Batch size must be positive");
+		}
+		
+		return new JournalSyncPolicy(Mode.BATCH, entries);
+	}
+	
+	/**
+	 * Parse a policy given as text, one of: every, interval:MILLISECONDS, batch:ENTRIES.
+	 *
+	 * @param text policy as text
+	 * @return the policy
+	 */
+	public static JournalSyncPolicy parse(String text)
+	{
+		if (text == null)
+		{
+			throw new IllegalArgumentException("Journal sync policy cannot be null");
+		}
+		
+		if (text.equals("every"))
+		{
+			return everyOperation();
+		}
+		
+		try
+		{
+			if (text.startsWith("interval:"))
+			{
+				return interval(Long.parseLong(text.substring("interval:".length())));
+			}
+			
+			if (text.startsWith("batch:"))
+			{
+				return batch(Integer.parseInt(text.substring("batch:".length())));
+			}
+		}
+		catch (NumberFormatException ex)
+		{
+			throw new IllegalArgumentException("Invalid journal sync policy: " + text);
+		}
+		
+		throw new IllegalArgumentException("Invalid journal sync policy: " + text);
+	}
+	
+	public Mode getMode()
+	{
+		return mode;
+	}
+	
+	/**
+	 * @return milliseconds for INTERVAL, entries for BATCH, 0 for EVERY_OPERATION
+	 */
+	public long getValue()
+	{
+		return value;
+	}
+	
+	@Override
+	public String toString()
+	{
+		switch (mode)
+		{
+			case INTERVAL:
+				return "interval:" + value;
+			case BATCH:
+				return "batch:" + value;
+			default:
+				return "every";
+		}
+	}
+}
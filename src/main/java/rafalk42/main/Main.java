@@ -3,18 +3,46 @@ package rafalk42.main;
 import org.apache.commons.cli.*;
 import org.slf4j.LoggerFactory;
 import org.slf4j.impl.SimpleLogger;
+import rafalk42.api.BankHttpAsyncRestApi;
+import rafalk42.api.BankHttpNettyRestApi;
 import rafalk42.api.BankHttpRestApi;
 import rafalk42.api.BankJsonApi;
+import rafalk42.api.accesslog.AccessLog;
+import rafalk42.api.binary.BankBinaryServer;
+import rafalk42.bank.carnegie.CarnegieBank;
+import rafalk42.bank.domain.AsyncBank;
+import rafalk42.bank.domain.AsyncBankAdapter;
 import rafalk42.bank.domain.Bank;
+import rafalk42.bank.domain.BankInternalError;
+import rafalk42.bank.morgan.MorganBank;
 import rafalk42.bank.rockefeller.RockefellerBank;
+import rafalk42.bank.vanderbilt.VanderbiltBank;
+import rafalk42.bank.vanderbilt.VanderbiltBankShardAssignmentRoundRobin;
 import rafalk42.dao.AccountDao;
+import rafalk42.dao.AccountDaoConcurrent;
+import rafalk42.dao.AccountDaoDense;
 import rafalk42.dao.AccountDaoInMemory;
+import rafalk42.dao.AccountDaoInternalError;
+import rafalk42.dao.AccountDaoMapped;
+import rafalk42.dao.AccountInfo;
+import rafalk42.dao.journal.AccountDaoJournaled;
+import rafalk42.dao.journal.JournalSyncPolicy;
 
+import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 
 public class Main
 {
+	private static final int ASYNC_SERVER_THREAD_COUNT = 8;
+	private static final String DEFAULT_SNAPSHOT_INTERVAL = "600";
+	
 	public static void main(String[] args)
 	{
 		configureSimpleLogger();
@@ -23,6 +51,15 @@ public class Main
 		boolean functionalTest = cmd.hasOption("functionalTest");
 		String addressValue = cmd.getOptionValue("address");
 		String portValue = cmd.getOptionValue("port");
+		String bankValue = cmd.getOptionValue("bank", "rockefeller");
+		String serverValue = cmd.getOptionValue("server", "spark");
+		String dataValue = cmd.getOptionValue("data", "bank-data");
+		String journalValue = cmd.getOptionValue("journal");
+		String snapshotIntervalValue = cmd.getOptionValue("snapshotInterval", DEFAULT_SNAPSHOT_INTERVAL);
+		String binaryPortValue = cmd.getOptionValue("binaryPort");
+		String accessLogValue = cmd.getOptionValue("accessLog");
+		String accessLogSamplingValue = cmd.getOptionValue("accessLogSampling", "1");
+		String accessLogOverflowValue = cmd.getOptionValue("accessLogOverflow", "drop");
 		
 		if (functionalTest)
 		{
@@ -52,7 +89,19 @@ public class Main
 				listenPort = Integer.parseInt(portValue);
 			}
 			
-			startServer(listenAddress, listenPort);
+			int snapshotInterval = Integer.parseInt(snapshotIntervalValue);
+			
+			int binaryPort = 0;
+			if (binaryPortValue != null)
+			{
+				binaryPort = Integer.parseInt(binaryPortValue);
+			}
+			
+			AccessLog accessLog = openAccessLog(accessLogValue, Integer.parseInt(accessLogSamplingValue),
+												accessLogOverflowValue);
+			
+			startServer(listenAddress, listenPort, bankValue, serverValue, dataValue, journalValue, snapshotInterval,
+						binaryPort, accessLog);
 		}
 	}
 	
@@ -77,10 +126,20 @@ public class Main
 	/**
 	 * Start the HTTP REST API server.
 	 *
-	 * @param listenAddress address on which to listen for incoming HTTP REST API requests
-	 * @param listenPort    port on which to listen for incoming HTTP REST API requests
+	 * @param listenAddress    address on which to listen for incoming HTTP REST API requests
+	 * @param listenPort       port on which to listen for incoming HTTP REST API requests
+	 * @param bankName         name of the bank implementation to use
+	 * @param serverName       name of the HTTP server implementation to use
+	 * @param dataDirectory    directory for the banks that keep their accounts in files
+	 * @param journalPolicy    sync policy of the account journal, null for no journal
+	 * @param snapshotInterval seconds between snapshots of the journaled accounts, or between forcing the account
+	 *                         files of rockefeller-mapped, 0 for none
+	 * @param binaryPort       port on which to listen for the binary protocol of the internal services, 0 for none
+	 * @param accessLog        log to record the HTTP requests in, null for none
 	 */
-	private static void startServer(String listenAddress, int listenPort)
+	private static void startServer(String listenAddress, int listenPort, String bankName, String serverName,
+									String dataDirectory, String journalPolicy, int snapshotInterval, int binaryPort,
+									AccessLog accessLog)
 	{
 		final org.slf4j.Logger log = LoggerFactory.getLogger(Main.class);
 		
@@ -88,16 +147,409 @@ public class Main
 							   System.getProperty("java.vendor"), System.getProperty("java.version"), System.getProperty("os.arch"),
 							   System.getProperty("os.name"), System.getProperty("os.version"), Charset.defaultCharset()));
 		
-		AccountDao accountDao = new AccountDaoInMemory();
-		Bank bank = new RockefellerBank(accountDao);
-		BankJsonApi bankJsonApi = new BankJsonApi(bank);
-		BankHttpRestApi bankHttpRestApi = new BankHttpRestApi(bankJsonApi);
+		Bank bank = createBank(bankName, dataDirectory, journalPolicy, snapshotInterval);
 		
-		bankHttpRestApi.start(listenAddress, listenPort);
+		switch (serverName)
+		{
+			case "spark":
+			{
+				BankJsonApi bankJsonApi = new BankJsonApi(bank);
+				BankHttpRestApi bankHttpRestApi = new BankHttpRestApi(bankJsonApi,
+																	  BankHttpRestApi.ThreadingMode.PLATFORM,
+																	  accessLog);
+				
+				bankHttpRestApi.start(listenAddress, listenPort);
+				break;
+			}
+			case "spark-virtual":
+			{
+				BankJsonApi bankJsonApi = new BankJsonApi(bank);
+				BankHttpRestApi bankHttpRestApi = new BankHttpRestApi(bankJsonApi,
+																	  BankHttpRestApi.ThreadingMode.VIRTUAL,
+																	  accessLog);
+				
+				try
+				{
+					bankHttpRestApi.start(listenAddress, listenPort);
+				}
+				catch (UnsupportedOperationException ex)
+				{
+					System.out.println(ex.getMessage());
+					System.exit(1);
+				}
+				break;
+			}
+			case "jetty-async":
+			{
+				BankJsonApi bankJsonApi = new BankJsonApi(createAsyncBank(bank));
+				BankHttpAsyncRestApi bankHttpAsyncRestApi = new BankHttpAsyncRestApi(bankJsonApi,
+																					 ASYNC_SERVER_THREAD_COUNT,
+																					 accessLog);
+				
+				try
+				{
+					bankHttpAsyncRestApi.start(listenAddress, listenPort);
+				}
+				catch (Exception ex)
+				{
+					log.error("Starting HTTP server failed", ex);
+					System.exit(1);
+				}
+				break;
+			}
+			case "netty":
+			{
+				BankJsonApi bankJsonApi = new BankJsonApi(createAsyncBank(bank));
+				BankHttpNettyRestApi bankHttpNettyRestApi = new BankHttpNettyRestApi(bankJsonApi,
+																					 Runtime.getRuntime().availableProcessors(),
+																					 accessLog);
+				
+				try
+				{
+					bankHttpNettyRestApi.start(listenAddress, listenPort);
+				}
+				catch (Exception ex)
+				{
+					log.error("Starting HTTP server failed", ex);
+					System.exit(1);
+				}
+				break;
+			}
+			default:
+				System.out.println(String.format("Unknown HTTP server implementation: %s (use --help for more info).",
+												 serverName));
+				System.exit(1);
+		}
+		
+		if (binaryPort != 0)
+		{
+			// The same bank as the HTTP REST API, so both see the same accounts.
+			BankBinaryServer bankBinaryServer = new BankBinaryServer(bank, Runtime.getRuntime().availableProcessors());
+			
+			try
+			{
+				bankBinaryServer.start(listenAddress, binaryPort);
+			}
+			catch (Exception ex)
+			{
+				log.error("Starting binary protocol server failed", ex);
+				System.exit(1);
+			}
+		}
 		
 		log.info("Initialization complete");
 	}
 	
+	/**
+	 * Open the access log of the HTTP requests, it gets closed (everything recorded written out) when the application
+	 * shuts down.
+	 *
+	 * @param path         file to write the log to, null for no access log
+	 * @param sampleRate   record one in that many successful requests, 0 for the errors only
+	 * @param overflowMode what to do when the log can't keep up, block or drop
+	 * @return opened access log, null if there is none
+	 */
+	private static AccessLog openAccessLog(String path, int sampleRate, String overflowMode)
+	{
+		if (path == null)
+		{
+			return null;
+		}
+		
+		try
+		{
+			AccessLog accessLog = new AccessLog(Paths.get(path), sampleRate,
+												AccessLog.OverflowMode.valueOf(overflowMode.toUpperCase()));
+			
+			Runtime.getRuntime().addShutdownHook(new Thread(accessLog::close));
+			
+			return accessLog;
+		}
+		catch (IOException ex)
+		{
+			System.out.println(String.format("Opening access log %s failed: %s", path, ex));
+		}
+		catch (IllegalArgumentException ex)
+		{
+			System.out.println(String.format("Invalid access log settings: %s (use --help for more info).",
+											 ex.getMessage()));
+		}
+		
+		System.exit(1);
+		return null;
+	}
+	
+	/**
+	 * Get an asynchronous version of a bank. Banks which are asynchronous inside get used directly, all the others
+	 * get their calls queued for a pool of threads, one per CPU core, which are the ones blocking on the bank.
+	 *
+	 * @param bank bank created by createBank
+	 * @return asynchronous version of the bank
+	 */
+	private static AsyncBank createAsyncBank(Bank bank)
+	{
+		if (bank instanceof VanderbiltBank)
+		{
+			return ((VanderbiltBank) bank).getAsyncBank();
+		}
+		
+		return new AsyncBankAdapter(bank, Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
+	}
+	
+	/**
+	 * Create a bank implementation, together with everything it needs, by its name. Terminates JVM with exit code 1
+	 * if the name is not known or the bank could not be created.
+	 *
+	 * @param bankName         name of the bank implementation
+	 * @param dataDirectory    directory for the banks that keep their accounts in files
+	 * @param journalPolicy    sync policy of the account journal, null for no journal
+	 * @param snapshotInterval seconds between snapshots of the journaled accounts, or between forcing the account
+	 *                         files of rockefeller-mapped, 0 for none
+	 * @return new bank instance
+	 */
+	private static Bank createBank(String bankName, String dataDirectory, String journalPolicy, int snapshotInterval)
+	{
+		switch (bankName)
+		{
+			case "rockefeller":
+			{
+				AccountDao accountDao = journal(new AccountDaoInMemory(), dataDirectory, journalPolicy);
+				return snapshots(new RockefellerBank(accountDao), accountDao, snapshotInterval);
+			}
+			case "rockefeller-dense":
+			{
+				AccountDao accountDao = journal(new AccountDaoDense(), dataDirectory, journalPolicy);
+				return snapshots(new RockefellerBank(accountDao), accountDao, snapshotInterval);
+			}
+			case "rockefeller-mapped":
+				if (journalPolicy != null)
+				{
+					System.out.println("rockefeller-mapped keeps its accounts in files already, it cannot be journaled (use --help for more info).");
+					System.exit(1);
+				}
+				
+				return new RockefellerBank(mapped(dataDirectory, snapshotInterval));
+			case "rockefeller-striped":
+			{
+				AccountDao accountDao = journal(new AccountDaoConcurrent(), dataDirectory, journalPolicy);
+				return snapshots(new RockefellerBank(accountDao, RockefellerBank.LockingMode.PER_ACCOUNT), accountDao,
+								 snapshotInterval);
+			}
+			case "morgan":
+				return new MorganBank();
+			case "carnegie":
+			{
+				AccountDao accountDao = new AccountDaoInMemory();
+				return new CarnegieBank(accountDao);
+			}
+			case "vanderbilt":
+				return new VanderbiltBank(Runtime.getRuntime().availableProcessors(), AccountDaoInMemory::new,
+										  new VanderbiltBankShardAssignmentRoundRobin());
+			default:
+				System.out.println(String.format("Unknown bank implementation: %s (use --help for more info).",
+												 bankName));
+				System.exit(1);
+				return null;
+		}
+	}
+	
+	/**
+	 * Make an in-memory account DAO durable with a journal in the data directory, if a journal was asked for.
+	 * The journal is replayed into the DAO right away and shut down (everything forced) when the JVM exits.
+	 * Terminates JVM with exit code 1 if the journal cannot be opened.
+	 *
+	 * @param accountDao    empty in-memory account DAO
+	 * @param dataDirectory directory in which the journal is kept
+	 * @param journalPolicy sync policy of the journal, null for no journal
+	 * @return the DAO with or without the journal
+	 */
+	private static AccountDao journal(AccountDao accountDao, String dataDirectory, String journalPolicy)
+	{
+		if (journalPolicy == null)
+		{
+			return accountDao;
+		}
+		
+		try
+		{
+			AccountDaoJournaled accountDaoJournaled = new AccountDaoJournaled(accountDao,
+																			  Paths.get(dataDirectory, "journal"),
+																			  JournalSyncPolicy.parse(journalPolicy));
+			
+			Runtime.getRuntime().addShutdownHook(new Thread(() ->
+															{
+																try
+																{
+																	accountDaoJournaled.shutdown();
+																}
+																catch (AccountDaoInternalError ex)
+																{
+																	System.out.println("Shutting down account journal failed: "
+																					   + ex.getCause());
+																}
+															}));
+			
+			return accountDaoJournaled;
+		}
+		catch (AccountDaoInternalError ex)
+		{
+			System.out.println(String.format("Opening account journal in %s failed: %s", dataDirectory,
+											 ex.getCause()));
+		}
+		catch (IllegalArgumentException ex)
+		{
+			System.out.println(ex.getMessage());
+		}
+		
+		System.exit(1);
+		return null;
+	}
+	
+	/**
+	 * Open the memory-mapped account table in the data directory. The table is forced to the storage device every
+	 * given number of seconds, so that a crash of the OS loses at most that much, and shut down (forced and closed)
+	 * when the JVM exits. Terminates JVM with exit code 1 if the table cannot be opened.
+	 *
+	 * @param dataDirectory directory in which the account files are kept
+	 * @param forceInterval seconds between forcing the account files, 0 for forcing them only on exit
+	 * @return the DAO
+	 */
+	private static AccountDaoMapped mapped(String dataDirectory, int forceInterval)
+	{
+		AccountDaoMapped accountDaoMapped;
+		try
+		{
+			accountDaoMapped = new AccountDaoMapped(Paths.get(dataDirectory));
+		}
+		catch (AccountDaoInternalError ex)
+		{
+			System.out.println(String.format("Opening account table in %s failed: %s", dataDirectory,
+											 ex.getCause()));
+			System.exit(1);
+			return null;
+		}
+		catch (IllegalArgumentException ex)
+		{
+			System.out.println(ex.getMessage());
+			System.exit(1);
+			return null;
+		}
+		
+		final org.slf4j.Logger log = LoggerFactory.getLogger(Main.class);
+		
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable ->
+		{
+			Thread thread = new Thread(runnable, "account-force");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		if (forceInterval > 0)
+		{
+			executor.scheduleWithFixedDelay(() ->
+											{
+												try
+												{
+													accountDaoMapped.force();
+												}
+												catch (AccountDaoInternalError ex)
+												{
+													log.error("Forcing account table failed", ex.getCause());
+												}
+											}, forceInterval, forceInterval, TimeUnit.SECONDS);
+		}
+		
+		Runtime.getRuntime().addShutdownHook(new Thread(() ->
+														{
+															// A force still running must finish before the files get closed.
+															executor.shutdown();
+															try
+															{
+																executor.awaitTermination(1, TimeUnit.MINUTES);
+																accountDaoMapped.shutdown();
+															}
+															catch (InterruptedException ex)
+															{
+																Thread.currentThread().interrupt();
+															}
+															catch (AccountDaoInternalError ex)
+															{
+																System.out.println("Shutting down account table failed: "
+																				   + ex.getCause());
+															}
+														}));
+		
+		return accountDaoMapped;
+	}
+	
+	/**
+	 * Take snapshots of the accounts of a bank every given number of seconds, if they are journaled, so that
+	 * the journal does not grow forever. The accounts are read through the bank, page by page, under its locks,
+	 * so a snapshot never has a half of an operation. A failed snapshot is just logged, the journal still has
+	 * everything.
+	 *
+	 * @param bank             bank using the DAO
+	 * @param accountDao       account DAO of the bank
+	 * @param snapshotInterval seconds between snapshots, 0 for no snapshots
+	 * @return the bank
+	 */
+	private static Bank snapshots(Bank bank, AccountDao accountDao, int snapshotInterval)
+	{
+		if (!(accountDao instanceof AccountDaoJournaled)
+			|| snapshotInterval <= 0)
+		{
+			return bank;
+		}
+		
+		final org.slf4j.Logger log = LoggerFactory.getLogger(Main.class);
+		AccountDaoJournaled accountDaoJournaled = (AccountDaoJournaled) accountDao;
+		
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable ->
+		{
+			Thread thread = new Thread(runnable, "account-snapshot");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		executor.scheduleWithFixedDelay(() ->
+										{
+											try
+											{
+												accountDaoJournaled.snapshot((afterAccountId, limit) -> readPage(bank,
+																												 afterAccountId,
+																												 limit));
+											}
+											catch (AccountDaoInternalError ex)
+											{
+												log.error("Taking snapshot of accounts failed", ex.getCause());
+											}
+											catch (IllegalStateException ex)
+											{
+												// The journal got shut down, the JVM is exiting.
+											}
+										}, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+		
+		return bank;
+	}
+	
+	private static List<AccountInfo> readPage(Bank bank, String afterAccountId, int limit)
+			throws AccountDaoInternalError
+	{
+		try
+		{
+			List<AccountInfo> page = new ArrayList<>();
+			bank.accountsGetInfoPage(afterAccountId, limit)
+				.forEach((account, info) -> page.add(new AccountInfo(account.getId(), info.getDescription(),
+																	 info.getBalance())));
+			
+			return page;
+		}
+		catch (BankInternalError ex)
+		{
+			throw new AccountDaoInternalError(ex);
+		}
+	}
+	
 	/**
 	 * Handle the setup of command line arguments parsing library and parsing itself. Returns the command line
 	 * parser which allows one to retrieve parameters that were passed to the application.
@@ -127,6 +579,53 @@ public class Main
 		port.setRequired(false);
 		options.addOption(port);
 		
+		Option bank = new Option("b", "bank", true,
+								 "bank implementation: rockefeller (default), rockefeller-dense, rockefeller-mapped, rockefeller-striped, morgan, carnegie, vanderbilt");
+		bank.setRequired(false);
+		options.addOption(bank);
+		
+		Option server = new Option("s", "server", true,
+								   "HTTP server implementation: spark (default), spark-virtual, jetty-async, netty");
+		server.setRequired(false);
+		options.addOption(server);
+		
+		Option data = new Option("d", "data", true,
+								 "directory with the account files of rockefeller-mapped and with the journal (default: bank-data)");
+		data.setRequired(false);
+		options.addOption(data);
+		
+		Option journal = new Option("j", "journal", true,
+									"journal the accounts of rockefeller, rockefeller-dense and rockefeller-striped, with given fsync policy: every, interval:MILLISECONDS, batch:ENTRIES (not allowed with rockefeller-mapped, its files are forced instead)");
+		journal.setRequired(false);
+		options.addOption(journal);
+		
+		Option snapshotInterval = new Option("i", "snapshotInterval", true,
+											 "seconds between snapshots of the journaled accounts, or between forcing the account files of rockefeller-mapped, 0 for none (default: 600)");
+		snapshotInterval.setRequired(false);
+		options.addOption(snapshotInterval);
+		
+		Option binaryPort = new Option("t", "binaryPort", true,
+									   "port to listen on for the binary protocol of the internal services (default: none)");
+		binaryPort.setRequired(false);
+		options.addOption(binaryPort);
+		
+		Option accessLog = new Option("l", "accessLog", true,
+									  "file to write the access log of the HTTP requests to (default: none)");
+		accessLog.setRequired(false);
+		options.addOption(accessLog);
+		
+		Option accessLogSampling = new Option("r", "accessLogSampling", true,
+											  "log one in that many successful HTTP requests, 0 for the errors only, "
+											  + "errors are always logged (default: 1)");
+		accessLogSampling.setRequired(false);
+		options.addOption(accessLogSampling);
+		
+		Option accessLogOverflow = new Option("o", "accessLogOverflow", true,
+											  "when the access log can't keep up: block the requests or drop "
+											  + "the records (default: drop)");
+		accessLogOverflow.setRequired(false);
+		options.addOption(accessLogOverflow);
+		
 		CommandLineParser parser = new DefaultParser();
 		HelpFormatter formatter = new HelpFormatter();
 		
@@ -0,0 +1,312 @@
+package rafalk42.money;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+
+/**
+ * Conversions between amounts represented as BigDecimal and amounts represented as a long count of minor units
+ * (cents). Two decimal places are used, the same as everywhere else in the bank, and rounding is always
+ * half up (actually - half away from zero).
+ * <p>
+ * Minor units can also be parsed from and formatted to decimal text directly, without a BigDecimal (nor a BigInteger,
+ * a StringBuilder or any other object) in between: parse reads the digits of the text straight into a long
+ * and format writes them into a buffer given by the caller.
+ */
+public final class MinorUnits
+{
+	/**
+	 * Number of decimal places represented by the minor units.
+	 */
+	public static final int SCALE = 2;
+	
+	/**
+	 * Maximum length of an amount written by format: a sign, 17 digits, a point and 2 more digits.
+	 */
+	public static final int MAXIMUM_FORMATTED_LENGTH = 21;
+	
+	private static final int MAXIMUM_INTEGER_DIGITS = 16;
+	
+	private MinorUnits()
+	{
+	}
+	
+	/**
+	 * Convert given amount to a number of minor units, rounding it to SCALE decimal places first.
+	 *
+	 * @param amount amount to convert
+	 * @return number of minor units
+	 * @throws ArithmeticException thrown when the rounded amount does not fit in a long
+	 */
+	public static long fromAmount(BigDecimal amount)
+	{
+		if (amount == null)
+		{
+			throw new IllegalArgumentException("Amount cannot be null");
+		}
+		
+		return amount.setScale(SCALE, RoundingMode.HALF_UP)
+					 .movePointRight(SCALE)
+					 .longValueExact();
+	}
+	
+	/**
+	 * @param amount amount to check
+	 * @return true when the amount rounded to SCALE decimal places certainly fits in a long number of minor units
+	 */
+	public static boolean fits(BigDecimal amount)
+	{
+		return amount.precision() - amount.scale() <= MAXIMUM_INTEGER_DIGITS;
+	}
+	
+	/**
+	 * Convert given number of minor units back to an amount with SCALE decimal places.
+	 *
+	 * @param minorUnits number of minor units
+	 * @return amount
+	 */
+	public static BigDecimal toAmount(long minorUnits)
+	{
+		return BigDecimal.valueOf(minorUnits, SCALE);
+	}
+	
+	/**
+	 * Parse decimal text to a number of minor units, rounding it to SCALE decimal places. The text is in the format
+	 * new BigDecimal(String) takes: an optional sign, digits with an optional decimal point and an optional
+	 * exponent, e.g. "12.50", "-0.5" or "1.25E+3".
+	 *
+	 * @param text decimal text
+	 * @return number of minor units
+	 * @throws NumberFormatException thrown when the text is not a decimal number
+	 * @throws ArithmeticException   thrown when the rounded amount does not fit in a long
+	 */
+	public static long parse(CharSequence text)
+	{
+		return parse(text, true);
+	}
+	
+	/**
+	 * Same as parse, but without rounding.
+	 *
+	 * @throws ArithmeticException thrown also when the amount has more than SCALE decimal places (other than zeros)
+	 */
+	public static long parseExact(CharSequence text)
+	{
+		return parse(text, false);
+	}
+	
+	private static long parse(CharSequence text, boolean round)
+	{
+		int length = text.length();
+		int position = 0;
+		
+		boolean negative = false;
+		if (position < length
+			&& (text.charAt(position) == '-' || text.charAt(position) == '+'))
+		{
+			negative = text.charAt(position) == '-';
+			position++;
+		}
+		
+		// Find the digits of the mantissa, and where the decimal point is, before the exponent is known.
+		int mantissaStart = position;
+		int pointPosition = -1;
+		int digitCount = 0;
+		while (position < length)
+		{
+			char c = text.charAt(position);
+			if (c >= '0' && c <= '9')
+			{
+				digitCount++;
+			}
+			else if (c == '.'
+					 && pointPosition < 0)
+			{
+				pointPosition = position;
+			}
+			else
+			{
+				break;
+			}
+			
+			position++;
+		}
+		int mantissaEnd = position;
+		
+		if (digitCount == 0)
+		{
+			throw new NumberFormatException("Not a decimal number: " + text);
+		}
+		
+		long exponent = 0;
+		if (position < length)
+		{
+			char c = text.charAt(position);
+			if (c != 'e'
+				&& c != 'E')
+			{
+				throw new NumberFormatException("Not a decimal number: " + text);
+			}
+			
+			exponent = parseExponent(text, position + 1);
+		}
+		
+		int integerDigitCount = (pointPosition < 0 ? mantissaEnd : pointPosition) - mantissaStart;
+		
+		// Every digit has a power of ten of its own, the ones down to -SCALE make the minor units, the one right
+		// below decides the rounding and the rest has to be zero when not rounding.
+		long units = 0;
+		long lowestPower = SCALE;
+		int roundingDigit = 0;
+		boolean remainder = false;
+		int digitIndex = 0;
+		for (int i = mantissaStart; i < mantissaEnd; i++)
+		{
+			char c = text.charAt(i);
+			if (c == '.')
+			{
+				continue;
+			}
+			
+			int digit = c - '0';
+			long power = integerDigitCount - 1 - digitIndex + exponent;
+			digitIndex++;
+			
+			if (power >= -SCALE)
+			{
+				units = Math.addExact(Math.multiplyExact(units, 10L), digit);
+				lowestPower = power;
+			}
+			else if (power == -SCALE - 1)
+			{
+				roundingDigit = digit;
+			}
+			else
+			{
+				remainder |= digit != 0;
+			}
+		}
+		
+		// Scale up when the last digit is above the last minor unit, e.g. for "12" or "1.5".
+		if (units != 0)
+		{
+			for (long power = lowestPower; power > -SCALE; power--)
+			{
+				units = Math.multiplyExact(units, 10L);
+			}
+		}
+		
+		if (round)
+		{
+			if (roundingDigit >= 5)
+			{
+				units = Math.addExact(units, 1);
+			}
+		}
+		else if (roundingDigit != 0
+				 || remainder)
+		{
+			throw new ArithmeticException("Rounding necessary: " + text);
+		}
+		
+		return negative
+				? -units
+				: units;
+	}
+	
+	private static long parseExponent(CharSequence text, int position)
+	{
+		int length = text.length();
+		
+		boolean negative = false;
+		if (position < length
+			&& (text.charAt(position) == '-' || text.charAt(position) == '+'))
+		{
+			negative = text.charAt(position) == '-';
+			position++;
+		}
+		
+		if (position == length)
+		{
+			throw new NumberFormatException("Not a decimal number: " + text);
+		}
+		
+		long exponent = 0;
+		for (; position < length; position++)
+		{
+			char c = text.charAt(position);
+			if (c < '0'
+				|| c > '9')
+			{
+				throw new NumberFormatException("Not a decimal number: " + text);
+			}
+			
+			// The same limit as BigDecimal has.
+			exponent = exponent * 10 + (c - '0');
+			if (exponent > Integer.MAX_VALUE)
+			{
+				throw new NumberFormatException("Exponent out of range: " + text);
+			}
+		}
+		
+		return negative
+				? -exponent
+				: exponent;
+	}
+	
+	/**
+	 * Write given number of minor units as decimal text with exactly SCALE decimal places, the same text as
+	 * toAmount(minorUnits).toPlainString() gives, e.g. "12.50", "-0.05" or "0.00".
+	 *
+	 * @param minorUnits number of minor units
+	 * @param buffer     where to write the text to, needs up to MAXIMUM_FORMATTED_LENGTH chars from the offset
+	 * @param offset     where in the buffer the text starts
+	 * @return offset right after the text
+	 */
+	public static int format(long minorUnits, char[] buffer, int offset)
+	{
+		// Digits of a negative number are taken as negative too, Long.MIN_VALUE has no positive counterpart.
+		long remaining = minorUnits < 0
+				? minorUnits
+				: -minorUnits;
+		
+		int digitCount = 1;
+		for (long value = remaining / 10; value != 0; value /= 10)
+		{
+			digitCount++;
+		}
+		digitCount = Math.max(digitCount, SCALE + 1);
+		
+		int position = offset;
+		if (minorUnits < 0)
+		{
+			buffer[position++] = '-';
+		}
+		
+		int end = position + digitCount + 1;
+		for (int i = end - 1; i >= position; i--)
+		{
+			if (i == end - 1 - SCALE)
+			{
+				buffer[i] = '.';
+				continue;
+			}
+			
+			buffer[i] = (char) ('0' - remaining % 10);
+			remaining /= 10;
+		}
+		
+		return end;
+	}
+	
+	/**
+	 * @param minorUnits number of minor units
+	 * @return the same text as format writes
+	 */
+	public static String toString(long minorUnits)
+	{
+		char[] buffer = new char[MAXIMUM_FORMATTED_LENGTH];
+		
+		return new String(buffer, 0, format(minorUnits, buffer, 0));
+	}
+}
@@ -0,0 +1,87 @@
+package rafalk42.api;
+
+import org.openjdk.jmh.annotations.*;
+import rafalk42.bank.domain.BankAccountDescription;
+import rafalk42.bank.domain.BankInternalError;
+import rafalk42.bank.rockefeller.RockefellerBank;
+import rafalk42.dao.AccountDaoConcurrent;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Time to answer a poll of the information and of the balance of a random account, through the JSON API
+ * on top of the RockefellerBank: a full read (no If-None-Match) against a check of a client that has the current
+ * version already (304 Not Modified, nothing read but the version).
+ * <p>
+ * Run with: mvn -P benchmark test-compile exec:exec -Dbenchmark=AccountVersionCheckBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountVersionCheckBenchmark
+{
+	private static final int ACCOUNT_COUNT = 100000;
+	
+	private BankJsonApi bankJsonApi;
+	private String[] accountIds;
+	private String[] entityTags;
+	
+	@Setup
+	public void setUp()
+			throws BankInternalError
+	{
+		RockefellerBank bank = new RockefellerBank(new AccountDaoConcurrent(),
+												   RockefellerBank.LockingMode.PER_ACCOUNT);
+		bankJsonApi = new BankJsonApi(bank);
+		
+		accountIds = new String[ACCOUNT_COUNT];
+		entityTags = new String[ACCOUNT_COUNT];
+		for (int i = 0; i < ACCOUNT_COUNT; i++)
+		{
+			accountIds[i] = bank.accountOpen(new BankAccountDescription.Builder()
+													 .description("Account " + i)
+													 .initialBalance(BigDecimal.valueOf(100000 + i, 2))
+													 .build())
+								.getId();
+			entityTags[i] = bankJsonApi.accountGetInfo(accountIds[i], null).join().getEntityTag();
+		}
+	}
+	
+	@Benchmark
+	public VersionedJson infoFullRead()
+	{
+		int i = ThreadLocalRandom.current().nextInt(ACCOUNT_COUNT);
+		
+		return bankJsonApi.accountGetInfo(accountIds[i], null).join();
+	}
+	
+	@Benchmark
+	public VersionedJson infoNotModified()
+	{
+		int i = ThreadLocalRandom.current().nextInt(ACCOUNT_COUNT);
+		
+		return bankJsonApi.accountGetInfo(accountIds[i], entityTags[i]).join();
+	}
+	
+	@Benchmark
+	public VersionedJson balanceFullRead()
+	{
+		int i = ThreadLocalRandom.current().nextInt(ACCOUNT_COUNT);
+		
+		return bankJsonApi.accountGetBalance(accountIds[i], null).join();
+	}
+	
+	@Benchmark
+	public VersionedJson balanceNotModified()
+	{
+		int i = ThreadLocalRandom.current().nextInt(ACCOUNT_COUNT);
+		
+		return bankJsonApi.accountGetBalance(accountIds[i], entityTags[i]).join();
+	}
+}
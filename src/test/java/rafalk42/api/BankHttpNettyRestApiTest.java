@@ -0,0 +1,208 @@
+package rafalk42.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rafalk42.bank.domain.AsyncBankAdapter;
+import rafalk42.bank.rockefeller.RockefellerBank;
+import rafalk42.dao.AccountDaoInMemory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class BankHttpNettyRestApiTest
+{
+	private ExecutorService bankExecutor;
+	private BankHttpNettyRestApi server;
+	private int port;
+	
+	@Before
+	public void setUp()
+			throws Exception
+	{
+		try (ServerSocket socket = new ServerSocket(0))
+		{
+			port = socket.getLocalPort();
+		}
+		
+		bankExecutor = Executors.newFixedThreadPool(2);
+		BankJsonApi bankJsonApi = new BankJsonApi(new AsyncBankAdapter(new RockefellerBank(new AccountDaoInMemory()),
+																	   bankExecutor));
+		server = new BankHttpNettyRestApi(bankJsonApi, 1);
+		server.start("127.0.0.1", port);
+	}
+	
+	@After
+	public void tearDown()
+	{
+		server.stop();
+		bankExecutor.shutdownNow();
+	}
+	
+	/**
+	 * Requests sent in one go over a single connection are answered in order, on the same connection.
+	 */
+	@Test
+	public void pipeliningTest()
+			throws IOException
+	{
+		String body = "{\"description\":\"a\",\"initialBalance\":\"10\"}";
+		String open = "POST /bank/accounts HTTP/1.1\r\n"
+					  + "Host: localhost\r\n"
+					  + "Content-Length: " + body.length() + "\r\n"
+					  + "\r\n"
+					  + body;
+		
+		try (Socket socket = new Socket("127.0.0.1", port))
+		{
+			OutputStream output = socket.getOutputStream();
+			output.write((open
+						  + open
+						  + "GET /bank/accounts?limit=10 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+						  + "GET /bank/nothing HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+			output.flush();
+			
+			BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+																			StandardCharsets.UTF_8));
+			
+			assertTrue(readResponse(input, 200).contains("\"0000000001\""));
+			assertTrue(readResponse(input, 200).contains("\"0000000002\""));
+			String page = readResponse(input, 200);
+			assertTrue(page.indexOf("0000000001") < page.indexOf("0000000002"));
+			readResponse(input, 404);
+		}
+	}
+	
+	@Test
+	public void connectionCloseTest()
+			throws IOException
+	{
+		try (Socket socket = new Socket("127.0.0.1", port))
+		{
+			OutputStream output = socket.getOutputStream();
+			output.write("GET /bank/accounts HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+								 .getBytes(StandardCharsets.US_ASCII));
+			output.flush();
+			
+			BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+																			StandardCharsets.UTF_8));
+			
+			assertEquals("HTTP/1.1 200 OK", input.readLine());
+			String line;
+			do
+			{
+				line = input.readLine();
+			}
+			while (line != null
+				   && !line.isEmpty());
+			
+			// The streamed list comes in chunks: the size, the JSON, then the last chunk.
+			assertEquals("2", input.readLine());
+			assertEquals("[]", input.readLine());
+			assertEquals("0", input.readLine());
+			assertEquals("", input.readLine());
+			assertNull(input.readLine());
+		}
+	}
+	
+	/**
+	 * The entity tag of an account sent back in If-None-Match gets 304 without a body, on the same connection
+	 * as the requests after it.
+	 */
+	@Test
+	public void notModifiedTest()
+			throws IOException
+	{
+		String body = "{\"description\":\"a\",\"initialBalance\":\"10\"}";
+		
+		try (Socket socket = new Socket("127.0.0.1", port))
+		{
+			OutputStream output = socket.getOutputStream();
+			BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+																			StandardCharsets.UTF_8));
+			
+			output.write(("POST /bank/accounts HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length()
+						  + "\r\n\r\n" + body
+						  + "GET /bank/accounts/0000000001 HTTP/1.1\r\nHost: localhost\r\n\r\n")
+								 .getBytes(StandardCharsets.US_ASCII));
+			output.flush();
+			
+			readResponse(input, 200);
+			Map<String, String> headers = readHeaders(input, 200);
+			String entityTag = headers.get("etag");
+			assertNotNull(entityTag);
+			readBody(input, headers);
+			
+			output.write(("GET /bank/accounts/0000000001 HTTP/1.1\r\nHost: localhost\r\nIf-None-Match: " + entityTag
+						  + "\r\n\r\n"
+						  + "GET /bank/accounts/0000000001/balance HTTP/1.1\r\nHost: localhost\r\nIf-None-Match: W/"
+						  + entityTag + "\r\n\r\n"
+						  + "GET /bank/accounts/0000000001 HTTP/1.1\r\nHost: localhost\r\nIf-None-Match: \"other\"\r\n\r\n")
+								 .getBytes(StandardCharsets.US_ASCII));
+			output.flush();
+			
+			assertEquals(entityTag, readHeaders(input, 304).get("etag"));
+			assertEquals(entityTag, readHeaders(input, 304).get("etag"));
+			assertTrue(readResponse(input, 200).contains("\"0000000001\""));
+		}
+	}
+	
+	/**
+	 * @return body of the next response, which has to have the given status and a Content-Length
+	 */
+	private static String readResponse(BufferedReader input, int status)
+			throws IOException
+	{
+		return readBody(input, readHeaders(input, status));
+	}
+	
+	/**
+	 * @return headers of the next response, names in lower case, the response has to have the given status
+	 */
+	private static Map<String, String> readHeaders(BufferedReader input, int status)
+			throws IOException
+	{
+		String statusLine = input.readLine();
+		assertTrue(statusLine, statusLine.startsWith("HTTP/1.1 " + status + " "));
+		
+		Map<String, String> headers = new HashMap<>();
+		String line;
+		while (!(line = input.readLine()).isEmpty())
+		{
+			int colon = line.indexOf(':');
+			headers.put(line.substring(0, colon).toLowerCase(), line.substring(colon + 1).trim());
+		}
+		
+		return headers;
+	}
+	
+	private static String readBody(BufferedReader input, Map<String, String> headers)
+			throws IOException
+	{
+		int contentLength = Integer.parseInt(headers.get("content-length"));
+		
+		char[] body = new char[contentLength];
+		int read = 0;
+		while (read < contentLength)
+		{
+			read += input.read(body, read, contentLength - read);
+		}
+		
+		return new String(body);
+	}
+}
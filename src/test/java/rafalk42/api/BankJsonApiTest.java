@@ -0,0 +1,131 @@
+package rafalk42.api;
+
+import org.junit.Before;
+import org.junit.Test;
+import rafalk42.bank.domain.BankAccount;
+import rafalk42.bank.morgan.MorganBank;
+import rafalk42.bank.rockefeller.RockefellerBank;
+import rafalk42.dao.AccountDaoInMemory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Entity tags of the accounts: what matches If-None-Match and when the JSON is left out for 304 Not Modified.
+ */
+public class BankJsonApiTest
+{
+	private static final String ACCOUNT_ID = "0000000001";
+	
+	private RockefellerBank bank;
+	private BankJsonApi bankJsonApi;
+	
+	@Before
+	public void setUp()
+	{
+		bank = new RockefellerBank(new AccountDaoInMemory());
+		bankJsonApi = new BankJsonApi(bank);
+		bankJsonApi.accountOpen("{\"description\":\"Foo bar\",\"initialBalance\":\"10.00\"}").join();
+	}
+	
+	@Test
+	public void matchesEntityTagTest()
+	{
+		String entityTag = "\"1a2b-3\"";
+		
+		assertTrue(BankJsonApi.matchesEntityTag("\"1a2b-3\"", entityTag));
+		assertTrue(BankJsonApi.matchesEntityTag("W/\"1a2b-3\"", entityTag));
+		assertTrue(BankJsonApi.matchesEntityTag("*", entityTag));
+		assertTrue(BankJsonApi.matchesEntityTag("\"1a2b-1\", W/\"1a2b-3\" ,\"1a2b-2\"", entityTag));
+		
+		assertFalse(BankJsonApi.matchesEntityTag(null, entityTag));
+		assertFalse(BankJsonApi.matchesEntityTag("", entityTag));
+		assertFalse(BankJsonApi.matchesEntityTag("\"1a2b-4\"", entityTag));
+		assertFalse(BankJsonApi.matchesEntityTag("\"1a2b-1\", \"1a2b-2\"", entityTag));
+		assertFalse(BankJsonApi.matchesEntityTag("1a2b-3", entityTag));
+		// Same version of another instance (a tag from before a restart).
+		assertFalse(BankJsonApi.matchesEntityTag("\"ffff-3\"", entityTag));
+	}
+	
+	@Test
+	public void notModifiedTest()
+	{
+		VersionedJson first = bankJsonApi.accountGetInfo(ACCOUNT_ID, null).join();
+		assertFalse(first.isNotModified());
+		assertNotNull(first.getEntityTag());
+		assertTrue(first.getJson().contains("\"Foo bar\""));
+		
+		VersionedJson info = bankJsonApi.accountGetInfo(ACCOUNT_ID, first.getEntityTag()).join();
+		assertTrue(info.isNotModified());
+		assertEquals(first.getEntityTag(), info.getEntityTag());
+		assertNull(info.getJson());
+		
+		VersionedJson balance = bankJsonApi.accountGetBalance(ACCOUNT_ID, "W/" + first.getEntityTag()).join();
+		assertTrue(balance.isNotModified());
+	}
+	
+	@Test
+	public void modifiedTest()
+	{
+		String entityTag = bankJsonApi.accountGetBalance(ACCOUNT_ID, null).join().getEntityTag();
+		
+		bankJsonApi.accountDeposit(ACCOUNT_ID, "{\"amount\":\"1.00\"}", null).join();
+		
+		VersionedJson balance = bankJsonApi.accountGetBalance(ACCOUNT_ID, entityTag).join();
+		assertFalse(balance.isNotModified());
+		assertNotEquals(entityTag, balance.getEntityTag());
+		assertTrue(balance.getJson(), balance.getJson().contains("\"11.00\""));
+		
+		assertTrue(bankJsonApi.accountGetBalance(ACCOUNT_ID, entityTag + ", " + balance.getEntityTag())
+							  .join()
+							  .isNotModified());
+	}
+	
+	/**
+	 * Versions start over with a new instance (a restart), the tags of the old one must not match.
+	 */
+	@Test
+	public void otherEpochTest()
+	{
+		String entityTag = bankJsonApi.accountGetInfo(ACCOUNT_ID, null).join().getEntityTag();
+		
+		BankJsonApi restartedBankJsonApi = new BankJsonApi(bank);
+		VersionedJson info = restartedBankJsonApi.accountGetInfo(ACCOUNT_ID, entityTag).join();
+		
+		assertFalse(info.isNotModified());
+		assertNotEquals(entityTag, info.getEntityTag());
+	}
+	
+	/**
+	 * A bank without versions gives no tag, not even * matches, and it's asked for a version only once.
+	 */
+	@Test
+	public void versionsNotSupportedTest()
+	{
+		AtomicInteger versionRequests = new AtomicInteger();
+		MorganBank morganBank = new MorganBank()
+		{
+			@Override
+			public long accountGetVersion(BankAccount account)
+			{
+				versionRequests.incrementAndGet();
+				throw new UnsupportedOperationException("Account versions are not supported");
+			}
+		};
+		BankJsonApi morganBankJsonApi = new BankJsonApi(morganBank);
+		morganBankJsonApi.accountOpen("{\"description\":\"Foo bar\",\"initialBalance\":\"10.00\"}").join();
+		
+		for (int i = 0; i < 3; i++)
+		{
+			VersionedJson info = morganBankJsonApi.accountGetInfo(ACCOUNT_ID, "*").join();
+			
+			assertFalse(info.isNotModified());
+			assertNull(info.getEntityTag());
+			assertTrue(info.getJson().contains("\"Foo bar\""));
+		}
+		
+		assertEquals(1, versionRequests.get());
+	}
+}
@@ -0,0 +1,112 @@
+package rafalk42.api;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.openjdk.jmh.annotations.*;
+import rafalk42.api.dto.TransferBatchDescriptionDto;
+import rafalk42.api.dto.TransferBatchResultDto;
+import rafalk42.api.dto.TransferDescriptionDto;
+import rafalk42.api.dto.TransferResultDto;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Time to parse a transfer request and to write its response, with the hand-written codecs and with Gson binding
+ * the DTOs by reflection (the way BankJsonApi did it before the codecs), for a single transfer and for a batch
+ * of 100 transfers. Worth running with -prof gc as well, for the allocations per request.
+ * <p>
+ * Run with: mvn -P benchmark test-compile exec:exec -Dbenchmark=BankJsonCodecsBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BankJsonCodecsBenchmark
+{
+	private static final int BATCH_SIZE = 100;
+
+	private Gson gson;
+	private String transferJson;
+	private TransferResultDto transferResult;
+	private String transferBatchJson;
+	private TransferBatchResultDto transferBatchResult;
+
+	@Setup
+	public void setUp()
+	{
+		gson = new GsonBuilder().registerTypeAdapter(BigDecimal.class,
+													 new BigDecimalTypeAdapter())
+								.create();
+
+		TransferDescriptionDto transfer = new TransferDescriptionDto("0000000001", "0000000002", new BigDecimal("12.50"));
+		transferJson = gson.toJson(transfer);
+		transferResult = new TransferResultDto(transfer, transfer.getAmount(), "SUCCESSFUL");
+
+		List<TransferDescriptionDto> transfers = new ArrayList<>();
+		List<TransferResultDto> results = new ArrayList<>();
+		for (int i = 0; i < BATCH_SIZE; i++)
+		{
+			TransferDescriptionDto batchTransfer = new TransferDescriptionDto(String.format("%010d", i + 1),
+																			  String.format("%010d", i + 2),
+																			  BigDecimal.valueOf(i + 1, 2));
+			transfers.add(batchTransfer);
+			results.add(new TransferResultDto(batchTransfer, batchTransfer.getAmount(), "SUCCESSFUL"));
+		}
+		transferBatchJson = gson.toJson(new TransferBatchDescriptionDto("ATOMIC", transfers));
+		transferBatchResult = new TransferBatchResultDto("ATOMIC", results);
+	}
+
+	@Benchmark
+	public TransferDescriptionDto transferReadGson()
+	{
+		return gson.fromJson(transferJson, TransferDescriptionDto.class);
+	}
+
+	@Benchmark
+	public TransferDescriptionDto transferReadCodec()
+	{
+		return BankJsonCodecs.fromJson(transferJson, BankJsonCodecs.TRANSFER_DESCRIPTION);
+	}
+
+	@Benchmark
+	public String transferWriteGson()
+	{
+		return gson.toJson(transferResult);
+	}
+
+	@Benchmark
+	public String transferWriteCodec()
+	{
+		return BankJsonCodecs.toJson(transferResult, BankJsonCodecs.TRANSFER_RESULT);
+	}
+
+	@Benchmark
+	public TransferBatchDescriptionDto batchReadGson()
+	{
+		return gson.fromJson(transferBatchJson, TransferBatchDescriptionDto.class);
+	}
+
+	@Benchmark
+	public TransferBatchDescriptionDto batchReadCodec()
+	{
+		return BankJsonCodecs.fromJson(transferBatchJson, BankJsonCodecs.TRANSFER_BATCH_DESCRIPTION);
+	}
+
+	@Benchmark
+	public String batchWriteGson()
+	{
+		return gson.toJson(transferBatchResult);
+	}
+
+	@Benchmark
+	public String batchWriteCodec()
+	{
+		return BankJsonCodecs.toJson(transferBatchResult, BankJsonCodecs.TRANSFER_BATCH_RESULT);
+	}
+}
@@ -0,0 +1,229 @@
+package rafalk42.api;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import org.junit.Test;
+import rafalk42.api.dto.*;
+
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * The codecs against Gson binding the DTOs by reflection, the way BankJsonApi used to, on the same DTOs
+ * and documents: the output has to be the same to the byte, and so do the parsed values and the exceptions thrown.
+ */
+public class BankJsonCodecsTest
+{
+	private static final String TRICKY_TEXT = "<b>Rent & \"bills\"</b> = 'paid'\\\n\t  zażółć 💸";
+	
+	private final Gson gson = new GsonBuilder().registerTypeAdapter(BigDecimal.class,
+																	new BigDecimalTypeAdapter())
+											   .create();
+	
+	@Test
+	public void writeTest()
+	{
+		BigDecimal amount = new BigDecimal("1234.565");
+		TransferDescriptionDto transfer = new TransferDescriptionDto("0000000001", "0000000002", amount);
+		TransferDescriptionDto incompleteTransfer = new TransferDescriptionDto(null, TRICKY_TEXT, BigDecimal.ONE);
+		DepositWithdrawDescriptionDto deposit = new DepositWithdrawDescriptionDto(BigDecimal.TEN, TRICKY_TEXT);
+		
+		assertWritten(new AccountDescriptionDto(TRICKY_TEXT, amount), BankJsonCodecs.ACCOUNT_DESCRIPTION);
+		assertWritten(new AccountDescriptionDto(null, amount), BankJsonCodecs.ACCOUNT_DESCRIPTION);
+		assertWritten(new AccountOpenBatchDescriptionDto(Arrays.asList(new AccountDescriptionDto("a", amount),
+																	   null)),
+					  BankJsonCodecs.ACCOUNT_OPEN_BATCH_DESCRIPTION);
+		assertWritten(new AccountOpenBatchDescriptionDto(null), BankJsonCodecs.ACCOUNT_OPEN_BATCH_DESCRIPTION);
+		assertWritten(new AccountOpenResultDto("0000000001"), BankJsonCodecs.ACCOUNT_OPEN_RESULT);
+		assertWritten(new AccountOpenBatchResultDto(Arrays.asList(new AccountOpenResultDto("0000000001"),
+																  new AccountOpenResultDto("0000000002"))),
+					  BankJsonCodecs.ACCOUNT_OPEN_BATCH_RESULT);
+		assertWritten(new AccountInfoDto("0000000001", TRICKY_TEXT, amount), BankJsonCodecs.ACCOUNT_INFO);
+		assertWritten(new AccountsPageDto(Arrays.asList(new AccountInfoDto("0000000001", null, amount),
+														new AccountInfoDto("0000000002", "b", BigDecimal.ZERO)),
+										  "0000000002"),
+					  BankJsonCodecs.ACCOUNTS_PAGE);
+		assertWritten(new AccountsPageDto(Collections.emptyList(), null), BankJsonCodecs.ACCOUNTS_PAGE);
+		assertWritten(new AccountBalanceDto(new BigDecimal("-0.005")), BankJsonCodecs.ACCOUNT_BALANCE);
+		assertWritten(new AccountHistoryEntryDto(Long.MAX_VALUE, 1700000000000L, "TRANSFER", "0000000001",
+												 "0000000002", amount, TRICKY_TEXT, "SUCCESSFUL"),
+					  BankJsonCodecs.ACCOUNT_HISTORY_ENTRY);
+		assertWritten(new AccountHistoryEntryDto(1, 0, "DEPOSIT", null, "0000000002", amount, null, "SUCCESSFUL"),
+					  BankJsonCodecs.ACCOUNT_HISTORY_ENTRY);
+		assertWritten(deposit, BankJsonCodecs.DEPOSIT_WITHDRAW_DESCRIPTION);
+		assertWritten(new DepositWithdrawResultDto(deposit, new BigDecimal("1E+3"), "SUCCESSFUL"),
+					  BankJsonCodecs.DEPOSIT_WITHDRAW_RESULT);
+		assertWritten(transfer, BankJsonCodecs.TRANSFER_DESCRIPTION);
+		assertWritten(new TransferResultDto(transfer, amount, "FAILED_NOT_ENOUGH_FUNDS"), BankJsonCodecs.TRANSFER_RESULT);
+		assertWritten(new TransferResultDto(null, amount, null), BankJsonCodecs.TRANSFER_RESULT);
+		assertWritten(new TransferBatchDescriptionDto("ATOMIC", Arrays.asList(transfer, incompleteTransfer, null)),
+					  BankJsonCodecs.TRANSFER_BATCH_DESCRIPTION);
+		assertWritten(new TransferBatchResultDto("BEST_EFFORT",
+												 Arrays.asList(new TransferResultDto(transfer, amount, "SUCCESSFUL"),
+															   new TransferResultDto(incompleteTransfer, BigDecimal.ONE, "FAILED_ACCOUNT_NOT_FOUND"))),
+					  BankJsonCodecs.TRANSFER_BATCH_RESULT);
+		assertWritten(new ApiErrorDto(TRICKY_TEXT), BankJsonCodecs.API_ERROR);
+		
+		assertEquals(gson.toJson(new Object()), BankJsonCodecs.EMPTY_OBJECT);
+	}
+	
+	/**
+	 * Writing into the stream of a list, through the same kind of JSON writer Gson creates.
+	 */
+	@Test
+	public void writeStreamTest()
+			throws Exception
+	{
+		AccountInfoDto account = new AccountInfoDto("0000000001", TRICKY_TEXT, BigDecimal.TEN);
+		
+		StringWriter gsonOutput = new StringWriter();
+		com.google.gson.stream.JsonWriter gsonWriter = gson.newJsonWriter(gsonOutput);
+		gsonWriter.beginArray();
+		gson.toJson(account, AccountInfoDto.class, gsonWriter);
+		gson.toJson(account, AccountInfoDto.class, gsonWriter);
+		gsonWriter.endArray();
+		gsonWriter.flush();
+		
+		StringWriter codecOutput = new StringWriter();
+		com.google.gson.stream.JsonWriter codecWriter = BankJsonCodecs.newJsonWriter(codecOutput);
+		codecWriter.beginArray();
+		BankJsonCodecs.ACCOUNT_INFO.write(codecWriter, account);
+		BankJsonCodecs.ACCOUNT_INFO.write(codecWriter, account);
+		codecWriter.endArray();
+		codecWriter.flush();
+		
+		assertEquals(gsonOutput.toString(), codecOutput.toString());
+	}
+	
+	@Test
+	public void readTest()
+	{
+		String[] transfers = {
+				"{\"sourceAccountId\": \"0000000001\", \"destinationAccountId\": \"0000000002\", \"amount\": \"12.50\"}",
+				"{\"amount\": 12.5, \"sourceAccountId\": 1, \"destinationAccountId\": true}",
+				"{\"sourceAccountId\": null, \"amount\": \"1\", \"amount\": \"2\"}",
+				"{\"unknown\": {\"nested\": [1, 2, {\"a\": null}]}, \"amount\": \"3\"}",
+				"{sourceAccountId: '0000000001', amount: 5} ",
+				"{\"sourceAccountId\": \"\\u0030\\n\"}",
+				"{}",
+				"",
+				"   ",
+				"null",
+				"{} ",
+				"{} {}",
+				"{} x",
+				"{\"amount\": 1}; ",
+				"[1]",
+				"\"text\"",
+				"{\"amount\": null}",
+				"{\"amount\": \"abc\"}",
+				"{\"amount\": {}}",
+				"{\"sourceAccountId\": [\"0000000001\"]}",
+				"{\"amount\": ",
+				"{\"amount\" \"1\"}",
+				"{\"sourceAccountId\": \"0000000001\"",
+				"{\"sourceAccountId\": \"0000000001\",}",
+				};
+		for (String transfer : transfers)
+		{
+			assertRead(transfer, TransferDescriptionDto.class, BankJsonCodecs.TRANSFER_DESCRIPTION);
+		}
+		
+		String[] batches = {
+				"{\"mode\": \"ATOMIC\", \"transfers\": [{\"sourceAccountId\": \"0000000001\", \"amount\": 1}, null, {}]}",
+				"{\"mode\": \"NETTED\", \"transfers\": []}",
+				"{\"mode\": \"NETTED\", \"transfers\": null}",
+				"{\"mode\": \"NETTED\", \"transfers\": {}}",
+				"{\"mode\": \"NETTED\", \"transfers\": [1]}",
+				"{\"transfers\": [{\"amount\": \"x\"}]}",
+				};
+		for (String batch : batches)
+		{
+			assertRead(batch, TransferBatchDescriptionDto.class, BankJsonCodecs.TRANSFER_BATCH_DESCRIPTION);
+		}
+		
+		assertRead("{\"amount\": \"10\", \"title\": false}", DepositWithdrawDescriptionDto.class,
+				   BankJsonCodecs.DEPOSIT_WITHDRAW_DESCRIPTION);
+		assertRead("{\"description\": \"a\", \"initialBalance\": 100}", AccountDescriptionDto.class,
+				   BankJsonCodecs.ACCOUNT_DESCRIPTION);
+		assertRead("{\"accounts\": [{\"description\": \"a\", \"initialBalance\": 100}, {\"description\": \"b\"}]}",
+				   AccountOpenBatchDescriptionDto.class, BankJsonCodecs.ACCOUNT_OPEN_BATCH_DESCRIPTION);
+		assertRead("{\"sequence\": 5, \"timestamp\": null, \"amount\": \"1.00\", \"result\": \"SUCCESSFUL\"}",
+				   AccountHistoryEntryDto.class, BankJsonCodecs.ACCOUNT_HISTORY_ENTRY);
+		assertRead("{\"sequence\": 1.5}", AccountHistoryEntryDto.class, BankJsonCodecs.ACCOUNT_HISTORY_ENTRY);
+		assertRead("{\"sequence\": \"x\"}", AccountHistoryEntryDto.class, BankJsonCodecs.ACCOUNT_HISTORY_ENTRY);
+		assertRead("{\"request\": {\"amount\": 1, \"title\": \"t\"}, \"actualAmount\": 1, \"result\": \"SUCCESSFUL\"}",
+				   DepositWithdrawResultDto.class, BankJsonCodecs.DEPOSIT_WITHDRAW_RESULT);
+		assertRead("{\"mode\": \"ATOMIC\", \"results\": [{\"request\": {\"amount\": 1}, \"result\": \"SUCCESSFUL\"}]}",
+				   TransferBatchResultDto.class, BankJsonCodecs.TRANSFER_BATCH_RESULT);
+		assertRead("{\"accounts\": [{\"id\": \"0000000001\", \"balance\": 1}], \"nextAfter\": \"0000000001\"}",
+				   AccountsPageDto.class, BankJsonCodecs.ACCOUNTS_PAGE);
+	}
+	
+	/**
+	 * Amounts come out the same as BigDecimal rounds and formats them, also the ones too big for minor units,
+	 * and come in exactly as given.
+	 */
+	@Test
+	public void moneyTest()
+	{
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; i++)
+		{
+			BigDecimal amount = BigDecimal.valueOf(random.nextLong() >> random.nextInt(64), random.nextInt(10) - 2);
+			String text = amount.setScale(2, RoundingMode.HALF_UP).toPlainString();
+			
+			assertEquals("{\"balance\":\"" + text + "\"}",
+						 BankJsonCodecs.toJson(new AccountBalanceDto(amount), BankJsonCodecs.ACCOUNT_BALANCE));
+			assertEquals(0, amount.compareTo(BankJsonCodecs.fromJson("{\"balance\": \"" + amount + "\"}",
+																	 BankJsonCodecs.ACCOUNT_BALANCE).getBalance()));
+		}
+		
+		BigDecimal hugeAmount = new BigDecimal("123456789012345678901234567890.125");
+		assertEquals("{\"balance\":\"123456789012345678901234567890.13\"}",
+					 BankJsonCodecs.toJson(new AccountBalanceDto(hugeAmount), BankJsonCodecs.ACCOUNT_BALANCE));
+		assertEquals(hugeAmount, BankJsonCodecs.fromJson("{\"balance\": " + hugeAmount + "}",
+														 BankJsonCodecs.ACCOUNT_BALANCE).getBalance());
+	}
+	
+	private <T> void assertWritten(T value, TypeAdapter<T> codec)
+	{
+		assertEquals(gson.toJson(value), BankJsonCodecs.toJson(value, codec));
+	}
+	
+	/**
+	 * Both parse the document to the same value (compared by what Gson writes of it) or both fail the same way.
+	 */
+	private <T> void assertRead(String json, Class<T> type, TypeAdapter<T> codec)
+	{
+		String expected;
+		try
+		{
+			expected = gson.toJson(gson.fromJson(json, type));
+		}
+		catch (RuntimeException ex)
+		{
+			expected = ex.getClass().getName();
+		}
+		
+		String actual;
+		try
+		{
+			actual = gson.toJson(BankJsonCodecs.fromJson(json, codec));
+		}
+		catch (RuntimeException ex)
+		{
+			actual = ex.getClass().getName();
+		}
+		
+		assertEquals(json, expected, actual);
+	}
+}
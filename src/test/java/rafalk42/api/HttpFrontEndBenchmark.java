@@ -0,0 +1,244 @@
+package rafalk42.api;
+
+import org.openjdk.jmh.annotations.*;
+import rafalk42.bank.domain.AsyncBankAdapter;
+import rafalk42.bank.domain.BankAccountDescription;
+import rafalk42.bank.rockefeller.RockefellerBank;
+import rafalk42.dao.AccountDaoConcurrent;
+import spark.Spark;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Requests per second (thrpt, in requests per millisecond) and latency percentiles (sample, p0.99 is the p99)
+ * of the HTTP front ends over the same bank (RockefellerBank locking per account): Spark, Jetty with asynchronous
+ * request handling and Netty, configured the way Main does. 16 clients, each with its own keep-alive connection,
+ * send a request as soon as they get the previous response: a balance read or a deposit to a random account.
+ * The servers run in the benchmark JVM with the request logging off, so it is the HTTP handling that is compared.
+ * <p>
+ * Run with: mvn -P benchmark test-compile exec:exec -Dbenchmark=HttpFrontEndBenchmark
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+@Threads(16)
+@State(Scope.Benchmark)
+public class HttpFrontEndBenchmark
+{
+	private static final int ACCOUNT_COUNT = 10000;
+	private static final int ASYNC_SERVER_THREAD_COUNT = 8;
+	
+	@Param({"spark", "jetty-async", "netty"})
+	private String server;
+	
+	private int port;
+	private String[] accountIds;
+	private ExecutorService bankExecutor;
+	private BankHttpNettyRestApi nettyServer;
+	
+	@Setup
+	public void setUp()
+			throws Exception
+	{
+		try (ServerSocket socket = new ServerSocket(0))
+		{
+			port = socket.getLocalPort();
+		}
+		
+		RockefellerBank bank = new RockefellerBank(new AccountDaoConcurrent(), RockefellerBank.LockingMode.PER_ACCOUNT);
+		
+		accountIds = new String[ACCOUNT_COUNT];
+		for (int i = 0; i < ACCOUNT_COUNT; i++)
+		{
+			accountIds[i] = bank.accountOpen(new BankAccountDescription.Builder()
+													 .description("Account " + i)
+													 .initialBalance(BigDecimal.valueOf(1000000))
+													 .build())
+								.getId();
+		}
+		
+		bankExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		
+		switch (server)
+		{
+			case "spark":
+				new BankHttpRestApi(new BankJsonApi(bank)).start("127.0.0.1", port);
+				break;
+			case "jetty-async":
+				new BankHttpAsyncRestApi(new BankJsonApi(new AsyncBankAdapter(bank, bankExecutor)),
+										 ASYNC_SERVER_THREAD_COUNT).start("127.0.0.1", port);
+				break;
+			case "netty":
+				nettyServer = new BankHttpNettyRestApi(new BankJsonApi(new AsyncBankAdapter(bank, bankExecutor)),
+													   Runtime.getRuntime().availableProcessors());
+				nettyServer.start("127.0.0.1", port);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown server: " + server);
+		}
+	}
+	
+	@TearDown
+	public void tearDown()
+	{
+		if (server.equals("spark"))
+		{
+			Spark.stop();
+		}
+		
+		if (nettyServer != null)
+		{
+			nettyServer.stop();
+		}
+		
+		bankExecutor.shutdownNow();
+	}
+	
+	@Benchmark
+	public int balance(Client client)
+			throws IOException
+	{
+		String id = accountIds[ThreadLocalRandom.current().nextInt(ACCOUNT_COUNT)];
+		
+		return client.send("GET /bank/accounts/" + id + "/balance HTTP/1.1\r\n"
+						   + "Host: localhost\r\n"
+						   + "\r\n");
+	}
+	
+	@Benchmark
+	public int deposit(Client client)
+			throws IOException
+	{
+		String id = accountIds[ThreadLocalRandom.current().nextInt(ACCOUNT_COUNT)];
+		String body = "{\"amount\":\"1.00\",\"title\":\"Benchmark\"}";
+		
+		return client.send("POST /bank/accounts/" + id + "/deposit HTTP/1.1\r\n"
+						   + "Host: localhost\r\n"
+						   + "Content-Type: application/json\r\n"
+						   + "Content-Length: " + body.length() + "\r\n"
+						   + "\r\n"
+						   + body);
+	}
+	
+	/**
+	 * A minimal HTTP/1.1 client over a single keep-alive connection, one request at a time.
+	 */
+	@State(Scope.Thread)
+	public static class Client
+	{
+		private Socket socket;
+		private OutputStream output;
+		private InputStream input;
+		
+		@Setup
+		public void setUp(HttpFrontEndBenchmark benchmark)
+				throws IOException
+		{
+			socket = new Socket("127.0.0.1", benchmark.port);
+			socket.setTcpNoDelay(true);
+			output = socket.getOutputStream();
+			input = new BufferedInputStream(socket.getInputStream());
+		}
+		
+		@TearDown
+		public void tearDown()
+				throws IOException
+		{
+			socket.close();
+		}
+		
+		/**
+		 * @return status of the response, once the whole response is read
+		 */
+		int send(String request)
+				throws IOException
+		{
+			output.write(request.getBytes(StandardCharsets.US_ASCII));
+			output.flush();
+			
+			String statusLine = readLine();
+			int status = Integer.parseInt(statusLine.substring(9, 12));
+			
+			int contentLength = 0;
+			boolean chunked = false;
+			String line;
+			while (!(line = readLine()).isEmpty())
+			{
+				String header = line.toLowerCase();
+				if (header.startsWith("content-length:"))
+				{
+					contentLength = Integer.parseInt(header.substring("content-length:".length()).trim());
+				}
+				else if (header.startsWith("transfer-encoding:")
+						 && header.contains("chunked"))
+				{
+					chunked = true;
+				}
+			}
+			
+			if (!chunked)
+			{
+				skip(contentLength);
+				return status;
+			}
+			
+			int chunkSize;
+			while ((chunkSize = Integer.parseInt(readLine().trim(), 16)) > 0)
+			{
+				skip(chunkSize);
+				readLine();
+			}
+			readLine();
+			
+			return status;
+		}
+		
+		private String readLine()
+				throws IOException
+		{
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			int b;
+			while ((b = input.read()) != '\n')
+			{
+				if (b == -1)
+				{
+					throw new IOException("Connection closed");
+				}
+				
+				if (b != '\r')
+				{
+					line.write(b);
+				}
+			}
+			
+			return line.toString("US-ASCII");
+		}
+		
+		private void skip(int byteCount)
+				throws IOException
+		{
+			for (int i = 0; i < byteCount; i++)
+			{
+				if (input.read() == -1)
+				{
+					throw new IOException("Connection closed");
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package rafalk42.api;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class IdempotencyCacheTest
+{
+	@Test
+	public void retryTest()
+	{
+		IdempotencyCache cache = new IdempotencyCache();
+		AtomicInteger executions = new AtomicInteger();
+		
+		assertEquals("result 1", cache.execute("key", "request", () -> complete("result " + executions.incrementAndGet())).join());
+		assertEquals("result 1", cache.execute("key", "request", () -> complete("result " + executions.incrementAndGet())).join());
+		assertEquals("result 2", cache.execute("other key", "request", () -> complete("result " + executions.incrementAndGet())).join());
+		assertEquals(2, executions.get());
+	}
+	
+	/**
+	 * A retry coming while the first request is still running waits for it instead of running the request again.
+	 */
+	@Test
+	public void retryWhileRunningTest()
+	{
+		IdempotencyCache cache = new IdempotencyCache();
+		CompletableFuture<String> running = new CompletableFuture<>();
+		
+		CompletableFuture<String> first = cache.execute("key", "request", () -> running);
+		CompletableFuture<String> retry = cache.execute("key", "request", () -> complete("executed again"));
+		assertFalse(retry.isDone());
+		
+		running.complete("result");
+		assertEquals("result", first.join());
+		assertEquals("result", retry.join());
+	}
+	
+	@Test
+	public void differentRequestTest()
+	{
+		IdempotencyCache cache = new IdempotencyCache();
+		cache.execute("key", "request", () -> complete("result")).join();
+		
+		try
+		{
+			cache.execute("key", "other request", () -> complete("other result")).join();
+			fail("Key reused for a different request");
+		}
+		catch (CompletionException ex)
+		{
+			assertTrue(ex.getCause() instanceof BankJsonApiInvalidParameter);
+		}
+		
+		assertEquals("result", cache.execute("key", "request", () -> complete("executed again")).join());
+	}
+	
+	/**
+	 * A failed request is not remembered, so that a retry can succeed.
+	 */
+	@Test
+	public void failureTest()
+	{
+		IdempotencyCache cache = new IdempotencyCache();
+		BankJsonApiInternalError error = new BankJsonApiInternalError(new RuntimeException("Failed"));
+		
+		CompletableFuture<String> failed = new CompletableFuture<>();
+		failed.completeExceptionally(error);
+		try
+		{
+			cache.execute("key", "request", () -> failed).join();
+			fail("Request failed");
+		}
+		catch (CompletionException ex)
+		{
+			assertSame(error, ex.getCause());
+		}
+		
+		assertEquals(0, cache.size());
+		assertEquals("result", cache.execute("key", "request", () -> complete("result")).join());
+	}
+	
+	@Test
+	public void expiryTest()
+	{
+		AtomicLong now = new AtomicLong(1000);
+		IdempotencyCache cache = new IdempotencyCache(100, IdempotencyCache.DEFAULT_MAXIMUM_SIZE, now::get);
+		
+		cache.execute("key", "request", () -> complete("result")).join();
+		now.set(1099);
+		assertEquals("result", cache.execute("key", "request", () -> complete("executed again")).join());
+		
+		now.set(1100);
+		assertEquals("executed again", cache.execute("key", "request", () -> complete("executed again")).join());
+	}
+	
+	/**
+	 * However many keys are used, the oldest entries make room for the new ones once the cap is hit.
+	 */
+	@Test
+	public void maximumSizeTest()
+	{
+		IdempotencyCache cache = new IdempotencyCache(IdempotencyCache.DEFAULT_TIME_TO_LIVE, 64 * 1024);
+		
+		for (int i = 0; i < 10000; i++)
+		{
+			cache.execute("key " + i, "request " + i, () -> complete("result")).join();
+		}
+		
+		// Entries are some 300 bytes each, so about 3 per kilobyte fit.
+		assertTrue(cache.size() > 64);
+		assertTrue(cache.size() < 256);
+		
+		assertEquals("result", cache.execute("key 9999", "request 9999", () -> complete("executed again")).join());
+		assertEquals("executed again", cache.execute("key 0", "request 0", () -> complete("executed again")).join());
+	}
+	
+	@Test
+	public void concurrencyTest()
+			throws InterruptedException
+	{
+		IdempotencyCache cache = new IdempotencyCache();
+		AtomicInteger executions = new AtomicInteger();
+		
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i] = new Thread(() ->
+									{
+										for (int key = 0; key < 10000; key++)
+										{
+											String request = "request " + key;
+											String result = cache.execute("key " + key,
+																		  request,
+																		  () ->
+																		  {
+																			  executions.incrementAndGet();
+																			  return complete(request);
+																		  })
+																 .join();
+											assertEquals(request, result);
+										}
+									});
+			threads[i].start();
+		}
+		
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+		
+		assertEquals(10000, executions.get());
+		assertEquals(10000, cache.size());
+	}
+	
+	private static CompletableFuture<String> complete(String result)
+	{
+		return CompletableFuture.completedFuture(result);
+	}
+}
@@ -0,0 +1,85 @@
+package rafalk42.api.accesslog;
+
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Requests per millisecond that 8 request threads can log: "slf4j" is the per-request log.info of a formatted line
+ * the HTTP servers used to do (slf4j-simple, configured like Main does it, writing to a file instead of stderr),
+ * the others go through AccessLog, every request with BLOCK and DROP, one in a hundred with "drop-sampled".
+ * AccessLog.close warns about the records it dropped, so their number ends up in the slf4j log file of the fork.
+ * <p>
+ * Run with: mvn -P benchmark test-compile exec:exec -Dbenchmark=AccessLogBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dorg.slf4j.simpleLogger.logFile=target/access-log-benchmark-slf4j.log",
+								  "-Dorg.slf4j.simpleLogger.showDateTime=true",
+								  "-Dorg.slf4j.simpleLogger.dateTimeFormat=yyyy-MM-dd'T'HH:mm:ss.SSSZ"})
+@Threads(8)
+@State(Scope.Benchmark)
+public class AccessLogBenchmark
+{
+	private static final int PATH_COUNT = 10000;
+	
+	@Param({"slf4j", "block", "drop", "drop-sampled"})
+	private String mode;
+	
+	private final org.slf4j.Logger log = LoggerFactory.getLogger(AccessLogBenchmark.class);
+	private String[] paths;
+	private Path file;
+	private AccessLog accessLog;
+	
+	@Setup
+	public void setUp()
+			throws IOException
+	{
+		paths = new String[PATH_COUNT];
+		for (int i = 0; i < PATH_COUNT; i++)
+		{
+			paths[i] = "/bank/accounts/" + i + "/balance";
+		}
+		
+		if (!mode.equals("slf4j"))
+		{
+			file = Files.createTempFile("access-log-benchmark", ".log");
+			accessLog = new AccessLog(file,
+									  mode.equals("drop-sampled") ? 100 : 1,
+									  mode.equals("block") ? AccessLog.OverflowMode.BLOCK : AccessLog.OverflowMode.DROP);
+		}
+	}
+	
+	@TearDown
+	public void tearDown()
+			throws IOException
+	{
+		if (accessLog != null)
+		{
+			accessLog.close();
+			Files.delete(file);
+		}
+	}
+	
+	@Benchmark
+	public void request()
+	{
+		String path = paths[ThreadLocalRandom.current().nextInt(PATH_COUNT)];
+		
+		if (accessLog == null)
+		{
+			log.info(String.format("HTTP request from %s: %s %s", "127.0.0.1", "GET", path));
+			return;
+		}
+		
+		accessLog.record(System.currentTimeMillis(), "127.0.0.1", "GET", path, 200, 250000);
+	}
+}
@@ -0,0 +1,189 @@
+package rafalk42.api.accesslog;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class AccessLogTest
+{
+	private static final String OVERFLOW_MARKER = " - access log overflow, records dropped: ";
+	
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	
+	@Test
+	public void formatTest()
+			throws IOException
+	{
+		Path path = temporaryFolder.getRoot().toPath().resolve("access.log");
+		long timestamp = 1760788800042L;
+		
+		AccessLog accessLog = new AccessLog(path, 1, AccessLog.OverflowMode.BLOCK);
+		accessLog.record(timestamp, "127.0.0.1", "POST", "/bank/accounts/42/deposit", 200,
+						 TimeUnit.MICROSECONDS.toNanos(384));
+		accessLog.record(timestamp, null, "GET", "/bank/a b\n%ł💰", 404, 1500);
+		accessLog.close();
+		
+		String time = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSxx")
+									   .format(Instant.ofEpochMilli(timestamp).atZone(ZoneId.systemDefault()));
+		
+		List<String> lines = Files.readAllLines(path, StandardCharsets.US_ASCII);
+		assertEquals(2, lines.size());
+		assertEquals(time + " 127.0.0.1 POST /bank/accounts/42/deposit 200 384us", lines.get(0));
+		assertEquals(time + " - GET /bank/a%20b%0A%25%C5%82%F0%9F%92%B0 404 1us", lines.get(1));
+	}
+	
+	/**
+	 * Many more records than slots, from a few threads at once, none of them lost.
+	 */
+	@Test
+	public void blockTest()
+			throws Exception
+	{
+		Path path = temporaryFolder.getRoot().toPath().resolve("access.log");
+		
+		AccessLog accessLog = new AccessLog(path, 16, 1, AccessLog.OverflowMode.BLOCK);
+		record(accessLog, 4, 10000);
+		accessLog.close();
+		
+		assertEquals(0, accessLog.getDroppedCount());
+		
+		List<String> lines = Files.readAllLines(path, StandardCharsets.US_ASCII);
+		assertEquals(40000, lines.size());
+		for (String line : lines)
+		{
+			assertTrue(line, line.matches("\\S+ 10\\.0\\.0\\.[0-3] GET /bank/accounts/\\d+ 200 \\d+us"));
+		}
+	}
+	
+	/**
+	 * Whatever doesn't fit in the ring is dropped and counted, the count of the drops is in the log too.
+	 */
+	@Test
+	public void dropTest()
+			throws Exception
+	{
+		Path path = temporaryFolder.getRoot().toPath().resolve("access.log");
+		
+		AccessLog accessLog = new AccessLog(path, 2, 1, AccessLog.OverflowMode.DROP);
+		record(accessLog, 4, 20000);
+		accessLog.close();
+		
+		long recordLines = 0;
+		long droppedInLog = 0;
+		for (String line : Files.readAllLines(path, StandardCharsets.US_ASCII))
+		{
+			int marker = line.indexOf(OVERFLOW_MARKER);
+			if (marker >= 0)
+			{
+				droppedInLog += Long.parseLong(line.substring(marker + OVERFLOW_MARKER.length()));
+			}
+			else
+			{
+				recordLines++;
+			}
+		}
+		
+		assertEquals(80000, recordLines + accessLog.getDroppedCount());
+		assertEquals(accessLog.getDroppedCount(), droppedInLog);
+	}
+	
+	@Test
+	public void recordAfterCloseTest()
+			throws IOException
+	{
+		Path path = temporaryFolder.getRoot().toPath().resolve("access.log");
+		
+		AccessLog accessLog = new AccessLog(path, 1, AccessLog.OverflowMode.BLOCK);
+		accessLog.close();
+		accessLog.record(System.currentTimeMillis(), "127.0.0.1", "GET", "/bank/accounts", 200, 1000);
+		
+		assertEquals(1, accessLog.getDroppedCount());
+		assertEquals(0, Files.readAllLines(path, StandardCharsets.US_ASCII).size());
+	}
+	
+	@Test
+	public void samplingTest()
+			throws IOException
+	{
+		Path errorsPath = temporaryFolder.getRoot().toPath().resolve("errors.log");
+		AccessLog errorsOnly = new AccessLog(errorsPath, 0, AccessLog.OverflowMode.BLOCK);
+		recordSampled(errorsOnly);
+		errorsOnly.close();
+		
+		List<String> errors = Files.readAllLines(errorsPath, StandardCharsets.US_ASCII);
+		assertEquals(200, errors.size());
+		for (String line : errors)
+		{
+			assertTrue(line, line.contains(" 404 ") || line.contains(" 500 "));
+		}
+		
+		Path sampledPath = temporaryFolder.getRoot().toPath().resolve("sampled.log");
+		AccessLog sampled = new AccessLog(sampledPath, 10, AccessLog.OverflowMode.BLOCK);
+		recordSampled(sampled);
+		sampled.close();
+		
+		List<String> lines = Files.readAllLines(sampledPath, StandardCharsets.US_ASCII);
+		long successes = lines.stream().filter(line -> line.contains(" 200 ")).count();
+		assertEquals(200, lines.size() - successes);
+		// One in ten of 10000 on average, way more than five standard deviations either side.
+		assertTrue(String.valueOf(successes), successes > 850 && successes < 1150);
+	}
+	
+	/**
+	 * 10000 successful requests, 100 answered with 404 and 100 with 500.
+	 */
+	private static void recordSampled(AccessLog accessLog)
+	{
+		long timestamp = System.currentTimeMillis();
+		for (int i = 0; i < 10000; i++)
+		{
+			accessLog.record(timestamp, "127.0.0.1", "GET", "/bank/accounts/" + i, 200, 1000);
+			
+			if (i % 100 == 0)
+			{
+				accessLog.record(timestamp, "127.0.0.1", "GET", "/bank/accounts/" + i, 404, 1000);
+				accessLog.record(timestamp, "127.0.0.1", "POST", "/bank/accounts", 500, 1000);
+			}
+		}
+	}
+	
+	private static void record(AccessLog accessLog, int threadCount, int recordCount)
+			throws InterruptedException
+	{
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < threadCount; t++)
+		{
+			String remoteAddress = "10.0.0." + t;
+			threads.add(new Thread(() ->
+								   {
+									   for (int i = 0; i < recordCount; i++)
+									   {
+										   accessLog.record(System.currentTimeMillis(), remoteAddress, "GET",
+															"/bank/accounts/" + i, 200, System.nanoTime() % 1000000);
+									   }
+								   }));
+		}
+		
+		threads.forEach(Thread::start);
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package rafalk42.api.binary;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rafalk42.bank.domain.OperationResult;
+import rafalk42.bank.domain.TransferBatchMode;
+import rafalk42.bank.rockefeller.RockefellerBank;
+import rafalk42.dao.AccountDaoConcurrent;
+
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class BankBinaryClientTest
+{
+	private BankBinaryServer server;
+	private BankBinaryClient client;
+	
+	@Before
+	public void setUp()
+			throws Exception
+	{
+		int port;
+		try (ServerSocket socket = new ServerSocket(0))
+		{
+			port = socket.getLocalPort();
+		}
+		
+		server = new BankBinaryServer(new RockefellerBank(new AccountDaoConcurrent(),
+														  RockefellerBank.LockingMode.PER_ACCOUNT),
+									  2);
+		server.start("127.0.0.1", port);
+		client = BankBinaryClient.connect("127.0.0.1", port);
+	}
+	
+	@After
+	public void tearDown()
+	{
+		client.close();
+		server.stop();
+	}
+	
+	@Test
+	public void operationsTest()
+	{
+		String first = client.accountOpen("First", new BigDecimal("100.00")).join();
+		String second = client.accountOpen("Second", BigDecimal.ZERO).join();
+		
+		assertEquals(new BigDecimal("100.00"), client.accountGetBalance(first).join());
+		
+		OperationResult deposit = client.accountDeposit(first, new BigDecimal("0.50"), "Deposit").join();
+		assertEquals(OperationResult.Status.SUCCESSFUL, deposit.getStatus());
+		assertEquals(new BigDecimal("0.50"), deposit.getActualAmount());
+		
+		OperationResult withdraw = client.accountWithdraw(second, new BigDecimal("1.00"), null).join();
+		assertEquals(OperationResult.Status.FAILED_NOT_ENOUGH_FUNDS, withdraw.getStatus());
+		
+		OperationResult transfer = client.transferAmount(first, second, new BigDecimal("40.25")).join();
+		assertEquals(OperationResult.Status.SUCCESSFUL, transfer.getStatus());
+		
+		assertEquals(new BigDecimal("60.25"), client.accountGetBalance(first).join());
+		assertEquals(new BigDecimal("40.25"), client.accountGetBalance(second).join());
+	}
+	
+	@Test
+	public void errorTest()
+	{
+		try
+		{
+			client.accountGetBalance("9999999999").join();
+			fail("Balance of an account that does not exist");
+		}
+		catch (CompletionException ex)
+		{
+			assertTrue(ex.getCause() instanceof BankBinaryError);
+			assertEquals(BankBinaryProtocol.STATUS_NOT_FOUND, ((BankBinaryError) ex.getCause()).getStatus());
+		}
+		
+		try
+		{
+			client.accountOpen("Negative", new BigDecimal("-1")).join();
+			fail("Account opened with a negative balance");
+		}
+		catch (CompletionException ex)
+		{
+			assertTrue(ex.getCause() instanceof BankBinaryError);
+			assertEquals(BankBinaryProtocol.STATUS_INVALID, ((BankBinaryError) ex.getCause()).getStatus());
+		}
+	}
+	
+	@Test
+	public void transferBatchTest()
+	{
+		String first = client.accountOpen("First", new BigDecimal("10")).join();
+		String second = client.accountOpen("Second", new BigDecimal("10")).join();
+		
+		List<OperationResult> results = client.transferBatch(Arrays.asList(new BankBinaryClient.Transfer(first, second, new BigDecimal("5")),
+																		   new BankBinaryClient.Transfer(first, "9999999999", new BigDecimal("1"))),
+															 TransferBatchMode.ATOMIC)
+											  .join();
+		
+		assertEquals(2, results.size());
+		assertEquals(OperationResult.Status.FAILED_BATCH_ABORTED, results.get(0).getStatus());
+		assertEquals(OperationResult.Status.FAILED_ACCOUNT_NOT_FOUND, results.get(1).getStatus());
+		
+		results = client.transferBatch(Arrays.asList(new BankBinaryClient.Transfer(first, second, new BigDecimal("15")),
+													 new BankBinaryClient.Transfer(second, first, new BigDecimal("10"))),
+									   TransferBatchMode.NETTED)
+						.join();
+		
+		assertEquals(OperationResult.Status.SUCCESSFUL, results.get(0).getStatus());
+		assertEquals(OperationResult.Status.SUCCESSFUL, results.get(1).getStatus());
+		assertEquals(new BigDecimal("5.00"), client.accountGetBalance(first).join());
+	}
+	
+	/**
+	 * Thousands of requests in flight at once over the single connection, every one gets its own response.
+	 */
+	@Test
+	public void pipeliningTest()
+	{
+		List<String> accounts = new ArrayList<>();
+		for (int i = 0; i < 10; i++)
+		{
+			accounts.add(client.accountOpen("Account " + i, BigDecimal.ZERO).join());
+		}
+		
+		List<CompletableFuture<OperationResult>> deposits = new ArrayList<>();
+		for (int i = 0; i < 10000; i++)
+		{
+			deposits.add(client.accountDeposit(accounts.get(i % 10), BigDecimal.valueOf(i % 10 + 1), null));
+		}
+		
+		for (int i = 0; i < deposits.size(); i++)
+		{
+			OperationResult result = deposits.get(i).join();
+			assertEquals(OperationResult.Status.SUCCESSFUL, result.getStatus());
+			assertEquals(BigDecimal.valueOf(i % 10 + 1).setScale(2), result.getActualAmount());
+		}
+		
+		for (int i = 0; i < 10; i++)
+		{
+			assertEquals(BigDecimal.valueOf(1000L * (i + 1)).setScale(2), client.accountGetBalance(accounts.get(i)).join());
+		}
+	}
+}
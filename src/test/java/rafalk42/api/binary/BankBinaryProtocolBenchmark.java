@@ -0,0 +1,117 @@
+package rafalk42.api.binary;
+
+import org.openjdk.jmh.annotations.*;
+import rafalk42.bank.domain.BankAccountDescription;
+import rafalk42.bank.domain.OperationResult;
+import rafalk42.bank.rockefeller.RockefellerBank;
+import rafalk42.dao.AccountDaoConcurrent;
+
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Requests per millisecond of the binary protocol, over the same bank and with the same 16 callers as
+ * HttpFrontEndBenchmark, so the two can be compared directly. The callers share a single BankBinaryClient
+ * (one connection); in the plain variants each of them waits for its response before sending the next request,
+ * like the HTTP clients do, in the pipelined variants each of them keeps PIPELINE_DEPTH requests in flight.
+ * <p>
+ * Run with: mvn -P benchmark test-compile exec:exec -Dbenchmark=BankBinaryProtocolBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+@Threads(16)
+@State(Scope.Benchmark)
+public class BankBinaryProtocolBenchmark
+{
+	private static final int ACCOUNT_COUNT = 10000;
+	private static final int PIPELINE_DEPTH = 64;
+	private static final BigDecimal DEPOSIT_AMOUNT = new BigDecimal("1.00");
+	
+	private String[] accountIds;
+	private BankBinaryServer server;
+	private BankBinaryClient client;
+	
+	@Setup
+	public void setUp()
+			throws Exception
+	{
+		int port;
+		try (ServerSocket socket = new ServerSocket(0))
+		{
+			port = socket.getLocalPort();
+		}
+		
+		RockefellerBank bank = new RockefellerBank(new AccountDaoConcurrent(), RockefellerBank.LockingMode.PER_ACCOUNT);
+		
+		accountIds = new String[ACCOUNT_COUNT];
+		for (int i = 0; i < ACCOUNT_COUNT; i++)
+		{
+			accountIds[i] = bank.accountOpen(new BankAccountDescription.Builder()
+													 .description("Account " + i)
+													 .initialBalance(BigDecimal.valueOf(1000000))
+													 .build())
+								.getId();
+		}
+		
+		server = new BankBinaryServer(bank, Runtime.getRuntime().availableProcessors());
+		server.start("127.0.0.1", port);
+		client = BankBinaryClient.connect("127.0.0.1", port);
+	}
+	
+	@TearDown
+	public void tearDown()
+	{
+		client.close();
+		server.stop();
+	}
+	
+	@Benchmark
+	public BigDecimal balance()
+	{
+		return client.accountGetBalance(getRandomAccountId()).join();
+	}
+	
+	@Benchmark
+	public OperationResult deposit()
+	{
+		return client.accountDeposit(getRandomAccountId(), DEPOSIT_AMOUNT, "Benchmark").join();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(PIPELINE_DEPTH)
+	public Object balancePipelined()
+	{
+		CompletableFuture<?>[] balances = new CompletableFuture<?>[PIPELINE_DEPTH];
+		for (int i = 0; i < PIPELINE_DEPTH; i++)
+		{
+			balances[i] = client.accountGetBalance(getRandomAccountId());
+		}
+		
+		return CompletableFuture.allOf(balances).join();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(PIPELINE_DEPTH)
+	public Object depositPipelined()
+	{
+		CompletableFuture<?>[] deposits = new CompletableFuture<?>[PIPELINE_DEPTH];
+		for (int i = 0; i < PIPELINE_DEPTH; i++)
+		{
+			deposits[i] = client.accountDeposit(getRandomAccountId(), DEPOSIT_AMOUNT, "Benchmark");
+		}
+		
+		return CompletableFuture.allOf(deposits).join();
+	}
+	
+	private String getRandomAccountId()
+	{
+		return accountIds[ThreadLocalRandom.current().nextInt(ACCOUNT_COUNT)];
+	}
+}
@@ -0,0 +1,275 @@
+package rafalk42.bank.carnegie;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rafalk42.bank.domain.*;
+import rafalk42.dao.AccountDaoInMemory;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * CarnegieBank runs on a real, non thread-safe in-memory account DAO which is touched only by its writer thread.
+ * These tests check the observable behaviour through the Bank interface and that every operation got
+ * its own sequence number.
+ */
+public class CarnegieBankTest
+{
+	private final String exampleAccountDescription = "Foo bar";
+	private final BigDecimal exampleBalance = BigDecimal.valueOf(7500000, 2);
+	private final BigDecimal exampleAmount = BigDecimal.valueOf(100000, 2);
+	private final String exampleTitle = "None of your business!";
+	
+	private CarnegieBank bank;
+	private BankAccount account1;
+	private BankAccount account2;
+	
+	@Before
+	public void setUp()
+			throws Exception
+	{
+		bank = new CarnegieBank(new AccountDaoInMemory(), 64);
+		account1 = openAccount(exampleBalance);
+		account2 = openAccount(exampleBalance);
+	}
+	
+	@After
+	public void tearDown()
+	{
+		bank.shutdown();
+	}
+	
+	@Test
+	public void appliedSequenceTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		long sequenceBefore = bank.getAppliedSequence();
+		
+		bank.accountDeposit(account1, exampleAmount, exampleTitle);
+		bank.accountGetBalance(account1);
+		
+		assertEquals(1, sequenceBefore); // two accounts opened in setUp
+		assertEquals(sequenceBefore + 2, bank.getAppliedSequence());
+	}
+	
+	@Test
+	public void accountOpenAndGetInfoTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		BankAccountInfo info = bank.accountGetInfo(account1);
+		
+		assertEquals(exampleAccountDescription, info.getDescription());
+		assertEquals(exampleBalance, info.getBalance());
+		assertNotEquals(account1.getId(), account2.getId());
+	}
+	
+	@Test
+	public void accountsGetInfoAllTest()
+			throws BankInternalError
+	{
+		Map<BankAccount, BankAccountInfo> infoAll = bank.accountsGetInfoAll();
+		
+		assertEquals(2, infoAll.size());
+		assertEquals(exampleBalance, infoAll.get(account1).getBalance());
+	}
+	
+	@Test
+	public void accountFindByIdTest()
+			throws BankInternalError
+	{
+		Optional<BankAccount> found = bank.accountFindById(account1.getId());
+		
+		assertTrue(found.isPresent());
+		assertEquals(account1, found.get());
+		assertFalse(bank.accountFindById("nonexistent").isPresent());
+	}
+	
+	@Test
+	public void accountDepositTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		OperationResult result = bank.accountDeposit(account1, exampleAmount, exampleTitle);
+		
+		assertEquals(OperationResult.Status.SUCCESSFUL, result.getStatus());
+		assertEquals(exampleAmount, result.getActualAmount());
+		assertEquals(exampleBalance.add(exampleAmount), bank.accountGetBalance(account1));
+	}
+	
+	@Test
+	public void accountDepositRoundingTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		OperationResult result = bank.accountDeposit(account1, new BigDecimal("0.015"), exampleTitle);
+		
+		assertEquals(OperationResult.Status.SUCCESSFUL, result.getStatus());
+		assertEquals(new BigDecimal("0.02"), result.getActualAmount());
+	}
+	
+	@Test
+	public void accountDepositInvalidAmountTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		OperationResult result = bank.accountDeposit(account1, new BigDecimal("0.005"), exampleTitle);
+		
+		assertEquals(OperationResult.Status.FAILED_INVALID_AMOUNT, result.getStatus());
+		assertEquals(exampleBalance, bank.accountGetBalance(account1));
+	}
+	
+	@Test
+	public void accountWithdrawTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		OperationResult result = bank.accountWithdraw(account1, exampleAmount, exampleTitle);
+		
+		assertEquals(OperationResult.Status.SUCCESSFUL, result.getStatus());
+		assertEquals(exampleBalance.subtract(exampleAmount), bank.accountGetBalance(account1));
+	}
+	
+	@Test
+	public void accountWithdrawNotEnoughFundsTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		OperationResult result = bank.accountWithdraw(account1, exampleBalance.add(exampleAmount), exampleTitle);
+		
+		assertEquals(OperationResult.Status.FAILED_NOT_ENOUGH_FUNDS, result.getStatus());
+		assertEquals(exampleBalance, bank.accountGetBalance(account1));
+	}
+	
+	@Test
+	public void transferAmountTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		OperationResult result = bank.transferAmount(account1, account2, exampleAmount);
+		
+		assertEquals(OperationResult.Status.SUCCESSFUL, result.getStatus());
+		assertEquals(exampleAmount, result.getActualAmount());
+		assertEquals(exampleBalance.subtract(exampleAmount), bank.accountGetBalance(account1));
+		assertEquals(exampleBalance.add(exampleAmount), bank.accountGetBalance(account2));
+	}
+	
+	@Test
+	public void transferAmountToSameAccountTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		OperationResult result = bank.transferAmount(account1, account1, exampleAmount);
+		
+		assertEquals(OperationResult.Status.FAILED_NOT_ALLOWED, result.getStatus());
+	}
+	
+	@Test
+	public void transferAmountNotEnoughFundsTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		OperationResult result = bank.transferAmount(account1, account2, exampleBalance.add(exampleAmount));
+		
+		assertEquals(OperationResult.Status.FAILED_NOT_ENOUGH_FUNDS, result.getStatus());
+		assertEquals(exampleBalance, bank.accountGetBalance(account1));
+		assertEquals(exampleBalance, bank.accountGetBalance(account2));
+	}
+	
+	@Test(expected = BankAccountNotFound.class)
+	public void transferAmountToClosedAccountTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		bank.accountClose(account2);
+		bank.transferAmount(account1, account2, exampleAmount);
+	}
+	
+	@Test(expected = BankAccountNotFound.class)
+	public void accountCloseTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		bank.accountClose(account1);
+		
+		assertFalse(bank.accountFindById(account1.getId()).isPresent());
+		bank.accountGetBalance(account1);
+	}
+	
+	@Test
+	public void concurrentTransfersTest()
+			throws Throwable
+	{
+		int accountCount = 16;
+		int threadCount = 8;
+		int transfersPerThread = 5000;
+		
+		List<BankAccount> accounts = new ArrayList<>();
+		for (int i = 0; i < accountCount; i++)
+		{
+			accounts.add(openAccount(exampleAmount));
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		try
+		{
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < threadCount; i++)
+			{
+				Random random = new Random(i);
+				futures.add(executor.submit(() ->
+											{
+												for (int j = 0; j < transfersPerThread; j++)
+												{
+													transferQuietly(accounts.get(random.nextInt(accountCount)),
+																	accounts.get(random.nextInt(accountCount)),
+																	BigDecimal.valueOf(random.nextInt(50000) + 1, 2));
+												}
+												return null;
+											}));
+			}
+			
+			for (Future<?> future : futures)
+			{
+				future.get();
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		
+		BigDecimal total = BigDecimal.ZERO;
+		for (BankAccount account : accounts)
+		{
+			BigDecimal balance = bank.accountGetBalance(account);
+			
+			assertTrue(balance.compareTo(BigDecimal.ZERO) >= 0); // no account went into debt
+			total = total.add(balance);
+		}
+		
+		assertEquals(exampleAmount.multiply(BigDecimal.valueOf(accountCount)), total); // total is preserved
+	}
+	
+	private BankAccount openAccount(BigDecimal initialBalance)
+			throws BankInternalError
+	{
+		return bank.accountOpen(new BankAccountDescription.Builder()
+										.description(exampleAccountDescription)
+										.initialBalance(initialBalance)
+										.build());
+	}
+	
+	private void transferQuietly(BankAccount source, BankAccount destination, BigDecimal amount)
+			throws BankInternalError
+	{
+		try
+		{
+			bank.transferAmount(source, destination, amount);
+		}
+		catch (BankAccountNotFound ex)
+		{
+			throw new IllegalStateException("Account not found: " + ex.getAccountId());
+		}
+	}
+}
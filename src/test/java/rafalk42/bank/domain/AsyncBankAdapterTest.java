@@ -0,0 +1,89 @@
+package rafalk42.bank.domain;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rafalk42.bank.rockefeller.RockefellerBank;
+import rafalk42.dao.AccountDaoInMemory;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+
+public class AsyncBankAdapterTest
+{
+	private final BigDecimal exampleBalance = BigDecimal.valueOf(7500000, 2);
+	private final BigDecimal exampleAmount = BigDecimal.valueOf(100000, 2);
+	
+	private ExecutorService executor;
+	private AsyncBank bank;
+	
+	@Before
+	public void setUp()
+	{
+		executor = Executors.newSingleThreadExecutor();
+		bank = new AsyncBankAdapter(new RockefellerBank(new AccountDaoInMemory()), executor);
+	}
+	
+	@After
+	public void tearDown()
+	{
+		executor.shutdown();
+	}
+	
+	@Test
+	public void transferAmountTest()
+			throws Exception
+	{
+		BankAccount account1 = openAccount().get();
+		BankAccount account2 = openAccount().get();
+		
+		OperationResult result = bank.transferAmount(account1, account2, exampleAmount).get();
+		
+		assertEquals(OperationResult.Status.SUCCESSFUL, result.getStatus());
+		assertEquals(exampleBalance.subtract(exampleAmount), bank.accountGetBalance(account1).get());
+	}
+	
+	@Test
+	public void missingAccountTest()
+			throws Exception
+	{
+		BankAccount account = openAccount().get();
+		bank.accountClose(account).get();
+		
+		try
+		{
+			bank.accountGetBalance(account).get();
+			fail("Account should not exist anymore");
+		}
+		catch (ExecutionException ex)
+		{
+			assertTrue(ex.getCause() instanceof BankAccountNotFound);
+		}
+	}
+	
+	@Test
+	public void callerRunsTest()
+			throws Exception
+	{
+		bank = new AsyncBankAdapter(new RockefellerBank(new AccountDaoInMemory()), Runnable::run);
+		
+		CompletableFuture<BankAccount> account = openAccount();
+		
+		assertTrue(account.isDone());
+		assertEquals(exampleBalance, bank.accountGetBalance(account.get()).get());
+	}
+	
+	private CompletableFuture<BankAccount> openAccount()
+	{
+		return bank.accountOpen(new BankAccountDescription.Builder()
+										.description("Foo bar")
+										.initialBalance(exampleBalance)
+										.build());
+	}
+}
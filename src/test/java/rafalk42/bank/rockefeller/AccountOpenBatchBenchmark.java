@@ -0,0 +1,81 @@
+package rafalk42.bank.rockefeller;
+
+import org.openjdk.jmh.annotations.*;
+import rafalk42.bank.domain.BankAccount;
+import rafalk42.bank.domain.BankAccountDescription;
+import rafalk42.bank.domain.BankInternalError;
+import rafalk42.dao.AccountDaoDense;
+import rafalk42.dao.AccountDaoInMemory;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Accounts opened per second when onboarding a batch of 100k customers into a fresh RockefellerBank, one
+ * accountOpen call per account (the lock taken and an ID allocated every time) against a single accountOpenBatch
+ * call, for the default in-memory DAO and for the dense one.
+ * <p>
+ * Run with: mvn -P benchmark test-compile exec:exec -Dbenchmark=AccountOpenBatchBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Benchmark)
+public class AccountOpenBatchBenchmark
+{
+	private static final int BATCH_SIZE = 100000;
+	
+	@Param({"memory", "dense"})
+	private String accountDao;
+	
+	@Param({"single", "batch"})
+	private String open;
+	
+	private List<BankAccountDescription> accountDescriptions;
+	private RockefellerBank bank;
+	
+	@Setup(Level.Trial)
+	public void setUpDescriptions()
+	{
+		accountDescriptions = new ArrayList<>(BATCH_SIZE);
+		for (int i = 0; i < BATCH_SIZE; i++)
+		{
+			accountDescriptions.add(new BankAccountDescription.Builder()
+											.description("Customer " + i)
+											.initialBalance(BigDecimal.valueOf(i, 2))
+											.build());
+		}
+	}
+	
+	@Setup(Level.Invocation)
+	public void setUpBank()
+	{
+		bank = new RockefellerBank(accountDao.equals("memory")
+										   ? new AccountDaoInMemory()
+										   : new AccountDaoDense());
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public List<BankAccount> openAccounts()
+			throws BankInternalError
+	{
+		if (open.equals("batch"))
+		{
+			return bank.accountOpenBatch(accountDescriptions);
+		}
+		
+		List<BankAccount> accounts = new ArrayList<>(BATCH_SIZE);
+		for (BankAccountDescription accountDescription : accountDescriptions)
+		{
+			accounts.add(bank.accountOpen(accountDescription));
+		}
+		
+		return accounts;
+	}
+}
@@ -0,0 +1,111 @@
+package rafalk42.bank.rockefeller;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class AccountVersionsTest
+{
+	@Test
+	public void bumpTest()
+	{
+		AccountVersions versions = new AccountVersions();
+		
+		assertEquals(0, versions.get("0000000001"));
+		
+		versions.bump("0000000001");
+		versions.bump("0000000001");
+		versions.bump("0000000002");
+		
+		assertEquals(2, versions.get("0000000001"));
+		assertEquals(1, versions.get("0000000002"));
+		assertEquals(0, versions.get("0000000003"));
+	}
+	
+	/**
+	 * Far more accounts than fit in the initial tables, so every segment has to grow a few times.
+	 */
+	@Test
+	public void growTest()
+	{
+		AccountVersions versions = new AccountVersions();
+		
+		for (int number = 1; number <= 100000; number++)
+		{
+			for (int i = 0; i < number % 3; i++)
+			{
+				versions.bump(String.format("%010d", number));
+			}
+		}
+		
+		for (int number = 1; number <= 100000; number++)
+		{
+			assertEquals(number % 3, versions.get(String.format("%010d", number)));
+		}
+	}
+	
+	@Test
+	public void irregularAccountIdTest()
+	{
+		AccountVersions versions = new AccountVersions();
+		
+		versions.bump("foo");
+		versions.bump("0000000000");
+		
+		// All IDs out of the format share a version.
+		assertEquals(2, versions.get("bar"));
+		assertEquals(2, versions.get("foo"));
+		assertEquals(0, versions.get("0000000001"));
+	}
+	
+	/**
+	 * Readers never see a version go back or an account changed by someone else, while the tables keep growing
+	 * underneath them.
+	 */
+	@Test
+	public void concurrentReadTest()
+			throws InterruptedException
+	{
+		AccountVersions versions = new AccountVersions();
+		AtomicBoolean done = new AtomicBoolean(false);
+		AtomicReference<String> failure = new AtomicReference<>();
+		
+		Thread reader = new Thread(() ->
+								   {
+									   long lastVersion = 0;
+									   while (!done.get())
+									   {
+										   long version = versions.get("0000000001");
+										   if (version < lastVersion)
+										   {
+											   failure.set("Version went back from " + lastVersion + " to " + version);
+										   }
+										
+										   if (versions.get("9999999999") != 0)
+										   {
+											   failure.set("Version of an account that was never changed");
+										   }
+										
+										   lastVersion = version;
+									   }
+								   });
+		reader.start();
+		
+		for (int number = 2; number <= 200000; number++)
+		{
+			versions.bump("0000000001");
+			versions.bump(String.format("%010d", number));
+		}
+		
+		done.set(true);
+		reader.join();
+		
+		assertNull(failure.get());
+		assertEquals(199999, versions.get("0000000001"));
+	}
+}
@@ -0,0 +1,73 @@
+package rafalk42.bank.rockefeller;
+
+import org.openjdk.jmh.annotations.*;
+import rafalk42.bank.domain.*;
+import rafalk42.dao.AccountDaoConcurrent;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Time to settle a clearing-like batch, many transfers going back and forth between a small number of accounts,
+ * applied transfer by transfer (ATOMIC) compared to applied as one net change per account (NETTED).
+ * <p>
+ * Run with: mvn -P benchmark test-compile exec:exec -Dbenchmark=RockefellerBankBatchBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RockefellerBankBatchBenchmark
+{
+	private static final int ACCOUNT_COUNT = 32;
+	private static final int BATCH_SIZE = 1000;
+	
+	@Param({"ATOMIC", "NETTED"})
+	private TransferBatchMode mode;
+	
+	private RockefellerBank bank;
+	private List<BankTransfer> transfers;
+	
+	@Setup
+	public void setUp()
+			throws BankInternalError
+	{
+		bank = new RockefellerBank(new AccountDaoConcurrent(), RockefellerBank.LockingMode.PER_ACCOUNT);
+		
+		BankAccount[] accounts = new BankAccount[ACCOUNT_COUNT];
+		for (int i = 0; i < ACCOUNT_COUNT; i++)
+		{
+			accounts[i] = bank.accountOpen(new BankAccountDescription.Builder()
+												   .description("Account " + i)
+												   .initialBalance(BigDecimal.valueOf(1000000000, 2))
+												   .build());
+		}
+		
+		Random random = new Random(42);
+		transfers = new ArrayList<>(BATCH_SIZE);
+		while (transfers.size() < BATCH_SIZE)
+		{
+			int source = random.nextInt(ACCOUNT_COUNT);
+			int destination = random.nextInt(ACCOUNT_COUNT);
+			if (source != destination)
+			{
+				transfers.add(new BankTransfer(accounts[source],
+											   accounts[destination],
+											   BigDecimal.valueOf(1 + random.nextInt(10000), 2)));
+			}
+		}
+	}
+	
+	@Benchmark
+	public List<OperationResult> transferBatch()
+			throws BankInternalError
+	{
+		return bank.transferBatch(transfers, mode);
+	}
+}
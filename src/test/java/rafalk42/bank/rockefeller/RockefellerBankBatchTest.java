@@ -0,0 +1,294 @@
+package rafalk42.bank.rockefeller;
+
+import org.junit.Before;
+import org.junit.Test;
+import rafalk42.bank.domain.*;
+import rafalk42.dao.AccountDaoConcurrent;
+import rafalk42.dao.AccountDaoInternalError;
+import rafalk42.dao.AuditLogDaoInMemory;
+import rafalk42.dao.AuditLogEntry;
+import rafalk42.dao.AuditLogStatus;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Transfer batches, with a real, thread-safe account DAO underneath, as a batch is mostly about what
+ * the accounts look like afterwards.
+ */
+public class RockefellerBankBatchTest
+{
+	private final BigDecimal exampleBalance = BigDecimal.valueOf(10000, 2);
+	private final BigDecimal exampleAmount = BigDecimal.valueOf(4000, 2);
+	
+	private final AtomicInteger setBalanceCallCounter = new AtomicInteger();
+	
+	private AuditLogDaoInMemory auditLogDao;
+	private RockefellerBank bank;
+	private BankAccount account1;
+	private BankAccount account2;
+	private BankAccount account3;
+	
+	@Before
+	public void setUp()
+			throws Exception
+	{
+		AccountDaoConcurrent accountDao = new AccountDaoConcurrent()
+		{
+			@Override
+			public void setBalance(String accountId, BigDecimal newBalance)
+					throws AccountDaoInternalError
+			{
+				setBalanceCallCounter.incrementAndGet();
+				super.setBalance(accountId, newBalance);
+			}
+		};
+		auditLogDao = new AuditLogDaoInMemory();
+		bank = new RockefellerBank(accountDao, RockefellerBank.LockingMode.PER_ACCOUNT, auditLogDao);
+		account1 = openAccount(exampleBalance);
+		account2 = openAccount(exampleBalance);
+		account3 = openAccount(exampleBalance);
+	}
+	
+	@Test
+	public void bestEffortTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		List<OperationResult> results = bank.transferBatch(Arrays.asList(new BankTransfer(account1, account2, exampleAmount),
+																		  new BankTransfer(account2, account3, exampleBalance.multiply(BigDecimal.TEN)),
+																		  new BankTransfer(account3, account1, exampleAmount)),
+														   TransferBatchMode.BEST_EFFORT);
+		
+		assertEquals(3, results.size());
+		assertEquals(OperationResult.Status.SUCCESSFUL, results.get(0).getStatus());
+		assertEquals(OperationResult.Status.FAILED_NOT_ENOUGH_FUNDS, results.get(1).getStatus());
+		assertEquals(OperationResult.Status.SUCCESSFUL, results.get(2).getStatus());
+		
+		assertEquals(exampleBalance, bank.accountGetBalance(account1));
+		assertEquals(exampleBalance.add(exampleAmount), bank.accountGetBalance(account2));
+		assertEquals(exampleBalance.subtract(exampleAmount), bank.accountGetBalance(account3));
+	}
+	
+	@Test
+	public void bestEffortMissingAccountTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		bank.accountClose(account3);
+		
+		List<OperationResult> results = bank.transferBatch(Arrays.asList(new BankTransfer(account1, account3, exampleAmount),
+																		  new BankTransfer(account1, account2, exampleAmount)),
+														   TransferBatchMode.BEST_EFFORT);
+		
+		assertEquals(OperationResult.Status.FAILED_ACCOUNT_NOT_FOUND, results.get(0).getStatus());
+		assertEquals(OperationResult.Status.SUCCESSFUL, results.get(1).getStatus());
+		assertEquals(exampleBalance.subtract(exampleAmount), bank.accountGetBalance(account1));
+	}
+	
+	@Test
+	public void atomicTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		// Second transfer is only possible thanks to the first one.
+		List<OperationResult> results = bank.transferBatch(Arrays.asList(new BankTransfer(account1, account2, exampleAmount),
+																		  new BankTransfer(account2, account3, exampleBalance.add(exampleAmount))),
+														   TransferBatchMode.ATOMIC);
+		
+		assertEquals(OperationResult.Status.SUCCESSFUL, results.get(0).getStatus());
+		assertEquals(OperationResult.Status.SUCCESSFUL, results.get(1).getStatus());
+		
+		assertEquals(exampleBalance.subtract(exampleAmount), bank.accountGetBalance(account1));
+		assertEquals(BigDecimal.valueOf(0, 2), bank.accountGetBalance(account2));
+		assertEquals(exampleBalance.add(exampleBalance).add(exampleAmount), bank.accountGetBalance(account3));
+	}
+	
+	@Test
+	public void atomicRollbackTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		List<OperationResult> results = bank.transferBatch(Arrays.asList(new BankTransfer(account1, account2, exampleAmount),
+																		  new BankTransfer(account2, account3, exampleAmount),
+																		  new BankTransfer(account1, account3, exampleBalance),
+																		  new BankTransfer(account3, account1, exampleAmount)),
+														   TransferBatchMode.ATOMIC);
+		
+		assertEquals(4, results.size());
+		assertEquals(OperationResult.Status.FAILED_BATCH_ABORTED, results.get(0).getStatus());
+		assertEquals(OperationResult.Status.FAILED_BATCH_ABORTED, results.get(1).getStatus());
+		assertEquals(OperationResult.Status.FAILED_NOT_ENOUGH_FUNDS, results.get(2).getStatus());
+		assertEquals(OperationResult.Status.FAILED_BATCH_ABORTED, results.get(3).getStatus());
+		
+		assertEquals(exampleBalance, bank.accountGetBalance(account1));
+		assertEquals(exampleBalance, bank.accountGetBalance(account2));
+		assertEquals(exampleBalance, bank.accountGetBalance(account3));
+		
+		// Only the final results are logged, the transfers that were rolled back never happened.
+		List<AuditLogEntry> entries = auditLogDao.findByTimestamp(0, Long.MAX_VALUE, 0, 10);
+		assertEquals(4, entries.size());
+		assertEquals(AuditLogStatus.FAILED_BATCH_ABORTED, entries.get(0).getStatus());
+		assertEquals(AuditLogStatus.FAILED_NOT_ENOUGH_FUNDS, entries.get(2).getStatus());
+		assertEquals(account3.getId(), entries.get(3).getSourceAccountId());
+	}
+	
+	@Test
+	public void atomicMissingAccountTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		bank.accountClose(account3);
+		
+		List<OperationResult> results = bank.transferBatch(Arrays.asList(new BankTransfer(account1, account2, exampleAmount),
+																		  new BankTransfer(account2, account3, exampleAmount)),
+														   TransferBatchMode.ATOMIC);
+		
+		assertEquals(OperationResult.Status.FAILED_BATCH_ABORTED, results.get(0).getStatus());
+		assertEquals(OperationResult.Status.FAILED_ACCOUNT_NOT_FOUND, results.get(1).getStatus());
+		assertEquals(exampleBalance, bank.accountGetBalance(account1));
+		assertEquals(exampleBalance, bank.accountGetBalance(account2));
+	}
+	
+	@Test
+	public void nettedTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		// Second transfer is more than account2 has, but the third one covers it, so the net result is fine.
+		List<OperationResult> results = bank.transferBatch(Arrays.asList(new BankTransfer(account1, account2, exampleAmount),
+																		  new BankTransfer(account2, account3, exampleBalance.add(exampleBalance)),
+																		  new BankTransfer(account3, account2, exampleBalance),
+																		  new BankTransfer(account3, account1, exampleAmount)),
+														   TransferBatchMode.NETTED);
+		
+		for (OperationResult result : results)
+		{
+			assertEquals(OperationResult.Status.SUCCESSFUL, result.getStatus());
+		}
+		
+		assertEquals(exampleBalance, bank.accountGetBalance(account1));
+		assertEquals(exampleAmount, bank.accountGetBalance(account2));
+		assertEquals(exampleBalance.add(exampleBalance).subtract(exampleAmount), bank.accountGetBalance(account3));
+		
+		// Balance of account1 did not change at all, so only the other two had to be set.
+		assertEquals(2, setBalanceCallCounter.get());
+	}
+	
+	@Test
+	public void nettedNotEnoughFundsTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		List<OperationResult> results = bank.transferBatch(Arrays.asList(new BankTransfer(account1, account2, exampleBalance),
+																		  new BankTransfer(account2, account3, exampleBalance.multiply(BigDecimal.valueOf(3))),
+																		  new BankTransfer(account3, account1, exampleAmount),
+																		  new BankTransfer(account3, account2, exampleAmount)),
+														   TransferBatchMode.NETTED);
+		
+		assertEquals(OperationResult.Status.FAILED_BATCH_ABORTED, results.get(0).getStatus());
+		assertEquals(OperationResult.Status.FAILED_NOT_ENOUGH_FUNDS, results.get(1).getStatus());
+		assertEquals(OperationResult.Status.FAILED_BATCH_ABORTED, results.get(2).getStatus());
+		assertEquals(OperationResult.Status.FAILED_BATCH_ABORTED, results.get(3).getStatus());
+		
+		assertEquals(0, setBalanceCallCounter.get());
+		assertEquals(exampleBalance, bank.accountGetBalance(account1));
+		assertEquals(exampleBalance, bank.accountGetBalance(account2));
+		assertEquals(exampleBalance, bank.accountGetBalance(account3));
+	}
+	
+	@Test
+	public void nettedInvalidTransferTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		List<OperationResult> results = bank.transferBatch(Arrays.asList(new BankTransfer(account1, account2, exampleAmount),
+																		  new BankTransfer(account2, account2, exampleAmount),
+																		  new BankTransfer(account2, account3, BigDecimal.valueOf(1, 3))),
+														   TransferBatchMode.NETTED);
+		
+		assertEquals(OperationResult.Status.FAILED_BATCH_ABORTED, results.get(0).getStatus());
+		assertEquals(OperationResult.Status.FAILED_NOT_ALLOWED, results.get(1).getStatus());
+		assertEquals(OperationResult.Status.FAILED_INVALID_AMOUNT, results.get(2).getStatus());
+		
+		assertEquals(0, setBalanceCallCounter.get());
+		assertEquals(exampleBalance, bank.accountGetBalance(account1));
+	}
+	
+	/**
+	 * Atomic batches moving money around in a circle run concurrently with single transfers. Whatever the
+	 * interleaving, the total amount of money stays the same.
+	 */
+	@Test
+	public void concurrentAtomicBatchesTest()
+			throws Throwable
+	{
+		List<BankAccount> accounts = Arrays.asList(account1, account2, account3);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		
+		try
+		{
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < 4; i++)
+			{
+				Random random = new Random(i);
+				futures.add(executor.submit(() ->
+											{
+												for (int j = 0; j < 1000; j++)
+												{
+													BigDecimal amount = BigDecimal.valueOf(random.nextInt(5000), 2);
+													bank.transferBatch(Arrays.asList(new BankTransfer(account1, account2, amount),
+																					 new BankTransfer(account2, account3, amount),
+																					 new BankTransfer(account3, account1, amount)),
+																	   TransferBatchMode.ATOMIC);
+													transferQuietly(accounts.get(random.nextInt(3)),
+																	accounts.get(random.nextInt(3)),
+																	amount);
+												}
+												return null;
+											}));
+			}
+			
+			for (Future<?> future : futures)
+			{
+				future.get();
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		
+		BigDecimal total = BigDecimal.ZERO;
+		for (BankAccountInfo info : bank.accountsGetInfoAll().values())
+		{
+			total = total.add(info.getBalance());
+		}
+		
+		assertEquals(exampleBalance.multiply(BigDecimal.valueOf(3)), total);
+	}
+	
+	private BankAccount openAccount(BigDecimal initialBalance)
+			throws BankInternalError
+	{
+		return bank.accountOpen(new BankAccountDescription.Builder()
+										.description("Foo bar")
+										.initialBalance(initialBalance)
+										.build());
+	}
+	
+	private void transferQuietly(BankAccount source, BankAccount destination, BigDecimal amount)
+			throws BankInternalError
+	{
+		try
+		{
+			bank.transferAmount(source, destination, amount);
+		}
+		catch (BankAccountNotFound ex)
+		{
+			throw new IllegalStateException(ex);
+		}
+	}
+}
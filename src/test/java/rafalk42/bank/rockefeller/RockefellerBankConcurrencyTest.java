@@ -0,0 +1,246 @@
+package rafalk42.bank.rockefeller;
+
+import org.junit.Before;
+import org.junit.Test;
+import rafalk42.bank.domain.*;
+import rafalk42.dao.AccountDaoConcurrent;
+import rafalk42.dao.AccountDaoInMemory;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Unlike RockefellerBankTest, this one uses a real, thread-safe account DAO and hammers the bank running in
+ * the per account locking mode with random transfers from many threads. Money cannot appear or disappear
+ * and no balance can go below zero, no matter how the transfers interleave. Reads, which don't take locks,
+ * have to see a consistent state as well.
+ */
+public class RockefellerBankConcurrencyTest
+{
+	private final int accountCount = 16;
+	private final BigDecimal exampleBalance = BigDecimal.valueOf(100000, 2);
+	private final int threadCount = 8;
+	private final int transfersPerThread = 5000;
+	
+	private RockefellerBank bank;
+	private List<BankAccount> accounts;
+	
+	@Before
+	public void setUp()
+			throws Exception
+	{
+		bank = new RockefellerBank(new AccountDaoConcurrent(), RockefellerBank.LockingMode.PER_ACCOUNT);
+		
+		accounts = new ArrayList<>();
+		for (int i = 0; i < accountCount; i++)
+		{
+			accounts.add(bank.accountOpen(new BankAccountDescription.Builder()
+												  .description("Account " + i)
+												  .initialBalance(exampleBalance)
+												  .build()));
+		}
+	}
+	
+	@Test
+	public void concurrentTransfersTest()
+			throws Throwable
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		
+		try
+		{
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < threadCount; i++)
+			{
+				long seed = i;
+				futures.add(executor.submit(() ->
+											{
+												executeRandomTransfers(new Random(seed));
+												return null;
+											}));
+			}
+			
+			for (Future<?> future : futures)
+			{
+				future.get();
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		
+		BigDecimal total = BigDecimal.ZERO;
+		for (BankAccount account : accounts)
+		{
+			BigDecimal balance = bank.accountGetBalance(account);
+			
+			assertTrue(balance.compareTo(BigDecimal.ZERO) >= 0); // no account went into debt
+			total = total.add(balance);
+		}
+		
+		assertEquals(0, exampleBalance.multiply(BigDecimal.valueOf(accountCount)).compareTo(total)); // total is preserved
+	}
+	
+	@Test
+	public void concurrentTransfersGetInfoAllTest()
+			throws Throwable
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		
+		try
+		{
+			Future<?> transfers = executor.submit(() ->
+												  {
+													  executeRandomTransfers(new Random(42));
+													  return null;
+												  });
+			
+			BigDecimal expectedTotal = exampleBalance.multiply(BigDecimal.valueOf(accountCount));
+			while (!transfers.isDone())
+			{
+				// Listing of all accounts locks every stripe, so it always sees a consistent state.
+				BigDecimal total = bank.accountsGetInfoAll()
+									   .values()
+									   .stream()
+									   .map(BankAccountInfo::getBalance)
+									   .reduce(BigDecimal.ZERO, BigDecimal::add);
+				
+				assertEquals(0, expectedTotal.compareTo(total));
+			}
+			
+			transfers.get();
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void optimisticReadsDuringDepositsTest()
+			throws Throwable
+	{
+		BankAccount account = accounts.get(0);
+		int depositCount = 20000;
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		
+		try
+		{
+			Future<?> deposits = executor.submit(() ->
+												 {
+													 executeDeposits(account, depositCount);
+													 return null;
+												 });
+			
+			// Balance only grows, so every read has to see at least what the previous one did.
+			BigDecimal previousBalance = exampleBalance;
+			while (!deposits.isDone())
+			{
+				BigDecimal balance = bank.accountGetBalance(account);
+				BigDecimal infoBalance = bank.accountGetInfo(account).getBalance();
+				
+				assertTrue(balance.compareTo(previousBalance) >= 0);
+				assertTrue(infoBalance.compareTo(balance) >= 0);
+				previousBalance = infoBalance;
+			}
+			
+			deposits.get();
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		
+		assertEquals(0, exampleBalance.add(BigDecimal.valueOf(depositCount, 2))
+									  .compareTo(bank.accountGetBalance(account)));
+	}
+	
+	@Test
+	public void readsDuringOpenGlobalLockTest()
+			throws Throwable
+	{
+		// Non thread-safe DAO, reads must wait for its map to be done growing instead of failing.
+		RockefellerBank globalBank = new RockefellerBank(new AccountDaoInMemory());
+		BankAccount account = globalBank.accountOpen(new BankAccountDescription.Builder()
+																 .description("Account")
+																 .initialBalance(exampleBalance)
+																 .build());
+		int openCount = 20000;
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		
+		try
+		{
+			Future<?> opens = executor.submit(() ->
+											  {
+												  for (int i = 0; i < openCount; i++)
+												  {
+													  globalBank.accountOpen(new BankAccountDescription.Builder()
+																					 .description("Account " + i)
+																					 .initialBalance(exampleBalance)
+																					 .build());
+												  }
+												  return null;
+											  });
+			
+			while (!opens.isDone())
+			{
+				assertTrue(globalBank.accountFindById(account.getId()).isPresent());
+				assertEquals(0, exampleBalance.compareTo(globalBank.accountGetBalance(account)));
+			}
+			
+			opens.get();
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		
+		assertEquals(openCount + 1, globalBank.accountsGetInfoAll().size());
+	}
+	
+	private void executeDeposits(BankAccount account, int depositCount)
+			throws BankInternalError
+	{
+		for (int i = 0; i < depositCount; i++)
+		{
+			try
+			{
+				bank.accountDeposit(account, BigDecimal.valueOf(1, 2), null);
+			}
+			catch (BankAccountNotFound ex)
+			{
+				throw new IllegalStateException("Account not found: " + ex.getAccountId());
+			}
+		}
+	}
+	
+	private void executeRandomTransfers(Random random)
+			throws BankInternalError
+	{
+		for (int j = 0; j < transfersPerThread; j++)
+		{
+			BankAccount source = accounts.get(random.nextInt(accountCount));
+			BankAccount destination = accounts.get(random.nextInt(accountCount));
+			BigDecimal amount = BigDecimal.valueOf(random.nextInt(50000) + 1, 2);
+			
+			try
+			{
+				bank.transferAmount(source, destination, amount);
+			}
+			catch (BankAccountNotFound ex)
+			{
+				throw new IllegalStateException("Account not found: " + ex.getAccountId());
+			}
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package rafalk42.bank.rockefeller;
+
+import org.openjdk.jmh.annotations.*;
+import rafalk42.bank.domain.*;
+import rafalk42.dao.AccountDao;
+import rafalk42.dao.AccountDaoConcurrent;
+import rafalk42.dao.AccountDaoInMemory;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Latency of balance reads and of transfers running at the same time, three reader threads polling balances
+ * of random accounts against one thread making transfers between random accounts. JMH reports the read and
+ * the write side of the group separately.
+ * <p>
+ * Run with: mvn -P benchmark test-compile exec:exec -Dbenchmark=RockefellerBankReadWriteBenchmark
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class RockefellerBankReadWriteBenchmark
+{
+	private static final int ACCOUNT_COUNT = 1024;
+	
+	@Param({"GLOBAL", "PER_ACCOUNT"})
+	private RockefellerBank.LockingMode lockingMode;
+	
+	private RockefellerBank bank;
+	private BankAccount[] accounts;
+	private BigDecimal transferAmount;
+	
+	@Setup
+	public void setUp()
+			throws BankInternalError
+	{
+		AccountDao accountDao = lockingMode == RockefellerBank.LockingMode.GLOBAL
+				? new AccountDaoInMemory()
+				: new AccountDaoConcurrent();
+		bank = new RockefellerBank(accountDao, lockingMode);
+		
+		accounts = new BankAccount[ACCOUNT_COUNT];
+		for (int i = 0; i < ACCOUNT_COUNT; i++)
+		{
+			accounts[i] = bank.accountOpen(new BankAccountDescription.Builder()
+												   .description("Account " + i)
+												   .initialBalance(BigDecimal.valueOf(1000000000, 2))
+												   .build());
+		}
+		
+		transferAmount = BigDecimal.valueOf(1, 2);
+	}
+	
+	@Benchmark
+	@Group("readWrite")
+	@GroupThreads(3)
+	public BigDecimal read()
+			throws BankInternalError, BankAccountNotFound
+	{
+		return bank.accountGetBalance(accounts[ThreadLocalRandom.current().nextInt(ACCOUNT_COUNT)]);
+	}
+	
+	@Benchmark
+	@Group("readWrite")
+	@GroupThreads(1)
+	public OperationResult write()
+			throws BankInternalError, BankAccountNotFound
+	{
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		
+		return bank.transferAmount(accounts[random.nextInt(ACCOUNT_COUNT)],
+								   accounts[random.nextInt(ACCOUNT_COUNT)],
+								   transferAmount);
+	}
+}
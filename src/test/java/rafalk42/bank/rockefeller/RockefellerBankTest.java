@@ -6,11 +6,17 @@ import rafalk42.bank.domain.*;
 import rafalk42.dao.AccountDao;
 import rafalk42.dao.AccountDaoInternalError;
 import rafalk42.dao.AccountInfo;
+import rafalk42.dao.AuditLogDaoInMemory;
+import rafalk42.dao.AuditLogEntry;
+import rafalk42.dao.AuditLogOperation;
+import rafalk42.dao.AuditLogStatus;
+import rafalk42.dao.BalanceUpdateStatus;
 
 import java.math.BigDecimal;
 import java.util.*;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 
@@ -33,13 +39,15 @@ public class RockefellerBankTest
 	
 	private RockefellerBank bank;
 	private AccountDaoMock accountDaoMock;
+	private AuditLogDaoInMemory auditLogDao;
 	
 	@Before
 	public void setUp()
 			throws Exception
 	{
 		accountDaoMock = new AccountDaoMock();
-		bank = new RockefellerBank(accountDaoMock);
+		auditLogDao = new AuditLogDaoInMemory();
+		bank = new RockefellerBank(accountDaoMock, RockefellerBank.LockingMode.GLOBAL, auditLogDao);
 	}
 	
 	@Test
@@ -60,6 +68,31 @@ public class RockefellerBankTest
 		assertEquals(exampleBalance, accountDaoMock.openInitialBalance); // account initial balance matches
 	}
 	
+	@Test
+	public void accountOpenBatchTest()
+			throws BankInternalError
+	{
+		BankAccountDescription accountDescription1 = new BankAccountDescription.Builder()
+				.description(exampleAccountDescription)
+				.initialBalance(exampleBalance)
+				.build();
+		BankAccountDescription accountDescription2 = new BankAccountDescription.Builder()
+				.description(exampleTitle)
+				.initialBalance(exampleAmount)
+				.build();
+		
+		accountDaoMock.openBatchResult = Arrays.asList(exampleAccountId1, exampleAccountId2);
+		List<BankAccount> accounts = bank.accountOpenBatch(Arrays.asList(accountDescription1, accountDescription2));
+		
+		assertEquals(1, accountDaoMock.openBatchCallCounter); // the whole batch in one call
+		assertEquals(0, accountDaoMock.openCallCounter);
+		assertEquals(Arrays.asList(exampleAccountDescription, exampleTitle), accountDaoMock.openBatchDescriptions);
+		assertEquals(Arrays.asList(exampleBalance, exampleAmount), accountDaoMock.openBatchInitialBalances);
+		assertEquals(2, accounts.size());
+		assertEquals(exampleAccountId1, accounts.get(0).getId());
+		assertEquals(exampleAccountId2, accounts.get(1).getId());
+	}
+	
 	@Test
 	public void accountsGetInfoAllTest()
 			throws BankInternalError
@@ -82,6 +115,29 @@ public class RockefellerBankTest
 		assertEquals(exampleBalance, entry.getValue().getBalance()); // account balance matches
 	}
 	
+	@Test
+	public void accountsGetInfoPageTest()
+			throws BankInternalError
+	{
+		accountDaoMock.findPageResult = Arrays.asList(new AccountInfo(exampleAccountId2,
+																	  exampleAccountDescription,
+																	  exampleBalance),
+													  new AccountInfo(exampleAccountId1,
+																	  exampleAccountDescription,
+																	  exampleAmount));
+		Map<BankAccount, BankAccountInfo> page = bank.accountsGetInfoPage(exampleAccountId2, 2);
+		
+		assertEquals(1, accountDaoMock.findPageCallCounter); // called once
+		assertEquals(0, accountDaoMock.findAllCallCounter); // without listing all the accounts
+		assertEquals(exampleAccountId2, accountDaoMock.findPageAfterAccountId); // cursor passed through
+		assertEquals(2, accountDaoMock.findPageLimit); // limit passed through
+		
+		Iterator<Map.Entry<BankAccount, BankAccountInfo>> entries = page.entrySet().iterator();
+		assertEquals(exampleAccountId2, entries.next().getKey().getId()); // order of the DAO kept
+		assertEquals(exampleAmount, entries.next().getValue().getBalance());
+		assertFalse(entries.hasNext());
+	}
+	
 	@Test
 	public void accountFindByIdTest()
 			throws BankInternalError
@@ -136,24 +192,21 @@ public class RockefellerBankTest
 	public void accountDepositTest()
 			throws BankAccountNotFound, BankInternalError
 	{
-		accountDaoMock.doestItExistResult = Arrays.asList(Boolean.TRUE,
-														  Boolean.TRUE);
-		
-		accountDaoMock.getBalanceResult = Arrays.asList(exampleBalance);
+		accountDaoMock.doestItExistResult = Arrays.asList(Boolean.TRUE);
+		accountDaoMock.applyDeltaResult = BalanceUpdateStatus.APPLIED;
 		
 		Optional<BankAccount> bankAccount = bank.accountFindById(exampleAccountId1);
 		OperationResult operationResult = bank.accountDeposit(bankAccount.get(),
 															  exampleAmount,
 															  exampleTitle);
 		
-		assertEquals(accountDaoMock.doestItExistResult.size(), accountDaoMock.doestItExistCallCounter); // called twice (in findById and in accountDeposit)
-		assertEquals(accountDaoMock.getBalanceResult.size(), accountDaoMock.getBalanceCallCounter); // called once, in accountDeposit
-		assertEquals(1, accountDaoMock.setBalanceCallCounter); // called once, to set final amount in accountDeposit
+		assertEquals(accountDaoMock.doestItExistResult.size(), accountDaoMock.doestItExistCallCounter); // called once, in findById, accountDeposit relies on applyDelta
+		assertEquals(0, accountDaoMock.getBalanceCallCounter); // not called, balance is updated in a single call
+		assertEquals(0, accountDaoMock.setBalanceCallCounter); // not called, balance is updated in a single call
+		assertEquals(1, accountDaoMock.applyDeltaCallCounter); // called once, to update the balance in accountDeposit
 		
-		assertEquals(Arrays.asList(exampleAccountId1), accountDaoMock.setBalanceAccountId);
-		
-		BigDecimal expectedBalance = exampleBalance.add(exampleAmount);
-		assertEquals(Arrays.asList(expectedBalance), accountDaoMock.setBalanceNewBalance);
+		assertEquals(Arrays.asList(exampleAccountId1), accountDaoMock.applyDeltaAccountId);
+		assertEquals(Arrays.asList(exampleAmount), accountDaoMock.applyDeltaDelta);
 		
 		assertEquals(OperationResult.Status.SUCCESSFUL, operationResult.getStatus());
 		assertEquals(exampleAmount, operationResult.getActualAmount());
@@ -163,39 +216,50 @@ public class RockefellerBankTest
 	public void accountWithdrawTest()
 			throws BankAccountNotFound, BankInternalError
 	{
-		accountDaoMock.doestItExistResult = Arrays.asList(Boolean.TRUE,
-														  Boolean.TRUE);
-		
-		accountDaoMock.getBalanceResult = Arrays.asList(exampleBalance);
+		accountDaoMock.doestItExistResult = Arrays.asList(Boolean.TRUE);
+		accountDaoMock.applyDeltaResult = BalanceUpdateStatus.APPLIED;
 		
 		Optional<BankAccount> bankAccount = bank.accountFindById(exampleAccountId1);
 		OperationResult operationResult = bank.accountWithdraw(bankAccount.get(),
 															   exampleAmount,
 															   exampleTitle);
 		
-		assertEquals(accountDaoMock.doestItExistResult.size(), accountDaoMock.doestItExistCallCounter); // called twice (in findById and in accountWithdraw)
-		assertEquals(accountDaoMock.getBalanceResult.size(), accountDaoMock.getBalanceCallCounter); // called once, in accountWithdraw
-		assertEquals(1, accountDaoMock.setBalanceCallCounter); // called once, to set final amount in accountWithdraw
+		assertEquals(accountDaoMock.doestItExistResult.size(), accountDaoMock.doestItExistCallCounter); // called once, in findById, accountWithdraw relies on applyDelta
+		assertEquals(0, accountDaoMock.getBalanceCallCounter); // not called, balance is updated in a single call
+		assertEquals(0, accountDaoMock.setBalanceCallCounter); // not called, balance is updated in a single call
+		assertEquals(1, accountDaoMock.applyDeltaCallCounter); // called once, to update the balance in accountWithdraw
 		
-		assertEquals(Arrays.asList(exampleAccountId1), accountDaoMock.setBalanceAccountId);
-		
-		BigDecimal expectedBalance = exampleBalance.subtract(exampleAmount);
-		assertEquals(Arrays.asList(expectedBalance), accountDaoMock.setBalanceNewBalance);
+		assertEquals(Arrays.asList(exampleAccountId1), accountDaoMock.applyDeltaAccountId);
+		assertEquals(Arrays.asList(exampleAmount.negate()), accountDaoMock.applyDeltaDelta);
 		
 		assertEquals(OperationResult.Status.SUCCESSFUL, operationResult.getStatus());
 		assertEquals(exampleAmount, operationResult.getActualAmount());
 	}
 	
+	@Test
+	public void accountWithdrawNotEnoughFundsTest()
+			throws BankAccountNotFound, BankInternalError
+	{
+		accountDaoMock.doestItExistResult = Arrays.asList(Boolean.TRUE);
+		accountDaoMock.applyDeltaResult = BalanceUpdateStatus.NOT_ENOUGH_FUNDS;
+		
+		Optional<BankAccount> bankAccount = bank.accountFindById(exampleAccountId1);
+		OperationResult operationResult = bank.accountWithdraw(bankAccount.get(),
+															   exampleAmount,
+															   exampleTitle);
+		
+		assertEquals(1, accountDaoMock.applyDeltaCallCounter); // called once, the DAO refused to apply it
+		assertEquals(OperationResult.Status.FAILED_NOT_ENOUGH_FUNDS, operationResult.getStatus());
+		assertEquals(exampleAmount, operationResult.getActualAmount());
+	}
+	
 	@Test
 	public void transferAmountTest()
 			throws BankInternalError, BankAccountNotFound
 	{
 		accountDaoMock.doestItExistResult = Arrays.asList(Boolean.TRUE,
-														  Boolean.TRUE,
-														  Boolean.TRUE,
 														  Boolean.TRUE);
-		accountDaoMock.getBalanceResult = Arrays.asList(exampleBalance,
-														exampleBalance);
+		accountDaoMock.moveResult = BalanceUpdateStatus.APPLIED;
 		
 		Optional<BankAccount> sourceAccount = bank.accountFindById(exampleAccountId1);
 		Optional<BankAccount> destinationAccount = bank.accountFindById(exampleAccountId2);
@@ -203,21 +267,106 @@ public class RockefellerBankTest
 															  destinationAccount.get(), // no need to check ifPresent
 															  exampleAmount);
 		
-		assertEquals(accountDaoMock.doestItExistResult.size(), accountDaoMock.doestItExistCallCounter); // called four times (twice in findById and twice in transferAmount)
-		assertEquals(accountDaoMock.getBalanceResult.size(), accountDaoMock.getBalanceCallCounter); // called twice, once for each account
-		assertEquals(2, accountDaoMock.setBalanceCallCounter); // called twice, once for each account
+		assertEquals(accountDaoMock.doestItExistResult.size(), accountDaoMock.doestItExistCallCounter); // called twice, in findById, transferAmount relies on move
+		assertEquals(0, accountDaoMock.getBalanceCallCounter); // not called, balances are updated in a single call
+		assertEquals(0, accountDaoMock.setBalanceCallCounter); // not called, balances are updated in a single call
+		assertEquals(1, accountDaoMock.moveCallCounter); // called once
 		
-		assertEquals(Arrays.asList(exampleAccountId1,
-								   exampleAccountId2), accountDaoMock.setBalanceAccountId); // account IDs match
+		assertEquals(exampleAccountId1, accountDaoMock.moveSourceAccountId); // account IDs match
+		assertEquals(exampleAccountId2, accountDaoMock.moveDestinationAccountId);
+		assertEquals(exampleAmount, accountDaoMock.moveAmount); // amount matches
 		
-		BigDecimal expectedBalance1 = exampleBalance.subtract(exampleAmount);
-		BigDecimal expectedBalance2 = exampleBalance.add(exampleAmount);
-		assertEquals(Arrays.asList(expectedBalance1,
-								   expectedBalance2), accountDaoMock.setBalanceNewBalance); // account balances match
 		assertEquals(OperationResult.Status.SUCCESSFUL, operationResult.getStatus());
 		assertEquals(exampleAmount, operationResult.getActualAmount());
 	}
 	
+	@Test(expected = BankAccountNotFound.class)
+	public void transferAmountDestinationNotFoundTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		accountDaoMock.doestItExistResult = Arrays.asList(Boolean.TRUE,
+														  Boolean.TRUE);
+		accountDaoMock.moveResult = BalanceUpdateStatus.DESTINATION_ACCOUNT_NOT_FOUND;
+		
+		Optional<BankAccount> sourceAccount = bank.accountFindById(exampleAccountId1);
+		Optional<BankAccount> destinationAccount = bank.accountFindById(exampleAccountId2);
+		bank.transferAmount(sourceAccount.get(), // no need to check ifPresent
+							destinationAccount.get(), // no need to check ifPresent
+							exampleAmount);
+	}
+	
+	@Test
+	public void auditLogTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		accountDaoMock.doestItExistResult = Arrays.asList(Boolean.TRUE,
+														  Boolean.TRUE);
+		accountDaoMock.applyDeltaResult = BalanceUpdateStatus.APPLIED;
+		accountDaoMock.moveResult = BalanceUpdateStatus.NOT_ENOUGH_FUNDS;
+		
+		BankAccount account1 = bank.accountFindById(exampleAccountId1).get();
+		BankAccount account2 = bank.accountFindById(exampleAccountId2).get();
+		bank.accountDeposit(account1, exampleAmount, exampleTitle);
+		bank.accountWithdraw(account2, exampleAmount, exampleTitle);
+		bank.transferAmount(account1, account2, exampleAmount);
+		
+		List<AuditLogEntry> entries = auditLogDao.findByTimestamp(0, Long.MAX_VALUE, 0, 10);
+		
+		assertEquals(3, entries.size());
+		
+		assertEquals(AuditLogOperation.DEPOSIT, entries.get(0).getOperation());
+		assertEquals(null, entries.get(0).getSourceAccountId());
+		assertEquals(exampleAccountId1, entries.get(0).getDestinationAccountId());
+		assertEquals(exampleAmount, entries.get(0).getAmount());
+		assertEquals(exampleTitle, entries.get(0).getTitle());
+		assertEquals(AuditLogStatus.SUCCESSFUL, entries.get(0).getStatus());
+		
+		assertEquals(AuditLogOperation.WITHDRAWAL, entries.get(1).getOperation());
+		assertEquals(exampleAccountId2, entries.get(1).getSourceAccountId());
+		assertEquals(null, entries.get(1).getDestinationAccountId());
+		
+		assertEquals(AuditLogOperation.TRANSFER, entries.get(2).getOperation());
+		assertEquals(exampleAccountId1, entries.get(2).getSourceAccountId());
+		assertEquals(exampleAccountId2, entries.get(2).getDestinationAccountId());
+		assertEquals(null, entries.get(2).getTitle());
+		assertEquals(AuditLogStatus.FAILED_NOT_ENOUGH_FUNDS, entries.get(2).getStatus());
+	}
+	
+	@Test
+	public void accountGetHistoryTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		accountDaoMock.doestItExistResult = Arrays.asList(Boolean.TRUE,
+														  Boolean.TRUE);
+		accountDaoMock.applyDeltaResult = BalanceUpdateStatus.APPLIED;
+		accountDaoMock.moveResult = BalanceUpdateStatus.APPLIED;
+		
+		BankAccount account1 = bank.accountFindById(exampleAccountId1).get();
+		BankAccount account2 = bank.accountFindById(exampleAccountId2).get();
+		bank.accountDeposit(account1, exampleAmount, exampleTitle);
+		bank.accountWithdraw(account2, exampleAmount, exampleTitle);
+		bank.transferAmount(account1, account2, exampleAmount);
+		
+		List<BankAccountHistoryEntry> history = bank.accountGetHistory(account2, 0, Long.MAX_VALUE, 0, 10);
+		
+		assertEquals(2, history.size());
+		assertEquals(BankAccountHistoryEntry.Operation.WITHDRAWAL, history.get(0).getOperation());
+		assertEquals(exampleAccountId2, history.get(0).getSourceAccountId());
+		assertEquals(exampleTitle, history.get(0).getTitle());
+		assertEquals(BankAccountHistoryEntry.Operation.TRANSFER, history.get(1).getOperation());
+		assertEquals(exampleAccountId1, history.get(1).getSourceAccountId());
+		assertEquals(exampleAccountId2, history.get(1).getDestinationAccountId());
+		assertEquals(exampleAmount, history.get(1).getAmount());
+		assertEquals(OperationResult.Status.SUCCESSFUL, history.get(1).getStatus());
+		
+		// The next page starts after the last entry of the previous one.
+		history = bank.accountGetHistory(account1, 0, Long.MAX_VALUE, 0, 1);
+		assertEquals(BankAccountHistoryEntry.Operation.DEPOSIT, history.get(0).getOperation());
+		history = bank.accountGetHistory(account1, 0, Long.MAX_VALUE, history.get(0).getSequence(), 10);
+		assertEquals(1, history.size());
+		assertEquals(BankAccountHistoryEntry.Operation.TRANSFER, history.get(0).getOperation());
+	}
+	
 	@Test
 	public void accountCloseTest()
 			throws BankInternalError, BankAccountNotFound
@@ -232,6 +381,38 @@ public class RockefellerBankTest
 		assertEquals(1, accountDaoMock.closeCallCounter); // called once
 		assertEquals(exampleAccountId1, accountDaoMock.closeAccountId); // account ID matches
 	}
+	
+	@Test
+	public void accountGetVersionTest()
+			throws BankInternalError, BankAccountNotFound
+	{
+		accountDaoMock.doestItExistResult = Arrays.asList(Boolean.TRUE,
+														  Boolean.TRUE);
+		accountDaoMock.applyDeltaResult = BalanceUpdateStatus.APPLIED;
+		accountDaoMock.moveResult = BalanceUpdateStatus.APPLIED;
+		
+		BankAccount account1 = bank.accountFindById(exampleAccountId1).get();
+		BankAccount account2 = bank.accountFindById(exampleAccountId2).get();
+		assertEquals(0, bank.accountGetVersion(account1)); // never changed
+		
+		bank.accountDeposit(account1, exampleAmount, exampleTitle);
+		assertEquals(1, bank.accountGetVersion(account1));
+		assertEquals(0, bank.accountGetVersion(account2));
+		
+		bank.transferAmount(account1, account2, exampleAmount);
+		assertEquals(2, bank.accountGetVersion(account1)); // both sides of the transfer are bumped
+		assertEquals(1, bank.accountGetVersion(account2));
+		
+		accountDaoMock.applyDeltaResult = BalanceUpdateStatus.NOT_ENOUGH_FUNDS;
+		bank.accountWithdraw(account2, exampleAmount, exampleTitle);
+		assertEquals(1, bank.accountGetVersion(account2)); // balance did not change
+		
+		bank.transferBatch(Arrays.asList(new BankTransfer(account2, account1, exampleAmount)), TransferBatchMode.ATOMIC);
+		assertEquals(3, bank.accountGetVersion(account1));
+		assertEquals(2, bank.accountGetVersion(account2));
+		
+		assertEquals(0, accountDaoMock.getInfoCallCounter); // versions are not read from the DAO
+	}
 }
 
 /**
@@ -249,10 +430,22 @@ class AccountDaoMock
 	BigDecimal openInitialBalance = null;
 	String openResult = null;
 	
+	// openBatch
+	int openBatchCallCounter = 0;
+	List<String> openBatchDescriptions = null;
+	List<BigDecimal> openBatchInitialBalances = null;
+	List<String> openBatchResult = null;
+	
 	// findAll
 	int findAllCallCounter = 0;
 	Set<AccountInfo> findAllResult = null;
 	
+	// findPage
+	int findPageCallCounter = 0;
+	String findPageAfterAccountId = null;
+	int findPageLimit = 0;
+	List<AccountInfo> findPageResult = null;
+	
 	// doesItExist
 	int doestItExistCallCounter = 0;
 	List<Boolean> doestItExistResult = new ArrayList<>();
@@ -272,6 +465,19 @@ class AccountDaoMock
 	List<String> setBalanceAccountId = new ArrayList<>();
 	List<BigDecimal> setBalanceNewBalance = new ArrayList<>();
 	
+	// applyDelta
+	int applyDeltaCallCounter = 0;
+	List<String> applyDeltaAccountId = new ArrayList<>();
+	List<BigDecimal> applyDeltaDelta = new ArrayList<>();
+	BalanceUpdateStatus applyDeltaResult = null;
+	
+	// move
+	int moveCallCounter = 0;
+	String moveSourceAccountId = null;
+	String moveDestinationAccountId = null;
+	BigDecimal moveAmount = null;
+	BalanceUpdateStatus moveResult = null;
+	
 	// close
 	int closeCallCounter = 0;
 	String closeAccountId = null;
@@ -287,6 +493,17 @@ class AccountDaoMock
 		return openResult;
 	}
 	
+	@Override
+	public List<String> openBatch(List<String> descriptions, List<BigDecimal> initialBalances)
+			throws AccountDaoInternalError
+	{
+		openBatchCallCounter++;
+		openBatchDescriptions = descriptions;
+		openBatchInitialBalances = initialBalances;
+		
+		return openBatchResult;
+	}
+	
 	@Override
 	public boolean doesItExist(String accountId)
 			throws AccountDaoInternalError
@@ -305,6 +522,17 @@ class AccountDaoMock
 		return findAllResult;
 	}
 	
+	@Override
+	public List<AccountInfo> findPage(String afterAccountId, int limit)
+			throws AccountDaoInternalError
+	{
+		findPageCallCounter++;
+		findPageAfterAccountId = afterAccountId;
+		findPageLimit = limit;
+		
+		return findPageResult;
+	}
+	
 	@Override
 	public AccountInfo getInfo(String accountId)
 			throws AccountDaoInternalError
@@ -334,6 +562,29 @@ class AccountDaoMock
 		setBalanceNewBalance.add(newBalance);
 	}
 	
+	@Override
+	public BalanceUpdateStatus applyDelta(String accountId, BigDecimal delta)
+			throws AccountDaoInternalError
+	{
+		applyDeltaCallCounter++;
+		applyDeltaAccountId.add(accountId);
+		applyDeltaDelta.add(delta);
+		
+		return applyDeltaResult;
+	}
+	
+	@Override
+	public BalanceUpdateStatus move(String sourceAccountId, String destinationAccountId, BigDecimal amount)
+			throws AccountDaoInternalError
+	{
+		moveCallCounter++;
+		moveSourceAccountId = sourceAccountId;
+		moveDestinationAccountId = destinationAccountId;
+		moveAmount = amount;
+		
+		return moveResult;
+	}
+	
 	@Override
 	public void close(String accountId)
 			throws AccountDaoInternalError
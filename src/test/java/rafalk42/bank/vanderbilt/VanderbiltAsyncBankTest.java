@@ -0,0 +1,135 @@
+package rafalk42.bank.vanderbilt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rafalk42.bank.domain.*;
+import rafalk42.dao.AccountDaoInMemory;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Business rules are covered by VanderbiltBankTest, which goes through the same code, these tests are about
+ * the futures: that nobody has to wait for one operation before starting the next one and that failures
+ * complete the futures the way AsyncBank describes.
+ */
+public class VanderbiltAsyncBankTest
+{
+	private final BigDecimal exampleBalance = BigDecimal.valueOf(7500000, 2);
+	private final BigDecimal exampleAmount = BigDecimal.valueOf(100000, 2);
+	
+	private VanderbiltAsyncBank bank;
+	private BankAccount account1;
+	private BankAccount account2;
+	
+	@Before
+	public void setUp()
+			throws Exception
+	{
+		bank = new VanderbiltAsyncBank(4, AccountDaoInMemory::new, new VanderbiltBankShardAssignmentRoundRobin());
+		account1 = openAccount().get();
+		account2 = openAccount().get();
+	}
+	
+	@After
+	public void tearDown()
+	{
+		bank.shutdown();
+	}
+	
+	@Test
+	public void manyOperationsInFlightTest()
+			throws Exception
+	{
+		List<CompletableFuture<OperationResult>> results = new ArrayList<>();
+		for (int i = 0; i < 1000; i++)
+		{
+			results.add(bank.transferAmount(account1, account2, exampleAmount.divide(BigDecimal.valueOf(1000))));
+			results.add(bank.transferAmount(account2, account1, exampleAmount.divide(BigDecimal.valueOf(2000))));
+		}
+		
+		CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).get();
+		for (CompletableFuture<OperationResult> result : results)
+		{
+			assertEquals(OperationResult.Status.SUCCESSFUL, result.get().getStatus());
+		}
+		
+		assertEquals(exampleBalance.subtract(exampleAmount.divide(BigDecimal.valueOf(2))),
+					 bank.accountGetBalance(account1).get());
+		assertEquals(exampleBalance.add(exampleAmount.divide(BigDecimal.valueOf(2))),
+					 bank.accountGetBalance(account2).get());
+	}
+	
+	@Test
+	public void missingAccountTest()
+			throws Exception
+	{
+		bank.accountClose(account2).get();
+		
+		try
+		{
+			bank.transferAmount(account1, account2, exampleAmount).get();
+			fail("Transfer to a closed account should fail");
+		}
+		catch (ExecutionException ex)
+		{
+			assertTrue(ex.getCause() instanceof BankAccountNotFound);
+			assertEquals(account2.getId(), ((BankAccountNotFound) ex.getCause()).getAccountId());
+		}
+		
+		assertEquals(exampleBalance, bank.accountGetBalance(account1).get());
+		assertFalse(bank.accountFindById(account2.getId()).get().isPresent());
+	}
+	
+	@Test
+	public void transferBatchTest()
+			throws Exception
+	{
+		bank.accountClose(account2).get();
+		BankAccount account3 = openAccount().get();
+		
+		List<OperationResult> results = bank.transferBatch(Arrays.asList(new BankTransfer(account1, account2, exampleAmount),
+																		  new BankTransfer(account1, account3, exampleBalance),
+																		  new BankTransfer(account3, account1, exampleAmount)),
+														   TransferBatchMode.BEST_EFFORT)
+											.get();
+		
+		assertEquals(OperationResult.Status.FAILED_ACCOUNT_NOT_FOUND, results.get(0).getStatus());
+		assertEquals(OperationResult.Status.SUCCESSFUL, results.get(1).getStatus());
+		assertEquals(OperationResult.Status.SUCCESSFUL, results.get(2).getStatus());
+		assertEquals(exampleAmount, bank.accountGetBalance(account1).get());
+	}
+	
+	@Test
+	public void transferBatchAtomicTest()
+			throws Exception
+	{
+		try
+		{
+			bank.transferBatch(Arrays.asList(new BankTransfer(account1, account2, exampleAmount)),
+							   TransferBatchMode.ATOMIC)
+				.get();
+			fail("Atomic batches are not supported");
+		}
+		catch (ExecutionException ex)
+		{
+			assertTrue(ex.getCause() instanceof UnsupportedOperationException);
+		}
+	}
+	
+	private CompletableFuture<BankAccount> openAccount()
+	{
+		return bank.accountOpen(new BankAccountDescription.Builder()
+										.description("Foo bar")
+										.initialBalance(exampleBalance)
+										.build());
+	}
+}
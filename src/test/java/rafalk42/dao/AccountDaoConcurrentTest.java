@@ -0,0 +1,445 @@
+package rafalk42.dao;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+
+public class AccountDaoConcurrentTest
+{
+	private final String exampleAccountDescription1 = "Foo bar";
+	private final String exampleAccountDescription2 = "Fizz buzz";
+	private final String exampleAccountDescription3 = "5318008";
+	private final BigDecimal exampleInitialBalance1 = BigDecimal.valueOf(100.00);
+	private final BigDecimal exampleInitialBalance2 = BigDecimal.valueOf(110.00);
+	private final BigDecimal exampleInitialBalance3 = BigDecimal.valueOf(120.00);
+	private final String nonexistentAccountId = "This ID has 99.9999% chance of not existing";
+	
+	private AccountDaoConcurrent dao;
+	private String accountId1;
+	private String accountId2;
+	private String accountId3;
+	
+	@Before
+	public void setUp()
+			throws Exception
+	{
+		// Create an instance and open 3 example accounts.
+		dao = new AccountDaoConcurrent();
+		accountId1 = dao.open(exampleAccountDescription1, exampleInitialBalance1);
+		accountId2 = dao.open(exampleAccountDescription2, exampleInitialBalance2);
+		accountId3 = dao.open(exampleAccountDescription3, exampleInitialBalance3);
+	}
+	
+	@Test
+	public void openAndDoesExistTest()
+			throws AccountDaoInternalError
+	{
+		
+		assertTrue(dao.doesItExist(accountId1));
+	}
+	
+	@Test
+	public void openBatchTest()
+			throws AccountDaoInternalError
+	{
+		List<String> accountIds = dao.openBatch(Arrays.asList(exampleAccountDescription1,
+															  exampleAccountDescription2),
+												Arrays.asList(exampleInitialBalance1,
+															  exampleInitialBalance2));
+		
+		assertEquals(Arrays.asList("0000000004", "0000000005"), accountIds);
+		assertEquals(new AccountInfo("0000000005", exampleAccountDescription2, exampleInitialBalance2),
+					 dao.getInfo("0000000005"));
+		assertEquals("0000000006", dao.open(exampleAccountDescription3, exampleInitialBalance3));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void openBatchWithNullInitialBalanceTest()
+			throws AccountDaoInternalError
+	{
+		dao.openBatch(Arrays.asList(exampleAccountDescription1, exampleAccountDescription2),
+					  Arrays.asList(exampleInitialBalance1, null));
+	}
+	
+	@Test
+	public void closeAndDoesExistTest()
+			throws AccountDaoInternalError
+	{
+		dao.close(accountId1);
+		
+		assertFalse(dao.doesItExist(accountId1));
+	}
+	
+	@Test
+	public void restoreTest()
+			throws AccountDaoInternalError
+	{
+		AccountDaoConcurrent restoredDao = new AccountDaoConcurrent();
+		restoredDao.restore("0000000007", exampleAccountDescription1, exampleInitialBalance1);
+		restoredDao.restore("0000000003", exampleAccountDescription2, exampleInitialBalance2);
+		
+		assertEquals(new AccountInfo("0000000007", exampleAccountDescription1, exampleInitialBalance1),
+					 restoredDao.getInfo("0000000007"));
+		assertEquals(new AccountInfo("0000000003", exampleAccountDescription2, exampleInitialBalance2),
+					 restoredDao.getInfo("0000000003"));
+		assertFalse(restoredDao.doesItExist("0000000005"));
+		assertEquals("0000000008", restoredDao.open(exampleAccountDescription3, exampleInitialBalance3));
+	}
+	
+	@Test
+	public void restoreReplacesAccountTest()
+			throws AccountDaoInternalError
+	{
+		dao.restore(accountId1, exampleAccountDescription2, exampleInitialBalance2);
+		
+		assertEquals(new AccountInfo(accountId1, exampleAccountDescription2, exampleInitialBalance2),
+					 dao.getInfo(accountId1));
+	}
+	
+	/**
+	 * Numbers are not indexes here, any ID the allocator can hand out can be restored.
+	 */
+	@Test
+	public void restoreLargeAccountIdTest()
+			throws AccountDaoInternalError
+	{
+		AccountDaoConcurrent restoredDao = new AccountDaoConcurrent();
+		restoredDao.restore("9999999998", exampleAccountDescription1, exampleInitialBalance1);
+		
+		assertEquals(new AccountInfo("9999999998", exampleAccountDescription1, exampleInitialBalance1),
+					 restoredDao.getInfo("9999999998"));
+		assertEquals("9999999999", restoredDao.open(exampleAccountDescription2, exampleInitialBalance2));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void restoreWithInvalidAccountIdTest()
+			throws AccountDaoInternalError
+	{
+		dao.restore(nonexistentAccountId, exampleAccountDescription1, exampleInitialBalance1);
+	}
+	
+	@Test
+	public void getInfoTest()
+			throws AccountDaoInternalError
+	{
+		AccountInfo info = dao.getInfo(accountId1);
+		
+		// Check if all the info that we provided when creating account is correctly kept.
+		assertEquals(info.getId(), accountId1);
+		assertEquals(info.getDescription(), exampleAccountDescription1);
+		assertEquals(info.getBalance(), exampleInitialBalance1);
+	}
+	
+	@Test
+	public void getBalanceTest()
+			throws AccountDaoInternalError
+	{
+		BigDecimal balance = dao.getBalance(accountId1);
+		
+		// This partially overlaps with the previous test, but checks different function.
+		assertEquals(balance, exampleInitialBalance1);
+	}
+	
+	@Test
+	public void setBalanceTest()
+			throws AccountDaoInternalError
+	{
+		BigDecimal newBalance = exampleInitialBalance1.add(exampleInitialBalance1);
+		dao.setBalance(accountId1, newBalance);
+		BigDecimal balanceAfter = dao.getBalance(accountId1);
+		
+		assertEquals(balanceAfter, newBalance);
+	}
+	
+	@Test
+	public void findAllTest()
+			throws AccountDaoInternalError
+	{
+		Set<AccountInfo> allAccounts = dao.findAll();
+		
+		Set<String> allAccountsIds = new HashSet<>(Arrays.asList(accountId1,
+																 accountId2,
+																 accountId3));
+		Set<String> foundAccountIds = allAccounts.stream()
+												 .map(AccountInfo::getId)
+												 .collect(Collectors.toSet());
+		
+		assertEquals(foundAccountIds.size(), 3);
+		assertEquals(foundAccountIds, allAccountsIds);
+	}
+	
+	@Test
+	public void findPageTest()
+			throws AccountDaoInternalError
+	{
+		List<AccountInfo> firstPage = dao.findPage(null, 2);
+		List<AccountInfo> secondPage = dao.findPage(firstPage.get(1).getId(), 2);
+		
+		assertEquals(Arrays.asList(accountId1, accountId2), firstPage.stream()
+																	.map(AccountInfo::getId)
+																	.collect(Collectors.toList()));
+		assertEquals(1, secondPage.size());
+		assertEquals(accountId3, secondPage.get(0).getId());
+		assertEquals(exampleInitialBalance3, secondPage.get(0).getBalance());
+		assertTrue(dao.findPage(accountId3, 2).isEmpty());
+	}
+	
+	@Test
+	public void findPageAfterClosedAccountTest()
+			throws AccountDaoInternalError
+	{
+		dao.close(accountId2);
+		
+		List<AccountInfo> page = dao.findPage(accountId2, 10);
+		
+		assertEquals(1, page.size());
+		assertEquals(accountId3, page.get(0).getId());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void findPageWithZeroLimitTest()
+			throws AccountDaoInternalError
+	{
+		dao.findPage(null, 0);
+	}
+	
+	@Test
+	public void applyDeltaTest()
+			throws AccountDaoInternalError
+	{
+		assertEquals(BalanceUpdateStatus.APPLIED, dao.applyDelta(accountId1, exampleInitialBalance1.negate()));
+		
+		assertEquals(0, BigDecimal.ZERO.compareTo(dao.getBalance(accountId1))); // exactly zero is still fine
+	}
+	
+	@Test
+	public void applyDeltaNotEnoughFundsTest()
+			throws AccountDaoInternalError
+	{
+		BigDecimal delta = exampleInitialBalance1.add(BigDecimal.valueOf(1, 2)).negate();
+		
+		assertEquals(BalanceUpdateStatus.NOT_ENOUGH_FUNDS, dao.applyDelta(accountId1, delta));
+		assertEquals(exampleInitialBalance1, dao.getBalance(accountId1)); // nothing changed
+	}
+	
+	@Test
+	public void applyDeltaWithNonexistentAccountIdTest()
+			throws AccountDaoInternalError
+	{
+		assertEquals(BalanceUpdateStatus.ACCOUNT_NOT_FOUND, dao.applyDelta(nonexistentAccountId, BigDecimal.ONE));
+	}
+	
+	@Test
+	public void moveTest()
+			throws AccountDaoInternalError
+	{
+		assertEquals(BalanceUpdateStatus.APPLIED, dao.move(accountId1, accountId2, exampleInitialBalance1));
+		
+		assertEquals(0, BigDecimal.ZERO.compareTo(dao.getBalance(accountId1)));
+		assertEquals(exampleInitialBalance2.add(exampleInitialBalance1), dao.getBalance(accountId2));
+	}
+	
+	@Test
+	public void moveNotEnoughFundsTest()
+			throws AccountDaoInternalError
+	{
+		BigDecimal amount = exampleInitialBalance1.add(BigDecimal.valueOf(1, 2));
+		
+		assertEquals(BalanceUpdateStatus.NOT_ENOUGH_FUNDS, dao.move(accountId1, accountId2, amount));
+		assertEquals(exampleInitialBalance1, dao.getBalance(accountId1)); // nothing changed on either account
+		assertEquals(exampleInitialBalance2, dao.getBalance(accountId2));
+	}
+	
+	@Test
+	public void moveWithNonexistentAccountIdTest()
+			throws AccountDaoInternalError
+	{
+		assertEquals(BalanceUpdateStatus.ACCOUNT_NOT_FOUND,
+					 dao.move(nonexistentAccountId, accountId2, BigDecimal.ONE));
+		assertEquals(BalanceUpdateStatus.DESTINATION_ACCOUNT_NOT_FOUND,
+					 dao.move(accountId1, nonexistentAccountId, BigDecimal.ONE));
+		assertEquals(exampleInitialBalance1, dao.getBalance(accountId1)); // nothing taken from the source
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void moveToSameAccountTest()
+			throws AccountDaoInternalError
+	{
+		dao.move(accountId1, accountId1, BigDecimal.ONE);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void moveNegativeAmountTest()
+			throws AccountDaoInternalError
+	{
+		dao.move(accountId1, accountId2, BigDecimal.ONE.negate());
+	}
+	
+	@Test
+	public void concurrentMoveTest()
+			throws Exception
+	{
+		int threadCount = 8;
+		int movesPerThread = 5000;
+		BigDecimal amount = BigDecimal.valueOf(1, 2);
+		List<String> accountIds = Arrays.asList(accountId1, accountId2, accountId3);
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		
+		try
+		{
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < threadCount; i++)
+			{
+				Random random = new Random(i);
+				futures.add(executor.submit(() ->
+											{
+												for (int j = 0; j < movesPerThread; j++)
+												{
+													int source = random.nextInt(accountIds.size());
+													int destination = (source + 1 + random.nextInt(2)) % accountIds.size();
+													dao.move(accountIds.get(source), accountIds.get(destination), amount);
+												}
+												return null;
+											}));
+			}
+			
+			for (Future<?> future : futures)
+			{
+				future.get();
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		
+		// Moves are atomic, so no money appeared or disappeared.
+		BigDecimal total = dao.getBalance(accountId1).add(dao.getBalance(accountId2)).add(dao.getBalance(accountId3));
+		assertEquals(0, exampleInitialBalance1.add(exampleInitialBalance2).add(exampleInitialBalance3).compareTo(total));
+	}
+	
+	@Test
+	public void concurrentOpenTest()
+			throws Exception
+	{
+		int threadCount = 8;
+		int accountsPerThread = 1000;
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		
+		try
+		{
+			List<Future<List<String>>> futures = new ArrayList<>();
+			for (int i = 0; i < threadCount; i++)
+			{
+				futures.add(executor.submit(() ->
+											{
+												List<String> ids = new ArrayList<>();
+												for (int j = 0; j < accountsPerThread; j++)
+												{
+													ids.add(dao.open(exampleAccountDescription1,
+																	 exampleInitialBalance1));
+												}
+												return ids;
+											}));
+			}
+			
+			Set<String> openedIds = new HashSet<>();
+			for (Future<List<String>> future : futures)
+			{
+				openedIds.addAll(future.get());
+			}
+			
+			// Every account got its own ID and none of them got lost.
+			assertEquals(threadCount * accountsPerThread, openedIds.size());
+			assertEquals(threadCount * accountsPerThread + 3, dao.findAll().size());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void openWithNullInitialBalanceTest()
+			throws AccountDaoInternalError
+	{
+		dao.open(exampleAccountDescription1, null);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void getInfoWithNonexistentAccountId()
+			throws AccountDaoInternalError
+	{
+		dao.getInfo(nonexistentAccountId);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void getBalanceWithNonexistentAccountId()
+			throws AccountDaoInternalError
+	{
+		dao.getBalance(nonexistentAccountId);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void setBalanceWithNonexistentAccountId()
+			throws AccountDaoInternalError
+	{
+		dao.setBalance(nonexistentAccountId, BigDecimal.ZERO);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void closeWithNonexistentAccountId()
+			throws AccountDaoInternalError
+	{
+		dao.close(nonexistentAccountId);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void doesItExistWithNullAccountId()
+			throws AccountDaoInternalError
+	{
+		dao.doesItExist(null);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void getInfoWithNullAccountId()
+			throws AccountDaoInternalError
+	{
+		dao.getInfo(null);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void getBalanceWithNullAccountId()
+			throws AccountDaoInternalError
+	{
+		dao.getBalance(null);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void setBalanceWithNullAccountId()
+			throws AccountDaoInternalError
+	{
+		dao.setBalance(null, BigDecimal.ZERO);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void setBalanceWithNullAmount()
+			throws AccountDaoInternalError
+	{
+		dao.setBalance(accountId1, null);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void closeWithNullAccountId()
+			throws AccountDaoInternalError
+	{
+		dao.close(null);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,323 @@
+package rafalk42.dao;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * The same cases as AccountDaoInMemoryTest, with balances of scale 2, which is what this DAO always gives back,
+ * plus the parts specific to the dense storage.
+ */
+public class AccountDaoDenseTest
+{
+	private final String exampleAccountDescription1 = "Foo bar";
+	private final String exampleAccountDescription2 = "Fizz buzz";
+	private final String exampleAccountDescription3 = "5318008";
+	private final BigDecimal exampleInitialBalance1 = BigDecimal.valueOf(10000, 2);
+	private final BigDecimal exampleInitialBalance2 = BigDecimal.valueOf(11000, 2);
+	private final BigDecimal exampleInitialBalance3 = BigDecimal.valueOf(12000, 2);
+	private final String nonexistentAccountId = "This ID has 99.9999% chance of not existing";
+	
+	private AccountDaoDense dao;
+	private String accountId1;
+	private String accountId2;
+	private String accountId3;
+	
+	@Before
+	public void setUp()
+			throws Exception
+	{
+		// Create an instance and open 3 example accounts.
+		dao = new AccountDaoDense();
+		accountId1 = dao.open(exampleAccountDescription1, exampleInitialBalance1);
+		accountId2 = dao.open(exampleAccountDescription2, exampleInitialBalance2);
+		accountId3 = dao.open(exampleAccountDescription3, exampleInitialBalance3);
+	}
+	
+	@Test
+	public void openAndDoesExistTest()
+			throws AccountDaoInternalError
+	{
+		assertEquals("0000000001", accountId1);
+		assertTrue(dao.doesItExist(accountId1));
+	}
+	
+	@Test
+	public void openBatchTest()
+			throws AccountDaoInternalError
+	{
+		List<String> accountIds = dao.openBatch(Arrays.asList(exampleAccountDescription1,
+															  exampleAccountDescription2),
+												Arrays.asList(exampleInitialBalance1,
+															  exampleInitialBalance2));
+		
+		assertEquals(Arrays.asList("0000000004", "0000000005"), accountIds);
+		assertEquals(new AccountInfo("0000000005", exampleAccountDescription2, exampleInitialBalance2),
+					 dao.getInfo("0000000005"));
+		assertEquals("0000000006", dao.open(exampleAccountDescription3, exampleInitialBalance3));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void openBatchWithNullInitialBalanceTest()
+			throws AccountDaoInternalError
+	{
+		dao.openBatch(Arrays.asList(exampleAccountDescription1, exampleAccountDescription2),
+					  Arrays.asList(exampleInitialBalance1, null));
+	}
+	
+	@Test
+	public void openBatchWithBalanceOutOfRangeTest()
+			throws AccountDaoInternalError
+	{
+		try
+		{
+			dao.openBatch(Arrays.asList(exampleAccountDescription1, exampleAccountDescription2),
+						  Arrays.asList(exampleInitialBalance1, new BigDecimal("1E+30")));
+			fail();
+		}
+		catch (IllegalArgumentException ex)
+		{
+			// None of the accounts is opened.
+			assertEquals(3, dao.findAll().size());
+			assertEquals("0000000004", dao.open(exampleAccountDescription1, exampleInitialBalance1));
+		}
+	}
+	
+	@Test
+	public void closeAndDoesExistTest()
+			throws AccountDaoInternalError
+	{
+		dao.close(accountId1);
+		
+		assertFalse(dao.doesItExist(accountId1));
+		assertTrue(dao.doesItExist(accountId2));
+	}
+	
+	@Test
+	public void restoreTest()
+			throws AccountDaoInternalError
+	{
+		AccountDaoDense restoredDao = new AccountDaoDense();
+		restoredDao.restore("0000000007", exampleAccountDescription1, exampleInitialBalance1);
+		restoredDao.restore("0000000003", exampleAccountDescription2, exampleInitialBalance2);
+		
+		assertEquals(new AccountInfo("0000000007", exampleAccountDescription1, exampleInitialBalance1),
+					 restoredDao.getInfo("0000000007"));
+		assertEquals(new AccountInfo("0000000003", exampleAccountDescription2, exampleInitialBalance2),
+					 restoredDao.getInfo("0000000003"));
+		assertFalse(restoredDao.doesItExist("0000000005"));
+		assertEquals("0000000008", restoredDao.open(exampleAccountDescription3, exampleInitialBalance3));
+	}
+	
+	@Test
+	public void restoreBeyondCapacityTest()
+			throws AccountDaoInternalError
+	{
+		dao.restore("0000005000", exampleAccountDescription1, exampleInitialBalance1);
+		
+		assertEquals(exampleInitialBalance1, dao.getBalance("0000005000"));
+		assertEquals(4, dao.findAll().size());
+		assertEquals("0000005001", dao.open(exampleAccountDescription3, exampleInitialBalance3));
+	}
+	
+	@Test
+	public void restoreReplacesAccountTest()
+			throws AccountDaoInternalError
+	{
+		dao.restore(accountId1, exampleAccountDescription2, exampleInitialBalance2);
+		
+		assertEquals(new AccountInfo(accountId1, exampleAccountDescription2, exampleInitialBalance2),
+					 dao.getInfo(accountId1));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void restoreWithInvalidAccountIdTest()
+			throws AccountDaoInternalError
+	{
+		dao.restore(nonexistentAccountId, exampleAccountDescription1, exampleInitialBalance1);
+	}
+	
+	@Test
+	public void doesItExistWithMalformedIdTest()
+			throws AccountDaoInternalError
+	{
+		assertFalse(dao.doesItExist(nonexistentAccountId));
+		assertFalse(dao.doesItExist("1"));
+		assertFalse(dao.doesItExist("000000000a"));
+		assertFalse(dao.doesItExist("0000000000"));
+		assertFalse(dao.doesItExist("0000000004"));
+		assertFalse(dao.doesItExist("9999999999"));
+	}
+	
+	@Test
+	public void getInfoTest()
+			throws AccountDaoInternalError
+	{
+		AccountInfo info = dao.getInfo(accountId2);
+		
+		assertEquals(accountId2, info.getId());
+		assertEquals(exampleAccountDescription2, info.getDescription());
+		assertEquals(exampleInitialBalance2, info.getBalance());
+	}
+	
+	@Test
+	public void setBalanceTest()
+			throws AccountDaoInternalError
+	{
+		BigDecimal balanceAfter = BigDecimal.valueOf(4242, 2);
+		
+		dao.setBalance(accountId1, balanceAfter);
+		
+		assertEquals(balanceAfter, dao.getBalance(accountId1));
+	}
+	
+	@Test
+	public void setBalanceRoundingTest()
+			throws AccountDaoInternalError
+	{
+		dao.setBalance(accountId1, new BigDecimal("1.005"));
+		
+		assertEquals(new BigDecimal("1.01"), dao.getBalance(accountId1));
+	}
+	
+	@Test
+	public void findAllTest()
+			throws AccountDaoInternalError
+	{
+		dao.close(accountId2);
+		
+		Set<String> foundAccountIds = dao.findAll()
+										 .stream()
+										 .map(AccountInfo::getId)
+										 .collect(Collectors.toSet());
+		
+		assertEquals(new HashSet<>(Arrays.asList(accountId1, accountId3)), foundAccountIds);
+	}
+	
+	@Test
+	public void findPageTest()
+			throws AccountDaoInternalError
+	{
+		List<AccountInfo> firstPage = dao.findPage(null, 2);
+		List<AccountInfo> secondPage = dao.findPage(firstPage.get(1).getId(), 2);
+		
+		assertEquals(Arrays.asList(accountId1, accountId2), firstPage.stream()
+																	.map(AccountInfo::getId)
+																	.collect(Collectors.toList()));
+		assertEquals(1, secondPage.size());
+		assertEquals(accountId3, secondPage.get(0).getId());
+		assertTrue(dao.findPage(accountId3, 2).isEmpty());
+	}
+	
+	@Test
+	public void findPageAfterMalformedIdTest()
+			throws AccountDaoInternalError
+	{
+		assertEquals(3, dao.findPage("", 10).size());
+		assertEquals(accountId2, dao.findPage("00000000015", 10).get(0).getId());
+		assertTrue(dao.findPage("a", 10).isEmpty());
+	}
+	
+	@Test
+	public void growAndScanTest()
+			throws AccountDaoInternalError
+	{
+		// Enough to grow the arrays a few times and to fill many bitmap words.
+		for (int i = 0; i < 5000; i++)
+		{
+			dao.open(exampleAccountDescription1, BigDecimal.valueOf(i, 2));
+		}
+		
+		// Leave only every hundredth account open, so most of the bitmap words are empty.
+		for (int i = 4; i <= 5003; i++)
+		{
+			if (i % 100 != 0)
+			{
+				dao.close(String.format("%010d", i));
+			}
+		}
+		
+		List<AccountInfo> page = dao.findPage(accountId3, 100);
+		
+		assertEquals(50, page.size());
+		assertEquals("0000000100", page.get(0).getId());
+		assertEquals(BigDecimal.valueOf(96, 2), page.get(0).getBalance());
+		assertEquals("0000005000", page.get(49).getId());
+		assertEquals(53, dao.findAll().size());
+	}
+	
+	@Test
+	public void applyDeltaTest()
+			throws AccountDaoInternalError
+	{
+		assertEquals(BalanceUpdateStatus.APPLIED, dao.applyDelta(accountId1, BigDecimal.valueOf(-10000, 2)));
+		assertEquals(BigDecimal.valueOf(0, 2), dao.getBalance(accountId1));
+		assertEquals(BalanceUpdateStatus.NOT_ENOUGH_FUNDS, dao.applyDelta(accountId1, BigDecimal.valueOf(-1, 2)));
+		assertEquals(BalanceUpdateStatus.ACCOUNT_NOT_FOUND, dao.applyDelta(nonexistentAccountId, BigDecimal.ONE));
+	}
+	
+	@Test
+	public void moveTest()
+			throws AccountDaoInternalError
+	{
+		assertEquals(BalanceUpdateStatus.APPLIED, dao.move(accountId1, accountId2, BigDecimal.valueOf(2500, 2)));
+		assertEquals(BigDecimal.valueOf(7500, 2), dao.getBalance(accountId1));
+		assertEquals(BigDecimal.valueOf(13500, 2), dao.getBalance(accountId2));
+	}
+	
+	@Test
+	public void moveNotEnoughFundsTest()
+			throws AccountDaoInternalError
+	{
+		assertEquals(BalanceUpdateStatus.NOT_ENOUGH_FUNDS, dao.move(accountId1, accountId2, BigDecimal.valueOf(10001, 2)));
+		assertEquals(exampleInitialBalance1, dao.getBalance(accountId1));
+		assertEquals(exampleInitialBalance2, dao.getBalance(accountId2));
+	}
+	
+	@Test
+	public void moveWithNonexistentAccountIdTest()
+			throws AccountDaoInternalError
+	{
+		dao.close(accountId2);
+		
+		assertEquals(BalanceUpdateStatus.ACCOUNT_NOT_FOUND, dao.move(accountId2, accountId1, BigDecimal.ONE));
+		assertEquals(BalanceUpdateStatus.DESTINATION_ACCOUNT_NOT_FOUND, dao.move(accountId1, accountId2, BigDecimal.ONE));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void openWithOutOfRangeInitialBalanceTest()
+			throws AccountDaoInternalError
+	{
+		dao.open(exampleAccountDescription1, new BigDecimal("1e30"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void getInfoWithNonexistentAccountId()
+			throws AccountDaoInternalError
+	{
+		dao.getInfo(nonexistentAccountId);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void closeWithNonexistentAccountId()
+			throws AccountDaoInternalError
+	{
+		dao.close(nonexistentAccountId);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void doesItExistWithNullAccountId()
+			throws AccountDaoInternalError
+	{
+		dao.doesItExist(null);
+	}
+}
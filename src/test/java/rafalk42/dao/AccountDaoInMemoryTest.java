@@ -6,6 +6,7 @@ import org.junit.Test;
 import java.math.BigDecimal;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -46,6 +47,29 @@ public class AccountDaoInMemoryTest
 		assertTrue(dao.doesItExist(accountId1));
 	}
 	
+	@Test
+	public void openBatchTest()
+			throws AccountDaoInternalError
+	{
+		List<String> accountIds = dao.openBatch(Arrays.asList(exampleAccountDescription1,
+															  exampleAccountDescription2),
+												Arrays.asList(exampleInitialBalance1,
+															  exampleInitialBalance2));
+		
+		assertEquals(Arrays.asList("0000000004", "0000000005"), accountIds);
+		assertEquals(new AccountInfo("0000000005", exampleAccountDescription2, exampleInitialBalance2),
+					 dao.getInfo("0000000005"));
+		assertEquals("0000000006", dao.open(exampleAccountDescription3, exampleInitialBalance3));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void openBatchWithNullInitialBalanceTest()
+			throws AccountDaoInternalError
+	{
+		dao.openBatch(Arrays.asList(exampleAccountDescription1, exampleAccountDescription2),
+					  Arrays.asList(exampleInitialBalance1, null));
+	}
+	
 	@Test
 	public void closeAndDoesExistTest()
 			throws AccountDaoInternalError
@@ -55,6 +79,54 @@ public class AccountDaoInMemoryTest
 		assertFalse(dao.doesItExist(accountId1));
 	}
 	
+	@Test
+	public void restoreTest()
+			throws AccountDaoInternalError
+	{
+		AccountDaoInMemory restoredDao = new AccountDaoInMemory();
+		restoredDao.restore("0000000007", exampleAccountDescription1, exampleInitialBalance1);
+		restoredDao.restore("0000000003", exampleAccountDescription2, exampleInitialBalance2);
+		
+		assertEquals(new AccountInfo("0000000007", exampleAccountDescription1, exampleInitialBalance1),
+					 restoredDao.getInfo("0000000007"));
+		assertEquals(new AccountInfo("0000000003", exampleAccountDescription2, exampleInitialBalance2),
+					 restoredDao.getInfo("0000000003"));
+		assertFalse(restoredDao.doesItExist("0000000005"));
+		assertEquals("0000000008", restoredDao.open(exampleAccountDescription3, exampleInitialBalance3));
+	}
+	
+	@Test
+	public void restoreReplacesAccountTest()
+			throws AccountDaoInternalError
+	{
+		dao.restore(accountId1, exampleAccountDescription2, exampleInitialBalance2);
+		
+		assertEquals(new AccountInfo(accountId1, exampleAccountDescription2, exampleInitialBalance2),
+					 dao.getInfo(accountId1));
+	}
+	
+	/**
+	 * Numbers are not indexes here, any ID the allocator can hand out can be restored.
+	 */
+	@Test
+	public void restoreLargeAccountIdTest()
+			throws AccountDaoInternalError
+	{
+		AccountDaoInMemory restoredDao = new AccountDaoInMemory();
+		restoredDao.restore("9999999998", exampleAccountDescription1, exampleInitialBalance1);
+		
+		assertEquals(new AccountInfo("9999999998", exampleAccountDescription1, exampleInitialBalance1),
+					 restoredDao.getInfo("9999999998"));
+		assertEquals("9999999999", restoredDao.open(exampleAccountDescription2, exampleInitialBalance2));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void restoreWithInvalidAccountIdTest()
+			throws AccountDaoInternalError
+	{
+		dao.restore(nonexistentAccountId, exampleAccountDescription1, exampleInitialBalance1);
+	}
+	
 	@Test
 	public void getInfoTest()
 			throws AccountDaoInternalError
@@ -105,6 +177,113 @@ public class AccountDaoInMemoryTest
 		assertEquals(foundAccountIds, allAccountsIds);
 	}
 	
+	@Test
+	public void findPageTest()
+			throws AccountDaoInternalError
+	{
+		List<AccountInfo> firstPage = dao.findPage(null, 2);
+		List<AccountInfo> secondPage = dao.findPage(firstPage.get(1).getId(), 2);
+		
+		assertEquals(Arrays.asList(accountId1, accountId2), firstPage.stream()
+																	.map(AccountInfo::getId)
+																	.collect(Collectors.toList()));
+		assertEquals(1, secondPage.size());
+		assertEquals(accountId3, secondPage.get(0).getId());
+		assertEquals(exampleInitialBalance3, secondPage.get(0).getBalance());
+		assertTrue(dao.findPage(accountId3, 2).isEmpty());
+	}
+	
+	@Test
+	public void findPageAfterClosedAccountTest()
+			throws AccountDaoInternalError
+	{
+		dao.close(accountId2);
+		
+		List<AccountInfo> page = dao.findPage(accountId2, 10);
+		
+		assertEquals(1, page.size());
+		assertEquals(accountId3, page.get(0).getId());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void findPageWithZeroLimitTest()
+			throws AccountDaoInternalError
+	{
+		dao.findPage(null, 0);
+	}
+	
+	@Test
+	public void applyDeltaTest()
+			throws AccountDaoInternalError
+	{
+		assertEquals(BalanceUpdateStatus.APPLIED, dao.applyDelta(accountId1, exampleInitialBalance1.negate()));
+		
+		assertEquals(0, BigDecimal.ZERO.compareTo(dao.getBalance(accountId1))); // exactly zero is still fine
+	}
+	
+	@Test
+	public void applyDeltaNotEnoughFundsTest()
+			throws AccountDaoInternalError
+	{
+		BigDecimal delta = exampleInitialBalance1.add(BigDecimal.valueOf(1, 2)).negate();
+		
+		assertEquals(BalanceUpdateStatus.NOT_ENOUGH_FUNDS, dao.applyDelta(accountId1, delta));
+		assertEquals(exampleInitialBalance1, dao.getBalance(accountId1)); // nothing changed
+	}
+	
+	@Test
+	public void applyDeltaWithNonexistentAccountIdTest()
+			throws AccountDaoInternalError
+	{
+		assertEquals(BalanceUpdateStatus.ACCOUNT_NOT_FOUND, dao.applyDelta(nonexistentAccountId, BigDecimal.ONE));
+	}
+	
+	@Test
+	public void moveTest()
+			throws AccountDaoInternalError
+	{
+		assertEquals(BalanceUpdateStatus.APPLIED, dao.move(accountId1, accountId2, exampleInitialBalance1));
+		
+		assertEquals(0, BigDecimal.ZERO.compareTo(dao.getBalance(accountId1)));
+		assertEquals(exampleInitialBalance2.add(exampleInitialBalance1), dao.getBalance(accountId2));
+	}
+	
+	@Test
+	public void moveNotEnoughFundsTest()
+			throws AccountDaoInternalError
+	{
+		BigDecimal amount = exampleInitialBalance1.add(BigDecimal.valueOf(1, 2));
+		
+		assertEquals(BalanceUpdateStatus.NOT_ENOUGH_FUNDS, dao.move(accountId1, accountId2, amount));
+		assertEquals(exampleInitialBalance1, dao.getBalance(accountId1)); // nothing changed on either account
+		assertEquals(exampleInitialBalance2, dao.getBalance(accountId2));
+	}
+	
+	@Test
+	public void moveWithNonexistentAccountIdTest()
+			throws AccountDaoInternalError
+	{
+		assertEquals(BalanceUpdateStatus.ACCOUNT_NOT_FOUND,
+					 dao.move(nonexistentAccountId, accountId2, BigDecimal.ONE));
+		assertEquals(BalanceUpdateStatus.DESTINATION_ACCOUNT_NOT_FOUND,
+					 dao.move(accountId1, nonexistentAccountId, BigDecimal.ONE));
+		assertEquals(exampleInitialBalance1, dao.getBalance(accountId1)); // nothing taken from the source
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void moveToSameAccountTest()
+			throws AccountDaoInternalError
+	{
+		dao.move(accountId1, accountId1, BigDecimal.ONE);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void moveNegativeAmountTest()
+			throws AccountDaoInternalError
+	{
+		dao.move(accountId1, accountId2, BigDecimal.ONE.negate());
+	}
+	
 	@Test(expected = IllegalArgumentException.class)
 	public void openWithNullInitialBalanceTest()
 			throws AccountDaoInternalError
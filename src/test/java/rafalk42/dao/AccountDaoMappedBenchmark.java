@@ -0,0 +1,119 @@
+package rafalk42.dao;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+
+/**
+ * Random reads and updates of balances with a growing number of accounts, the mapped DAO against the plain
+ * in-memory one. The in-memory DAO needs well over 100 bytes of heap per account, so with the default heap of the
+ * fork it runs out of memory at 100M accounts, it needs about 20 GB for that (-jvmArgs -Xmx20g when running
+ * org.openjdk.jmh.Main directly, -p accountCount=... picks the populations there too). The mapped DAO keeps its
+ * files in a temporary directory, which needs about 4 GB of disk for 100M accounts.
+ * <p>
+ * Run with: mvn -P benchmark test-compile exec:exec -Dbenchmark=AccountDaoMappedBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+@State(Scope.Benchmark)
+public class AccountDaoMappedBenchmark
+{
+	public enum DaoType
+	{
+		IN_MEMORY,
+		MAPPED
+	}
+	
+	// IDs to pick from, spread over all the accounts, formatted up front so that formatting is not measured.
+	private static final int ACCOUNT_ID_POOL_SIZE = 1 << 20;
+	
+	@Param({"IN_MEMORY", "MAPPED"})
+	private DaoType daoType;
+	
+	@Param({"1000000", "10000000", "100000000"})
+	private int accountCount;
+	
+	private AccountDao accountDao;
+	private Path directory;
+	private String[] accountIds;
+	private int nextAccountId;
+	
+	@Setup
+	public void setUp()
+			throws AccountDaoInternalError, IOException
+	{
+		switch (daoType)
+		{
+			case IN_MEMORY:
+				accountDao = new AccountDaoInMemory();
+				break;
+			case MAPPED:
+				directory = Files.createTempDirectory("account-dao-mapped-benchmark");
+				accountDao = new AccountDaoMapped(directory);
+				break;
+			default:
+				throw new IllegalStateException("Unsupported DAO type " + daoType);
+		}
+		
+		BigDecimal initialBalance = BigDecimal.valueOf(100000, 2);
+		for (int i = 0; i < accountCount; i++)
+		{
+			accountDao.open("Account", initialBalance);
+		}
+		
+		Random random = new Random(42);
+		accountIds = new String[ACCOUNT_ID_POOL_SIZE];
+		for (int i = 0; i < ACCOUNT_ID_POOL_SIZE; i++)
+		{
+			accountIds[i] = String.format("%010d", 1 + random.nextInt(accountCount));
+		}
+	}
+	
+	@TearDown
+	public void tearDown()
+			throws AccountDaoInternalError, IOException
+	{
+		if (directory != null)
+		{
+			((AccountDaoMapped) accountDao).shutdown();
+			
+			try (Stream<Path> paths = Files.walk(directory))
+			{
+				paths.sorted(Comparator.reverseOrder())
+					 .forEach(path -> path.toFile().delete());
+			}
+		}
+	}
+	
+	@Benchmark
+	public BigDecimal getBalance()
+			throws AccountDaoInternalError
+	{
+		return accountDao.getBalance(nextAccountId());
+	}
+	
+	@Benchmark
+	public BalanceUpdateStatus applyDelta()
+			throws AccountDaoInternalError
+	{
+		return accountDao.applyDelta(nextAccountId(), BigDecimal.ONE);
+	}
+	
+	private String nextAccountId()
+	{
+		nextAccountId = (nextAccountId + 1) & (ACCOUNT_ID_POOL_SIZE - 1);
+		
+		return accountIds[nextAccountId];
+	}
+}
@@ -0,0 +1,317 @@
+package rafalk42.dao;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * The same cases as AccountDaoDenseTest, plus the parts specific to the mapped files. Segments are tiny, so that
+ * even a handful of accounts spans a few of them.
+ */
+public class AccountDaoMappedTest
+{
+	private final String exampleAccountDescription1 = "Foo bar";
+	private final String exampleAccountDescription2 = "Fizz buzz";
+	private final String exampleAccountDescription3 = "5318008";
+	private final BigDecimal exampleInitialBalance1 = BigDecimal.valueOf(10000, 2);
+	private final BigDecimal exampleInitialBalance2 = BigDecimal.valueOf(11000, 2);
+	private final BigDecimal exampleInitialBalance3 = BigDecimal.valueOf(12000, 2);
+	private final String nonexistentAccountId = "This ID has 99.9999% chance of not existing";
+	
+	private static final int SEGMENT_SIZE = 4096;
+	
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	
+	private Path directory;
+	private AccountDaoMapped dao;
+	private String accountId1;
+	private String accountId2;
+	private String accountId3;
+	
+	@Before
+	public void setUp()
+			throws Exception
+	{
+		// Create an instance and open 3 example accounts.
+		directory = temporaryFolder.getRoot().toPath().resolve("accounts");
+		dao = new AccountDaoMapped(directory, SEGMENT_SIZE);
+		accountId1 = dao.open(exampleAccountDescription1, exampleInitialBalance1);
+		accountId2 = dao.open(exampleAccountDescription2, exampleInitialBalance2);
+		accountId3 = dao.open(exampleAccountDescription3, exampleInitialBalance3);
+	}
+	
+	@After
+	public void tearDown()
+			throws Exception
+	{
+		dao.shutdown();
+	}
+	
+	@Test
+	public void openAndDoesExistTest()
+			throws AccountDaoInternalError
+	{
+		assertEquals("0000000001", accountId1);
+		assertTrue(dao.doesItExist(accountId1));
+	}
+	
+	@Test
+	public void closeAndDoesExistTest()
+			throws AccountDaoInternalError
+	{
+		dao.close(accountId1);
+		
+		assertFalse(dao.doesItExist(accountId1));
+		assertTrue(dao.doesItExist(accountId2));
+	}
+	
+	@Test
+	public void doesItExistWithMalformedIdTest()
+			throws AccountDaoInternalError
+	{
+		assertFalse(dao.doesItExist(nonexistentAccountId));
+		assertFalse(dao.doesItExist("1"));
+		assertFalse(dao.doesItExist("000000000a"));
+		assertFalse(dao.doesItExist("0000000000"));
+		assertFalse(dao.doesItExist("0000000004"));
+		assertFalse(dao.doesItExist("9999999999"));
+	}
+	
+	@Test
+	public void getInfoTest()
+			throws AccountDaoInternalError
+	{
+		AccountInfo info = dao.getInfo(accountId2);
+		
+		assertEquals(accountId2, info.getId());
+		assertEquals(exampleAccountDescription2, info.getDescription());
+		assertEquals(exampleInitialBalance2, info.getBalance());
+	}
+	
+	@Test
+	public void setBalanceTest()
+			throws AccountDaoInternalError
+	{
+		BigDecimal balanceAfter = BigDecimal.valueOf(4242, 2);
+		
+		dao.setBalance(accountId1, balanceAfter);
+		
+		assertEquals(balanceAfter, dao.getBalance(accountId1));
+	}
+	
+	@Test
+	public void setBalanceRoundingTest()
+			throws AccountDaoInternalError
+	{
+		dao.setBalance(accountId1, new BigDecimal("1.005"));
+		
+		assertEquals(new BigDecimal("1.01"), dao.getBalance(accountId1));
+	}
+	
+	@Test
+	public void findAllTest()
+			throws AccountDaoInternalError
+	{
+		dao.close(accountId2);
+		
+		Set<String> foundAccountIds = dao.findAll()
+										 .stream()
+										 .map(AccountInfo::getId)
+										 .collect(Collectors.toSet());
+		
+		assertEquals(new HashSet<>(Arrays.asList(accountId1, accountId3)), foundAccountIds);
+	}
+	
+	@Test
+	public void findPageTest()
+			throws AccountDaoInternalError
+	{
+		List<AccountInfo> firstPage = dao.findPage(null, 2);
+		List<AccountInfo> secondPage = dao.findPage(firstPage.get(1).getId(), 2);
+		
+		assertEquals(Arrays.asList(accountId1, accountId2), firstPage.stream()
+																	.map(AccountInfo::getId)
+																	.collect(Collectors.toList()));
+		assertEquals(1, secondPage.size());
+		assertEquals(accountId3, secondPage.get(0).getId());
+		assertTrue(dao.findPage(accountId3, 2).isEmpty());
+	}
+	
+	@Test
+	public void findPageAfterMalformedIdTest()
+			throws AccountDaoInternalError
+	{
+		assertEquals(3, dao.findPage("", 10).size());
+		assertEquals(accountId2, dao.findPage("00000000015", 10).get(0).getId());
+		assertTrue(dao.findPage("a", 10).isEmpty());
+	}
+	
+	@Test
+	public void growAndScanTest()
+			throws AccountDaoInternalError
+	{
+		// Enough to map quite a few segments of both files.
+		for (int i = 0; i < 5000; i++)
+		{
+			dao.open(exampleAccountDescription1, BigDecimal.valueOf(i, 2));
+		}
+		
+		// Leave only every hundredth account open.
+		for (int i = 4; i <= 5003; i++)
+		{
+			if (i % 100 != 0)
+			{
+				dao.close(String.format("%010d", i));
+			}
+		}
+		
+		List<AccountInfo> page = dao.findPage(accountId3, 100);
+		
+		assertEquals(50, page.size());
+		assertEquals("0000000100", page.get(0).getId());
+		assertEquals(BigDecimal.valueOf(96, 2), page.get(0).getBalance());
+		assertEquals("0000005000", page.get(49).getId());
+		assertEquals(53, dao.findAll().size());
+	}
+	
+	@Test
+	public void applyDeltaTest()
+			throws AccountDaoInternalError
+	{
+		assertEquals(BalanceUpdateStatus.APPLIED, dao.applyDelta(accountId1, BigDecimal.valueOf(-10000, 2)));
+		assertEquals(BigDecimal.valueOf(0, 2), dao.getBalance(accountId1));
+		assertEquals(BalanceUpdateStatus.NOT_ENOUGH_FUNDS, dao.applyDelta(accountId1, BigDecimal.valueOf(-1, 2)));
+		assertEquals(BalanceUpdateStatus.ACCOUNT_NOT_FOUND, dao.applyDelta(nonexistentAccountId, BigDecimal.ONE));
+	}
+	
+	@Test
+	public void moveTest()
+			throws AccountDaoInternalError
+	{
+		assertEquals(BalanceUpdateStatus.APPLIED, dao.move(accountId1, accountId2, BigDecimal.valueOf(2500, 2)));
+		assertEquals(BigDecimal.valueOf(7500, 2), dao.getBalance(accountId1));
+		assertEquals(BigDecimal.valueOf(13500, 2), dao.getBalance(accountId2));
+	}
+	
+	@Test
+	public void moveNotEnoughFundsTest()
+			throws AccountDaoInternalError
+	{
+		assertEquals(BalanceUpdateStatus.NOT_ENOUGH_FUNDS, dao.move(accountId1, accountId2, BigDecimal.valueOf(10001, 2)));
+		assertEquals(exampleInitialBalance1, dao.getBalance(accountId1));
+		assertEquals(exampleInitialBalance2, dao.getBalance(accountId2));
+	}
+	
+	@Test
+	public void moveWithNonexistentAccountIdTest()
+			throws AccountDaoInternalError
+	{
+		dao.close(accountId2);
+		
+		assertEquals(BalanceUpdateStatus.ACCOUNT_NOT_FOUND, dao.move(accountId2, accountId1, BigDecimal.ONE));
+		assertEquals(BalanceUpdateStatus.DESTINATION_ACCOUNT_NOT_FOUND, dao.move(accountId1, accountId2, BigDecimal.ONE));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void openWithOutOfRangeInitialBalanceTest()
+			throws AccountDaoInternalError
+	{
+		dao.open(exampleAccountDescription1, new BigDecimal("1e30"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void getInfoWithNonexistentAccountId()
+			throws AccountDaoInternalError
+	{
+		dao.getInfo(nonexistentAccountId);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void closeWithNonexistentAccountId()
+			throws AccountDaoInternalError
+	{
+		dao.close(nonexistentAccountId);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void doesItExistWithNullAccountId()
+			throws AccountDaoInternalError
+	{
+		dao.doesItExist(null);
+	}
+	
+	@Test
+	public void reopenTest()
+			throws AccountDaoInternalError
+	{
+		for (int i = 0; i < 1000; i++)
+		{
+			dao.open(null, BigDecimal.valueOf(i, 2));
+		}
+		
+		dao.close(accountId2);
+		dao.setBalance(accountId3, BigDecimal.valueOf(4242, 2));
+		dao.shutdown();
+		
+		dao = new AccountDaoMapped(directory, SEGMENT_SIZE);
+		
+		assertFalse(dao.doesItExist(accountId2));
+		assertEquals(exampleAccountDescription1, dao.getInfo(accountId1).getDescription());
+		assertEquals(BigDecimal.valueOf(4242, 2), dao.getBalance(accountId3));
+		assertNull(dao.getInfo("0000001003").getDescription());
+		assertEquals(BigDecimal.valueOf(999, 2), dao.getBalance("0000001003"));
+		assertEquals(1002, dao.findAll().size());
+		assertEquals("0000001004", dao.open(exampleAccountDescription2, BigDecimal.ONE));
+	}
+	
+	@Test
+	public void reopenWithDifferentSegmentSizeTest()
+			throws AccountDaoInternalError
+	{
+		dao.shutdown();
+		
+		dao = new AccountDaoMapped(directory, SEGMENT_SIZE * 3);
+		
+		assertEquals(exampleInitialBalance3, dao.getBalance(accountId3));
+		assertEquals(exampleAccountDescription3, dao.getInfo(accountId3).getDescription());
+	}
+	
+	@Test
+	public void descriptionAcrossSegmentsTest()
+			throws AccountDaoInternalError
+	{
+		char[] description = new char[SEGMENT_SIZE * 2];
+		Arrays.fill(description, '\u0142');
+		
+		String accountId = dao.open(new String(description), BigDecimal.ONE);
+		String nextAccountId = dao.open(exampleAccountDescription1, BigDecimal.ONE);
+		
+		assertEquals(new String(description), dao.getInfo(accountId).getDescription());
+		assertEquals(exampleAccountDescription1, dao.getInfo(nextAccountId).getDescription());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void openWithForeignFilesTest()
+			throws Exception
+	{
+		Path otherDirectory = temporaryFolder.newFolder().toPath();
+		Files.write(otherDirectory.resolve("accounts.dat"), "Not an account table".getBytes());
+		
+		new AccountDaoMapped(otherDirectory, SEGMENT_SIZE);
+	}
+}
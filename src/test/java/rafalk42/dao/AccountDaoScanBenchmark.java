@@ -0,0 +1,91 @@
+package rafalk42.dao;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Time to walk through all the accounts page by page, the way the streamed account list does it, with every
+ * tenth account closed. The dense DAO scans its arrays and a bitmap, the other ones walk their sorted maps.
+ * <p>
+ * Run with: mvn -P benchmark test-compile exec:exec -Dbenchmark=AccountDaoScanBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Benchmark)
+public class AccountDaoScanBenchmark
+{
+	public enum DaoType
+	{
+		IN_MEMORY,
+		CONCURRENT,
+		DENSE
+	}
+	
+	private static final int ACCOUNT_COUNT = 1000000;
+	private static final int PAGE_SIZE = 1000;
+	
+	@Param({"IN_MEMORY", "CONCURRENT", "DENSE"})
+	private DaoType daoType;
+	
+	private AccountDao accountDao;
+	
+	@Setup
+	public void setUp()
+			throws AccountDaoInternalError
+	{
+		switch (daoType)
+		{
+			case IN_MEMORY:
+				accountDao = new AccountDaoInMemory();
+				break;
+			case CONCURRENT:
+				accountDao = new AccountDaoConcurrent();
+				break;
+			case DENSE:
+				accountDao = new AccountDaoDense();
+				break;
+			default:
+				throw new IllegalStateException("Unsupported DAO type " + daoType);
+		}
+		
+		for (int i = 0; i < ACCOUNT_COUNT; i++)
+		{
+			String accountId = accountDao.open("Account", BigDecimal.valueOf(100000 + i, 2));
+			if (i % 10 == 9)
+			{
+				accountDao.close(accountId);
+			}
+		}
+	}
+	
+	@Benchmark
+	public BigDecimal scanPages()
+			throws AccountDaoInternalError
+	{
+		BigDecimal total = BigDecimal.ZERO;
+		String after = null;
+		
+		while (true)
+		{
+			List<AccountInfo> page = accountDao.findPage(after, PAGE_SIZE);
+			for (AccountInfo accountInfo : page)
+			{
+				total = total.add(accountInfo.getBalance());
+			}
+			
+			if (page.size() < PAGE_SIZE)
+			{
+				return total;
+			}
+			
+			after = page.get(page.size() - 1).getId();
+		}
+	}
+}
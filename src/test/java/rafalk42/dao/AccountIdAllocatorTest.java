@@ -0,0 +1,109 @@
+package rafalk42.dao;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+
+public class AccountIdAllocatorTest
+{
+	@Test
+	public void reserveTest()
+	{
+		AccountIdAllocator allocator = new AccountIdAllocator();
+		
+		assertEquals("0000000001", allocator.allocate());
+		
+		AccountIdAllocator.Block block = allocator.reserve(3);
+		assertEquals("0000000002", block.next());
+		assertEquals("0000000003", block.next());
+		assertEquals("0000000004", block.next());
+		assertFalse(block.hasNext());
+		
+		assertEquals("0000000005", allocator.allocate());
+	}
+	
+	/**
+	 * Counting up in place carries over to every digit, the same as formatting the numbers.
+	 */
+	@Test
+	public void carryTest()
+	{
+		AccountIdAllocator allocator = new AccountIdAllocator();
+		allocator.advancePast(9997);
+		
+		List<String> ids = new ArrayList<>();
+		AccountIdAllocator.Block block = allocator.reserve(1005);
+		while (block.hasNext())
+		{
+			ids.add(block.next());
+		}
+		
+		for (int i = 0; i < ids.size(); i++)
+		{
+			assertEquals(String.format("%010d", 9998 + i), ids.get(i));
+		}
+	}
+	
+	@Test
+	public void advancePastTest()
+	{
+		AccountIdAllocator allocator = new AccountIdAllocator();
+		allocator.advancePast(41);
+		allocator.advancePast(7);
+		
+		assertEquals("0000000042", allocator.allocate());
+	}
+	
+	@Test
+	public void formatAndParseNumberTest()
+	{
+		assertEquals("0000000001", AccountIdAllocator.formatNumber(1));
+		assertEquals("9999999999", AccountIdAllocator.formatNumber(9999999999L));
+		assertEquals(1234567890L, AccountIdAllocator.parseNumber(AccountIdAllocator.formatNumber(1234567890L)));
+		assertEquals(-1, AccountIdAllocator.parseNumber("123456789"));
+		assertEquals(-1, AccountIdAllocator.parseNumber("00000000x1"));
+	}
+	
+	/**
+	 * Cursors of a page of accounts, in the natural String order, whether they are IDs or not.
+	 */
+	@Test
+	public void getFirstNumberAfterTest()
+	{
+		assertEquals(42, AccountIdAllocator.getFirstNumberAfter("0000000041"));
+		assertEquals(1, AccountIdAllocator.getFirstNumberAfter(""));
+		assertEquals(1, AccountIdAllocator.getFirstNumberAfter("0"));
+		assertEquals(999000000, AccountIdAllocator.getFirstNumberAfter("0999"));
+		assertEquals(42, AccountIdAllocator.getFirstNumberAfter("0000000041x"));
+		assertEquals(10000000000L, AccountIdAllocator.getFirstNumberAfter("a"));
+	}
+	
+	@Test(expected = NoSuchElementException.class)
+	public void nextAfterEndOfBlockTest()
+	{
+		AccountIdAllocator.Block block = new AccountIdAllocator().reserve(1);
+		block.next();
+		block.next();
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void reserveNothingTest()
+	{
+		new AccountIdAllocator().reserve(0);
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void reserveBeyondLastIdTest()
+	{
+		AccountIdAllocator allocator = new AccountIdAllocator();
+		allocator.advancePast(9999999990L);
+		
+		allocator.reserve(10);
+	}
+}
@@ -0,0 +1,106 @@
+package rafalk42.dao;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Entries logged per second by four threads at the same time, into AuditLogDaoInMemory and, for comparison, into
+ * a synchronized list of AuditLogEntry objects, the obvious way of keeping a ledger in memory. Worth running
+ * with -prof gc, the chunked log should allocate next to nothing per entry apart from the chunks themselves.
+ * <p>
+ * Run with: mvn -P benchmark test-compile exec:exec -Dbenchmark=AuditLogBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+@Threads(4)
+@State(Scope.Benchmark)
+public class AuditLogBenchmark
+{
+	private static final int ACCOUNT_COUNT = 1024;
+	
+	@Param({"chunked", "objects"})
+	private String auditLog;
+	
+	private AuditLogDao auditLogDao;
+	private String[] accountIds;
+	private BigDecimal amount;
+	
+	@Setup(Level.Iteration)
+	public void setUp()
+	{
+		// A fresh log every iteration, so that the heap does not fill up over the run.
+		auditLogDao = auditLog.equals("chunked")
+				? new AuditLogDaoInMemory()
+				: new AuditLogDaoObjects();
+		
+		accountIds = new String[ACCOUNT_COUNT];
+		for (int i = 0; i < ACCOUNT_COUNT; i++)
+		{
+			accountIds[i] = String.format("%010d", i + 1);
+		}
+		
+		amount = BigDecimal.valueOf(1250, 2);
+	}
+	
+	@Benchmark
+	public long log()
+	{
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		
+		return auditLogDao.log(AuditLogOperation.TRANSFER,
+							   accountIds[random.nextInt(ACCOUNT_COUNT)],
+							   accountIds[random.nextInt(ACCOUNT_COUNT)],
+							   amount,
+							   null,
+							   AuditLogStatus.SUCCESSFUL);
+	}
+	
+	/**
+	 * An object per entry in a list guarded by a lock, queries are of no interest here.
+	 */
+	private static class AuditLogDaoObjects
+			implements AuditLogDao
+	{
+		private final List<AuditLogEntry> entries = new ArrayList<>();
+		
+		@Override
+		public synchronized long log(AuditLogOperation operation, String sourceAccountId, String destinationAccountId,
+									 BigDecimal amount, String title, AuditLogStatus status)
+		{
+			long sequence = entries.size() + 1;
+			entries.add(new AuditLogEntry(sequence, System.currentTimeMillis(), operation, sourceAccountId,
+										  destinationAccountId, amount, title, status));
+			
+			return sequence;
+		}
+		
+		@Override
+		public synchronized long getLastSequence()
+		{
+			return entries.size();
+		}
+		
+		@Override
+		public List<AuditLogEntry> findByTimestamp(long fromTimestamp, long toTimestamp, long afterSequence,
+													 int limit)
+		{
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public List<AuditLogEntry> findByAccount(String accountId, long fromTimestamp, long toTimestamp,
+												   long afterSequence, int limit)
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,321 @@
+package rafalk42.dao;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class AuditLogDaoInMemoryTest
+{
+	private final String exampleAccountId1 = "0000000001";
+	private final String exampleAccountId2 = "0000000002";
+	private final BigDecimal exampleAmount = BigDecimal.valueOf(1250, 2);
+	private final String exampleTitle = "Foo bar";
+	
+	private AtomicLong time;
+	private AuditLogDaoInMemory auditLogDao;
+	
+	@Before
+	public void setUp()
+	{
+		time = new AtomicLong(1000);
+		auditLogDao = new AuditLogDaoInMemory(time::get);
+	}
+	
+	@Test
+	public void logTest()
+	{
+		assertEquals(0, auditLogDao.getLastSequence());
+		
+		long sequence1 = auditLogDao.log(AuditLogOperation.DEPOSIT, null, exampleAccountId1, exampleAmount,
+										 exampleTitle, AuditLogStatus.SUCCESSFUL);
+		time.set(2000);
+		long sequence2 = auditLogDao.log(AuditLogOperation.TRANSFER, exampleAccountId1, exampleAccountId2,
+										 exampleAmount, null, AuditLogStatus.FAILED_NOT_ENOUGH_FUNDS);
+		
+		assertEquals(1, sequence1);
+		assertEquals(2, sequence2);
+		assertEquals(2, auditLogDao.getLastSequence());
+		
+		assertEquals(Arrays.asList(new AuditLogEntry(1, 1000, AuditLogOperation.DEPOSIT, null, exampleAccountId1,
+													 exampleAmount, exampleTitle, AuditLogStatus.SUCCESSFUL),
+								   new AuditLogEntry(2, 2000, AuditLogOperation.TRANSFER, exampleAccountId1,
+													 exampleAccountId2, exampleAmount, null,
+													 AuditLogStatus.FAILED_NOT_ENOUGH_FUNDS)),
+					 auditLogDao.findByTimestamp(0, Long.MAX_VALUE, 0, 10));
+	}
+	
+	@Test
+	public void findByTimestampTest()
+	{
+		for (int i = 0; i < 10; i++)
+		{
+			time.set(1000 + i * 100);
+			auditLogDao.log(AuditLogOperation.DEPOSIT, null, exampleAccountId1, exampleAmount, "Deposit " + i,
+							AuditLogStatus.SUCCESSFUL);
+		}
+		
+		assertEquals(Arrays.asList(3L, 4L, 5L), sequences(auditLogDao.findByTimestamp(1200, 1500, 0, 10)));
+		assertEquals(Arrays.asList(3L, 4L), sequences(auditLogDao.findByTimestamp(1200, 1500, 0, 2)));
+		assertEquals(Arrays.asList(), sequences(auditLogDao.findByTimestamp(5000, 6000, 0, 10)));
+	}
+	
+	@Test
+	public void findByAccountTest()
+	{
+		auditLogDao.log(AuditLogOperation.DEPOSIT, null, exampleAccountId1, exampleAmount, exampleTitle,
+						AuditLogStatus.SUCCESSFUL);
+		auditLogDao.log(AuditLogOperation.WITHDRAWAL, exampleAccountId2, null, exampleAmount, exampleTitle,
+						AuditLogStatus.SUCCESSFUL);
+		auditLogDao.log(AuditLogOperation.TRANSFER, exampleAccountId2, exampleAccountId1, exampleAmount, null,
+						AuditLogStatus.SUCCESSFUL);
+		auditLogDao.log(AuditLogOperation.TRANSFER, exampleAccountId1, exampleAccountId2, exampleAmount, null,
+						AuditLogStatus.FAILED_NOT_ENOUGH_FUNDS);
+		
+		assertEquals(Arrays.asList(1L, 3L, 4L), sequences(findAllByAccount(exampleAccountId1, 10)));
+		assertEquals(Arrays.asList(2L, 3L), sequences(findAllByAccount(exampleAccountId2, 2)));
+		assertEquals(Arrays.asList(), sequences(findAllByAccount("0000000003", 10)));
+	}
+	
+	/**
+	 * Entries that do not fit in the arrays of a chunk come back exactly as they were logged.
+	 */
+	@Test
+	public void irregularEntryTest()
+	{
+		BigDecimal tooPreciseAmount = new BigDecimal("0.001");
+		BigDecimal hugeAmount = new BigDecimal("1E+30");
+		
+		auditLogDao.log(AuditLogOperation.TRANSFER, exampleAccountId1, "foo", exampleAmount, null,
+						AuditLogStatus.FAILED_ACCOUNT_NOT_FOUND);
+		auditLogDao.log(AuditLogOperation.DEPOSIT, null, exampleAccountId1, tooPreciseAmount, exampleTitle,
+						AuditLogStatus.FAILED_INVALID_AMOUNT);
+		auditLogDao.log(AuditLogOperation.TRANSFER, exampleAccountId1, exampleAccountId2, hugeAmount, null,
+						AuditLogStatus.FAILED_NOT_ENOUGH_FUNDS);
+		
+		List<AuditLogEntry> entries = findAllByAccount(exampleAccountId1, 10);
+		
+		assertEquals(3, entries.size());
+		assertEquals("foo", entries.get(0).getDestinationAccountId());
+		assertEquals(tooPreciseAmount, entries.get(1).getAmount());
+		assertEquals(hugeAmount, entries.get(2).getAmount());
+		assertEquals(Arrays.asList(1L), sequences(findAllByAccount("foo", 10)));
+	}
+	
+	@Test
+	public void manyChunksTest()
+	{
+		int entryCount = 200000;
+		
+		for (int i = 1; i <= entryCount; i++)
+		{
+			time.set(i);
+			auditLogDao.log(AuditLogOperation.DEPOSIT, null, String.format("%010d", i % 100 + 1),
+							BigDecimal.valueOf(i, 2), null, AuditLogStatus.SUCCESSFUL);
+		}
+		
+		assertEquals(entryCount, auditLogDao.getLastSequence());
+		assertEquals(entryCount / 100, findAllByAccount(exampleAccountId1, entryCount).size());
+		
+		List<AuditLogEntry> entries = auditLogDao.findByTimestamp(150000, 150002, 0, 10);
+		assertEquals(2, entries.size());
+		assertEquals(150000, entries.get(0).getSequence());
+		assertEquals(BigDecimal.valueOf(150001, 2), entries.get(1).getAmount());
+	}
+	
+	/**
+	 * Queries answered from the indexes of the sealed chunks give the same entries as filtering the whole log.
+	 */
+	@Test
+	public void indexedQueriesTest()
+	{
+		int entryCount = 200000;
+		int accountCount = 37;
+		List<AuditLogEntry> allEntries = new ArrayList<>();
+		
+		for (int i = 1; i <= entryCount; i++)
+		{
+			time.set(1000 + i / 3);
+			String sourceAccountId = String.format("%010d", i % accountCount + 1);
+			String destinationAccountId = String.format("%010d", i % 5 + 1);
+			auditLogDao.log(AuditLogOperation.TRANSFER, sourceAccountId, destinationAccountId, exampleAmount, null,
+							AuditLogStatus.SUCCESSFUL);
+			allEntries.add(new AuditLogEntry(i, 1000 + i / 3, AuditLogOperation.TRANSFER, sourceAccountId,
+											 destinationAccountId, exampleAmount, null, AuditLogStatus.SUCCESSFUL));
+		}
+		
+		long[][] timeRanges = {{0, Long.MAX_VALUE}, {1000, 1001}, {20000, 40000}, {66000, 66200}, {67000, 90000}};
+		for (long[] timeRange : timeRanges)
+		{
+			long from = timeRange[0];
+			long to = timeRange[1];
+			
+			List<Long> expected = new ArrayList<>();
+			allEntries.stream()
+					  .filter(entry -> entry.getTimestamp() >= from && entry.getTimestamp() < to)
+					  .limit(5000)
+					  .forEach(entry -> expected.add(entry.getSequence()));
+			assertEquals(expected, sequences(auditLogDao.findByTimestamp(from, to, 0, 5000)));
+			
+			for (String accountId : Arrays.asList(exampleAccountId1, exampleAccountId2, "0000000030"))
+			{
+				List<Long> expectedOfAccount = new ArrayList<>();
+				allEntries.stream()
+						  .filter(entry -> entry.getTimestamp() >= from && entry.getTimestamp() < to)
+						  .filter(entry -> accountId.equals(entry.getSourceAccountId())
+										   || accountId.equals(entry.getDestinationAccountId()))
+						  .limit(5000)
+						  .forEach(entry -> expectedOfAccount.add(entry.getSequence()));
+				assertEquals(expectedOfAccount,
+							 sequences(auditLogDao.findByAccount(accountId, from, to, 0, 5000)));
+			}
+		}
+	}
+	
+	/**
+	 * Reading a query page by page, each one after the last sequence of the one before, gives all the entries once.
+	 */
+	@Test
+	public void pagingTest()
+	{
+		int entryCount = 150000;
+		
+		for (int i = 1; i <= entryCount; i++)
+		{
+			time.set(i);
+			auditLogDao.log(AuditLogOperation.DEPOSIT, null, String.format("%010d", i % 3 + 1), exampleAmount, null,
+							AuditLogStatus.SUCCESSFUL);
+		}
+		
+		List<Long> sequences = new ArrayList<>();
+		long afterSequence = 0;
+		List<AuditLogEntry> page;
+		do
+		{
+			page = auditLogDao.findByAccount(exampleAccountId1, 10000, 140000, afterSequence, 777);
+			sequences.addAll(sequences(page));
+			afterSequence = page.isEmpty() ? afterSequence : page.get(page.size() - 1).getSequence();
+		}
+		while (page.size() == 777);
+		
+		List<Long> expected = new ArrayList<>();
+		for (long sequence = 10000; sequence < 140000; sequence++)
+		{
+			if (sequence % 3 == 0)
+			{
+				expected.add(sequence);
+			}
+		}
+		assertEquals(expected, sequences);
+		
+		List<AuditLogEntry> entries = auditLogDao.findByTimestamp(100, 200, 149, 10);
+		assertEquals(Arrays.asList(150L, 151L, 152L), sequences(entries).subList(0, 3));
+	}
+	
+	@Test
+	public void clockGoingBackTest()
+	{
+		time.set(2000);
+		auditLogDao.log(AuditLogOperation.DEPOSIT, null, exampleAccountId1, exampleAmount, null,
+						AuditLogStatus.SUCCESSFUL);
+		time.set(1500);
+		auditLogDao.log(AuditLogOperation.DEPOSIT, null, exampleAccountId1, exampleAmount, null,
+						AuditLogStatus.SUCCESSFUL);
+		time.set(2500);
+		auditLogDao.log(AuditLogOperation.DEPOSIT, null, exampleAccountId1, exampleAmount, null,
+						AuditLogStatus.SUCCESSFUL);
+		
+		List<AuditLogEntry> entries = findAllByAccount(exampleAccountId1, 10);
+		assertEquals(2000, entries.get(0).getTimestamp());
+		assertEquals(2000, entries.get(1).getTimestamp());
+		assertEquals(2500, entries.get(2).getTimestamp());
+		assertEquals(Arrays.asList(1L, 2L), sequences(auditLogDao.findByAccount(exampleAccountId1, 2000, 2500, 0,
+																				10)));
+	}
+	
+	@Test
+	public void concurrentLogTest()
+			throws Exception
+	{
+		int threadCount = 8;
+		int entriesPerThread = 50000;
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		List<Future<List<Long>>> futures = new ArrayList<>();
+		
+		for (int thread = 0; thread < threadCount; thread++)
+		{
+			String accountId = String.format("%010d", thread + 1);
+			futures.add(executor.submit(() ->
+										{
+											List<Long> sequences = new ArrayList<>();
+											for (int i = 0; i < entriesPerThread; i++)
+											{
+												sequences.add(auditLogDao.log(AuditLogOperation.DEPOSIT, null,
+																			  accountId, exampleAmount, null,
+																			  AuditLogStatus.SUCCESSFUL));
+											}
+											
+											return sequences;
+										}));
+		}
+		
+		Set<Long> sequences = new HashSet<>();
+		for (int thread = 0; thread < threadCount; thread++)
+		{
+			List<Long> threadSequences = futures.get(thread).get();
+			sequences.addAll(threadSequences);
+			
+			// Entries of an account are the ones logged by its thread, in the order they were logged.
+			List<AuditLogEntry> entries = findAllByAccount(String.format("%010d", thread + 1),
+																	Integer.MAX_VALUE);
+			assertEquals(threadSequences, sequences(entries));
+		}
+		
+		executor.shutdown();
+		
+		assertEquals(threadCount * entriesPerThread, sequences.size());
+		assertEquals(threadCount * entriesPerThread, auditLogDao.getLastSequence());
+		assertTrue(sequences.contains(1L));
+		assertTrue(sequences.contains((long) threadCount * entriesPerThread));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void findWithInvalidLimitTest()
+	{
+		auditLogDao.findByAccount(exampleAccountId1, Long.MIN_VALUE, Long.MAX_VALUE, 0, 0);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void logWithoutAmountTest()
+	{
+		auditLogDao.log(AuditLogOperation.DEPOSIT, null, exampleAccountId1, null, exampleTitle,
+						AuditLogStatus.SUCCESSFUL);
+	}
+	
+	private List<AuditLogEntry> findAllByAccount(String accountId, int limit)
+	{
+		return auditLogDao.findByAccount(accountId, Long.MIN_VALUE, Long.MAX_VALUE, 0, limit);
+	}
+	
+	private static List<Long> sequences(List<AuditLogEntry> entries)
+	{
+		List<Long> sequences = new ArrayList<>();
+		entries.forEach(entry -> sequences.add(entry.getSequence()));
+		
+		return sequences;
+	}
+}
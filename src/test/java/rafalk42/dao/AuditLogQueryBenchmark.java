@@ -0,0 +1,86 @@
+package rafalk42.dao;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Time of a query of AuditLogDaoInMemory filled with millions of transfers between a million accounts, ten of them
+ * per millisecond of a synthetic clock: the history of a random account over a random day, and all the entries
+ * of a random second, both limited to a page of 100 entries. Both are binary searches over the indexes, so the time
+ * should hardly change with the size of the log; the larger size needs most of the heap given to the fork.
+ * <p>
+ * Run with: mvn -P benchmark test-compile exec:exec -Dbenchmark=AuditLogQueryBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Benchmark)
+public class AuditLogQueryBenchmark
+{
+	private static final int ACCOUNT_COUNT = 1000000;
+	private static final int ENTRIES_PER_MILLISECOND = 10;
+	private static final long START_TIMESTAMP = 1500000000000L;
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+	private static final int PAGE_SIZE = 100;
+	
+	@Param({"10000000", "50000000"})
+	private int entryCount;
+	
+	private AuditLogDaoInMemory auditLogDao;
+	private String[] accountIds;
+	private long endTimestamp;
+	
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		long[] ticks = {0};
+		auditLogDao = new AuditLogDaoInMemory(() -> START_TIMESTAMP + ticks[0]++ / ENTRIES_PER_MILLISECOND);
+		
+		accountIds = new String[ACCOUNT_COUNT];
+		for (int i = 0; i < ACCOUNT_COUNT; i++)
+		{
+			accountIds[i] = String.format("%010d", i + 1);
+		}
+		
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		BigDecimal amount = BigDecimal.valueOf(1250, 2);
+		for (int i = 0; i < entryCount; i++)
+		{
+			auditLogDao.log(AuditLogOperation.TRANSFER,
+							accountIds[random.nextInt(ACCOUNT_COUNT)],
+							accountIds[random.nextInt(ACCOUNT_COUNT)],
+							amount,
+							null,
+							AuditLogStatus.SUCCESSFUL);
+		}
+		endTimestamp = START_TIMESTAMP + entryCount / ENTRIES_PER_MILLISECOND;
+		
+		// The first query indexes the whole log, it is not what is measured.
+		auditLogDao.findByTimestamp(0, 1, 0, 1);
+	}
+	
+	@Benchmark
+	public List<AuditLogEntry> accountHistory()
+	{
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long fromTimestamp = START_TIMESTAMP + random.nextLong(endTimestamp - START_TIMESTAMP);
+		
+		return auditLogDao.findByAccount(accountIds[random.nextInt(ACCOUNT_COUNT)], fromTimestamp,
+										 fromTimestamp + DAY, 0, PAGE_SIZE);
+	}
+	
+	@Benchmark
+	public List<AuditLogEntry> timeRange()
+	{
+		long fromTimestamp = START_TIMESTAMP + ThreadLocalRandom.current().nextLong(endTimestamp - START_TIMESTAMP);
+		
+		return auditLogDao.findByTimestamp(fromTimestamp, fromTimestamp + 1000, 0, PAGE_SIZE);
+	}
+}
@@ -0,0 +1,481 @@
+package rafalk42.dao.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import rafalk42.bank.domain.BankAccount;
+import rafalk42.bank.domain.BankAccountDescription;
+import rafalk42.bank.domain.BankAccountNotFound;
+import rafalk42.bank.domain.BankInternalError;
+import rafalk42.bank.domain.BankTransfer;
+import rafalk42.bank.domain.OperationResult;
+import rafalk42.bank.domain.TransferBatchMode;
+import rafalk42.bank.rockefeller.RockefellerBank;
+import rafalk42.dao.AccountDaoConcurrent;
+import rafalk42.dao.AccountDaoDense;
+import rafalk42.dao.AccountDaoInMemory;
+import rafalk42.dao.AccountDaoInternalError;
+import rafalk42.dao.AccountInfo;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+
+public class AccountDaoJournaledTest
+{
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	
+	@Test
+	public void replayTest()
+			throws AccountDaoInternalError
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		AccountDaoJournaled dao = new AccountDaoJournaled(new AccountDaoInMemory(), directory,
+														  JournalSyncPolicy.everyOperation());
+		String accountId1 = dao.open("Foo bar", BigDecimal.valueOf(10000, 2));
+		String accountId2 = dao.open(null, BigDecimal.ZERO);
+		String accountId3 = dao.open("Fizz buzz", new BigDecimal("12.345"));
+		dao.move(accountId1, accountId2, BigDecimal.valueOf(2500, 2));
+		dao.applyDelta(accountId2, BigDecimal.valueOf(-500, 2));
+		dao.setBalance(accountId3, new BigDecimal("0.001"));
+		dao.commit();
+		dao.close(accountId1);
+		dao.commit();
+		dao.sync();
+		
+		Set<AccountInfo> accountsBefore = dao.findAll();
+		dao.shutdown();
+		
+		dao = new AccountDaoJournaled(new AccountDaoInMemory(), directory, JournalSyncPolicy.everyOperation());
+		
+		assertEquals(accountsBefore, dao.findAll());
+		assertFalse(dao.doesItExist(accountId1));
+		assertEquals(BigDecimal.valueOf(2000, 2), dao.getBalance(accountId2));
+		assertEquals(new BigDecimal("0.001"), dao.getBalance(accountId3));
+		assertEquals("0000000004", dao.open("Next", BigDecimal.ONE));
+		
+		dao.shutdown();
+	}
+	
+	@Test
+	public void openBatchReplayTest()
+			throws AccountDaoInternalError
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		AccountDaoJournaled dao = new AccountDaoJournaled(new AccountDaoDense(), directory,
+														  JournalSyncPolicy.everyOperation());
+		dao.open("Foo bar", BigDecimal.TEN);
+		List<String> accountIds = dao.openBatch(Arrays.asList("Fizz", "Buzz", null),
+												Arrays.asList(BigDecimal.ONE, BigDecimal.ZERO, BigDecimal.TEN));
+		dao.sync();
+		
+		Set<AccountInfo> accountsBefore = dao.findAll();
+		dao.shutdown();
+		
+		dao = new AccountDaoJournaled(new AccountDaoDense(), directory, JournalSyncPolicy.everyOperation());
+		
+		assertEquals(Arrays.asList("0000000002", "0000000003", "0000000004"), accountIds);
+		assertEquals(accountsBefore, dao.findAll());
+		assertEquals("0000000005", dao.open("Next", BigDecimal.ONE));
+		
+		dao.shutdown();
+	}
+	
+	@Test
+	public void uncommittedChangesAreNotReplayedTest()
+			throws AccountDaoInternalError
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		AccountDaoJournaled dao = new AccountDaoJournaled(new AccountDaoInMemory(), directory,
+														  JournalSyncPolicy.everyOperation());
+		String accountId = dao.open("Foo bar", BigDecimal.TEN);
+		dao.applyDelta(accountId, BigDecimal.ONE);
+		dao.shutdown();
+		
+		dao = new AccountDaoJournaled(new AccountDaoInMemory(), directory, JournalSyncPolicy.everyOperation());
+		
+		assertEquals(BigDecimal.TEN, dao.getBalance(accountId));
+		
+		dao.shutdown();
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void replayIntoNonEmptyDaoTest()
+			throws AccountDaoInternalError
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		AccountDaoJournaled dao = new AccountDaoJournaled(new AccountDaoInMemory(), directory,
+														  JournalSyncPolicy.everyOperation());
+		dao.open("Foo bar", BigDecimal.TEN);
+		dao.shutdown();
+		
+		AccountDaoInMemory nonEmptyDao = new AccountDaoInMemory();
+		nonEmptyDao.open("Fizz buzz", BigDecimal.ONE);
+		
+		new AccountDaoJournaled(nonEmptyDao, directory, JournalSyncPolicy.everyOperation());
+	}
+	
+	/**
+	 * Many threads transferring between a few accounts of a bank locking per account, so the changes of different
+	 * threads get interleaved and share forces; the replayed accounts must be exactly what the bank ended up with.
+	 */
+	@Test
+	public void concurrentTransfersTest()
+			throws Exception
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		int accountCount = 8;
+		int threadCount = 16;
+		int transfersPerThread = 100;
+		
+		AccountDaoJournaled dao = new AccountDaoJournaled(new AccountDaoConcurrent(), directory,
+														  JournalSyncPolicy.everyOperation());
+		RockefellerBank bank = new RockefellerBank(dao, RockefellerBank.LockingMode.PER_ACCOUNT);
+		
+		List<BankAccount> accounts = new ArrayList<>();
+		for (int i = 0; i < accountCount; i++)
+		{
+			accounts.add(bank.accountOpen(new BankAccountDescription.Builder()
+												  .description("Account " + i)
+												  .initialBalance(BigDecimal.valueOf(1000))
+												  .build()));
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int thread = 0; thread < threadCount; thread++)
+		{
+			int offset = thread;
+			futures.add(executor.submit(() ->
+										{
+											for (int i = 0; i < transfersPerThread; i++)
+											{
+												try
+												{
+													bank.transferAmount(accounts.get((offset + i) % accountCount),
+																		accounts.get((offset + i + 1) % accountCount),
+																		BigDecimal.valueOf(offset + 1));
+												}
+												catch (BankAccountNotFound ex)
+												{
+													throw new IllegalStateException(ex);
+												}
+											}
+											
+											return null;
+										}));
+		}
+		
+		for (Future<?> future : futures)
+		{
+			future.get();
+		}
+		
+		executor.shutdown();
+		
+		Set<AccountInfo> accountsBefore = dao.findAll();
+		dao.shutdown();
+		
+		dao = new AccountDaoJournaled(new AccountDaoConcurrent(), directory, JournalSyncPolicy.everyOperation());
+		
+		assertEquals(accountsBefore, dao.findAll());
+		
+		dao.shutdown();
+	}
+	
+	@Test
+	public void transferBatchTest()
+			throws Exception
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		AccountDaoJournaled dao = new AccountDaoJournaled(new AccountDaoInMemory(), directory,
+														  JournalSyncPolicy.batch(100));
+		RockefellerBank bank = new RockefellerBank(dao);
+		
+		BankAccount account1 = bank.accountOpen(new BankAccountDescription.Builder()
+														.description("Foo")
+														.initialBalance(BigDecimal.valueOf(100))
+														.build());
+		BankAccount account2 = bank.accountOpen(new BankAccountDescription.Builder()
+														.description("Bar")
+														.initialBalance(BigDecimal.valueOf(100))
+														.build());
+		
+		List<OperationResult> results = bank.transferBatch(Arrays.asList(new BankTransfer(account1, account2,
+																						  BigDecimal.valueOf(30)),
+																		 new BankTransfer(account2, account1,
+																						  BigDecimal.valueOf(5))),
+														   TransferBatchMode.NETTED);
+		assertEquals(OperationResult.Status.SUCCESSFUL, results.get(0).getStatus());
+		
+		dao.shutdown();
+		
+		dao = new AccountDaoJournaled(new AccountDaoInMemory(), directory, JournalSyncPolicy.batch(100));
+		
+		assertEquals(0, BigDecimal.valueOf(75).compareTo(dao.getBalance(account1.getId())));
+		assertEquals(0, BigDecimal.valueOf(125).compareTo(dao.getBalance(account2.getId())));
+		
+		dao.shutdown();
+	}
+	
+	@Test
+	public void snapshotTest()
+			throws AccountDaoInternalError, IOException
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		AccountDaoJournaled dao = new AccountDaoJournaled(new AccountDaoInMemory(), directory,
+														  JournalSyncPolicy.everyOperation());
+		String accountId1 = dao.open("Foo bar", BigDecimal.valueOf(10000, 2));
+		String accountId2 = dao.open(null, BigDecimal.ZERO);
+		String accountId3 = dao.open("Fizz buzz", new BigDecimal("12.345"));
+		dao.move(accountId1, accountId2, BigDecimal.valueOf(2500, 2));
+		dao.commit();
+		
+		dao.snapshot(dao::findPage);
+		
+		dao.close(accountId3);
+		String accountId4 = dao.open("After snapshot", BigDecimal.ONE);
+		dao.applyDelta(accountId2, BigDecimal.TEN);
+		dao.commit();
+		
+		Set<AccountInfo> accountsBefore = dao.findAll();
+		dao.shutdown();
+		
+		assertEquals(Arrays.asList("journal-0000000002.log", "snapshot-0000000002.snap"), listFiles(directory));
+		
+		dao = new AccountDaoJournaled(new AccountDaoInMemory(), directory, JournalSyncPolicy.everyOperation(), 3);
+		
+		assertEquals(accountsBefore, dao.findAll());
+		assertFalse(dao.doesItExist(accountId3));
+		assertEquals("0000000004", accountId4);
+		assertEquals("0000000005", dao.open("Next", BigDecimal.ONE));
+		
+		dao.shutdown();
+	}
+	
+	@Test
+	public void snapshotOfSnapshotTest()
+			throws AccountDaoInternalError, IOException
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		AccountDaoJournaled dao = new AccountDaoJournaled(new AccountDaoDense(), directory,
+														  JournalSyncPolicy.batch(100));
+		for (int i = 0; i < 10000; i++)
+		{
+			dao.open("Account " + i, BigDecimal.valueOf(i, 2));
+		}
+		dao.snapshot(dao::findPage);
+		dao.shutdown();
+		
+		dao = new AccountDaoJournaled(new AccountDaoDense(), directory, JournalSyncPolicy.batch(100));
+		dao.setBalance("0000000001", BigDecimal.TEN);
+		dao.commit();
+		dao.snapshot(dao::findPage);
+		
+		Set<AccountInfo> accountsBefore = dao.findAll();
+		dao.shutdown();
+		
+		assertEquals(Arrays.asList("journal-0000000003.log", "snapshot-0000000003.snap"), listFiles(directory));
+		
+		dao = new AccountDaoJournaled(new AccountDaoDense(), directory, JournalSyncPolicy.batch(100));
+		
+		assertEquals(10000, accountsBefore.size());
+		assertEquals(accountsBefore, dao.findAll());
+		
+		dao.shutdown();
+	}
+	
+	@Test
+	public void snapshotWithoutChangesIsSkippedTest()
+			throws AccountDaoInternalError, IOException
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		AccountDaoJournaled dao = new AccountDaoJournaled(new AccountDaoInMemory(), directory,
+														  JournalSyncPolicy.everyOperation());
+		dao.open("Foo", BigDecimal.ONE);
+		dao.snapshot(dao::findPage);
+		dao.snapshot(dao::findPage);
+		dao.shutdown();
+		
+		dao = new AccountDaoJournaled(new AccountDaoInMemory(), directory, JournalSyncPolicy.everyOperation());
+		dao.snapshot(dao::findPage);
+		dao.shutdown();
+		
+		assertEquals(Arrays.asList("journal-0000000002.log", "snapshot-0000000002.snap"), listFiles(directory));
+	}
+	
+	/**
+	 * The last account opened is closed and not in the snapshot, yet its ID must not be handed out again.
+	 */
+	@Test
+	public void closedLastAccountIdIsNotReusedTest()
+			throws AccountDaoInternalError
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		AccountDaoJournaled dao = new AccountDaoJournaled(new AccountDaoInMemory(), directory,
+														  JournalSyncPolicy.everyOperation());
+		dao.open("Foo", BigDecimal.ONE);
+		String accountId = dao.open("Bar", BigDecimal.ONE);
+		dao.close(accountId);
+		dao.commit();
+		dao.snapshot(dao::findPage);
+		dao.shutdown();
+		
+		dao = new AccountDaoJournaled(new AccountDaoInMemory(), directory, JournalSyncPolicy.everyOperation());
+		
+		assertFalse(dao.doesItExist(accountId));
+		assertEquals(1, dao.findAll().size());
+		assertEquals("0000000003", dao.open("Fizz", BigDecimal.ONE));
+		
+		dao.shutdown();
+	}
+	
+	@Test(expected = AccountDaoInternalError.class)
+	public void damagedSnapshotTest()
+			throws AccountDaoInternalError, IOException
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		AccountDaoJournaled dao = new AccountDaoJournaled(new AccountDaoInMemory(), directory,
+														  JournalSyncPolicy.everyOperation());
+		for (int i = 0; i < 100; i++)
+		{
+			dao.open("Account " + i, BigDecimal.ONE);
+		}
+		dao.snapshot(dao::findPage);
+		dao.shutdown();
+		
+		Path snapshotFile = directory.resolve("snapshot-0000000002.snap");
+		byte[] data = Files.readAllBytes(snapshotFile);
+		data[data.length / 2] ^= 1;
+		Files.write(snapshotFile, data);
+		
+		new AccountDaoJournaled(new AccountDaoInMemory(), directory, JournalSyncPolicy.everyOperation());
+	}
+	
+	/**
+	 * Snapshots taken while many threads keep transferring, reading the accounts through the bank, the way the
+	 * application does; the snapshot and the rest of the journal must give exactly what the bank ended up with.
+	 */
+	@Test
+	public void snapshotWhileTransferringTest()
+			throws Exception
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		int accountCount = 10000;
+		int threadCount = 8;
+		int transfersPerThread = 2000;
+		
+		AccountDaoJournaled dao = new AccountDaoJournaled(new AccountDaoConcurrent(), directory,
+														  JournalSyncPolicy.interval(5));
+		RockefellerBank bank = new RockefellerBank(dao, RockefellerBank.LockingMode.PER_ACCOUNT);
+		
+		List<BankAccount> accounts = new ArrayList<>();
+		for (int i = 0; i < accountCount; i++)
+		{
+			accounts.add(bank.accountOpen(new BankAccountDescription.Builder()
+												  .description("Account " + i)
+												  .initialBalance(BigDecimal.valueOf(1000))
+												  .build()));
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int thread = 0; thread < threadCount; thread++)
+		{
+			int offset = thread;
+			futures.add(executor.submit(() ->
+										{
+											for (int i = 0; i < transfersPerThread; i++)
+											{
+												try
+												{
+													int source = (offset * 7919 + i * 104729) % accountCount;
+													bank.transferAmount(accounts.get(source),
+																		accounts.get((source + 1 + i) % accountCount),
+																		BigDecimal.valueOf(offset + 1));
+												}
+												catch (BankAccountNotFound ex)
+												{
+													throw new IllegalStateException(ex);
+												}
+											}
+											
+											return null;
+										}));
+		}
+		
+		for (int i = 0; i < 3; i++)
+		{
+			dao.snapshot((afterAccountId, limit) -> readPage(bank, afterAccountId, limit));
+		}
+		
+		for (Future<?> future : futures)
+		{
+			future.get();
+		}
+		
+		executor.shutdown();
+		
+		Set<AccountInfo> accountsBefore = dao.findAll();
+		dao.shutdown();
+		
+		dao = new AccountDaoJournaled(new AccountDaoConcurrent(), directory, JournalSyncPolicy.interval(5), 4);
+		
+		assertEquals(accountsBefore, dao.findAll());
+		
+		dao.shutdown();
+	}
+	
+	private static List<AccountInfo> readPage(RockefellerBank bank, String afterAccountId, int limit)
+			throws AccountDaoInternalError
+	{
+		try
+		{
+			return bank.accountsGetInfoPage(afterAccountId, limit)
+					   .entrySet()
+					   .stream()
+					   .map(entry -> new AccountInfo(entry.getKey().getId(), entry.getValue().getDescription(),
+													 entry.getValue().getBalance()))
+					   .collect(Collectors.toList());
+		}
+		catch (BankInternalError ex)
+		{
+			throw new AccountDaoInternalError(ex);
+		}
+	}
+	
+	private static List<String> listFiles(Path directory)
+			throws IOException
+	{
+		try (Stream<Path> files = Files.list(directory))
+		{
+			return files.map(file -> file.getFileName().toString())
+						.sorted()
+						.collect(Collectors.toList());
+		}
+	}
+}
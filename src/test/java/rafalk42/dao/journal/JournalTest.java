@@ -0,0 +1,405 @@
+package rafalk42.dao.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import rafalk42.dao.AccountDaoInternalError;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+
+public class JournalTest
+{
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	
+	@Test
+	public void appendAndReplayTest()
+			throws Exception
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		Journal journal = new Journal(directory, JournalSyncPolicy.everyOperation(), entry -> fail());
+		journal.append(bytes("foo"));
+		journal.append(bytes(""));
+		journal.awaitDurable(journal.append(bytes("bar")));
+		journal.shutdown();
+		
+		assertEquals(Arrays.asList("foo", "", "bar"), replay(directory, Journal.DEFAULT_SEGMENT_SIZE));
+	}
+	
+	@Test
+	public void appendAfterReplayTest()
+			throws Exception
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		Journal journal = new Journal(directory, JournalSyncPolicy.everyOperation(), entry -> fail());
+		journal.append(bytes("foo"));
+		journal.shutdown();
+		
+		journal = new Journal(directory, JournalSyncPolicy.everyOperation(), entry -> {});
+		journal.append(bytes("bar"));
+		journal.shutdown();
+		
+		assertEquals(Arrays.asList("foo", "bar"), replay(directory, Journal.DEFAULT_SEGMENT_SIZE));
+	}
+	
+	@Test
+	public void segmentsTest()
+			throws Exception
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		List<String> expected = new ArrayList<>();
+		
+		Journal journal = new Journal(directory, JournalSyncPolicy.everyOperation(), 64, entry -> fail());
+		for (int i = 0; i < 50; i++)
+		{
+			expected.add("entry " + i);
+			journal.awaitDurable(journal.append(bytes("entry " + i)));
+		}
+		journal.shutdown();
+		
+		assertTrue(listSegments(directory).size() > 10);
+		assertEquals(expected, replay(directory, 64));
+	}
+	
+	@Test
+	public void tornTailIsCutTest()
+			throws Exception
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		Journal journal = new Journal(directory, JournalSyncPolicy.everyOperation(), entry -> fail());
+		journal.append(bytes("foo"));
+		journal.append(bytes("bar"));
+		journal.shutdown();
+		
+		// Length and checksum of an entry that never made it to the disk whole.
+		Files.write(lastSegment(directory), new byte[]{0, 0, 0, 42, 1, 2, 3, 4, 'b', 'a'}, StandardOpenOption.APPEND);
+		
+		journal = new Journal(directory, JournalSyncPolicy.everyOperation(), entry -> {});
+		journal.append(bytes("baz"));
+		journal.shutdown();
+		
+		assertEquals(Arrays.asList("foo", "bar", "baz"), replay(directory, Journal.DEFAULT_SEGMENT_SIZE));
+	}
+	
+	@Test
+	public void badChecksumAtTailIsCutTest()
+			throws Exception
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		Journal journal = new Journal(directory, JournalSyncPolicy.everyOperation(), entry -> fail());
+		journal.append(bytes("foo"));
+		journal.append(bytes("bar"));
+		journal.shutdown();
+		
+		flipLastByte(lastSegment(directory));
+		
+		assertEquals(Arrays.asList("foo"), replay(directory, Journal.DEFAULT_SEGMENT_SIZE));
+	}
+	
+	@Test(expected = AccountDaoInternalError.class)
+	public void damagedSegmentTest()
+			throws Exception
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		Journal journal = new Journal(directory, JournalSyncPolicy.everyOperation(), 16, entry -> fail());
+		for (int i = 0; i < 5; i++)
+		{
+			journal.awaitDurable(journal.append(bytes("entry " + i)));
+		}
+		journal.shutdown();
+		
+		flipLastByte(listSegments(directory).get(0));
+		
+		replay(directory, 16);
+	}
+	
+	@Test
+	public void groupCommitTest()
+			throws Exception
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		int threadCount = 16;
+		int entriesPerThread = 200;
+		
+		Journal journal = new Journal(directory, JournalSyncPolicy.everyOperation(), entry -> fail());
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		List<Future<?>> futures = new ArrayList<>();
+		
+		for (int thread = 0; thread < threadCount; thread++)
+		{
+			futures.add(executor.submit(() ->
+										{
+											for (int i = 0; i < entriesPerThread; i++)
+											{
+												journal.awaitDurable(journal.append(bytes("entry")));
+											}
+											
+											return null;
+										}));
+		}
+		
+		for (Future<?> future : futures)
+		{
+			future.get();
+		}
+		
+		executor.shutdown();
+		journal.shutdown();
+		
+		assertEquals(threadCount * entriesPerThread, replay(directory, Journal.DEFAULT_SEGMENT_SIZE).size());
+	}
+	
+	@Test
+	public void intervalAndBatchPoliciesTest()
+			throws Exception
+	{
+		for (JournalSyncPolicy syncPolicy : Arrays.asList(JournalSyncPolicy.interval(10),
+														  JournalSyncPolicy.batch(1000)))
+		{
+			Path directory = temporaryFolder.newFolder().toPath();
+			
+			Journal journal = new Journal(directory, syncPolicy, entry -> fail());
+			for (int i = 0; i < 100; i++)
+			{
+				journal.awaitDurable(journal.append(bytes("entry")));
+			}
+			journal.shutdown();
+			
+			assertEquals(100, replay(directory, Journal.DEFAULT_SEGMENT_SIZE).size());
+		}
+	}
+	
+	/**
+	 * With the policies that don't force every entry, an acknowledged entry has to be in the file at least, so that
+	 * killing the process does not lose it. Here the writer dies before writing the entry (the next segment cannot be
+	 * created), which must not be acknowledged.
+	 */
+	@Test
+	public void writerDiesBeforeWriteTest()
+			throws Exception
+	{
+		for (JournalSyncPolicy syncPolicy : Arrays.asList(JournalSyncPolicy.interval(3600000),
+														  JournalSyncPolicy.batch(1000)))
+		{
+			Path directory = temporaryFolder.newFolder().toPath();
+			
+			Journal journal = new Journal(directory, syncPolicy, 1, entry -> fail());
+			journal.awaitDurable(journal.append(bytes("foo")));
+			
+			// Not shut down, so this is what the process leaves behind when killed.
+			assertEquals(Arrays.asList("foo"), readSegment(lastSegment(directory)));
+			
+			Files.createDirectory(directory.resolve("journal-0000000002.log"));
+			long sequence = journal.append(bytes("bar"));
+			try
+			{
+				journal.awaitDurable(sequence);
+				fail(syncPolicy.getMode().toString());
+			}
+			catch (AccountDaoInternalError ex)
+			{
+				// Expected.
+			}
+		}
+	}
+	
+	@Test
+	public void startNewSegmentTest()
+			throws Exception
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		Journal journal = new Journal(directory, JournalSyncPolicy.batch(1000), entry -> fail());
+		journal.append(bytes("foo"));
+		journal.append(bytes("bar"));
+		long segmentNumber = journal.startNewSegment();
+		journal.append(bytes("baz"));
+		journal.shutdown();
+		
+		assertEquals(2, segmentNumber);
+		assertEquals(Arrays.asList("foo", "bar", "baz"), replay(directory, Journal.DEFAULT_SEGMENT_SIZE, 1));
+		assertEquals(Arrays.asList("baz"), replay(directory, Journal.DEFAULT_SEGMENT_SIZE, segmentNumber));
+	}
+	
+	@Test
+	public void deleteSegmentsBeforeTest()
+			throws Exception
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		Journal journal = new Journal(directory, JournalSyncPolicy.everyOperation(), 16, entry -> fail());
+		for (int i = 0; i < 5; i++)
+		{
+			journal.awaitDurable(journal.append(bytes("entry " + i)));
+		}
+		
+		long segmentNumber = journal.startNewSegment();
+		journal.awaitDurable(journal.append(bytes("entry 5")));
+		journal.deleteSegmentsBefore(segmentNumber);
+		journal.shutdown();
+		
+		assertEquals(1, listSegments(directory).size());
+		assertEquals(Arrays.asList("entry 5"), replay(directory, 16, segmentNumber));
+	}
+	
+	@Test(expected = AccountDaoInternalError.class)
+	public void missingSegmentTest()
+			throws Exception
+	{
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		Journal journal = new Journal(directory, JournalSyncPolicy.everyOperation(), 16, entry -> fail());
+		for (int i = 0; i < 5; i++)
+		{
+			journal.awaitDurable(journal.append(bytes("entry " + i)));
+		}
+		journal.shutdown();
+		
+		Files.delete(listSegments(directory).get(1));
+		
+		replay(directory, 16);
+	}
+	
+	/**
+	 * Neither of the policies would force the journal on its own any time soon.
+	 */
+	@Test(timeout = 10000)
+	public void forceTest()
+			throws Exception
+	{
+		for (JournalSyncPolicy syncPolicy : Arrays.asList(JournalSyncPolicy.interval(1000000),
+														  JournalSyncPolicy.batch(1000000)))
+		{
+			Path directory = temporaryFolder.newFolder().toPath();
+			
+			Journal journal = new Journal(directory, syncPolicy, entry -> fail());
+			journal.append(bytes("foo"));
+			journal.force();
+			journal.force();
+			journal.shutdown();
+			
+			assertEquals(Arrays.asList("foo"), replay(directory, Journal.DEFAULT_SEGMENT_SIZE));
+		}
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void appendAfterShutdownTest()
+			throws Exception
+	{
+		Journal journal = new Journal(temporaryFolder.getRoot().toPath(), JournalSyncPolicy.everyOperation(),
+									  entry -> fail());
+		journal.shutdown();
+		
+		journal.append(bytes("foo"));
+	}
+	
+	@Test
+	public void parseSyncPolicyTest()
+	{
+		assertEquals(JournalSyncPolicy.Mode.EVERY_OPERATION, JournalSyncPolicy.parse("every").getMode());
+		assertEquals(250, JournalSyncPolicy.parse("interval:250").getValue());
+		assertEquals(JournalSyncPolicy.Mode.BATCH, JournalSyncPolicy.parse("batch:64").getMode());
+		
+		for (String invalid : Arrays.asList("", "sometimes", "interval:", "batch:0", "batch:x"))
+		{
+			try
+			{
+				JournalSyncPolicy.parse(invalid);
+				fail(invalid);
+			}
+			catch (IllegalArgumentException ex)
+			{
+				// Expected.
+			}
+		}
+	}
+	
+	private static byte[] bytes(String text)
+	{
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+	
+	private static List<String> replay(Path directory, long segmentSize)
+			throws AccountDaoInternalError
+	{
+		return replay(directory, segmentSize, 1);
+	}
+	
+	private static List<String> replay(Path directory, long segmentSize, long firstSegment)
+			throws AccountDaoInternalError
+	{
+		List<String> entries = new ArrayList<>();
+		
+		Journal journal = new Journal(directory, JournalSyncPolicy.everyOperation(), segmentSize, firstSegment,
+									  entry -> entries.add(StandardCharsets.UTF_8.decode(entry).toString()));
+		journal.shutdown();
+		
+		return entries;
+	}
+	
+	/**
+	 * Read the entries of a segment without opening the journal (which would cut it).
+	 */
+	private static List<String> readSegment(Path segment)
+			throws IOException
+	{
+		byte[] data = Files.readAllBytes(segment);
+		List<String> entries = new ArrayList<>();
+		
+		for (int position = 0; position < data.length; )
+		{
+			int length = ByteBuffer.wrap(data, position, 4).getInt();
+			entries.add(new String(data, position + 8, length, StandardCharsets.UTF_8));
+			position += 8 + length;
+		}
+		
+		return entries;
+	}
+	
+	private static List<Path> listSegments(Path directory)
+			throws IOException
+	{
+		try (Stream<Path> files = Files.list(directory))
+		{
+			return files.sorted()
+						.collect(Collectors.toList());
+		}
+	}
+	
+	private static Path lastSegment(Path directory)
+			throws IOException
+	{
+		List<Path> segments = listSegments(directory);
+		
+		return segments.get(segments.size() - 1);
+	}
+	
+	private static void flipLastByte(Path file)
+			throws IOException
+	{
+		byte[] data = Files.readAllBytes(file);
+		data[data.length - 1] ^= 1;
+		Files.write(file, data);
+	}
+}
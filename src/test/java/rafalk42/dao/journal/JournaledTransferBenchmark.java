@@ -0,0 +1,102 @@
+package rafalk42.dao.journal;
+
+import org.openjdk.jmh.annotations.*;
+import rafalk42.bank.domain.BankAccount;
+import rafalk42.bank.domain.BankAccountDescription;
+import rafalk42.bank.domain.BankAccountNotFound;
+import rafalk42.bank.domain.BankInternalError;
+import rafalk42.bank.domain.OperationResult;
+import rafalk42.bank.rockefeller.RockefellerBank;
+import rafalk42.dao.AccountDao;
+import rafalk42.dao.AccountDaoConcurrent;
+import rafalk42.dao.AccountDaoInternalError;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+
+/**
+ * Transfers per second between random accounts of a bank locking per account, with 32 threads transferring
+ * at the same time, without a journal and with a journal under each of the sync policies. With "every" each
+ * transfer waits for a force of the journal, so the number of transfers per second is roughly the number of forces
+ * the disk can do per second times the number of transfers sharing one force.
+ * <p>
+ * Run with: mvn -P benchmark test-compile exec:exec -Dbenchmark=JournaledTransferBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(32)
+@State(Scope.Benchmark)
+public class JournaledTransferBenchmark
+{
+	private static final int ACCOUNT_COUNT = 10000;
+	
+	@Param({"none", "every", "interval:10", "batch:1000"})
+	private String syncPolicy;
+	
+	private AccountDaoJournaled accountDaoJournaled;
+	private Path directory;
+	private RockefellerBank bank;
+	private BankAccount[] accounts;
+	
+	@Setup
+	public void setUp()
+			throws AccountDaoInternalError, BankInternalError, IOException
+	{
+		AccountDao accountDao = new AccountDaoConcurrent();
+		
+		if (!syncPolicy.equals("none"))
+		{
+			directory = Files.createTempDirectory("journaled-transfer-benchmark");
+			accountDaoJournaled = new AccountDaoJournaled(accountDao, directory, JournalSyncPolicy.parse(syncPolicy));
+			accountDao = accountDaoJournaled;
+		}
+		
+		bank = new RockefellerBank(accountDao, RockefellerBank.LockingMode.PER_ACCOUNT);
+		
+		accounts = new BankAccount[ACCOUNT_COUNT];
+		for (int i = 0; i < ACCOUNT_COUNT; i++)
+		{
+			accounts[i] = bank.accountOpen(new BankAccountDescription.Builder()
+												   .description("Account " + i)
+												   .initialBalance(BigDecimal.valueOf(1000000))
+												   .build());
+		}
+	}
+	
+	@TearDown
+	public void tearDown()
+			throws AccountDaoInternalError, IOException
+	{
+		if (accountDaoJournaled != null)
+		{
+			accountDaoJournaled.shutdown();
+			
+			try (Stream<Path> paths = Files.walk(directory))
+			{
+				paths.sorted(Comparator.reverseOrder())
+					 .forEach(path -> path.toFile().delete());
+			}
+		}
+	}
+	
+	@Benchmark
+	public OperationResult transfer()
+			throws BankInternalError, BankAccountNotFound
+	{
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int source = random.nextInt(ACCOUNT_COUNT);
+		int destination = (source + 1 + random.nextInt(ACCOUNT_COUNT - 1)) % ACCOUNT_COUNT;
+		
+		return bank.transferAmount(accounts[source], accounts[destination], BigDecimal.ONE);
+	}
+}
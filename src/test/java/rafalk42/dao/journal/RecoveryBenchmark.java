@@ -0,0 +1,111 @@
+package rafalk42.dao.journal;
+
+import org.openjdk.jmh.annotations.*;
+import rafalk42.dao.AccountDao;
+import rafalk42.dao.AccountDaoConcurrent;
+import rafalk42.dao.AccountDaoDense;
+import rafalk42.dao.AccountDaoInternalError;
+import rafalk42.dao.AccountInfo;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+
+/**
+ * Time to recover the accounts on startup: load a snapshot of 1M or 10M accounts into an empty DAO and replay
+ * a journal tail of 100k balance changes on top of it, with one loader thread and with four. The snapshot is written
+ * directly, opening millions of accounts through the journal first would only make the setup slow.
+ * <p>
+ * Run with: mvn -P benchmark test-compile exec:exec -Dbenchmark=RecoveryBenchmark
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+@State(Scope.Benchmark)
+public class RecoveryBenchmark
+{
+	private static final int TAIL_ENTRY_COUNT = 100000;
+	private static final int PAGE_SIZE = 4096;
+	
+	@Param({"1000000", "10000000"})
+	private int accountCount;
+	
+	@Param({"dense", "concurrent"})
+	private String accountDao;
+	
+	@Param({"1", "4"})
+	private int loaderThreadCount;
+	
+	private Path directory;
+	
+	@Setup
+	public void setUp()
+			throws AccountDaoInternalError, IOException
+	{
+		directory = Files.createTempDirectory("recovery-benchmark");
+		
+		try (AccountSnapshot.Writer writer = new AccountSnapshot.Writer(directory, 1))
+		{
+			List<AccountInfo> page = new ArrayList<>();
+			for (int number = 1; number <= accountCount; number++)
+			{
+				page.add(new AccountInfo(String.format("%010d", number), "Account " + number,
+										 BigDecimal.valueOf(number % 1000000, 2)));
+				
+				if (page.size() == PAGE_SIZE)
+				{
+					writer.addChunk(page);
+					page.clear();
+				}
+			}
+			
+			writer.addChunk(page);
+			writer.finish(String.format("%010d", accountCount));
+		}
+		
+		Journal journal = new Journal(directory, JournalSyncPolicy.batch(1000), entry -> {});
+		for (int i = 0; i < TAIL_ENTRY_COUNT; i++)
+		{
+			AccountChanges changes = new AccountChanges();
+			changes.addBalance(String.format("%010d", 1 + (i * 7919L) % accountCount), BigDecimal.valueOf(i, 2));
+			journal.append(changes.toByteArray());
+		}
+		journal.shutdown();
+	}
+	
+	@TearDown
+	public void tearDown()
+			throws IOException
+	{
+		try (Stream<Path> paths = Files.walk(directory))
+		{
+			paths.sorted(Comparator.reverseOrder())
+				 .forEach(path -> path.toFile().delete());
+		}
+	}
+	
+	@Benchmark
+	public AccountDao recover()
+			throws AccountDaoInternalError
+	{
+		AccountDao emptyAccountDao = accountDao.equals("dense")
+				? new AccountDaoDense()
+				: new AccountDaoConcurrent();
+		
+		AccountDaoJournaled accountDaoJournaled = new AccountDaoJournaled(emptyAccountDao, directory,
+																		  JournalSyncPolicy.batch(1000),
+																		  loaderThreadCount);
+		accountDaoJournaled.shutdown();
+		
+		return accountDaoJournaled;
+	}
+}
@@ -0,0 +1,65 @@
+package rafalk42.money;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Time to parse and to format an amount, through minor units (MinorUnits.parse and format) and through BigDecimal,
+ * the way the JSON layer did it before (new BigDecimal, then setScale and toPlainString). Worth running with
+ * -prof gc, parsing and formatting minor units should allocate nothing at all.
+ * <p>
+ * Run with: mvn -P benchmark test-compile exec:exec -Dbenchmark=MinorUnitsBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MinorUnitsBenchmark
+{
+	@Param({"12.50", "1234567.89"})
+	private String text;
+	
+	private long minorUnits;
+	private BigDecimal amount;
+	private char[] buffer;
+	
+	@Setup
+	public void setUp()
+	{
+		minorUnits = MinorUnits.parse(text);
+		amount = new BigDecimal(text);
+		buffer = new char[MinorUnits.MAXIMUM_FORMATTED_LENGTH];
+	}
+	
+	@Benchmark
+	public long parseMinorUnits()
+	{
+		return MinorUnits.parse(text);
+	}
+	
+	@Benchmark
+	public BigDecimal parseBigDecimal()
+	{
+		return new BigDecimal(text).setScale(MinorUnits.SCALE, RoundingMode.HALF_UP);
+	}
+	
+	@Benchmark
+	public char[] formatMinorUnits()
+	{
+		MinorUnits.format(minorUnits, buffer, 0);
+		
+		return buffer;
+	}
+	
+	@Benchmark
+	public String formatBigDecimal()
+	{
+		return amount.setScale(MinorUnits.SCALE, RoundingMode.HALF_UP).toPlainString();
+	}
+}
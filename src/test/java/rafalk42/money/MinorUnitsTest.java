@@ -0,0 +1,150 @@
+package rafalk42.money;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+
+public class MinorUnitsTest
+{
+	/**
+	 * Parsing has to give what rounding the BigDecimal of the same text gives.
+	 */
+	@Test
+	public void parseTest()
+	{
+		String[] texts = {"0", "12.5", "12.50", "-12.5", "+7", "1.", ".5", "-.5", "0.004", "0.005", "-0.005",
+						  "1.994999", "1.995", "000123.4500", "1e3", "1E+3", "1.234E+2", "-1.235e-1", "12345e-5",
+						  "0e-5", "5e-3", "4e-3", "0.0000000000000000000000001", "92233720368547758.07",
+						  "-92233720368547758.07", "9223372036854775807e-2"};
+		for (String text : texts)
+		{
+			assertEquals(text, getExpectedMinorUnits(text), MinorUnits.parse(text));
+		}
+		
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++)
+		{
+			BigDecimal amount = BigDecimal.valueOf(random.nextLong() >> random.nextInt(64), random.nextInt(12) - 2);
+			if (!MinorUnits.fits(amount))
+			{
+				continue;
+			}
+			
+			assertEquals(amount.toString(), getExpectedMinorUnits(amount.toString()), MinorUnits.parse(amount.toString()));
+			assertEquals(amount.toPlainString(), getExpectedMinorUnits(amount.toPlainString()),
+						 MinorUnits.parse(amount.toPlainString()));
+		}
+	}
+	
+	@Test
+	public void parseExactTest()
+	{
+		assertEquals(1250, MinorUnits.parseExact("12.5"));
+		assertEquals(100, MinorUnits.parseExact("1.000000"));
+		assertEquals(-1, MinorUnits.parseExact("-1e-2"));
+		
+		String[] inexactTexts = {"1.005", "0.001", "1.0000001", "1e-3"};
+		for (String text : inexactTexts)
+		{
+			try
+			{
+				MinorUnits.parseExact(text);
+				fail(text);
+			}
+			catch (ArithmeticException ex)
+			{
+				// Expected.
+			}
+		}
+	}
+	
+	@Test
+	public void parseInvalidTest()
+	{
+		String[] overflowingTexts = {"92233720368547758.08", "-92233720368547758.09", "1e20", "99999999999999999999999"};
+		for (String text : overflowingTexts)
+		{
+			try
+			{
+				MinorUnits.parse(text);
+				fail(text);
+			}
+			catch (ArithmeticException ex)
+			{
+				// Expected.
+			}
+		}
+		
+		String[] invalidTexts = {"", "-", "+", ".", "-.", "e5", "1e", "1e+", "1.2.3", "1,5", "abc", " 1", "1 ", "1e5x",
+								 "--1", "1e99999999999"};
+		for (String text : invalidTexts)
+		{
+			try
+			{
+				MinorUnits.parse(text);
+				fail(text);
+			}
+			catch (NumberFormatException ex)
+			{
+				// Expected, the same as from BigDecimal.
+				try
+				{
+					new BigDecimal(text);
+					fail(text);
+				}
+				catch (NumberFormatException bigDecimalEx)
+				{
+					// Expected.
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void formatTest()
+	{
+		long[] values = {0, 1, -1, 5, -5, 10, 99, 100, -100, 12345, Long.MAX_VALUE, Long.MIN_VALUE};
+		for (long value : values)
+		{
+			assertFormatted(value);
+		}
+		
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++)
+		{
+			assertFormatted(random.nextLong() >> random.nextInt(64));
+		}
+	}
+	
+	@Test
+	public void formatOffsetTest()
+	{
+		char[] buffer = "[".concat(new String(new char[MinorUnits.MAXIMUM_FORMATTED_LENGTH + 1])).toCharArray();
+		int end = MinorUnits.format(-1250, buffer, 1);
+		buffer[end] = ']';
+		
+		assertEquals("[-12.50]", new String(buffer, 0, end + 1));
+	}
+	
+	private static long getExpectedMinorUnits(String text)
+	{
+		return new BigDecimal(text).setScale(MinorUnits.SCALE, RoundingMode.HALF_UP)
+								   .movePointRight(MinorUnits.SCALE)
+								   .longValueExact();
+	}
+	
+	private static void assertFormatted(long value)
+	{
+		char[] buffer = new char[MinorUnits.MAXIMUM_FORMATTED_LENGTH];
+		String expected = BigDecimal.valueOf(value, MinorUnits.SCALE).toPlainString();
+		
+		assertEquals(expected, new String(buffer, 0, MinorUnits.format(value, buffer, 0)));
+		assertEquals(expected, MinorUnits.toString(value));
+	}
+}